@@ -27,10 +27,19 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -72,7 +81,7 @@ import org.apache.pig.data.Tuple;
  * <li><b>table.output.tfile.minBlock.size</b> (int) Minimum compression block
  * size for underlying TFile (default to 1024*1024).
  * <li><b>table.output.tfile.compression</b> (String) Compression method (one of
- * "none", "lzo", "gz") (default is "gz"). @see
+ * "none", "lzo", "gz", "lz4") (default is "gz"). @see
  * {@link TFile#getSupportedCompressionAlgorithms()}
  * <li><b>table.input.split.minSize</b> (int) Minimum split size (default to
  * 64*1024).
@@ -235,6 +244,7 @@ public class BasicTable {
     Partition partition;
     ColumnGroup.Reader[] colGroups;
     Tuple[] cgTuples;
+    private int prefetchThreads;
 
     private synchronized void checkInferredMapping() throws ParseException, IOException {
       if (!inferredMapping) {
@@ -292,6 +302,7 @@ public class BasicTable {
         this.path = path;
         schemaFile = new SchemaFile(path, deletedCGs, conf);
         metaReader = MetaFile.createReader(new Path(path, BT_META_FILE), conf);
+        prefetchThreads = ColumnGroup.getPrefetchThreads(conf);
         // create column group readers
         int numCGs = schemaFile.getNumOfPhysicalSchemas();
         Schema schema;
@@ -707,6 +718,133 @@ public class BasicTable {
     }
 
 
+    /**
+     * Get the statistics of columns over the rows of a row split. The
+     * statistics are of the TFile blocks that contain the rows of the split,
+     * for each of the files the split is of.
+     * 
+     * @param split
+     *          The row split.
+     * @param columns
+     *          The names of the columns.
+     * @return For each file of the split that has rows in it, the statistics of
+     *         the columns which have them; or null if the rows of the split
+     *         cannot be known.
+     * @throws IOException
+     */
+    public List<Map<String, ColumnStats>> getStats(RowSplit split,
+        Collection<String> columns) throws IOException {
+      CGRowSplit src = split.getCGRowSplit();
+      if (src.names == null || src.length == 0 || isCGDeleted(split.getCGIndex())) {
+        return null;
+      }
+      CGRowSplit rows = new CGRowSplit();
+      colGroups[split.getCGIndex()].fillRowSplit(rows, src);
+
+      // the column group of every column
+      Map<String, Integer> cgs = new HashMap<String, Integer>();
+      for (String column : columns) {
+        for (int i = 0; i < colGroups.length; i++) {
+          if (!isCGDeleted(i) && schemaFile.getPhysicalSchema(i).getColumn(column) != null) {
+            cgs.put(column, i);
+            break;
+          }
+        }
+      }
+
+      List<Map<String, ColumnStats>> ret = new ArrayList<Map<String, ColumnStats>>();
+      for (int j = 0; j < rows.length; j++) {
+        long beginRow = 0, endRow = -1;
+        if (j == 0 && rows.startByteFirst != -1) {
+          beginRow = rows.startRowFirst;
+          endRow = rows.startRowFirst + rows.numRowsFirst;
+        } else if (j == rows.length - 1 && rows.numBytesLast != -1) {
+          endRow = rows.numRowsLast;
+        }
+        if (endRow >= 0 && endRow <= beginRow) {
+          // none of the rows of the file are in the split
+          continue;
+        }
+        Map<String, ColumnStats> fileStats = new HashMap<String, ColumnStats>();
+        Map<Integer, ColumnGroup.CGStats> cgStats = new HashMap<Integer, ColumnGroup.CGStats>();
+        for (Map.Entry<String, Integer> e : cgs.entrySet()) {
+          Integer cg = e.getValue();
+          if (!cgStats.containsKey(cg)) {
+            cgStats.put(cg, colGroups[cg].getStats(rows.names[j]));
+          }
+          ColumnGroup.CGStats stats = cgStats.get(cg);
+          ColumnStats cs = stats == null ? null : stats.getStats(e.getKey(), beginRow, endRow);
+          if (cs != null) {
+            fileStats.put(e.getKey(), cs);
+          }
+        }
+        ret.add(fileStats);
+      }
+      return ret;
+    }
+
+    /**
+     * Get the sketches of the values of columns over all the rows of the table:
+     * the sketches of all the files of their column groups, merged.
+     * 
+     * @param columns
+     *          The names of the columns.
+     * @return The sketches of the columns which have them in all the files of
+     *         their column group.
+     * @throws IOException
+     */
+    public Map<String, ColumnSketch> getSketches(Collection<String> columns)
+        throws IOException {
+      Map<String, ColumnSketch> ret = new HashMap<String, ColumnSketch>();
+      Map<Integer, List<ColumnGroup.CGSketches>> cgSketches =
+          new HashMap<Integer, List<ColumnGroup.CGSketches>>();
+      for (String column : columns) {
+        int cg = -1;
+        for (int i = 0; i < colGroups.length; i++) {
+          if (!isCGDeleted(i) && schemaFile.getPhysicalSchema(i).getColumn(column) != null) {
+            cg = i;
+            break;
+          }
+        }
+        if (cg < 0) {
+          continue;
+        }
+        if (!cgSketches.containsKey(cg)) {
+          List<ColumnGroup.CGSketches> files = new ArrayList<ColumnGroup.CGSketches>();
+          for (String name : colGroups[cg].getFileNames()) {
+            ColumnGroup.CGSketches sketches = colGroups[cg].getSketches(name);
+            if (sketches == null) {
+              // the sketches would be of some of the rows only
+              files = null;
+              break;
+            }
+            files.add(sketches);
+          }
+          cgSketches.put(cg, files);
+        }
+        List<ColumnGroup.CGSketches> files = cgSketches.get(cg);
+        if (files == null) {
+          continue;
+        }
+        ColumnSketch merged = null;
+        for (ColumnGroup.CGSketches sketches : files) {
+          ColumnSketch sketch = sketches.getSketch(column);
+          if (sketch == null) {
+            merged = null;
+            break;
+          }
+          if (merged == null) {
+            merged = new ColumnSketch(sketch.getType());
+          }
+          merged.merge(sketch);
+        }
+        if (merged != null) {
+          ret.put(column, merged);
+        }
+      }
+      return ret;
+    }
+
     /**
      * Close the BasicTable for reading. Resources are released.
      */
@@ -909,6 +1047,10 @@ public class BasicTable {
       private boolean sClosed = false;
       private boolean closeReader;
       private Partition partition;
+      // the rows of each needed column group read by getValues()
+      private Tuple[][] cgBatches;
+      // the threads reading the rows of the other column groups
+      private ExecutorService prefetcher;
 
       private synchronized boolean checkIntegrity() {
         return ((++opCount % VERIFY_FREQ) == 0) && (cgScanners.length > 1);
@@ -1150,6 +1292,136 @@ public class BasicTable {
         }
       }
 
+      @Override
+      public int getValues(Tuple[] rows) throws IOException {
+        for (Tuple row : rows) {
+          if (row.size() < projection.getSchema().getNumColumns()) {
+            throw new IOException("Mismatched tuple object");
+          }
+        }
+        if (cgBatches == null) {
+          int numCGs = 0;
+          for (int i = 0; i < cgScanners.length; ++i) {
+            if (cgScanners[i] != null) {
+              ++numCGs;
+            }
+          }
+          int threads = Math.min(prefetchThreads, numCGs - 1);
+          if (threads > 0) {
+            prefetcher = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+              public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Zebra column group prefetch");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+          }
+        }
+        if (cgBatches == null || cgBatches[0].length != rows.length) {
+          cgBatches = new Tuple[cgScanners.length][rows.length];
+          for (int i = 0; i < cgScanners.length; ++i) {
+            if (cgScanners[i] != null && partition.isCGNeeded(i)) {
+              if (cgTuples[i] == null)
+                throw new AssertionError("cgTuples["+i+"] is null");
+              for (int j = 0; j < rows.length; ++j) {
+                cgBatches[i][j] = TypesUtils.createTuple(cgTuples[i].size());
+              }
+            }
+          }
+        }
+
+        // read the rows of the column groups, those of all but the first one
+        // on the prefetch threads if there are any
+        List<Future<Integer>> prefetched = new ArrayList<Future<Integer>>();
+        int first = -1;
+        for (int i = 0; i < cgScanners.length; ++i) {
+          if (cgScanners[i] == null) {
+            continue;
+          }
+          if (first < 0) {
+            first = i;
+          } else if (prefetcher != null) {
+            final int cg = i;
+            final int length = rows.length;
+            prefetched.add(prefetcher.submit(new Callable<Integer>() {
+              public Integer call() throws IOException {
+                return readCG(cg, length);
+              }
+            }));
+          }
+        }
+        if (first < 0) {
+          return 0;
+        }
+        int count;
+        try {
+          count = readCG(first, rows.length);
+          for (int i = first + 1; prefetcher == null && i < cgScanners.length; ++i) {
+            if (cgScanners[i] != null && readCG(i, rows.length) != count) {
+              throw new IOException(
+                  "getValues() failed: Column Groups are not evenly positioned.");
+            }
+          }
+        }
+        finally {
+          // none of the reads may still go on when this returns
+          for (Future<Integer> f : prefetched) {
+            try {
+              f.get();
+            }
+            catch (Exception e) {
+              // reported below, unless this thread failed as well
+            }
+          }
+        }
+        for (Future<Integer> f : prefetched) {
+          int n;
+          try {
+            n = f.get();
+          }
+          catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+              throw (IOException) e.getCause();
+            }
+            throw new IOException("getValues() failed: " + e.getCause(), e.getCause());
+          }
+          catch (InterruptedException e) {
+            throw new IOException("getValues() interrupted");
+          }
+          if (n != count) {
+            throw new IOException(
+                "getValues() failed: Column Groups are not evenly positioned.");
+          }
+        }
+
+        try {
+          for (int j = 0; j < count; ++j) {
+            for (int i = 0; i < cgScanners.length; ++i) {
+              if (cgScanners[i] != null && partition.isCGNeeded(i)) {
+                cgTuples[i].reference(cgBatches[i][j]);
+              }
+            }
+            // the rows of a batch must not share split records
+            partition.readUnshared(rows[j]);
+          }
+        }
+        catch (Exception e) {
+          throw new IOException("getValues() failed: " + e.getMessage());
+        }
+        return count;
+      }
+
+      /**
+       * Read the rows of the given column group for getValues(), or skip them
+       * if its columns are not needed.
+       */
+      private int readCG(int i, int rows) throws IOException {
+        if (partition.isCGNeeded(i)) {
+          return cgScanners[i].getValues(cgBatches[i]);
+        }
+        return cgScanners[i].skipCG(rows);
+      }
+
       @Override
       public boolean seekTo(BytesWritable key) throws IOException {
         boolean first = false, cur, firstset = false;
@@ -1194,6 +1466,10 @@ public class BasicTable {
       public void close() throws IOException {
         if (sClosed) return;
         sClosed = true;
+        if (prefetcher != null) {
+          prefetcher.shutdown();
+          prefetcher = null;
+        }
         try {
           for (int nx = 0; nx < cgScanners.length; nx++) {
             if (cgScanners[nx] == null)
@@ -1588,6 +1864,9 @@ public class BasicTable {
     }
 
     private class BTInserter implements TableInserter {
+      // the number of rows handed over to the thread of a column group at a
+      // time, when they have threads
+      private static final int WRITE_BATCH_SIZE = 256;
       private TableInserter cgInserters[];
       private boolean sClosed = true;
       private boolean finishWriter;
@@ -1596,9 +1875,20 @@ public class BasicTable {
       BTInserter(String name, boolean finishWriter, Partition partition)
           throws IOException {
         try {
-          cgInserters = new ColumnGroup.Writer.CGInserter[colGroups.length];
+          cgInserters = new TableInserter[colGroups.length];
+          boolean parallel = colGroups.length > 1
+              && ColumnGroup.getParallelWrite(writerConf);
+          int queueSize = ColumnGroup.getWriteQueueSize(writerConf);
+          int batchSize = Math.max(1, Math.min(WRITE_BATCH_SIZE, queueSize));
           for (int nx = 0; nx < colGroups.length; nx++) {
             cgInserters[nx] = colGroups[nx].getInserter(name, false);
+            if (parallel) {
+              // every column group gets all the rows in order, so they stay
+              // aligned across the files of the column groups
+              cgInserters[nx] = new QueuedInserter(cgInserters[nx],
+                  "Zebra column group writer " + nx, batchSize,
+                  Math.max(1, queueSize / batchSize));
+            }
           }
           this.finishWriter = finishWriter;
           this.partition = partition;
@@ -30,12 +30,19 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -50,6 +57,10 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+import org.apache.hadoop.zebra.tfile.MetaBlockDoesNotExist;
 import org.apache.hadoop.zebra.tfile.TFile;
 import org.apache.hadoop.zebra.tfile.Utils;
 import org.apache.hadoop.zebra.tfile.ByteArray;
@@ -60,6 +71,7 @@ import org.apache.hadoop.zebra.types.Partition;
 import org.apache.hadoop.zebra.types.Projection;
 import org.apache.hadoop.zebra.schema.Schema;
 import org.apache.hadoop.zebra.types.TypesUtils;
+import org.apache.hadoop.zebra.types.TupleEncoding;
 import org.apache.hadoop.zebra.types.TypesUtils.TupleReader;
 import org.apache.hadoop.zebra.types.TypesUtils.TupleWriter;
 import org.apache.pig.backend.executionengine.ExecException;
@@ -71,8 +83,43 @@ import org.apache.pig.data.Tuple;
  * <ul>
  * <li><b>table.output.tfile.minBlock.size</b> (int) Minimum compression block
  * size for underlying TFile (default to 1024*1024).
+ * <li><b>table.output.cg.stats</b> (boolean) Whether the minimum, maximum and
+ * null count of the scalar columns are recorded for every TFile block (default
+ * to true).
+ * <li><b>table.output.cg.sketches</b> (boolean) Whether an estimate of the
+ * number of distinct values and the most frequent values of the scalar columns
+ * are recorded for every file (default to true).
+ * <li><b>table.output.cg.bloom</b> (boolean) Whether a Bloom filter of the
+ * keys of every TFile block of sorted column groups is recorded, so that
+ * seeking to keys which are not in the column group does not read its blocks
+ * until the rows after the key are read (default to false). Merge join,
+ * TableLoader.seekNear() and TableUnionExpr read those rows, so only callers
+ * which look a key up by the return value of seekTo() alone gain from it.
+ * <li><b>table.output.cg.encoding.run.size</b> (int) Number of rows after
+ * which the encodings of column groups serialized by "encoded" start again
+ * (default to 1024).
+ * <li><b>table.input.cg.prefetch.threads</b> (int) Number of threads which
+ * read the rows of the other column groups of a projection while the task
+ * thread reads those of one, 0 to read them all on the task thread (default
+ * to the number of processors less one, at most 4).
+ * <li><b>table.input.split.threads</b> (int) Number of threads which open the
+ * files of a sorted column group ahead of the computation of its key
+ * splits, for the files which the split index does not cover, 0 to open them
+ * on the calling thread (default to 0).
+ * <li><b>table.output.split.index.granularity</b> (long) Size in bytes of the
+ * ranges of the files of sorted column groups whose last keys are recorded in
+ * the split index of the column group when it is closed, so that splits are
+ * computed without opening the files; the ranges are made of whole TFile
+ * blocks. Negative values disable the split index (default to 1MB).
+ * <li><b>table.output.cg.parallel</b> (boolean) Whether the rows of each
+ * column group of a table are serialized and compressed on a thread of its
+ * own, handed over from the task thread through a bounded queue (default to
+ * false).
+ * <li><b>table.output.cg.queue.size</b> (int) Number of rows which may wait
+ * for the thread of a column group before the task thread waits for it
+ * (default to 4096).
  * <li><b>table.output.tfile.compression</b> (String) Compression method (one
- * of "none", "lzo", "gz") (default to "lzo").
+ * of "none", "lzo", "gz", "lz4") (default to "lzo").
  * 
  * @see {@link TFile#getSupportedCompressionAlgorithms()}
  *      <li><b>table.input.split.minSize</b> (int) Minimum split size (default
@@ -86,8 +133,20 @@ class ColumnGroup {
   private final static String DEFAULT_COMPRESS = "gz";
   private final static String CONF_MIN_BLOCK_SIZE = "table.tfile.minblock.size";
   private final static int DEFAULT_MIN_BLOCK_SIZE = 1024 * 1024;
+  private final static String CONF_STATS = "table.output.cg.stats";
+  private final static String CONF_SKETCHES = "table.output.cg.sketches";
+  private final static String CONF_BLOOM = "table.output.cg.bloom";
+  private final static String CONF_ENCODING_RUN_SIZE = "table.output.cg.encoding.run.size";
+  private final static String CONF_PREFETCH_THREADS = "table.input.cg.prefetch.threads";
+  private final static int MAX_DEFAULT_PREFETCH_THREADS = 4;
+  private final static String CONF_PARALLEL_WRITE = "table.output.cg.parallel";
+  private final static String CONF_WRITE_QUEUE_SIZE = "table.output.cg.queue.size";
+  private final static int DEFAULT_WRITE_QUEUE_SIZE = 4096;
 
   private final static String CONF_MIN_SPLIT_SIZE = "table.input.split.minSize";
+  private final static String CONF_SPLIT_THREADS = "table.input.split.threads";
+  private final static String CONF_SPLIT_INDEX_GRANULARITY = "table.output.split.index.granularity";
+  private final static long DEFAULT_SPLIT_INDEX_GRANULARITY = 1024 * 1024;
   private final static int DEFAULT_MIN_SPLIT_SIZE = 64 * 1024;
 
   static final double SPLIT_SLOP = 1.1; // 10% slop
@@ -107,6 +166,22 @@ class ColumnGroup {
 
   static final String BLOCK_NAME_INDEX = "ColumnGroup.index";
 
+  // meta block of the meta file with the split index of sorted column groups
+  static final String BLOCK_NAME_SPLIT_INDEX = "ColumnGroup.splits";
+
+  // meta block of the TFiles with the statistics of their columns
+  static final String BLOCK_NAME_STATS = "ColumnGroup.stats";
+
+  // meta block of the TFiles with the sketches of the values of their columns
+  static final String BLOCK_NAME_SKETCHES = "ColumnGroup.sketches";
+
+  // meta block of the TFiles of sorted column groups with the Bloom filters
+  // of the keys of their blocks
+  static final String BLOCK_NAME_BLOOM = "ColumnGroup.bloom";
+
+  // meta block of the TFiles whose rows are encoded, with the run size
+  static final String BLOCK_NAME_ENCODING = "ColumnGroup.encoding";
+
   static Path makeMetaFilePath(Path parent) {
     return new Path(parent, META_FILE);
   }
@@ -119,6 +194,47 @@ class ColumnGroup {
     return conf.getInt(CONF_MIN_BLOCK_SIZE, DEFAULT_MIN_BLOCK_SIZE);
   }
 
+  static boolean getStatsEnabled(Configuration conf) {
+    return conf.getBoolean(CONF_STATS, true);
+  }
+
+  static boolean getSketchesEnabled(Configuration conf) {
+    return conf.getBoolean(CONF_SKETCHES, true);
+  }
+
+  static boolean getBloomEnabled(Configuration conf) {
+    return conf.getBoolean(CONF_BLOOM, false);
+  }
+
+  static int getEncodingRunSize(Configuration conf) {
+    return conf.getInt(CONF_ENCODING_RUN_SIZE, TupleEncoding.DEFAULT_RUN_SIZE);
+  }
+
+  static int getPrefetchThreads(Configuration conf) {
+    return conf.getInt(CONF_PREFETCH_THREADS, Math.min(MAX_DEFAULT_PREFETCH_THREADS,
+        Runtime.getRuntime().availableProcessors() - 1));
+  }
+
+  static int getSplitThreads(Configuration conf) {
+    return conf.getInt(CONF_SPLIT_THREADS, 0);
+  }
+
+  static long getSplitIndexGranularity(Configuration conf) {
+    return conf.getLong(CONF_SPLIT_INDEX_GRANULARITY, DEFAULT_SPLIT_INDEX_GRANULARITY);
+  }
+
+  static boolean getParallelWrite(Configuration conf) {
+    return conf.getBoolean(CONF_PARALLEL_WRITE, false);
+  }
+
+  static int getWriteQueueSize(Configuration conf) {
+    return conf.getInt(CONF_WRITE_QUEUE_SIZE, DEFAULT_WRITE_QUEUE_SIZE);
+  }
+
+  static boolean isEncoded(CGSchema cgschema) {
+    return TupleEncoding.SERIALIZER.equals(cgschema.getSerializer());
+  }
+
   static String getNonDataFilePrefix(Configuration conf) {
     return conf.get(CONF_NON_DATAFILE_PREFIX, SPECIAL_FILE_PREFIX);
   }
@@ -162,6 +278,15 @@ class ColumnGroup {
    */
   static CGIndex buildIndex(FileSystem fs, Path path, boolean dirty,
       Configuration conf) throws IOException {
+    return buildIndex(fs, path, dirty, conf, null);
+  }
+
+  /**
+   * Scan the file system to build the column group index, and the split index
+   * if one is given.
+   */
+  static CGIndex buildIndex(FileSystem fs, Path path, boolean dirty,
+      Configuration conf, CGSplitIndex splitIndex) throws IOException {
     CGIndex ret = new CGIndex();
     CGPathFilter cgPathFilter = new CGPathFilter();
     CGPathFilter.setConf(conf);
@@ -186,6 +311,9 @@ class ColumnGroup {
                 new CGIndexEntry(f.getPath().getName(), tr.getEntryCount(), tr
                     .getFirstKey(), tr.getLastKey());
             ret.add(f.getLen(), tr.getEntryCount(), range);
+            if (splitIndex != null) {
+              splitIndex.add(f.getPath().getName(), f.getLen(), tr);
+            }
           }
         }
         catch (IOException e) {
@@ -708,9 +836,17 @@ class ColumnGroup {
       Path[] paths = new Path[cgindex.size()];
       FileStatus[] tfileStatus = new FileStatus[paths.length];
       long totalBytes = 0;
+      // one listing instead of asking for the status of every file
+      Map<String, FileStatus> listed = new HashMap<String, FileStatus>();
+      for (FileStatus f : fs.listStatus(path)) {
+        listed.put(f.getPath().getName(), f);
+      }
       for (int i = 0; i < paths.length; ++i) {
         paths[i] = cgindex.getPath(i, path);
-        tfileStatus[i] = fs.getFileStatus(paths[i]);
+        tfileStatus[i] = listed.get(paths[i].getName());
+        if (tfileStatus[i] == null) {
+          tfileStatus[i] = fs.getFileStatus(paths[i]);
+        }
         totalBytes += tfileStatus[i].getLen();
       }
 
@@ -722,163 +858,296 @@ class ColumnGroup {
       RawComparable prevKey = null;
 
       long minStepSize = -1;
-      FSDataInputStream nextFsdis = null;
-      TFile.Reader nextReader = null;
-      for (int i = 0; i < paths.length; ++i) {
-        FileStatus fstatus = tfileStatus[i];
-        long blkSize = fstatus.getBlockSize();
-        long fileLen = fstatus.getLen();
-        long stepSize = Math.max(minSize,
+      SplitFiles files = new SplitFiles(paths, tfileStatus, getSplitIndex(),
+          getSplitThreads(conf));
+      try {
+        for (int i = 0; i < paths.length; ++i) {
+          FileStatus fstatus = tfileStatus[i];
+          long blkSize = fstatus.getBlockSize();
+          long fileLen = fstatus.getLen();
+          long stepSize = Math.max(minSize,
+              (goalSize < blkSize) ? goalSize : blkSize);
+          if (minStepSize== -1 || minStepSize > stepSize)
+            minStepSize = stepSize;
+          // adjust the block size by the scaling factor
+          blkSize /= nTables;
+          stepSize = Math.max(minSize,
             (goalSize < blkSize) ? goalSize : blkSize);
-        if (minStepSize== -1 || minStepSize > stepSize)
-          minStepSize = stepSize;
-        // adjust the block size by the scaling factor
-        blkSize /= nTables;
-        stepSize = Math.max(minSize,
-          (goalSize < blkSize) ? goalSize : blkSize);
-        FSDataInputStream fsdis = null;
-        TFile.Reader reader = null;
-        long remainLen = fileLen;
-        try {
-          if (nextReader == null)
-          {
-            fsdis = fs.open(paths[i]);
-            reader = new TFile.Reader(fsdis, fileLen, conf);
-          } else {
-            fsdis = nextFsdis;
-            reader = nextReader;
-          }
-          BlockLocation[] locations =
-              fs.getFileBlockLocations(fstatus, 0, fileLen);
-          if (locations.length == 0) {
-            throw new AssertionError(
-                "getFileBlockLocations returns 0 location");
-          }
-
-          Arrays.sort(locations, new Comparator<BlockLocation>() {
-            @Override
-            public int compare(BlockLocation o1, BlockLocation o2) {
-              long diff = o1.getOffset() - o2.getOffset();
-              if (diff < 0) return -1;
-              if (diff > 0) return 1;
-              return 0;
-            }
-          });
-          
-          long[] startOffsets = new long[locations.length];
-
-          for (int ii = 0; ii < locations.length; ii++)
-            startOffsets[ii] = locations[ii].getOffset();
-
-          boolean done = false;
-          while ((remainLen > 0) && !done) {
-            long splitBytes =
-                remainLen > stepSize ? stepSize : remainLen;
-            long offsetBegin = fileLen - remainLen;
-            long offsetEnd = offsetBegin + splitBytes;
-            int indexBegin = getStartBlockIndex(startOffsets, offsetBegin);
-            int indexEnd = getEndBlockIndex(startOffsets, offsetEnd);
-            BlockLocation firstBlock = locations[indexBegin];
-            BlockLocation lastBlock = locations[indexEnd-1];
-            long lastBlockOffsetBegin = lastBlock.getOffset();
-            long lastBlockOffsetEnd =
-                lastBlockOffsetBegin + lastBlock.getLength();
-            if ((firstBlock.getOffset() > offsetBegin)
-                || (lastBlockOffsetEnd < offsetEnd)) {
-              throw new AssertionError(
-                  "Block locations returned by getFileBlockLocations do not cover requested range");
-            }
+          long remainLen = fileLen;
+          try {
+            SplitFile file = files.get(i);
+            KeyIndex reader = file.keys;
+            BlockLocation[] locations = file.locations;
+            long[] startOffsets = file.startOffsets;
+
+            boolean done = false;
+            while ((remainLen > 0) && !done) {
+              long splitBytes =
+                  remainLen > stepSize ? stepSize : remainLen;
+              long offsetBegin = fileLen - remainLen;
+              long offsetEnd = offsetBegin + splitBytes;
+              int indexBegin = getStartBlockIndex(startOffsets, offsetBegin);
+              int indexEnd = getEndBlockIndex(startOffsets, offsetEnd);
+              BlockLocation firstBlock = locations[indexBegin];
+              BlockLocation lastBlock = locations[indexEnd-1];
+              long lastBlockOffsetBegin = lastBlock.getOffset();
+              long lastBlockOffsetEnd =
+                  lastBlockOffsetBegin + lastBlock.getLength();
+              if ((firstBlock.getOffset() > offsetBegin)
+                  || (lastBlockOffsetEnd < offsetEnd)) {
+                throw new AssertionError(
+                    "Block locations returned by getFileBlockLocations do not cover requested range");
+              }
 
-            // Adjust offsets
-            if ((offsetEnd > lastBlockOffsetBegin)
-                && (offsetEnd - lastBlockOffsetBegin < EPSILON)) {
-              // the split includes a bit of the next block, remove it.
-              if (offsetEnd != fileLen)
-              {
-            	// only if this is not the last chunk
-                offsetEnd = lastBlockOffsetBegin;
+              // Adjust offsets
+              if ((offsetEnd > lastBlockOffsetBegin)
+                  && (offsetEnd - lastBlockOffsetBegin < EPSILON)) {
+                // the split includes a bit of the next block, remove it.
+                if (offsetEnd != fileLen)
+                {
+              	// only if this is not the last chunk
+                  offsetEnd = lastBlockOffsetBegin;
+                  splitBytes = offsetEnd - offsetBegin;
+                  indexEnd--;
+                }
+              }
+              else if ((lastBlockOffsetEnd > offsetEnd)
+                  && (lastBlockOffsetEnd - offsetEnd < EPSILON)) {
+                // the split includes almost the whole block, fill it.
+                offsetEnd = lastBlockOffsetEnd;
                 splitBytes = offsetEnd - offsetBegin;
-                indexEnd--;
               }
-            }
-            else if ((lastBlockOffsetEnd > offsetEnd)
-                && (lastBlockOffsetEnd - offsetEnd < EPSILON)) {
-              // the split includes almost the whole block, fill it.
-              offsetEnd = lastBlockOffsetEnd;
-              splitBytes = offsetEnd - offsetBegin;
-            }
 
-            RawComparable key = reader.getKeyNear(offsetEnd);
-            if (key == null) {
-              offsetEnd = fileLen;
-              splitBytes = offsetEnd - offsetBegin;
-              if (i < paths.length-1)
-              {
-                nextFsdis = fs.open(paths[i+1]);
-                nextReader = new TFile.Reader(nextFsdis, tfileStatus[i+1].getLen(), conf);
-                key = nextReader.getFirstKey();
+              RawComparable key = reader.getKeyNear(offsetEnd);
+              if (key == null) {
+                offsetEnd = fileLen;
+                splitBytes = offsetEnd - offsetBegin;
+                if (i < paths.length-1)
+                {
+                  key = files.get(i + 1).keys.getFirstKey();
+                }
+                done = true; // TFile index too large? Is it necessary now?
               }
-              done = true; // TFile index too large? Is it necessary now?
-            }
-            remainLen -= splitBytes;
-            batchSize += splitBytes;
+              remainLen -= splitBytes;
+              batchSize += splitBytes;
 
-            if (key != null && batchSize >= stepSize)
-            {
-              if (batchSize - splitBytes < EPSILON || splitBytes < EPSILON)
+              if (key != null && batchSize >= stepSize)
               {
-                // the last chunk or this chunk is small enough to create a new range for this key
-                setBlockDistribution(bd, reader, locations, fstatus, startOffsets, prevKey, key);
-                ret.add(key, bd);
-                batchSize = 0;
-                bd = new BlockDistribution();
-              } else {
-                ret.add(prevKey, bd);
-                batchSize = splitBytes;
-                bd = new BlockDistribution();
-                if (batchSize >= stepSize)
+                if (batchSize - splitBytes < EPSILON || splitBytes < EPSILON)
                 {
+                  // the last chunk or this chunk is small enough to create a new range for this key
                   setBlockDistribution(bd, reader, locations, fstatus, startOffsets, prevKey, key);
                   ret.add(key, bd);
                   batchSize = 0;
                   bd = new BlockDistribution();
                 } else {
-                  setBlockDistribution(bd, reader, locations, fstatus, startOffsets, prevKey, key);
+                  ret.add(prevKey, bd);
+                  batchSize = splitBytes;
+                  bd = new BlockDistribution();
+                  if (batchSize >= stepSize)
+                  {
+                    setBlockDistribution(bd, reader, locations, fstatus, startOffsets, prevKey, key);
+                    ret.add(key, bd);
+                    batchSize = 0;
+                    bd = new BlockDistribution();
+                  } else {
+                    setBlockDistribution(bd, reader, locations, fstatus, startOffsets, prevKey, key);
+                  }
                 }
+              } else {
+                setBlockDistribution(bd, reader, locations, fstatus, startOffsets, prevKey, key);
               }
-            } else {
-              setBlockDistribution(bd, reader, locations, fstatus, startOffsets, prevKey, key);
+              prevKey = key;
             }
-            prevKey = key;
           }
+          finally {
+            files.close(i);
+          }
+        }
+      }
+      finally {
+        files.close();
+      }
+      if (lastBd != null)
+        lastBd.add(bd);
+      ret.setMinStepSize(minStepSize);
+      
+      return ret;
+    }
+
+    /**
+     * Get the split index recorded when the column group was closed.
+     * 
+     * @return The split index, or null if there is none.
+     */
+    CGSplitIndex getSplitIndex() throws IOException {
+      MetaFile.Reader metaFile = MetaFile.createReader(makeMetaFilePath(path), conf);
+      try {
+        DataInputStream dis = metaFile.getMetaBlock(BLOCK_NAME_SPLIT_INDEX);
+        try {
+          CGSplitIndex splitIndex = new CGSplitIndex();
+          splitIndex.readFields(dis);
+          splitIndex.setComparator(comparator);
+          return splitIndex;
         }
         finally {
-          if (reader != null) {
-            try {
-              reader.close();
+          dis.close();
+        }
+      }
+      catch (MetaBlockDoesNotExist e) {
+        return null;
+      }
+      finally {
+        metaFile.close();
+      }
+    }
+
+    /**
+     * The block locations and the keys of a file, for computing key splits.
+     */
+    private class SplitFile {
+      BlockLocation[] locations; // by offset
+      long[] startOffsets;
+      KeyIndex keys;
+
+      SplitFile(Path path, FileStatus status, CGSplitIndex splitIndex)
+          throws IOException {
+        locations = fs.getFileBlockLocations(status, 0, status.getLen());
+        if (locations.length == 0) {
+          throw new AssertionError(
+              "getFileBlockLocations returns 0 location");
+        }
+
+        Arrays.sort(locations, new Comparator<BlockLocation>() {
+          @Override
+          public int compare(BlockLocation o1, BlockLocation o2) {
+            long diff = o1.getOffset() - o2.getOffset();
+            if (diff < 0) return -1;
+            if (diff > 0) return 1;
+            return 0;
+          }
+        });
+
+        startOffsets = new long[locations.length];
+        for (int ii = 0; ii < locations.length; ii++)
+          startOffsets[ii] = locations[ii].getOffset();
+
+        keys = splitIndex == null ? null
+            : splitIndex.getKeys(path.getName(), status.getLen());
+        if (keys == null) {
+          // the file is not the one the index was built of
+          keys = new TFileKeyIndex(fs, path, status.getLen(), conf);
+        }
+      }
+    }
+
+    /**
+     * The files of a split computation, opened in order, on threads which stay
+     * a few files ahead of the computation if there are any.
+     */
+    private class SplitFiles {
+      private final Path[] paths;
+      private final FileStatus[] statuses;
+      private final CGSplitIndex splitIndex;
+      private final List<Future<SplitFile>> opened = new ArrayList<Future<SplitFile>>();
+      private final SplitFile[] files;
+      private final boolean[] closed;
+      private ExecutorService opener;
+      private int ahead;
+
+      SplitFiles(Path[] paths, FileStatus[] statuses, CGSplitIndex splitIndex,
+          int threads) {
+        this.paths = paths;
+        this.statuses = statuses;
+        this.splitIndex = splitIndex;
+        files = new SplitFile[paths.length];
+        closed = new boolean[paths.length];
+        if (threads > 0 && paths.length > 1) {
+          opener = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "Zebra split file opener");
+              thread.setDaemon(true);
+              return thread;
             }
-            catch (Exception e) {
-              // no-op;
+          });
+          ahead = 4 * threads;
+        }
+      }
+
+      SplitFile get(int i) throws IOException {
+        if (files[i] != null) {
+          return files[i];
+        }
+        if (opener == null) {
+          files[i] = new SplitFile(paths[i], statuses[i], splitIndex);
+          return files[i];
+        }
+        while (opened.size() < paths.length && opened.size() <= i + ahead) {
+          final int j = opened.size();
+          opened.add(opener.submit(new Callable<SplitFile>() {
+            public SplitFile call() throws IOException {
+              return new SplitFile(paths[j], statuses[j], splitIndex);
             }
+          }));
+        }
+        try {
+          files[i] = opened.get(i).get();
+        }
+        catch (InterruptedException e) {
+          throw new IOException("Interrupted while opening " + paths[i]);
+        }
+        catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException("Failed to open " + paths[i] + " : "
+              + e.getCause());
+        }
+        return files[i];
+      }
+
+      /**
+       * Release a file which the computation is done with.
+       */
+      void close(int i) {
+        closed[i] = true;
+        if (files[i] != null) {
+          try {
+            files[i].keys.close();
+          }
+          catch (Exception e) {
+            // no-op
+          }
+          files[i] = null;
+        }
+      }
+
+      /**
+       * Release the files which are still open.
+       */
+      void close() {
+        if (opener != null) {
+          // the files which are being opened are closed once they are
+          opener.shutdown();
+        }
+        for (int i = 0; i < files.length; i++) {
+          if (closed[i]) {
+            continue;
           }
-          if (fsdis != null) {
+          if (files[i] == null && i < opened.size()) {
             try {
-              fsdis.close();
+              files[i] = opened.get(i).get();
             }
             catch (Exception e) {
               // no-op
             }
           }
+          close(i);
         }
       }
-      if (lastBd != null)
-        lastBd.add(bd);
-      ret.setMinStepSize(minStepSize);
-      
-      return ret;
     }
 
-    private void setBlockDistribution(BlockDistribution bd, TFile.Reader reader,
+    private void setBlockDistribution(BlockDistribution bd, KeyIndex reader,
         BlockLocation[] locations, FileStatus fileStatus, long[] startOffsets,
         RawComparable begin, RawComparable end) throws IOException
     {
@@ -1023,6 +1292,68 @@ class ColumnGroup {
         fileStatus[i] = result[i];
     }
 
+    /**
+     * Get the statistics of the columns of a file of the column group.
+     * 
+     * @param name
+     *          The name of the file.
+     * @return The statistics, or null if the file was written without them.
+     * @throws IOException
+     */
+    CGStats getStats(String name) throws IOException {
+      return readMetaBlock(name, BLOCK_NAME_STATS, new CGStats());
+    }
+
+    /**
+     * Get the sketches of the values of the columns of a file of the column
+     * group.
+     * 
+     * @param name
+     *          The name of the file.
+     * @return The sketches, or null if the file was written without them.
+     * @throws IOException
+     */
+    CGSketches getSketches(String name) throws IOException {
+      return readMetaBlock(name, BLOCK_NAME_SKETCHES, new CGSketches());
+    }
+
+    /**
+     * Get the names of the files of the column group.
+     */
+    List<String> getFileNames() throws IOException {
+      if (cgindex == null)
+        cgindex = buildIndex(fs, path, dirty, conf);
+      List<String> ret = new ArrayList<String>(cgindex.size());
+      for (CGIndexEntry e : cgindex.getIndex()) {
+        ret.add(e.getName());
+      }
+      return ret;
+    }
+
+    private <T extends Writable> T readMetaBlock(String name, String block,
+        T value) throws IOException {
+      Path p = new Path(path, name);
+      FSDataInputStream ins = fs.open(p);
+      try {
+        TFile.Reader reader = new TFile.Reader(ins, fs.getFileStatus(p).getLen(), conf);
+        try {
+          DataInputStream dis = reader.getMetaBlock(block);
+          try {
+            value.readFields(dis);
+            return value;
+          } finally {
+            dis.close();
+          }
+        } catch (MetaBlockDoesNotExist e) {
+          return null;
+        } finally {
+          reader.close();
+        }
+      } finally {
+        ins.close();
+      }
+    }
+
     /**
      * Is the ColumnGroup sorted?
      * 
@@ -1049,6 +1380,12 @@ class ColumnGroup {
       TFile.Reader reader;
       TFile.Reader.Scanner scanner;
       TupleReader tupleReader;
+      TupleEncoding.Reader encodedReader;
+      CGBloomFilters bloom;
+      boolean bloomRead;
+      // the key of the last seek, if the Bloom filters showed that it is not
+      // in the file and the cursor is not positioned yet
+      BytesWritable pendingSeek;
 
       TFileScanner(FileSystem fs, Path path, CGRowSplit rowRange, 
                     RawComparable begin, RawComparable end, boolean first, boolean last,
@@ -1059,7 +1396,7 @@ class ColumnGroup {
           /*
            * compressor is inside cgschema
            */
-          reader = new TFile.Reader(ins, fs.getFileStatus(path).getLen(), conf);
+          reader = new TFile.Reader(ins, fs.getFileStatus(path), conf);
           if (rowRange != null && rowRange.startByteFirst != -1) {
             if (first && rowRange.startByteFirst != -1)
               scanner = reader.createScannerByRecordNum(rowRange.startRowFirst, 
@@ -1081,7 +1418,12 @@ class ColumnGroup {
            * serializer is inside cgschema: different serializer will require
            * different Reader: for pig, it's TupleReader
            */
-          tupleReader = new TupleReader(cgschema.getSchema(), projection);
+          if (isEncoded(cgschema)) {
+            encodedReader = new TupleEncoding.Reader(cgschema.getSchema(),
+                projection, getRunSize(reader));
+          } else {
+            tupleReader = new TupleReader(cgschema.getSchema(), projection);
+          }
           closed = false;
         }
         finally {
@@ -1117,37 +1459,138 @@ class ColumnGroup {
       }
 
       void rewind() throws IOException {
+        pendingSeek = null;
         scanner.rewind();
       }
 
       void getKey(BytesWritable key) throws IOException {
+        position();
         scanner.entry().getKey(key);
       }
 
       void getValue(Tuple val) throws IOException, ParseException {
+        position();
+        long rowNum = -1;
+        if (encodedReader != null) {
+          rowNum = scanner.getRecordNum();
+          if (!encodedReader.canDecode(rowNum)) {
+            replay(rowNum);
+          }
+        }
         DataInputStream dis = scanner.entry().getValueStream();
         try {
-          tupleReader.get(dis, val);
-          
+          if (encodedReader != null) {
+            encodedReader.get(dis, rowNum, val);
+          } else {
+            tupleReader.get(dis, val);
+          }
         }
         finally {
           dis.close();
         }
       }
 
+      private static int getRunSize(TFile.Reader reader) throws IOException {
+        DataInputStream dis = reader.getMetaBlock(BLOCK_NAME_ENCODING);
+        try {
+          return Utils.readVInt(dis);
+        }
+        finally {
+          dis.close();
+        }
+      }
+
+      /**
+       * Decode the rows of the run of an encoded row before it, after a seek.
+       */
+      private void replay(long rowNum) throws IOException {
+        long start = encodedReader.getRunStart(rowNum);
+        TFile.Reader.Scanner runScanner = reader.createScannerByRecordNum(start, rowNum);
+        try {
+          for (long r = start; !runScanner.atEnd(); runScanner.advance(), ++r) {
+            DataInputStream dis = runScanner.entry().getValueStream();
+            try {
+              encodedReader.skip(dis, r);
+            }
+            finally {
+              dis.close();
+            }
+          }
+        }
+        finally {
+          runScanner.close();
+        }
+      }
+
+      /**
+       * Seek to the first key greater or equal to the key. When the Bloom
+       * filters rule the key out, the data block is only read once the
+       * cursor is used, so a lookup which only needs the return value reads
+       * no data block at all. No caller in Zebra or Pig is such a lookup yet.
+       */
       boolean seekTo(BytesWritable key) throws IOException {
+        pendingSeek = null;
+        if (!mayContain(key)) {
+          // the cursor is only positioned when it is used, as a lookup of a
+          // key which is not there does not use it
+          pendingSeek = new BytesWritable();
+          pendingSeek.set(key);
+          return false;
+        }
         return scanner.seekTo(key.getBytes(), 0, key.getLength());
       }
 
+      /**
+       * Whether the file may contain the key, by the Bloom filter of the block
+       * which would contain it.
+       */
+      private boolean mayContain(BytesWritable key) throws IOException {
+        if (!bloomRead) {
+          bloomRead = true;
+          try {
+            DataInputStream dis = reader.getMetaBlock(BLOCK_NAME_BLOOM);
+            try {
+              bloom = new CGBloomFilters();
+              bloom.readFields(dis);
+            }
+            finally {
+              dis.close();
+            }
+          }
+          catch (MetaBlockDoesNotExist e) {
+            bloom = null;
+          }
+        }
+        if (bloom == null) {
+          return true;
+        }
+        int block = reader.getBlockIndexContainsKey(key.getBytes(), 0, key.getLength());
+        return block < 0 || bloom.mayContain(block, key);
+      }
+
+      /**
+       * Position the cursor at the key of the last seek, if it is not yet.
+       */
+      private void position() throws IOException {
+        if (pendingSeek != null) {
+          BytesWritable key = pendingSeek;
+          pendingSeek = null;
+          scanner.seekTo(key.getBytes(), 0, key.getLength());
+        }
+      }
+
       boolean advance() throws IOException {
+        position();
         return scanner.advance();
       }
 
-      boolean atEnd() {
+      boolean atEnd() throws IOException {
+        position();
         return scanner.atEnd();
       }
 
       void seekToEnd() throws IOException {
+        pendingSeek = null;
         scanner.seekToEnd();
       }
 
@@ -1344,6 +1787,30 @@ class ColumnGroup {
           }
       }
 
+      @Override
+      public int getValues(Tuple[] rows) throws IOException {
+        int n = 0;
+        while (n < rows.length && !atEnd()) {
+          getCGValue(rows[n++]);
+          advanceCG();
+        }
+        return n;
+      }
+
+      /**
+       * Advance the cursor past at most the given number of rows.
+       *
+       * @return The number of rows skipped.
+       */
+      int skipCG(int rows) throws IOException {
+        int n = 0;
+        while (n < rows && !atEnd()) {
+          ++n;
+          advanceCG();
+        }
+        return n;
+      }
+
       @Override
       public String getProjection() {
         return logicalSchema.toString();
@@ -1844,7 +2311,10 @@ class ColumnGroup {
     private void createIndex() throws IOException {
       MetaFile.Writer metaFile =
         MetaFile.createWriter(makeMetaFilePath(finalOutputPath), conf);
-      index = buildIndex(fs, finalOutputPath, false, conf);
+      long granularity = getSplitIndexGranularity(conf);
+      CGSplitIndex splitIndex = (cgschema.isSorted() && granularity >= 0)
+          ? new CGSplitIndex(granularity) : null;
+      index = buildIndex(fs, finalOutputPath, false, conf, splitIndex);
       DataOutputStream dos = metaFile.createMetaBlock(BLOCK_NAME_INDEX);
       try {
         index.write(dos);
@@ -1852,6 +2322,15 @@ class ColumnGroup {
       finally {
         dos.close();
       }
+      if (splitIndex != null) {
+        dos = metaFile.createMetaBlock(BLOCK_NAME_SPLIT_INDEX);
+        try {
+          splitIndex.write(dos);
+        }
+        finally {
+          dos.close();
+        }
+      }
       metaFile.close();
     }
 
@@ -1887,6 +2366,11 @@ class ColumnGroup {
       FSDataOutputStream out;
       TFile.Writer tfileWriter;
       TupleWriter tupleWriter;
+      TupleEncoding.Writer encodedWriter;
+      CGStats stats;
+      CGSketches sketches;
+      CGBloomFilters bloom;
+      int finishedBlocks;
       boolean closed = true;
       
       
@@ -1913,7 +2397,7 @@ class ColumnGroup {
 
             FsPermission permission = null;
             if(cgschema.getPerm() != -1) {
-                permission = new FsPermission((short) cgschema.getPerm());
+                permission = new FsPermission(cgschema.getPerm());
             	fs.setPermission(path, permission);
             }  
             
@@ -1941,7 +2425,26 @@ class ColumnGroup {
       CGInserter(String name, boolean finishWriter) throws IOException {
         this.name = name;
         this.finishWriter = finishWriter;
-        this.tupleWriter = new TupleWriter(getSchema());
+        if (isEncoded(cgschema)) {
+          this.encodedWriter = new TupleEncoding.Writer(getSchema(), getEncodingRunSize(conf));
+        } else {
+          this.tupleWriter = new TupleWriter(getSchema());
+        }
+        if (getStatsEnabled(conf)) {
+          stats = new CGStats(getSchema());
+          if (stats.names.length == 0) {
+            stats = null;
+          }
+        }
+        if (getSketchesEnabled(conf)) {
+          sketches = new CGSketches(getSchema());
+          if (sketches.names.length == 0) {
+            sketches = null;
+          }
+        }
+        if (cgschema.isSorted() && getBloomEnabled(conf)) {
+          bloom = new CGBloomFilters();
+        }
         try {
           createTempFile();
           tfileWriter =
@@ -1996,11 +2499,38 @@ class ColumnGroup {
 
         DataOutputStream outValue = tfileWriter.prepareAppendValue(-1);
         try {
-          tupleWriter.put(outValue, row);
+          if (encodedWriter != null) {
+            encodedWriter.put(outValue, row);
+          } else {
+            tupleWriter.put(outValue, row);
+          }
         }
         finally {
           outValue.close();
         }
+
+        if (stats != null) {
+          stats.add(row);
+        }
+        if (sketches != null) {
+          sketches.add(row);
+        }
+        if (bloom != null) {
+          bloom.add(key);
+        }
+        if (stats != null || bloom != null) {
+          // the row is in the block the TFile finished after it, if any
+          int blocks = tfileWriter.getDataBlockCount();
+          if (blocks != finishedBlocks) {
+            if (stats != null) {
+              stats.endBlock();
+            }
+            if (bloom != null) {
+              bloom.endBlock();
+            }
+            finishedBlocks = blocks;
+          }
+        }
       }
 
       @Override
@@ -2013,6 +2543,45 @@ class ColumnGroup {
         try {
           // TODO: add schema to each TFile as a meta block?
 
+          if (stats != null) {
+            // the last data block is finished before the meta block
+            stats.endBlock();
+            DataOutputStream outStats = tfileWriter.prepareMetaBlock(BLOCK_NAME_STATS);
+            try {
+              stats.write(outStats);
+            }
+            finally {
+              outStats.close();
+            }
+          }
+          if (sketches != null) {
+            DataOutputStream outSketches = tfileWriter.prepareMetaBlock(BLOCK_NAME_SKETCHES);
+            try {
+              sketches.write(outSketches);
+            }
+            finally {
+              outSketches.close();
+            }
+          }
+          if (bloom != null) {
+            bloom.endBlock();
+            DataOutputStream outBloom = tfileWriter.prepareMetaBlock(BLOCK_NAME_BLOOM);
+            try {
+              bloom.write(outBloom);
+            }
+            finally {
+              outBloom.close();
+            }
+          }
+          if (encodedWriter != null) {
+            DataOutputStream outEncoding = tfileWriter.prepareMetaBlock(BLOCK_NAME_ENCODING);
+            try {
+              Utils.writeVInt(outEncoding, encodedWriter.getRunSize());
+            }
+            finally {
+              outEncoding.close();
+            }
+          }
           tfileWriter.close();
           tfileWriter = null;
           out.close();
@@ -2026,7 +2595,7 @@ class ColumnGroup {
           }  
           FsPermission permission = null;
           if(cgschema.getPerm() != -1) {
-            permission = new FsPermission((short) cgschema.getPerm());
+            permission = new FsPermission(cgschema.getPerm());
             fs.setPermission(path, permission);
           }
 */                     
@@ -2074,6 +2643,546 @@ class ColumnGroup {
 
   }
 
+  /**
+   * Statistics of the scalar columns of a data file, for each of its TFile
+   * blocks and for the whole file.
+   */
+  static class CGStats implements Writable {
+    String[] names;
+    int[] columns; // indices of the columns in the rows, when writing
+    ArrayList<Long> firstRows = new ArrayList<Long>();
+    ArrayList<ColumnStats[]> blocks = new ArrayList<ColumnStats[]>();
+    ColumnStats[] current;
+    ColumnStats[] file;
+    long rows;
+
+    CGStats() {
+      // for reading
+    }
+
+    CGStats(Schema schema) {
+      ArrayList<String> nameList = new ArrayList<String>();
+      ArrayList<Integer> columnList = new ArrayList<Integer>();
+      for (int i = 0; i < schema.getNumColumns(); i++) {
+        Schema.ColumnSchema cs = schema.getColumn(i);
+        if (cs.getName() != null && ColumnStats.isSupported(cs.getType())) {
+          nameList.add(cs.getName());
+          columnList.add(i);
+        }
+      }
+      names = nameList.toArray(new String[nameList.size()]);
+      columns = new int[columnList.size()];
+      file = new ColumnStats[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = columnList.get(i);
+        file[i] = new ColumnStats(schema.getColumn(columns[i]).getType());
+      }
+    }
+
+    void add(Tuple row) throws IOException {
+      if (current == null) {
+        current = new ColumnStats[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+          current[i] = new ColumnStats(file[i].getType());
+        }
+      }
+      for (int i = 0; i < columns.length; i++) {
+        current[i].add(row.get(columns[i]));
+      }
+    }
+
+    /**
+     * The rows added since the last block are a block.
+     */
+    void endBlock() {
+      if (current == null) {
+        return;
+      }
+      firstRows.add(rows);
+      blocks.add(current);
+      for (int i = 0; i < current.length; i++) {
+        file[i].merge(current[i]);
+      }
+      rows += current.length > 0 ? current[0].getRows() : 0;
+      current = null;
+    }
+
+    /**
+     * Get the statistics of a column over the blocks which contain any of the
+     * given rows.
+     * 
+     * @param name
+     *          The name of the column.
+     * @param beginRow
+     *          The first row.
+     * @param endRow
+     *          The row after the last one, or -1 for all rows after the first.
+     * @return The statistics, or null if there are none for the column.
+     */
+    ColumnStats getStats(String name, long beginRow, long endRow) {
+      int column = -1;
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].equals(name)) {
+          column = i;
+          break;
+        }
+      }
+      if (column < 0) {
+        return null;
+      }
+      if (beginRow <= 0 && endRow < 0) {
+        return file[column];
+      }
+      ColumnStats ret = new ColumnStats(file[column].getType());
+      for (int b = 0; b < blocks.size(); b++) {
+        long first = firstRows.get(b);
+        long last = first + blocks.get(b)[column].getRows();
+        if (last > beginRow && (endRow < 0 || first < endRow)) {
+          ret.merge(blocks.get(b)[column]);
+        }
+      }
+      return ret;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      int numColumns = Utils.readVInt(in);
+      names = new String[numColumns];
+      for (int i = 0; i < numColumns; i++) {
+        names[i] = Utils.readString(in);
+      }
+      file = readColumnStats(in, numColumns);
+      int numBlocks = Utils.readVInt(in);
+      firstRows = new ArrayList<Long>(numBlocks);
+      blocks = new ArrayList<ColumnStats[]>(numBlocks);
+      rows = 0;
+      for (int b = 0; b < numBlocks; b++) {
+        firstRows.add(Utils.readVLong(in));
+        blocks.add(readColumnStats(in, numColumns));
+      }
+    }
+
+    private static ColumnStats[] readColumnStats(DataInput in, int numColumns)
+        throws IOException {
+      ColumnStats[] ret = new ColumnStats[numColumns];
+      for (int i = 0; i < numColumns; i++) {
+        ret[i] = new ColumnStats();
+        ret[i].readFields(in);
+      }
+      return ret;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      Utils.writeVInt(out, names.length);
+      for (String name : names) {
+        Utils.writeString(out, name);
+      }
+      for (ColumnStats cs : file) {
+        cs.write(out);
+      }
+      Utils.writeVInt(out, blocks.size());
+      for (int b = 0; b < blocks.size(); b++) {
+        Utils.writeVLong(out, firstRows.get(b));
+        for (ColumnStats cs : blocks.get(b)) {
+          cs.write(out);
+        }
+      }
+    }
+  }
+
+  /**
+   * The keys of the blocks of a data file of a sorted column group, which the
+   * computation of key splits asks for.
+   */
+  interface KeyIndex extends Closeable {
+    /**
+     * @see TFile.Reader#getFirstKey()
+     */
+    RawComparable getFirstKey() throws IOException;
+
+    /**
+     * @see TFile.Reader#getKeyNear(long)
+     */
+    RawComparable getKeyNear(long offset) throws IOException;
+
+    /**
+     * @see TFile.Reader#getOffsetForKey(RawComparable)
+     */
+    long getOffsetForKey(RawComparable key) throws IOException;
+  }
+
+  /**
+   * The keys of the blocks of a data file, read from the file.
+   */
+  static class TFileKeyIndex implements KeyIndex {
+    private final FSDataInputStream in;
+    private final TFile.Reader reader;
+
+    TFileKeyIndex(FileSystem fs, Path path, long length, Configuration conf)
+        throws IOException {
+      in = fs.open(path);
+      try {
+        reader = new TFile.Reader(in, length, conf);
+      }
+      catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public RawComparable getFirstKey() throws IOException {
+      return reader.getFirstKey();
+    }
+
+    @Override
+    public RawComparable getKeyNear(long offset) throws IOException {
+      return reader.getKeyNear(offset);
+    }
+
+    @Override
+    public long getOffsetForKey(RawComparable key) throws IOException {
+      return reader.getOffsetForKey(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        reader.close();
+      }
+      finally {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Split index of a sorted column group: for every data file, its length,
+   * its first key, and the offsets and the last keys of ranges of its TFile
+   * blocks. The key splits of the column group are computed from it as from
+   * the files themselves, with ranges of blocks for blocks, so that the files
+   * need not be opened.
+   */
+  static class CGSplitIndex implements Writable {
+    private long granularity;
+    private Comparator<RawComparable> comparator;
+    private final Map<String, FileKeys> files = new LinkedHashMap<String, FileKeys>();
+
+    CGSplitIndex() {
+      // for reading
+    }
+
+    /**
+     * @param granularity
+     *          The size of the ranges of blocks.
+     */
+    CGSplitIndex(long granularity) {
+      this.granularity = granularity;
+    }
+
+    void setComparator(Comparator<RawComparable> comparator) {
+      this.comparator = comparator;
+    }
+
+    /**
+     * Add the ranges of blocks of a file.
+     */
+    void add(String name, long length, TFile.Reader reader) throws IOException {
+      FileKeys keys = new FileKeys();
+      keys.length = length;
+      keys.firstKey = copy(reader.getFirstKey());
+      int numBlocks = reader.getBlockCount();
+      List<long[]> ranges = new ArrayList<long[]>();
+      List<byte[]> lastKeys = new ArrayList<byte[]>();
+      long rangeStart = -1;
+      for (int b = 0; b < numBlocks; b++) {
+        if (rangeStart < 0) {
+          rangeStart = reader.getBlockOffset(b);
+        }
+        long end = reader.getBlockEndOffset(b);
+        if (end - rangeStart >= granularity || b == numBlocks - 1) {
+          ranges.add(new long[] { rangeStart, end });
+          lastKeys.add(copy(reader.getBlockLastKey(b)));
+          rangeStart = -1;
+        }
+      }
+      keys.starts = new long[ranges.size()];
+      keys.ends = new long[ranges.size()];
+      for (int i = 0; i < ranges.size(); i++) {
+        keys.starts[i] = ranges.get(i)[0];
+        keys.ends[i] = ranges.get(i)[1];
+      }
+      keys.lastKeys = lastKeys.toArray(new byte[lastKeys.size()][]);
+      files.put(name, keys);
+    }
+
+    private static byte[] copy(RawComparable key) {
+      return Arrays.copyOfRange(key.buffer(), key.offset(), key.offset() + key.size());
+    }
+
+    /**
+     * Get the keys of a file.
+     * 
+     * @return The keys, or null if the index is not of a file of that name
+     *         and length.
+     */
+    KeyIndex getKeys(String name, long length) {
+      FileKeys keys = files.get(name);
+      return keys == null || keys.length != length ? null : keys;
+    }
+
+    private class FileKeys implements KeyIndex {
+      long length;
+      byte[] firstKey;
+      long[] starts;
+      long[] ends;
+      byte[][] lastKeys;
+
+      @Override
+      public RawComparable getFirstKey() {
+        return new ByteArray(firstKey);
+      }
+
+      @Override
+      public RawComparable getKeyNear(long offset) {
+        // the first range which starts at or after the offset
+        int lo = 0, hi = starts.length;
+        while (lo < hi) {
+          int mid = (lo + hi) >>> 1;
+          if (starts[mid] < offset) {
+            lo = mid + 1;
+          } else {
+            hi = mid;
+          }
+        }
+        return lo == starts.length ? null : new ByteArray(lastKeys[lo]);
+      }
+
+      @Override
+      public long getOffsetForKey(RawComparable key) {
+        // the first range whose last key is not less than the key
+        int lo = 0, hi = lastKeys.length;
+        while (lo < hi) {
+          int mid = (lo + hi) >>> 1;
+          if (comparator.compare(new ByteArray(lastKeys[mid]), key) < 0) {
+            lo = mid + 1;
+          } else {
+            hi = mid;
+          }
+        }
+        if (lo < starts.length) {
+          return starts[lo];
+        }
+        return lo > 0 ? ends[lo - 1] : 0;
+      }
+
+      @Override
+      public void close() {
+        // no-op
+      }
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+      Utils.writeVInt(out, bytes.length);
+      out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+      byte[] bytes = new byte[Utils.readVInt(in)];
+      in.readFully(bytes);
+      return bytes;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      granularity = Utils.readVLong(in);
+      int numFiles = Utils.readVInt(in);
+      files.clear();
+      for (int i = 0; i < numFiles; i++) {
+        String name = Utils.readString(in);
+        FileKeys keys = new FileKeys();
+        keys.length = Utils.readVLong(in);
+        keys.firstKey = readBytes(in);
+        int numRanges = Utils.readVInt(in);
+        keys.starts = new long[numRanges];
+        keys.ends = new long[numRanges];
+        keys.lastKeys = new byte[numRanges][];
+        long prevEnd = 0;
+        for (int r = 0; r < numRanges; r++) {
+          keys.starts[r] = prevEnd + Utils.readVLong(in);
+          keys.ends[r] = keys.starts[r] + Utils.readVLong(in);
+          keys.lastKeys[r] = readBytes(in);
+          prevEnd = keys.ends[r];
+        }
+        files.put(name, keys);
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      Utils.writeVLong(out, granularity);
+      Utils.writeVInt(out, files.size());
+      for (Map.Entry<String, FileKeys> e : files.entrySet()) {
+        FileKeys keys = e.getValue();
+        Utils.writeString(out, e.getKey());
+        Utils.writeVLong(out, keys.length);
+        writeBytes(out, keys.firstKey);
+        Utils.writeVInt(out, keys.starts.length);
+        long prevEnd = 0;
+        for (int r = 0; r < keys.starts.length; r++) {
+          // the ranges follow each other, so the offsets are written as sizes
+          Utils.writeVLong(out, keys.starts[r] - prevEnd);
+          Utils.writeVLong(out, keys.ends[r] - keys.starts[r]);
+          writeBytes(out, keys.lastKeys[r]);
+          prevEnd = keys.ends[r];
+        }
+      }
+    }
+  }
+
+  /**
+   * Sketches of the values of the scalar columns of a data file.
+   */
+  static class CGSketches implements Writable {
+    String[] names;
+    int[] columns; // indices of the columns in the rows, when writing
+    ColumnSketch[] sketches;
+
+    CGSketches() {
+      // for reading
+    }
+
+    CGSketches(Schema schema) {
+      ArrayList<String> nameList = new ArrayList<String>();
+      ArrayList<Integer> columnList = new ArrayList<Integer>();
+      for (int i = 0; i < schema.getNumColumns(); i++) {
+        Schema.ColumnSchema cs = schema.getColumn(i);
+        if (cs.getName() != null && ColumnStats.isSupported(cs.getType())) {
+          nameList.add(cs.getName());
+          columnList.add(i);
+        }
+      }
+      names = nameList.toArray(new String[nameList.size()]);
+      columns = new int[columnList.size()];
+      sketches = new ColumnSketch[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = columnList.get(i);
+        sketches[i] = new ColumnSketch(schema.getColumn(columns[i]).getType());
+      }
+    }
+
+    void add(Tuple row) throws IOException {
+      for (int i = 0; i < columns.length; i++) {
+        sketches[i].add(row.get(columns[i]));
+      }
+    }
+
+    /**
+     * Get the sketch of a column.
+     * 
+     * @return The sketch, or null if there is none for the column.
+     */
+    ColumnSketch getSketch(String name) {
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].equals(name)) {
+          return sketches[i];
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      int numColumns = Utils.readVInt(in);
+      names = new String[numColumns];
+      sketches = new ColumnSketch[numColumns];
+      for (int i = 0; i < numColumns; i++) {
+        names[i] = Utils.readString(in);
+        sketches[i] = new ColumnSketch();
+        sketches[i].readFields(in);
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      Utils.writeVInt(out, names.length);
+      for (int i = 0; i < names.length; i++) {
+        Utils.writeString(out, names[i]);
+        sketches[i].write(out);
+      }
+    }
+  }
+
+  /**
+   * Bloom filters of the keys of each of the TFile blocks of a data file of a
+   * sorted column group.
+   */
+  static class CGBloomFilters implements Writable {
+    // the rate of false positives the filters are sized for
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    ArrayList<BloomFilter> blocks = new ArrayList<BloomFilter>();
+    // the distinct keys of the block being written
+    ArrayList<byte[]> current = new ArrayList<byte[]>();
+
+    void add(BytesWritable key) {
+      byte[] bytes = Arrays.copyOf(key.getBytes(), key.getLength());
+      if (current.isEmpty() || !Arrays.equals(current.get(current.size() - 1), bytes)) {
+        current.add(bytes);
+      }
+    }
+
+    /**
+     * The keys added since the last block are those of a block.
+     */
+    void endBlock() {
+      if (current.isEmpty()) {
+        return;
+      }
+      int n = current.size();
+      double ln2 = Math.log(2);
+      int vectorSize = Math.max(8,
+          (int) Math.ceil(-n * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2)));
+      int nbHash = Math.max(1, (int) Math.round((double) vectorSize / n * ln2));
+      BloomFilter filter = new BloomFilter(vectorSize, nbHash, Hash.MURMUR_HASH);
+      for (byte[] key : current) {
+        filter.add(new Key(key));
+      }
+      blocks.add(filter);
+      current.clear();
+    }
+
+    /**
+     * Whether the block may contain the key. It certainly does not if not.
+     */
+    boolean mayContain(int block, BytesWritable key) {
+      if (block < 0 || block >= blocks.size()) {
+        return true;
+      }
+      return blocks.get(block).membershipTest(
+          new Key(Arrays.copyOf(key.getBytes(), key.getLength())));
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      int numBlocks = Utils.readVInt(in);
+      blocks = new ArrayList<BloomFilter>(numBlocks);
+      for (int b = 0; b < numBlocks; b++) {
+        BloomFilter filter = new BloomFilter();
+        filter.readFields(in);
+        blocks.add(filter);
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      Utils.writeVInt(out, blocks.size());
+      for (BloomFilter filter : blocks) {
+        filter.write(out);
+      }
+    }
+  }
+
   /**
    * name, first and last key (inclusive) of a data file
    */
@@ -0,0 +1,306 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.zebra.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.zebra.schema.ColumnType;
+import org.apache.hadoop.zebra.tfile.Utils;
+
+/**
+ * Sketch of the values of a scalar column over a number of rows: an estimate
+ * of the number of distinct values (HyperLogLog), and the most frequent values
+ * with a lower bound of their counts (Space-Saving). Sketches of the rows of
+ * different files can be merged into one of all of them, so they are recorded
+ * for every column group file and merged when the table is read.
+ */
+public final class ColumnSketch implements Writable {
+  // 2^11 registers, for a standard error of 2.3% on the distinct count
+  private static final int LOG_REGISTERS = 11;
+  private static final int NUM_REGISTERS = 1 << LOG_REGISTERS;
+  // the number of values whose counts are kept
+  static final int MAX_FREQUENT = 16;
+
+  private ColumnType type;
+  private long rows;
+  private long nulls;
+  private byte[] registers = new byte[NUM_REGISTERS];
+  // the count and the overestimate of the count of the frequent values
+  private Map<Object, long[]> counters = new HashMap<Object, long[]>();
+
+  /**
+   * For reading the sketch.
+   */
+  public ColumnSketch() {
+    // no-op
+  }
+
+  /**
+   * @param type
+   *          The type of the column.
+   */
+  public ColumnSketch(ColumnType type) {
+    this.type = type;
+  }
+
+  /**
+   * Get the type of the column.
+   */
+  public ColumnType getType() {
+    return type;
+  }
+
+  /**
+   * Get the number of rows the sketch is of.
+   */
+  public long getRows() {
+    return rows;
+  }
+
+  /**
+   * Get the number of null values.
+   */
+  public long getNullCount() {
+    return nulls;
+  }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static long hash(Object value) {
+    if (value instanceof String) {
+      String s = (String) value;
+      long h = 0xcbf29ce484222325L;
+      for (int i = 0; i < s.length(); i++) {
+        h = (h ^ s.charAt(i)) * 0x100000001b3L;
+      }
+      return mix(h);
+    }
+    if (value instanceof Integer || value instanceof Long) {
+      return mix(((Number) value).longValue());
+    }
+    if (value instanceof Float) {
+      return mix(Float.floatToIntBits((Float) value));
+    }
+    if (value instanceof Double) {
+      return mix(Double.doubleToLongBits((Double) value));
+    }
+    return mix(value.hashCode());
+  }
+
+  /**
+   * Add a value of a row.
+   *
+   * @param value
+   *          The value of the column, which may be null.
+   */
+  public void add(Object value) {
+    ++rows;
+    if (value == null) {
+      ++nulls;
+      return;
+    }
+    if (value.getClass() != ColumnStats.getValueClass(type)) {
+      return;
+    }
+
+    long h = hash(value);
+    int register = (int) (h >>> (64 - LOG_REGISTERS));
+    int rank = Long.numberOfLeadingZeros((h << LOG_REGISTERS)
+        | (1L << (LOG_REGISTERS - 1))) + 1;
+    if (rank > registers[register]) {
+      registers[register] = (byte) rank;
+    }
+
+    long[] counter = counters.get(value);
+    if (counter != null) {
+      ++counter[0];
+    } else if (counters.size() < MAX_FREQUENT) {
+      counters.put(value, new long[] { 1, 0 });
+    } else {
+      // the value takes the place of the least frequent one, whose count it
+      // may have had
+      Object least = null;
+      long[] leastCounter = null;
+      for (Map.Entry<Object, long[]> e : counters.entrySet()) {
+        if (leastCounter == null || e.getValue()[0] < leastCounter[0]) {
+          least = e.getKey();
+          leastCounter = e.getValue();
+        }
+      }
+      counters.remove(least);
+      counters.put(value, new long[] { leastCounter[0] + 1, leastCounter[0] });
+    }
+  }
+
+  private long getLeastCount() {
+    if (counters.size() < MAX_FREQUENT) {
+      return 0;
+    }
+    long least = Long.MAX_VALUE;
+    for (long[] counter : counters.values()) {
+      least = Math.min(least, counter[0]);
+    }
+    return least;
+  }
+
+  /**
+   * Add the sketch of other rows of the same column.
+   *
+   * @param other
+   *          The sketch of the other rows.
+   */
+  public void merge(ColumnSketch other) {
+    rows += other.rows;
+    nulls += other.nulls;
+    for (int i = 0; i < NUM_REGISTERS; i++) {
+      registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+    }
+
+    // a value missing from a full sketch may have had up to its least count
+    long least = getLeastCount();
+    long otherLeast = other.getLeastCount();
+    Set<Object> values = new HashSet<Object>(counters.keySet());
+    values.addAll(other.counters.keySet());
+    Map<Object, long[]> merged = new HashMap<Object, long[]>();
+    for (Object value : values) {
+      long[] c1 = counters.get(value);
+      long[] c2 = other.counters.get(value);
+      merged.put(value, new long[] {
+          (c1 == null ? least : c1[0]) + (c2 == null ? otherLeast : c2[0]),
+          (c1 == null ? least : c1[1]) + (c2 == null ? otherLeast : c2[1]) });
+    }
+    List<Map.Entry<Object, long[]>> entries =
+        new ArrayList<Map.Entry<Object, long[]>>(merged.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<Object, long[]>>() {
+      @Override
+      public int compare(Map.Entry<Object, long[]> e1, Map.Entry<Object, long[]> e2) {
+        long c1 = e1.getValue()[0], c2 = e2.getValue()[0];
+        return c1 > c2 ? -1 : (c1 < c2 ? 1 : 0);
+      }
+    });
+    counters = new HashMap<Object, long[]>();
+    for (int i = 0; i < entries.size() && i < MAX_FREQUENT; i++) {
+      counters.put(entries.get(i).getKey(), entries.get(i).getValue());
+    }
+  }
+
+  /**
+   * Get the estimated number of distinct non-null values.
+   */
+  public long getDistinctCount() {
+    double sum = 0;
+    int zeros = 0;
+    for (byte r : registers) {
+      sum += 1.0 / (1L << r);
+      if (r == 0) {
+        ++zeros;
+      }
+    }
+    double m = NUM_REGISTERS;
+    double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      // linear counting is more accurate for small counts
+      estimate = m * Math.log(m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * Get the values which are certainly among the most frequent ones, with
+   * the number of rows which at least have them, most frequent first.
+   *
+   * @return The values and their counts.
+   */
+  public List<Map.Entry<Object, Long>> getMostFrequentValues() {
+    List<Map.Entry<Object, Long>> ret = new ArrayList<Map.Entry<Object, Long>>();
+    for (Map.Entry<Object, long[]> e : counters.entrySet()) {
+      long count = e.getValue()[0] - e.getValue()[1];
+      if (count > 0) {
+        ret.add(new AbstractMap.SimpleImmutableEntry<Object, Long>(
+            e.getKey(), count));
+      }
+    }
+    Collections.sort(ret, new Comparator<Map.Entry<Object, Long>>() {
+      @Override
+      public int compare(Map.Entry<Object, Long> e1, Map.Entry<Object, Long> e2) {
+        return e2.getValue().compareTo(e1.getValue());
+      }
+    });
+    return ret;
+  }
+
+  /**
+   * @see Writable#readFields(DataInput)
+   */
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    type = ColumnType.valueOf(Utils.readString(in));
+    rows = Utils.readVLong(in);
+    nulls = Utils.readVLong(in);
+    in.readFully(registers);
+    int numCounters = Utils.readVInt(in);
+    counters = new HashMap<Object, long[]>();
+    for (int i = 0; i < numCounters; i++) {
+      Object value = ColumnStats.readValue(in, type);
+      counters.put(value, new long[] { Utils.readVLong(in), Utils.readVLong(in) });
+    }
+  }
+
+  /**
+   * @see Writable#write(DataOutput)
+   */
+  @Override
+  public void write(DataOutput out) throws IOException {
+    Utils.writeString(out, type.name());
+    Utils.writeVLong(out, rows);
+    Utils.writeVLong(out, nulls);
+    out.write(registers);
+    Utils.writeVInt(out, counters.size());
+    for (Map.Entry<Object, long[]> e : counters.entrySet()) {
+      ColumnStats.writeValue(out, type, e.getKey());
+      Utils.writeVLong(out, e.getValue()[0]);
+      Utils.writeVLong(out, e.getValue()[1]);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "{rows = " + rows + ", nulls = " + nulls + ", distinct = "
+        + getDistinctCount() + ", frequent = " + getMostFrequentValues() + "}";
+  }
+}
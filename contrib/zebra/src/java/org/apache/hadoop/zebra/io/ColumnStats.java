@@ -0,0 +1,277 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.apache.hadoop.zebra.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.zebra.schema.ColumnType;
+import org.apache.hadoop.zebra.tfile.Utils;
+
+/**
+ * Minimum, maximum and null count of the values of a scalar column over a
+ * number of rows. The statistics are recorded for every data block of the
+ * column group files, and are used to skip the data whose values cannot match
+ * a filter.
+ */
+public final class ColumnStats implements Writable {
+  private ColumnType type;
+  private long rows;
+  private long nulls;
+  private Object min;
+  private Object max;
+  private boolean hasUnordered;
+
+  /**
+   * For reading the statistics.
+   */
+  public ColumnStats() {
+    // no-op
+  }
+
+  /**
+   * @param type
+   *          The type of the column.
+   */
+  public ColumnStats(ColumnType type) {
+    this.type = type;
+  }
+
+  /**
+   * Whether statistics are kept for columns of the type.
+   *
+   * @param type
+   *          The column type.
+   * @return true if the type is a scalar type with an order.
+   */
+  public static boolean isSupported(ColumnType type) {
+    switch (type) {
+      case BOOL:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case STRING:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  static Class<?> getValueClass(ColumnType type) {
+    switch (type) {
+      case BOOL:
+        return Boolean.class;
+      case INT:
+        return Integer.class;
+      case LONG:
+        return Long.class;
+      case FLOAT:
+        return Float.class;
+      case DOUBLE:
+        return Double.class;
+      case STRING:
+        return String.class;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Get the type of the column.
+   */
+  public ColumnType getType() {
+    return type;
+  }
+
+  /**
+   * Get the number of rows the statistics are of.
+   */
+  public long getRows() {
+    return rows;
+  }
+
+  /**
+   * Get the number of null values.
+   */
+  public long getNullCount() {
+    return nulls;
+  }
+
+  /**
+   * Get the smallest value. It is null if all values are null, or if none of
+   * the values have an order (NaN).
+   */
+  public Object getMin() {
+    return min;
+  }
+
+  /**
+   * Get the largest value. It is null if all values are null, or if none of
+   * the values have an order (NaN).
+   */
+  public Object getMax() {
+    return max;
+  }
+
+  /**
+   * Add a value of a row.
+   *
+   * @param value
+   *          The value of the column, which may be null.
+   */
+  @SuppressWarnings("unchecked")
+  public void add(Object value) {
+    ++rows;
+    if (value == null) {
+      ++nulls;
+      return;
+    }
+    if (value.getClass() != getValueClass(type)
+        || value instanceof Float && ((Float) value).isNaN()
+        || value instanceof Double && ((Double) value).isNaN()) {
+      // such values are counted, and make the range incomplete
+      hasUnordered = true;
+      return;
+    }
+    if (min == null || ((Comparable<Object>) value).compareTo(min) < 0) {
+      min = value;
+    }
+    if (max == null || ((Comparable<Object>) value).compareTo(max) > 0) {
+      max = value;
+    }
+  }
+
+  /**
+   * Add the statistics of other rows of the same column.
+   *
+   * @param other
+   *          The statistics of the other rows.
+   */
+  @SuppressWarnings("unchecked")
+  public void merge(ColumnStats other) {
+    rows += other.rows;
+    nulls += other.nulls;
+    hasUnordered |= other.hasUnordered;
+    if (other.min != null
+        && (min == null || ((Comparable<Object>) other.min).compareTo(min) < 0)) {
+      min = other.min;
+    }
+    if (other.max != null
+        && (max == null || ((Comparable<Object>) other.max).compareTo(max) > 0)) {
+      max = other.max;
+    }
+  }
+
+  /**
+   * Whether some of the values are NaN, which have no order, or are not of
+   * the type of the column. The minimum and maximum are then only of the other
+   * values.
+   */
+  public boolean hasUnorderedValues() {
+    return hasUnordered;
+  }
+
+  /**
+   * @see Writable#readFields(DataInput)
+   */
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    type = ColumnType.valueOf(Utils.readString(in));
+    rows = Utils.readVLong(in);
+    nulls = Utils.readVLong(in);
+    hasUnordered = in.readBoolean();
+    boolean hasRange = in.readBoolean();
+    if (hasRange) {
+      min = readValue(in, type);
+      max = readValue(in, type);
+    } else {
+      min = null;
+      max = null;
+    }
+  }
+
+  /**
+   * @see Writable#write(DataOutput)
+   */
+  @Override
+  public void write(DataOutput out) throws IOException {
+    Utils.writeString(out, type.name());
+    Utils.writeVLong(out, rows);
+    Utils.writeVLong(out, nulls);
+    out.writeBoolean(hasUnordered);
+    out.writeBoolean(min != null);
+    if (min != null) {
+      writeValue(out, type, min);
+      writeValue(out, type, max);
+    }
+  }
+
+  static Object readValue(DataInput in, ColumnType type) throws IOException {
+    switch (type) {
+      case BOOL:
+        return in.readBoolean();
+      case INT:
+        return in.readInt();
+      case LONG:
+        return in.readLong();
+      case FLOAT:
+        return in.readFloat();
+      case DOUBLE:
+        return in.readDouble();
+      case STRING:
+        return Utils.readString(in);
+      default:
+        throw new IOException("No statistics for columns of type " + type);
+    }
+  }
+
+  static void writeValue(DataOutput out, ColumnType type, Object value)
+      throws IOException {
+    switch (type) {
+      case BOOL:
+        out.writeBoolean((Boolean) value);
+        break;
+      case INT:
+        out.writeInt((Integer) value);
+        break;
+      case LONG:
+        out.writeLong((Long) value);
+        break;
+      case FLOAT:
+        out.writeFloat((Float) value);
+        break;
+      case DOUBLE:
+        out.writeDouble((Double) value);
+        break;
+      case STRING:
+        Utils.writeString(out, (String) value);
+        break;
+      default:
+        throw new IOException("No statistics for columns of type " + type);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "{rows = " + rows + ", nulls = " + nulls + ", min = " + min
+        + ", max = " + max + "}";
+  }
+}
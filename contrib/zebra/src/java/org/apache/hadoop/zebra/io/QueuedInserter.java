@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.zebra.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.zebra.schema.Schema;
+import org.apache.hadoop.zebra.types.TypesUtils;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Inserter which hands the rows over to a thread of its own that inserts them
+ * into another inserter, through a bounded queue of batches of rows. The rows
+ * of the column groups of a table are serialized and compressed in parallel
+ * when each has one. The rows are copied, since the callers reuse them.
+ * <p>
+ * A failure of the thread is thrown by the next insert or the close.
+ */
+final class QueuedInserter implements TableInserter {
+  private final TableInserter inserter;
+  private final int batchSize;
+  private final BlockingQueue<Batch> queue;
+  private final Thread thread;
+  private Batch batch;
+  private volatile Throwable failure;
+  private boolean closed;
+
+  // the batch which ends the rows
+  private static final Batch END = new Batch(0);
+
+  private static final class Batch {
+    final BytesWritable[] keys;
+    final Tuple[] rows;
+    int count;
+
+    Batch(int size) {
+      keys = new BytesWritable[size];
+      rows = new Tuple[size];
+    }
+  }
+
+  /**
+   * @param inserter
+   *          The inserter the thread inserts the rows into, and closes.
+   * @param name
+   *          The name of the thread.
+   * @param batchSize
+   *          The number of rows handed over at a time.
+   * @param queueSize
+   *          The number of batches which may wait for the thread.
+   */
+  QueuedInserter(TableInserter inserter, String name, int batchSize, int queueSize) {
+    this.inserter = inserter;
+    this.batchSize = batchSize;
+    queue = new ArrayBlockingQueue<Batch>(queueSize);
+    batch = new Batch(batchSize);
+    thread = new Thread(new Runnable() {
+      public void run() {
+        insertRows();
+      }
+    }, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void insertRows() {
+    boolean ended = false;
+    try {
+      while (true) {
+        Batch rows = queue.take();
+        if (rows == END) {
+          ended = true;
+          break;
+        }
+        for (int i = 0; i < rows.count; i++) {
+          inserter.insert(rows.keys[i], rows.rows[i]);
+        }
+      }
+      inserter.close();
+    }
+    catch (Throwable e) {
+      failure = e;
+      try {
+        inserter.close();
+      }
+      catch (Throwable ce) {
+        // no-op
+      }
+      try {
+        // take the rows off the queue, so that the inserting thread does not
+        // wait for room forever
+        while (!ended && queue.take() != END) {
+          // no-op
+        }
+      }
+      catch (InterruptedException ie) {
+        // give up
+      }
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      IOException e = new IOException("Insertion failed on " + thread.getName());
+      e.initCause(failure);
+      throw e;
+    }
+  }
+
+  private void put(Batch rows) throws IOException {
+    try {
+      queue.put(rows);
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while queueing rows for "
+          + thread.getName());
+    }
+  }
+
+  @Override
+  public void insert(BytesWritable key, Tuple row) throws IOException {
+    if (closed) {
+      throw new IOException("Inserter already closed");
+    }
+    checkFailure();
+    batch.keys[batch.count] = key == null ? null : new BytesWritable(
+        Arrays.copyOf(key.getBytes(), key.getLength()));
+    batch.rows[batch.count] = copy(row);
+    if (++batch.count == batchSize) {
+      put(batch);
+      batch = new Batch(batchSize);
+    }
+  }
+
+  @Override
+  public Schema getSchema() {
+    return inserter.getSchema();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    if (batch.count > 0) {
+      put(batch);
+    }
+    batch = null;
+    put(END);
+    try {
+      thread.join();
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while closing "
+          + thread.getName());
+    }
+    checkFailure();
+  }
+
+  /**
+   * Copy the tuples, maps, bags and byte arrays of a value, which the callers
+   * and the partitioning of the rows into column groups reuse. The other
+   * values are immutable and shared.
+   */
+  @SuppressWarnings("unchecked")
+  private static Object copy(Object value) throws IOException {
+    if (value instanceof Tuple) {
+      Tuple tuple = (Tuple) value;
+      Tuple ret = TypesUtils.createTuple(tuple.size());
+      for (int i = 0; i < tuple.size(); i++) {
+        ret.set(i, copy(tuple.get(i)));
+      }
+      return ret;
+    }
+    if (value instanceof Map) {
+      Map<Object, Object> map = (Map<Object, Object>) value;
+      Map<Object, Object> ret = new HashMap<Object, Object>(map.size() * 4 / 3 + 1);
+      for (Map.Entry<Object, Object> e : map.entrySet()) {
+        ret.put(e.getKey(), copy(e.getValue()));
+      }
+      return ret;
+    }
+    if (value instanceof DataBag) {
+      DataBag ret = TypesUtils.createBag();
+      for (Tuple tuple : (DataBag) value) {
+        ret.add(copy(tuple));
+      }
+      return ret;
+    }
+    if (value instanceof DataByteArray) {
+      DataByteArray bytes = (DataByteArray) value;
+      return new DataByteArray(Arrays.copyOf(bytes.get(), bytes.size()));
+    }
+    return value;
+  }
+
+  private static Tuple copy(Tuple row) throws IOException {
+    return (Tuple) copy((Object) row);
+  }
+}
@@ -68,9 +68,25 @@ public interface TableScanner extends Closeable {
    */
   void getValue(Tuple row) throws IOException;
 
+  /**
+   * Get the rows from the cursor on, and advance the cursor past them. Column
+   * group based implementations read the rows of each column group together
+   * before putting them together into the rows.
+   *
+   * @param rows
+   *          The output parameter to hold the results. Each of them must
+   *          conform to the schema that the scanner is aware of.
+   * @return The number of rows read. It is less than the length of rows only
+   *         when the cursor reaches the end of the scan range.
+   * @throws IOException
+   */
+  int getValues(Tuple[] rows) throws IOException;
+
   /**
    * Seek to the key that is greater or equal to the provided key, or we reach
-   * the end. It is only applicable to sorted tables.
+   * the end. It is only applicable to sorted tables. On column groups written
+   * with Bloom filters (table.output.cg.bloom), a seek to a key which is not
+   * in the table reads no data block until the cursor is used again.
    * 
    * @param key
    *          The input key.
@@ -189,6 +189,22 @@ class BasicTableExpr extends TableExpr {
         }
       }
     }
+
+    @Override
+    public int getValues(Tuple[] rows) throws IOException {
+      int n = scanner.getValues(rows);
+      if (virtualColumnIndices != null)
+      {
+        for (int j = 0; j < n; j++)
+        {
+          for (int i = 0; i < virtualColumnIndices.length; i++)
+          {
+            rows[j].set(virtualColumnIndices[i], tableIndex);
+          }
+        }
+      }
+      return n;
+    }
     
     @Override
     public boolean seekTo(BytesWritable key) throws IOException {
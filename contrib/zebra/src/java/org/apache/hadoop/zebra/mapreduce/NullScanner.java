@@ -72,6 +72,11 @@ class NullScanner implements TableScanner {
     throw new EOFException("No more rows to read");
   }
 
+  @Override
+  public int getValues(Tuple[] rows) throws IOException {
+    return 0;
+  }
+
   @Override
   public boolean seekTo(BytesWritable key) throws IOException {
     return false;
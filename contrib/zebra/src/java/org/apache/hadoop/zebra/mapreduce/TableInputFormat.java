@@ -21,9 +21,11 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -50,6 +52,7 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.zebra.io.BasicTable;
 import org.apache.hadoop.zebra.io.BasicTableStatus;
 import org.apache.hadoop.zebra.io.BlockDistribution;
+import org.apache.hadoop.zebra.io.ColumnStats;
 import org.apache.hadoop.zebra.io.KeyDistribution;
 import org.apache.hadoop.zebra.io.BasicTable.Reader;
 import org.apache.hadoop.zebra.io.BasicTable.Reader.RangeSplit;
@@ -63,6 +66,7 @@ import org.apache.hadoop.zebra.tfile.TFile;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.util.ObjectSerializer;
 
 /**
  * {@link org.apache.hadoop.mapreduce.InputFormat} class for reading one or more
@@ -159,6 +163,7 @@ public class TableInputFormat extends InputFormat<BytesWritable, Tuple> {
   static final String INPUT_FE = "mapreduce.lib.table.input.fe";
   static final String INPUT_DELETED_CGS = "mapreduce.lib.table.input.deleted_cgs";
   private static final String INPUT_SPLIT_MODE = "mapreduce.lib.table.input.split_mode";
+  private static final String INPUT_FILTER = "mapreduce.lib.table.input.filter";
   private static final String UNSORTED = "unsorted";
   private static final String GLOBALLY_SORTED = "globally_sorted";
   private static final String LOCALLY_SORTED = "locally_sorted";
@@ -323,6 +328,70 @@ public class TableInputFormat extends InputFormat<BytesWritable, Tuple> {
     return null;
   }
       
+  /**
+   * Set a condition on the rows of the input, which is used to skip the
+   * unsorted row splits of the tables whose rows cannot match it, by the
+   * minimum and maximum values the columns have in the blocks of the split.
+   * The rows of the other splits are not filtered.
+   * 
+   * @param jobContext
+   *          JobContext object.
+   * @param filter
+   *          The condition, or null for none.
+   * @throws IOException
+   */
+  public static void setFilter(JobContext jobContext, ZebraFilter filter) throws IOException {
+    Configuration conf = jobContext.getConfiguration();
+    if (filter == null) {
+      conf.set(INPUT_FILTER, "");
+    } else {
+      conf.set(INPUT_FILTER, ObjectSerializer.serialize(filter));
+    }
+  }
+
+  /**
+   * Get the condition on the rows of the input.
+   * 
+   * @param jobContext
+   *          The JobContext object
+   * @return The condition, or null if none was set.
+   * @throws IOException
+   */
+  public static ZebraFilter getFilter(JobContext jobContext) throws IOException {
+    return getFilter(jobContext.getConfiguration());
+  }
+
+  private static ZebraFilter getFilter(Configuration conf) throws IOException {
+    String filter = conf.get(INPUT_FILTER);
+    if (filter == null || filter.length() == 0) {
+      return null;
+    }
+    return (ZebraFilter) ObjectSerializer.deserialize(filter);
+  }
+
+  /**
+   * Whether any row of a row split may match the filter.
+   */
+  private static boolean mayMatch(BasicTable.Reader reader, RowSplit split,
+      ZebraFilter filter, Set<String> columns) {
+    try {
+      List<Map<String, ColumnStats>> stats = reader.getStats(split, columns);
+      if (stats == null) {
+        return true;
+      }
+      for (Map<String, ColumnStats> fileStats : stats) {
+        if (filter.mayMatch(fileStats)) {
+          return true;
+        }
+      }
+      return false;
+    } catch (IOException e) {
+      LOG.warn("Unable to read the statistics of a split of " + reader.getPath()
+          + ", it is kept: " + e.getMessage());
+      return true;
+    }
+  }
+
   private static boolean globalOrderingRequired(JobContext jobContext)
   {
     Configuration conf = jobContext.getConfiguration();
@@ -796,6 +865,12 @@ public class TableInputFormat extends InputFormat<BytesWritable, Tuple> {
     StringBuilder sb = new StringBuilder();
     boolean first = true;
     PathFilter filter = null;
+    ZebraFilter rowFilter = getFilter(conf);
+    Set<String> filterColumns = new HashSet<String>();
+    if (rowFilter != null) {
+      rowFilter.getColumns(filterColumns);
+    }
+    int skipped = 0;
     List<BasicTable.Reader> realReaders = new ArrayList<BasicTable.Reader>();
     int[] realReaderIndices = new int[readers.size()];
 
@@ -909,12 +984,19 @@ public class TableInputFormat extends InputFormat<BytesWritable, Tuple> {
         int realTableIndex = realReaderIndices[tableIndex];
         for (Iterator<RowSplit> it = subSplits.iterator(); it.hasNext();) {
           RowSplit subSplit = it.next();
+          if (rowFilter != null && !mayMatch(reader, subSplit, rowFilter, filterColumns)) {
+            skipped++;
+            continue;
+          }
           RowTableSplit split = new RowTableSplit(reader, subSplit, realTableIndex, conf);
           ret.add(split);
         }
       }
     }
 
+    if (skipped > 0) {
+      LOG.info("getSplits : skipped " + skipped + " row splits whose rows cannot match " + rowFilter);
+    }
     LOG.info("getSplits : returning " + ret.size() + " row splits.");
     return ret;
   }
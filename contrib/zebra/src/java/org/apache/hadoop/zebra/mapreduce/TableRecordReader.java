@@ -96,6 +96,29 @@ public class TableRecordReader extends RecordReader<BytesWritable, Tuple> {
 	  return scanner.atEnd();
   }
 
+  /**
+   * Get the number of columns of the values, that of the projection.
+   */
+  public int getNumColumns() throws IOException {
+    return Projection.getNumColumns(scanner.getProjection());
+  }
+
+  /**
+   * Read the values of the next rows, without their keys. The rows of each
+   * column group are read together.
+   *
+   * @param values
+   *          the tuples to read the values into, each of which has the
+   *          columns of the projection
+   * @return the number of rows read, which is less than the number of values
+   *         only at the end of the input
+   */
+  public int nextValues(Tuple[] values) throws IOException {
+    int n = scanner.getValues(values);
+    count += n;
+    return n;
+  }
+
 	@Override
 	public BytesWritable getCurrentKey() throws IOException, InterruptedException {
 		return key;
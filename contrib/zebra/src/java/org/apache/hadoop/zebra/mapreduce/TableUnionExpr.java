@@ -275,6 +275,16 @@ class SortedTableUnionScanner implements TableScanner {
     row.reference(tmp);
   }
 
+  @Override
+  public int getValues(Tuple[] rows) throws IOException {
+    int n = 0;
+    while (n < rows.length && !atEnd()) {
+      getValue(rows[n++]);
+      advance();
+    }
+    return n;
+  }
+
   @Override
   public boolean seekTo(BytesWritable key) throws IOException {
     boolean rv = false;
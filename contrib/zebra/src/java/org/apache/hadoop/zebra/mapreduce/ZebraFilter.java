@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.zebra.mapreduce;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.zebra.io.ColumnStats;
+
+/**
+ * A condition on the values of the columns of a table, made of comparisons
+ * of columns with constants, ANDs and ORs. It is used to skip the splits of a
+ * table whose rows cannot match the condition, by the minimum and maximum
+ * values of the columns of the blocks of the split. The rows of the splits
+ * which are read are not filtered.
+ */
+public abstract class ZebraFilter implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Comparison operators.
+   */
+  public enum Op {
+    EQ, NE, LT, LE, GT, GE;
+
+    /**
+     * @return the operator for the operands in the other order.
+     */
+    public Op flip() {
+      switch (this) {
+        case LT:
+          return GT;
+        case LE:
+          return GE;
+        case GT:
+          return LT;
+        case GE:
+          return LE;
+        default:
+          return this;
+      }
+    }
+  };
+
+  private ZebraFilter() {
+    // only the filters below
+  }
+
+  /**
+   * Create a comparison of a column with a constant.
+   *
+   * @param column
+   *          The name of the column.
+   * @param op
+   *          The comparison operator, for the column on its left.
+   * @param value
+   *          The constant, a Boolean, Number or String.
+   */
+  public static ZebraFilter createComparison(String column, Op op, Object value) {
+    return new Comparison(column, op, value);
+  }
+
+  public static ZebraFilter createAnd(ZebraFilter lhs, ZebraFilter rhs) {
+    return new Junction(lhs, rhs, true);
+  }
+
+  public static ZebraFilter createOr(ZebraFilter lhs, ZebraFilter rhs) {
+    return new Junction(lhs, rhs, false);
+  }
+
+  /**
+   * Whether rows with values in the ranges of the statistics may match the
+   * condition.
+   *
+   * @param stats
+   *          The statistics of the columns. Columns without statistics may
+   *          have any values.
+   * @return false only if no such row can match.
+   */
+  public abstract boolean mayMatch(Map<String, ColumnStats> stats);
+
+  /**
+   * Add the names of the columns the condition is on.
+   */
+  public abstract void getColumns(Set<String> columns);
+
+  private static class Comparison extends ZebraFilter {
+    private static final long serialVersionUID = 1L;
+    private final String column;
+    private final Op op;
+    private final Object value;
+
+    Comparison(String column, Op op, Object value) {
+      this.column = column;
+      this.op = op;
+      this.value = value;
+    }
+
+    @Override
+    public boolean mayMatch(Map<String, ColumnStats> stats) {
+      ColumnStats cs = stats.get(column);
+      if (cs == null || value == null) {
+        return true;
+      }
+      if (cs.getNullCount() == cs.getRows() && !cs.hasUnorderedValues()) {
+        // a comparison with null is never true
+        return false;
+      }
+      if (cs.getMin() == null || cs.hasUnorderedValues()) {
+        return true;
+      }
+      int cmpMin, cmpMax;
+      try {
+        cmpMin = compare(cs.getMin(), value);
+        cmpMax = compare(cs.getMax(), value);
+      } catch (IllegalArgumentException e) {
+        // values of different kinds
+        return true;
+      }
+      switch (op) {
+        case EQ:
+          return cmpMin <= 0 && cmpMax >= 0;
+        case NE:
+          return !(cmpMin == 0 && cmpMax == 0);
+        case LT:
+          return cmpMin < 0;
+        case LE:
+          return cmpMin <= 0;
+        case GT:
+          return cmpMax > 0;
+        case GE:
+          return cmpMax >= 0;
+        default:
+          return true;
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+      if (a instanceof Number && b instanceof Number) {
+        if (isIntegral(a) && isIntegral(b)) {
+          long x = ((Number) a).longValue(), y = ((Number) b).longValue();
+          return x < y ? -1 : (x == y ? 0 : 1);
+        }
+        return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+      }
+      if (a instanceof String && b instanceof String
+          || a instanceof Boolean && b instanceof Boolean) {
+        return ((Comparable<Object>) a).compareTo(b);
+      }
+      throw new IllegalArgumentException("Cannot compare " + a + " with " + b);
+    }
+
+    private static boolean isIntegral(Object o) {
+      return o instanceof Integer || o instanceof Long || o instanceof Short
+          || o instanceof Byte;
+    }
+
+    @Override
+    public void getColumns(Set<String> columns) {
+      columns.add(column);
+    }
+
+    @Override
+    public String toString() {
+      return column + " " + op + " " + value;
+    }
+  }
+
+  private static class Junction extends ZebraFilter {
+    private static final long serialVersionUID = 1L;
+    private final ZebraFilter lhs, rhs;
+    private final boolean and;
+
+    Junction(ZebraFilter lhs, ZebraFilter rhs, boolean and) {
+      this.lhs = lhs;
+      this.rhs = rhs;
+      this.and = and;
+    }
+
+    @Override
+    public boolean mayMatch(Map<String, ColumnStats> stats) {
+      if (and) {
+        return lhs.mayMatch(stats) && rhs.mayMatch(stats);
+      }
+      return lhs.mayMatch(stats) || rhs.mayMatch(stats);
+    }
+
+    @Override
+    public void getColumns(Set<String> columns) {
+      lhs.getColumns(columns);
+      rhs.getColumns(columns);
+    }
+
+    @Override
+    public String toString() {
+      return "(" + lhs + (and ? " AND " : " OR ") + rhs + ")";
+    }
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.hadoop.zebra.pig;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -38,8 +39,11 @@ import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.zebra.io.BasicTable;
+import org.apache.hadoop.zebra.io.BasicTableStatus;
+import org.apache.hadoop.zebra.io.ColumnSketch;
 import org.apache.hadoop.zebra.mapreduce.TableInputFormat;
 import org.apache.hadoop.zebra.mapreduce.TableRecordReader;
+import org.apache.hadoop.zebra.mapreduce.ZebraFilter;
 import org.apache.hadoop.zebra.mapreduce.TableInputFormat.SplitMode;
 import org.apache.hadoop.zebra.parser.ParseException;
 import org.apache.hadoop.zebra.schema.ColumnType;
@@ -48,16 +52,20 @@ import org.apache.hadoop.zebra.schema.Schema.ColumnSchema;
 import org.apache.hadoop.zebra.types.Projection;
 import org.apache.hadoop.zebra.types.SortInfo;
 import org.apache.pig.Expression;
+import org.apache.pig.LoadFilterPushDown;
 import org.apache.pig.LoadFunc;
 import org.apache.pig.LoadMetadata;
 import org.apache.pig.LoadPushDown;
 import org.apache.pig.OrderedLoadFunc;
 import org.apache.pig.ResourceSchema;
 import org.apache.pig.ResourceStatistics;
+import org.apache.pig.ResourceStatistics.ResourceFieldStatistics;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
 import org.apache.pig.data.DefaultTupleFactory;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.Expression.BinaryExpression;
 import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.util.ObjectSerializer;
 import org.apache.pig.impl.util.UDFContext;
 import org.apache.hadoop.zebra.pig.comparator.*;
 import org.apache.pig.IndexableLoadFunc;
@@ -67,11 +75,12 @@ import org.apache.pig.CollectableLoadFunc;
  * Pig IndexableLoadFunc and Slicer for Zebra Table
  */
 public class TableLoader extends LoadFunc implements LoadMetadata, LoadPushDown,
-        IndexableLoadFunc, CollectableLoadFunc, OrderedLoadFunc {
+        LoadFilterPushDown, IndexableLoadFunc, CollectableLoadFunc, OrderedLoadFunc {
     static final Log LOG = LogFactory.getLog(TableLoader.class);
 
     private static final String UDFCONTEXT_PROJ_STRING = "zebra.UDFContext.projectionString";
     private static final String UDFCONTEXT_GLOBAL_SORTING = "zebra.UDFContext.globalSorting";
+    private static final String UDFCONTEXT_FILTER = "zebra.UDFContext.filter";
 
     private String projectionString;
 
@@ -87,6 +96,22 @@ public class TableLoader extends LoadFunc implements LoadMetadata, LoadPushDown,
 
     private KeyGenerator keyGenerator = null;
 
+    /**
+     * The number of rows getNext() reads from the table at a time.
+     */
+    private static final int BATCH_SIZE = 1024;
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private Tuple[] batch = null;
+    private int batchCount = 0;
+    private int batchIndex = 0;
+    private int numColumns;
+
+    // the statistics of the tables of the last location asked for
+    private String statisticsLocation = null;
+    private ResourceStatistics statistics = null;
+
     /**
      * default constructor
      */
@@ -149,6 +174,7 @@ public class TableLoader extends LoadFunc implements LoadMetadata, LoadPushDown,
     public void seekNear(Tuple tuple) throws IOException {
         BytesWritable key = keyGenerator.generateKey( tuple );
         tableRecordReader.seekTo( key );
+        batchCount = batchIndex = 0;
     }
     
     private TableRecordReader createIndexReader() throws IOException {
@@ -263,15 +289,22 @@ public class TableLoader extends LoadFunc implements LoadMetadata, LoadPushDown,
 
      @Override
      public Tuple getNext() throws IOException {
-         if (tableRecordReader.atEnd())
-             return null;
-         try {
-             tableRecordReader.nextKeyValue();
-             ArrayList<Object> fields = new ArrayList<Object>(tableRecordReader.getCurrentValue().getAll());
-             return DefaultTupleFactory.getInstance().newTuple(fields);
-         } catch (InterruptedException ex) {
-             throw new IOException( "InterruptedException:" + ex );
+         if (batchIndex == batchCount) {
+             if (batch == null) {
+                 batch = new Tuple[BATCH_SIZE];
+                 numColumns = tableRecordReader.getNumColumns();
+             }
+             // The rows are read into new tuples, as pig may keep the ones returned.
+             for (int i = 0; i < batch.length; i++)
+                 batch[i] = DefaultTupleFactory.getInstance().newTuple( numColumns );
+             batchCount = tableRecordReader.nextValues( batch );
+             batchIndex = 0;
+             if (batchCount == 0)
+                 return null;
          }
+         Tuple tuple = batch[batchIndex];
+         batch[batchIndex++] = null;
+         return tuple;
      }
 
      @Override
@@ -287,6 +320,8 @@ public class TableLoader extends LoadFunc implements LoadMetadata, LoadPushDown,
          tableRecordReader = (TableRecordReader)reader;
          if( tableRecordReader == null )
              throw new IOException( "Invalid object type passed to TableLoader" );
+         batch = null;
+         batchCount = batchIndex = 0;
      }
 
      @Override
@@ -298,6 +333,23 @@ public class TableLoader extends LoadFunc implements LoadMetadata, LoadPushDown,
          // can do and it's suggested by Pig team.
          setSortOrder( job );
          setProjection( job );
+         setFilter( job );
+     }
+
+     /**
+      * This method sets the filter pushed by pig, which is used to skip the splits
+      * which cannot match it.
+      * 
+      * @param job
+      * @throws IOException
+      */
+     private void setFilter(Job job) throws IOException {
+         Properties properties = UDFContext.getUDFContext().getUDFProperties( 
+                 this.getClass(), new String[]{ udfContextSignature } );
+         String filter = properties.getProperty( UDFCONTEXT_FILTER );
+         if( filter != null ) {
+             TableInputFormat.setFilter( job, (ZebraFilter)ObjectSerializer.deserialize( filter ) );
+         }
      }
 
      @SuppressWarnings("unchecked")
@@ -368,8 +420,80 @@ public class TableLoader extends LoadFunc implements LoadMetadata, LoadPushDown,
      @Override
      public ResourceStatistics getStatistics(String location, Job job)
      throws IOException {
-         // Statistics is not supported.
-         return null;
+         if (location.equals(statisticsLocation)) {
+             return statistics;
+         }
+
+         // the fields of the statistics are those of the schema
+         getSchema(location, job);
+         List<String> columns = new ArrayList<String>();
+         for (int i = 0; i < projectionSchema.getNumColumns(); i++) {
+             columns.add(projectionSchema.getColumn(i).getName());
+         }
+
+         Path[] paths = getPathsFromLocation(location, job);
+         long size = 0, rows = 0;
+         Map<String, ColumnSketch> sketches = new HashMap<String, ColumnSketch>();
+         for (int j = 0; j < paths.length; j++) {
+             BasicTable.Reader reader = new BasicTable.Reader(paths[j], job.getConfiguration());
+             try {
+                 BasicTableStatus status = reader.getStatus();
+                 size += status.getSize();
+                 if (rows >= 0) {
+                     rows = status.getRows() < 0 ? -1 : rows + status.getRows();
+                 }
+                 Map<String, ColumnSketch> tableSketches = reader.getSketches(columns);
+                 if (j == 0) {
+                     sketches.putAll(tableSketches);
+                 } else {
+                     // a column needs the sketches of all the tables
+                     sketches.keySet().retainAll(tableSketches.keySet());
+                     for (Map.Entry<String, ColumnSketch> e : sketches.entrySet()) {
+                         e.getValue().merge(tableSketches.get(e.getKey()));
+                     }
+                 }
+             } finally {
+                 reader.close();
+             }
+         }
+
+         if (rows < 0 && !sketches.isEmpty()) {
+             // the index of the files of unsorted tables does not count their
+             // rows, but the sketches do
+             rows = sketches.values().iterator().next().getRows();
+         }
+
+         ResourceStatistics stats = new ResourceStatistics();
+         stats.setmBytes((size + MEGABYTE - 1) / MEGABYTE);
+         if (rows >= 0) {
+             stats.setNumRecords(rows);
+             if (rows > 0) {
+                 stats.setAvgRecordSize(size / rows);
+             }
+         }
+         ResourceFieldStatistics[] fields = new ResourceFieldStatistics[columns.size()];
+         for (int i = 0; i < fields.length; i++) {
+             fields[i] = new ResourceFieldStatistics();
+             ColumnSketch sketch = sketches.get(columns.get(i));
+             if (sketch == null || sketch.getRows() == 0) {
+                 continue;
+             }
+             fields[i].setNumDistinctValues(sketch.getDistinctCount());
+             List<Map.Entry<Object, Long>> frequent = sketch.getMostFrequentValues();
+             Object[] values = new Object[frequent.size()];
+             float[] freqs = new float[frequent.size()];
+             for (int k = 0; k < values.length; k++) {
+                 values[k] = frequent.get(k).getKey();
+                 freqs[k] = (float) frequent.get(k).getValue() / sketch.getRows();
+             }
+             fields[i].setMostCommonValues(values);
+             fields[i].setMostCommonValuesFreq(freqs);
+         }
+         stats.setFields(fields);
+
+         statisticsLocation = location;
+         statistics = stats;
+         return stats;
      }
 
      @Override
@@ -380,11 +504,74 @@ public class TableLoader extends LoadFunc implements LoadMetadata, LoadPushDown,
 
      @Override
      public List<OperatorSet> getFeatures() {
-         List<OperatorSet> features = new ArrayList<OperatorSet>(1);
+         List<OperatorSet> features = new ArrayList<OperatorSet>(2);
          features.add( LoadPushDown.OperatorSet.PROJECTION );
+         features.add( LoadPushDown.OperatorSet.FILTER );
          return features;
      }
 
+     @Override
+     public void pushFilter(Expression filter) throws IOException {
+         ZebraFilter zebraFilter = toZebraFilter( filter );
+         if( zebraFilter != null ) {
+             Properties properties = UDFContext.getUDFContext().getUDFProperties( 
+                     this.getClass(), new String[]{ udfContextSignature } );
+             properties.setProperty( UDFCONTEXT_FILTER, ObjectSerializer.serialize( zebraFilter ) );
+         }
+     }
+
+     /**
+      * Convert the condition pig pushed into the filter of the splits. The parts of an
+      * and which cannot be converted are left out.
+      * 
+      * @return the filter, or null if none of the condition can be converted
+      */
+     private static ZebraFilter toZebraFilter(Expression expr) {
+         if( !(expr instanceof BinaryExpression) )
+             return null;
+         BinaryExpression binExpr = (BinaryExpression)expr;
+         Expression lhs = binExpr.getLhs();
+         Expression rhs = binExpr.getRhs();
+         switch( expr.getOpType() ) {
+         case OP_AND: {
+             ZebraFilter l = toZebraFilter( lhs ), r = toZebraFilter( rhs );
+             if( l != null && r != null )
+                 return ZebraFilter.createAnd( l, r );
+             return l != null ? l : r;
+         }
+         case OP_OR: {
+             ZebraFilter l = toZebraFilter( lhs ), r = toZebraFilter( rhs );
+             if( l != null && r != null )
+                 return ZebraFilter.createOr( l, r );
+             return null;
+         }
+         default:
+             ZebraFilter.Op op = toZebraOp( expr.getOpType() );
+             if( op == null )
+                 return null;
+             if( lhs instanceof Expression.Column && rhs instanceof Expression.Const ) {
+                 return ZebraFilter.createComparison( ((Expression.Column)lhs).getName(), op,
+                         ((Expression.Const)rhs).getValue() );
+             } else if( lhs instanceof Expression.Const && rhs instanceof Expression.Column ) {
+                 return ZebraFilter.createComparison( ((Expression.Column)rhs).getName(),
+                         op.flip(), ((Expression.Const)lhs).getValue() );
+             }
+             return null;
+         }
+     }
+
+     private static ZebraFilter.Op toZebraOp(Expression.OpType opType) {
+         switch( opType ) {
+         case OP_EQ: return ZebraFilter.Op.EQ;
+         case OP_NE: return ZebraFilter.Op.NE;
+         case OP_LT: return ZebraFilter.Op.LT;
+         case OP_LE: return ZebraFilter.Op.LE;
+         case OP_GT: return ZebraFilter.Op.GT;
+         case OP_GE: return ZebraFilter.Op.GE;
+         default: return null;
+         }
+     }
+
      @Override
      public RequiredFieldResponse pushProjection(RequiredFieldList requiredFieldList)
      throws FrontendException {
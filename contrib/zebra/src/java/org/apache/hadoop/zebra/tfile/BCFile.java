@@ -17,6 +17,7 @@
 
 package org.apache.hadoop.zebra.tfile;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.DataInput;
 import java.io.DataInputStream;
@@ -475,6 +476,9 @@ final class BCFile {
   static public class Reader implements Closeable {
     private final FSDataInputStream in;
     private final Configuration conf;
+    // the identity of the file in the block cache, if the file has one
+    private final String fileId;
+    private final BlockCache cache;
     final DataIndex dataIndex;
     // Index for meta blocks
     final MetaIndex metaIndex;
@@ -490,6 +494,16 @@ final class BCFile {
       private final BlockRegion region;
       private final InputStream in;
 
+      /**
+       * State of a block read from its cached decompressed data.
+       */
+      public RBlockState(Algorithm compressionAlgo, BlockRegion region,
+          byte[] data) {
+        this.compressAlgo = compressionAlgo;
+        this.region = region;
+        this.in = new ByteArrayInputStream(data);
+      }
+
       public RBlockState(Algorithm compressionAlgo, FSDataInputStream fsin,
           BlockRegion region, Configuration conf) throws IOException {
         this.compressAlgo = compressionAlgo;
@@ -530,8 +544,10 @@ final class BCFile {
         try {
           in.close();
         } finally {
-          compressAlgo.returnDecompressor(decompressor);
-          decompressor = null;
+          if (decompressor != null) {
+            compressAlgo.returnDecompressor(decompressor);
+            decompressor = null;
+          }
         }
       }
     }
@@ -613,8 +629,27 @@ final class BCFile {
      */
     public Reader(FSDataInputStream fin, long fileLength, Configuration conf)
         throws IOException {
+      this(fin, fileLength, null, conf);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param fin
+     *          FS input stream.
+     * @param fileLength
+     *          Length of the corresponding file
+     * @param fileId
+     *          The identity of the file in the block cache, or null if the
+     *          data blocks are not to be cached.
+     * @throws IOException
+     */
+    public Reader(FSDataInputStream fin, long fileLength, String fileId,
+        Configuration conf) throws IOException {
       this.in = fin;
       this.conf = conf;
+      this.fileId = fileId;
+      this.cache = (fileId == null) ? null : BlockCache.getInstance(conf);
 
       // move the cursor to the beginning of the tail, containing: offset to the
       // meta block index, version and magic
@@ -684,6 +719,28 @@ final class BCFile {
       return dataIndex.getBlockRegionList().size();
     }
 
+    /**
+     * Get the offset of a data block in the file.
+     * 
+     * @param blockIndex
+     *          0-based data block index.
+     * @return the offset of the first byte of the block.
+     */
+    public long getBlockOffset(int blockIndex) {
+      return dataIndex.getBlockRegionList().get(blockIndex).getOffset();
+    }
+
+    /**
+     * Get the size of a data block in the file.
+     * 
+     * @param blockIndex
+     *          0-based data block index.
+     * @return the compressed size of the block.
+     */
+    public long getBlockCompressedSize(int blockIndex) {
+      return dataIndex.getBlockRegionList().get(blockIndex).getCompressedSize();
+    }
+
     /**
      * Stream access to a Meta Block.
      * 
@@ -720,7 +777,23 @@ final class BCFile {
       }
 
       BlockRegion region = dataIndex.getBlockRegionList().get(blockIndex);
-      return createReader(dataIndex.getDefaultCompressionAlgorithm(), region);
+      Algorithm compressAlgo = dataIndex.getDefaultCompressionAlgorithm();
+      if (cache == null || region.getRawSize() > cache.getCapacity()) {
+        return createReader(compressAlgo, region);
+      }
+
+      byte[] data = cache.get(fileId, region.getOffset());
+      if (data == null) {
+        data = new byte[(int) region.getRawSize()];
+        BlockReader blockR = createReader(compressAlgo, region);
+        try {
+          blockR.readFully(data);
+        } finally {
+          blockR.close();
+        }
+        cache.put(fileId, region.getOffset(), data);
+      }
+      return new BlockReader(new RBlockState(compressAlgo, region, data));
     }
 
     private BlockReader createReader(Algorithm compressAlgo, BlockRegion region)
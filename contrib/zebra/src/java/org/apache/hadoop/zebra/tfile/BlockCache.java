@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.apache.hadoop.zebra.tfile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * LRU cache of decompressed data blocks, shared by the readers of TFiles in
+ * the JVM that know the identity of their files (see
+ * {@link TFile.Reader#Reader(org.apache.hadoop.fs.FSDataInputStream, org.apache.hadoop.fs.FileStatus, Configuration)}
+ * ). Scanners which are created or rewound over blocks that are cached read
+ * them without decompressing them again.
+ * <p>
+ * The cache is sized in bytes of decompressed data by "tfile.block.cache.size",
+ * and disabled when it is 0, the default.
+ */
+public final class BlockCache {
+  private static BlockCache shared;
+
+  private final Map<BlockKey, byte[]> blocks =
+      new LinkedHashMap<BlockKey, byte[]>(16, 0.75f, true);
+  private long capacity;
+  private long size;
+  private long hits, misses, evictions;
+
+  BlockCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Get the cache shared by the readers of the JVM, resized to the capacity
+   * of the configuration.
+   *
+   * @return the shared cache, or null if the configuration disables caching.
+   */
+  static synchronized BlockCache getInstance(Configuration conf) {
+    long capacity = TFile.getBlockCacheSize(conf);
+    if (capacity <= 0) {
+      return null;
+    }
+    if (shared == null) {
+      shared = new BlockCache(capacity);
+    } else {
+      shared.setCapacity(capacity);
+    }
+    return shared;
+  }
+
+  /**
+   * Get the cache shared by the readers of the JVM.
+   *
+   * @return the shared cache, or null if no reader has used one yet.
+   */
+  public static synchronized BlockCache getInstance() {
+    return shared;
+  }
+
+  /**
+   * Get a block.
+   *
+   * @param file
+   *          The identity of the file.
+   * @param offset
+   *          The offset of the block in the file.
+   * @return The decompressed block, or null if it is not cached.
+   */
+  synchronized byte[] get(String file, long offset) {
+    byte[] block = blocks.get(new BlockKey(file, offset));
+    if (block == null) {
+      ++misses;
+    } else {
+      ++hits;
+    }
+    return block;
+  }
+
+  /**
+   * Cache a block, evicting the least recently used blocks that no longer
+   * fit. Blocks larger than the cache are not cached.
+   */
+  synchronized void put(String file, long offset, byte[] block) {
+    if (block.length > capacity) {
+      return;
+    }
+    byte[] old = blocks.put(new BlockKey(file, offset), block);
+    if (old != null) {
+      size -= old.length;
+    }
+    size += block.length;
+    evict();
+  }
+
+  private void setCapacity(long capacity) {
+    this.capacity = capacity;
+    evict();
+  }
+
+  private void evict() {
+    for (Iterator<byte[]> it = blocks.values().iterator(); size > capacity
+        && it.hasNext();) {
+      size -= it.next().length;
+      it.remove();
+      ++evictions;
+    }
+  }
+
+  /**
+   * Drop all the blocks. The counters are kept.
+   */
+  public synchronized void clear() {
+    blocks.clear();
+    size = 0;
+  }
+
+  /**
+   * @return the capacity of the cache, in bytes.
+   */
+  public synchronized long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the size of the blocks in the cache, in bytes.
+   */
+  public synchronized long getSize() {
+    return size;
+  }
+
+  /**
+   * @return the number of lookups that found their block.
+   */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /**
+   * @return the number of lookups that did not find their block.
+   */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  /**
+   * @return the number of blocks evicted to make room for others.
+   */
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  /**
+   * A block of a file, by the offset of its compressed data.
+   */
+  private static final class BlockKey {
+    private final String file;
+    private final long offset;
+
+    BlockKey(String file, long offset) {
+      this.file = file;
+      this.offset = offset;
+    }
+
+    @Override
+    public int hashCode() {
+      return file.hashCode() * 31 + (int) (offset ^ (offset >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof BlockKey)) {
+        return false;
+      }
+      BlockKey other = (BlockKey) obj;
+      return offset == other.offset && file.equals(other.file);
+    }
+  }
+}
@@ -208,6 +208,45 @@ final class Compression {
       }
     },
 
+    LZ4(TFile.COMPRESSION_LZ4) {
+      @Override
+      CompressionCodec getCodec() {
+        return null;
+      }
+
+      @Override
+      public synchronized InputStream createDecompressionStream(
+          InputStream downStream, Decompressor decompressor,
+          int downStreamBufferSize) throws IOException {
+        InputStream bis1 = null;
+        if (downStreamBufferSize > 0) {
+          bis1 = new BufferedInputStream(downStream, downStreamBufferSize);
+        } else {
+          bis1 = downStream;
+        }
+        return new Lz4.Lz4Decoder(bis1);
+      }
+
+      @Override
+      public synchronized OutputStream createCompressionStream(
+          OutputStream downStream, Compressor compressor,
+          int downStreamBufferSize) throws IOException {
+        OutputStream bos1 = null;
+        if (downStreamBufferSize > 0) {
+          bos1 = new BufferedOutputStream(downStream, downStreamBufferSize);
+        } else {
+          bos1 = downStream;
+        }
+        // the encoder buffers a whole chunk, and writes it out on flush()
+        return new Lz4.Lz4Encoder(bos1);
+      }
+
+      @Override
+      public boolean isSupported() {
+        return true;
+      }
+    },
+
     NONE(TFile.COMPRESSION_NONE) {
       @Override
       CompressionCodec getCodec() {
@@ -0,0 +1,414 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.apache.hadoop.zebra.tfile;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Pure Java compression in the LZ4 block format, for the "lz4" compression of
+ * TFile. It trades some compression ratio for speed: it compresses several
+ * times faster than "gz" and decompresses faster, without native libraries.
+ * <p>
+ * The streams cut the data into chunks of at most 64KB, each written as the
+ * big-endian int raw length, the int stored length, and the stored bytes. A
+ * chunk which does not compress is stored as it is, with equal lengths.
+ */
+final class Lz4 {
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  private static final int MIN_MATCH = 4;
+  // the data ends with this many literals, and the last match starts at
+  // least MF_LIMIT bytes before its end
+  private static final int LAST_LITERALS = 5;
+  private static final int MF_LIMIT = 12;
+  private static final int MAX_DISTANCE = 65535;
+  private static final int HASH_LOG = 12;
+  // the step of the search grows every 2^SKIP_STRENGTH bytes without a match
+  private static final int SKIP_STRENGTH = 6;
+
+  /**
+   * Prevent the instantiation of class.
+   */
+  private Lz4() {
+    // nothing
+  }
+
+  /**
+   * @return the largest length that the compression of len bytes may take.
+   */
+  static int maxCompressedLength(int len) {
+    return len + len / 255 + 16;
+  }
+
+  private static int readInt(byte[] buf, int off) {
+    return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16)
+        | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+  }
+
+  private static int hash(int i) {
+    return (i * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  private static int writeLength(int len, byte[] dst, int dOff) {
+    for (; len >= 255; len -= 255) {
+      dst[dOff++] = (byte) 255;
+    }
+    dst[dOff++] = (byte) len;
+    return dOff;
+  }
+
+  /**
+   * Write a sequence of literals followed by a match, or by nothing if it is
+   * the last one.
+   */
+  private static int writeSequence(byte[] src, int anchor, int literals,
+      int distance, int matchLen, byte[] dst, int dOff) {
+    int tokenOff = dOff++;
+    int token = Math.min(literals, 15) << 4;
+    if (literals >= 15) {
+      dOff = writeLength(literals - 15, dst, dOff);
+    }
+    System.arraycopy(src, anchor, dst, dOff, literals);
+    dOff += literals;
+    if (matchLen > 0) {
+      dst[dOff++] = (byte) distance;
+      dst[dOff++] = (byte) (distance >>> 8);
+      int len = matchLen - MIN_MATCH;
+      token |= Math.min(len, 15);
+      if (len >= 15) {
+        dOff = writeLength(len - 15, dst, dOff);
+      }
+    }
+    dst[tokenOff] = (byte) token;
+    return dOff;
+  }
+
+  /**
+   * Compress bytes.
+   *
+   * @param table
+   *          The hash table of the recent positions, of 2^12 entries. It is
+   *          only passed in to be reused.
+   * @return the length of the compressed bytes, at most
+   *         {@link #maxCompressedLength(int)} of srcLen.
+   */
+  static int compress(byte[] src, int srcOff, int srcLen, byte[] dst,
+      int dstOff, int[] table) {
+    int srcEnd = srcOff + srcLen;
+    int matchLimit = srcEnd - LAST_LITERALS;
+    int mfLimit = srcEnd - MF_LIMIT;
+    int anchor = srcOff;
+    int dOff = dstOff;
+
+    if (srcLen > MF_LIMIT) {
+      Arrays.fill(table, -1);
+      int sOff = srcOff;
+      int searched = 0;
+      while (sOff < mfLimit) {
+        int h = hash(readInt(src, sOff));
+        int ref = table[h];
+        table[h] = sOff;
+        if (ref < 0 || sOff - ref > MAX_DISTANCE
+            || readInt(src, ref) != readInt(src, sOff)) {
+          sOff += 1 + (searched++ >>> SKIP_STRENGTH);
+          continue;
+        }
+        searched = 0;
+
+        while (sOff > anchor && ref > srcOff && src[sOff - 1] == src[ref - 1]) {
+          --sOff;
+          --ref;
+        }
+        int matchLen = MIN_MATCH;
+        while (sOff + matchLen < matchLimit
+            && src[ref + matchLen] == src[sOff + matchLen]) {
+          ++matchLen;
+        }
+
+        dOff = writeSequence(src, anchor, sOff - anchor, sOff - ref, matchLen,
+            dst, dOff);
+
+        sOff += matchLen;
+        anchor = sOff;
+        if (sOff < mfLimit) {
+          table[hash(readInt(src, sOff - 2))] = sOff - 2;
+        }
+      }
+    }
+
+    dOff = writeSequence(src, anchor, srcEnd - anchor, 0, 0, dst, dOff);
+    return dOff - dstOff;
+  }
+
+  /**
+   * Decompress bytes compressed by {@link #compress}.
+   *
+   * @param dstLen
+   *          The length of the decompressed bytes.
+   * @throws IOException
+   *           if the compressed bytes are corrupt.
+   */
+  static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst,
+      int dstOff, int dstLen) throws IOException {
+    int srcEnd = srcOff + srcLen;
+    int dstEnd = dstOff + dstLen;
+    int sOff = srcOff;
+    int dOff = dstOff;
+
+    while (true) {
+      if (sOff >= srcEnd) {
+        throw new IOException("Corrupt LZ4 data: truncated sequence");
+      }
+      int token = src[sOff++] & 0xFF;
+      int literals = token >>> 4;
+      if (literals == 15) {
+        int b;
+        do {
+          if (sOff >= srcEnd) {
+            throw new IOException("Corrupt LZ4 data: truncated length");
+          }
+          b = src[sOff++] & 0xFF;
+          literals += b;
+        } while (b == 255);
+      }
+      if (literals > srcEnd - sOff || literals > dstEnd - dOff) {
+        throw new IOException("Corrupt LZ4 data: literals overflow");
+      }
+      System.arraycopy(src, sOff, dst, dOff, literals);
+      sOff += literals;
+      dOff += literals;
+      if (sOff == srcEnd) {
+        break;
+      }
+
+      if (srcEnd - sOff < 2) {
+        throw new IOException("Corrupt LZ4 data: truncated offset");
+      }
+      int distance = (src[sOff] & 0xFF) | ((src[sOff + 1] & 0xFF) << 8);
+      sOff += 2;
+      int ref = dOff - distance;
+      if (distance == 0 || ref < dstOff) {
+        throw new IOException("Corrupt LZ4 data: bad offset " + distance);
+      }
+      int matchLen = token & 0x0F;
+      if (matchLen == 15) {
+        int b;
+        do {
+          if (sOff >= srcEnd) {
+            throw new IOException("Corrupt LZ4 data: truncated length");
+          }
+          b = src[sOff++] & 0xFF;
+          matchLen += b;
+        } while (b == 255);
+      }
+      matchLen += MIN_MATCH;
+      if (matchLen > dstEnd - dOff) {
+        throw new IOException("Corrupt LZ4 data: match overflow");
+      }
+      if (distance >= matchLen) {
+        System.arraycopy(dst, ref, dst, dOff, matchLen);
+        dOff += matchLen;
+      } else {
+        // the match overlaps the bytes it produces
+        for (int end = dOff + matchLen; dOff < end;) {
+          dst[dOff++] = dst[ref++];
+        }
+      }
+    }
+
+    if (dOff != dstEnd) {
+      throw new IOException("Corrupt LZ4 data: " + (dOff - dstOff)
+          + " bytes decompressed, expecting " + dstLen);
+    }
+  }
+
+  private static void writeInt(byte[] buf, int off, int v) {
+    buf[off] = (byte) (v >>> 24);
+    buf[off + 1] = (byte) (v >>> 16);
+    buf[off + 2] = (byte) (v >>> 8);
+    buf[off + 3] = (byte) v;
+  }
+
+  /**
+   * Compress a stream into chunks. Flushing it writes out the pending chunk,
+   * so that it finishes a compressed block.
+   */
+  static public class Lz4Encoder extends OutputStream {
+    private final OutputStream out;
+    private final byte[] buf = new byte[CHUNK_SIZE];
+    private final byte[] compressed = new byte[8 + maxCompressedLength(CHUNK_SIZE)];
+    private final int[] table = new int[1 << HASH_LOG];
+    private int count;
+
+    public Lz4Encoder(OutputStream out) {
+      this.out = out;
+    }
+
+    private void writeChunk() throws IOException {
+      if (count == 0) {
+        return;
+      }
+      int len = compress(buf, 0, count, compressed, 8, table);
+      writeInt(compressed, 0, count);
+      if (len < count) {
+        writeInt(compressed, 4, len);
+        out.write(compressed, 0, 8 + len);
+      } else {
+        writeInt(compressed, 4, count);
+        out.write(compressed, 0, 8);
+        out.write(buf, 0, count);
+      }
+      count = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buf.length) {
+        writeChunk();
+      }
+      buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buf.length) {
+          writeChunk();
+        }
+        int n = Math.min(len, buf.length - count);
+        System.arraycopy(b, off, buf, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      writeChunk();
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+      out.close();
+    }
+  }
+
+  /**
+   * Decompress a stream of chunks written by {@link Lz4Encoder}.
+   */
+  static public class Lz4Decoder extends InputStream {
+    private final DataInputStream in;
+    private final byte[] buf = new byte[CHUNK_SIZE];
+    private byte[] compressed = new byte[0];
+    private int count, pos;
+    private boolean eof;
+
+    public Lz4Decoder(InputStream in) {
+      this.in = new DataInputStream(in);
+    }
+
+    /**
+     * Read the next chunk, if the current one is consumed.
+     *
+     * @return whether there are bytes to read.
+     */
+    private boolean fill() throws IOException {
+      while (pos == count) {
+        if (eof) {
+          return false;
+        }
+        int rawLen;
+        try {
+          rawLen = in.readInt();
+        } catch (EOFException e) {
+          eof = true;
+          return false;
+        }
+        int storedLen = in.readInt();
+        if (rawLen < 0 || rawLen > CHUNK_SIZE || storedLen < 0
+            || storedLen > rawLen) {
+          throw new IOException("Corrupt LZ4 chunk: raw length " + rawLen
+              + ", stored length " + storedLen);
+        }
+        if (storedLen == rawLen) {
+          in.readFully(buf, 0, rawLen);
+        } else {
+          if (compressed.length < storedLen) {
+            compressed = new byte[maxCompressedLength(CHUNK_SIZE)];
+          }
+          in.readFully(compressed, 0, storedLen);
+          decompress(compressed, 0, storedLen, buf, 0, rawLen);
+        }
+        count = rawLen;
+        pos = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int n = Math.min(len, count - pos);
+      System.arraycopy(buf, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = 0;
+      while (skipped < n && fill()) {
+        int k = (int) Math.min(n - skipped, count - pos);
+        pos += k;
+        skipped += k;
+      }
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return count - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -1297,6 +1297,17 @@ public class Partition {
     return;
   }
 
+  /**
+   * read in a tuple based on stitches, into records of its own instead of
+   * the ones {@link #read(Tuple)} reuses, so the tuple stays valid after the
+   * next read
+   */
+  public void readUnshared(Tuple t) throws AssertionError, IOException, Exception {
+    for (int i = 0; i < mPCNeedTmpTuple.size(); i++)
+      mPCNeedTmpTuple.get(i).createTmpTuple();
+    read(t);
+  }
+
   /**
    * insert a tuple after splits
    */
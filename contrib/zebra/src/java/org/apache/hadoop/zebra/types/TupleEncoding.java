@@ -0,0 +1,458 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.hadoop.zebra.types;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.zebra.parser.ParseException;
+import org.apache.hadoop.zebra.schema.ColumnType;
+import org.apache.hadoop.zebra.schema.Schema;
+import org.apache.hadoop.zebra.tfile.Utils;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataReaderWriter;
+import org.apache.pig.data.Tuple;
+
+/**
+ * The "encoded" serializer of column groups. Each row is still written as one
+ * value, but every column is encoded on its own with the values of the same
+ * column in the preceding rows of the same run:
+ * <ul>
+ * <li>a value equal to that of the previous row takes two bits (run-length);
+ * <li>strings are kept in a dictionary, and repeated strings are written as
+ * their index in it;
+ * <li>int and long values are written as the variable-length difference
+ * from the previous value (delta);
+ * <li>other values are written as they are, with their length, so that the
+ * columns which are not projected are skipped without being decoded.
+ * </ul>
+ * The encoding starts again every run of rows, so that a row can be decoded
+ * after decoding at most the rows of its run before it.
+ */
+public class TupleEncoding {
+  /**
+   * The name of the serializer in the storage specification.
+   */
+  public static final String SERIALIZER = "encoded";
+
+  /**
+   * The default number of rows of a run.
+   */
+  public static final int DEFAULT_RUN_SIZE = 1024;
+
+  /**
+   * The largest number of strings in the dictionary of a column in a run.
+   */
+  static final int MAX_DICTIONARY_SIZE = 4096;
+
+  // the 2-bit states of a column in the header of a row
+  private static final int NULL = 0;
+  private static final int SAME = 1;
+  private static final int ENCODED = 2;
+  private static final int DATUM = 3;
+
+  private static ColumnType[] getTypes(Schema physical) {
+    ColumnType[] types = new ColumnType[physical.getNumColumns()];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = physical.getColumn(i).getType();
+    }
+    return types;
+  }
+
+  /**
+   * Whether a value is of the Java class the encoding of the column type
+   * expects.
+   */
+  private static boolean isEncodable(ColumnType type, Object value) {
+    switch (type) {
+      case BOOL:
+        return value instanceof Boolean;
+      case INT:
+        return value instanceof Integer;
+      case LONG:
+        return value instanceof Long;
+      case FLOAT:
+        return value instanceof Float;
+      case DOUBLE:
+        return value instanceof Double;
+      case STRING:
+        return value instanceof String;
+      case BYTES:
+        return value instanceof DataByteArray;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Whether the value may be written as the same as the previous one. Byte
+   * arrays are mutable and are always written.
+   */
+  private static boolean isRepeatable(ColumnType type) {
+    return type != ColumnType.BYTES;
+  }
+
+  /**
+   * The encoding state of a column within a run.
+   */
+  private static class ColumnState {
+    Object previous;
+    long base;
+    HashMap<String, Integer> codes; // when writing
+    ArrayList<String> dictionary; // when reading
+
+    void reset() {
+      previous = null;
+      base = 0;
+      if (codes != null) {
+        codes.clear();
+      }
+      if (dictionary != null) {
+        dictionary.clear();
+      }
+    }
+  }
+
+  /**
+   * Writes rows with the encoding.
+   */
+  public static class Writer {
+    private final Schema physical;
+    private final ColumnType[] types;
+    private final ColumnState[] states;
+    private final int runSize;
+    private final byte[] header;
+    private final Object[] values;
+    private final int[] kinds;
+    private final DataOutputBuffer datum = new DataOutputBuffer();
+    private long rows = 0;
+
+    /**
+     * @param physical
+     *          The physical schema of the rows.
+     * @param runSize
+     *          The number of rows of a run.
+     */
+    public Writer(Schema physical, int runSize) {
+      if (runSize <= 0) {
+        throw new IllegalArgumentException("Invalid run size: " + runSize);
+      }
+      this.physical = physical;
+      this.runSize = runSize;
+      types = getTypes(physical);
+      states = new ColumnState[types.length];
+      for (int i = 0; i < types.length; i++) {
+        states[i] = new ColumnState();
+        if (types[i] == ColumnType.STRING) {
+          states[i].codes = new HashMap<String, Integer>();
+        }
+      }
+      header = new byte[(types.length * 2 + 7) / 8];
+      values = new Object[types.length];
+      kinds = new int[types.length];
+    }
+
+    /**
+     * Get the number of rows of a run.
+     */
+    public int getRunSize() {
+      return runSize;
+    }
+
+    /**
+     * Write the next row.
+     *
+     * @param out
+     *          The output stream of the value of the row.
+     * @param row
+     *          The row, which should conform to the physical schema.
+     * @throws IOException
+     */
+    public void put(DataOutputStream out, Tuple row) throws IOException {
+      TypesUtils.checkCompatible(row, physical);
+      if (rows++ % runSize == 0) {
+        for (ColumnState state : states) {
+          state.reset();
+        }
+      }
+      Arrays.fill(header, (byte) 0);
+      for (int i = 0; i < types.length; i++) {
+        values[i] = row.get(i);
+        Object value = values[i];
+        if (value == null) {
+          kinds[i] = NULL;
+        } else if (!isEncodable(types[i], value)) {
+          kinds[i] = DATUM;
+        } else if (isRepeatable(types[i]) && value.equals(states[i].previous)) {
+          kinds[i] = SAME;
+        } else {
+          kinds[i] = ENCODED;
+        }
+        header[i / 4] |= kinds[i] << ((i % 4) * 2);
+      }
+      out.write(header);
+      for (int i = 0; i < types.length; i++) {
+        if (kinds[i] == ENCODED) {
+          writeValue(out, types[i], states[i], values[i]);
+        } else if (kinds[i] == DATUM) {
+          datum.reset();
+          DataReaderWriter.writeDatum(datum, values[i]);
+          Utils.writeVInt(out, datum.getLength());
+          out.write(datum.getData(), 0, datum.getLength());
+        }
+      }
+    }
+
+    private static void writeValue(DataOutputStream out, ColumnType type,
+        ColumnState state, Object value) throws IOException {
+      switch (type) {
+        case BOOL:
+          out.writeBoolean((Boolean) value);
+          break;
+        case INT:
+        case LONG:
+          long l = ((Number) value).longValue();
+          Utils.writeVLong(out, l - state.base);
+          state.base = l;
+          break;
+        case FLOAT:
+          out.writeFloat((Float) value);
+          break;
+        case DOUBLE:
+          out.writeDouble((Double) value);
+          break;
+        case STRING:
+          String s = (String) value;
+          Integer code = state.codes.get(s);
+          if (code != null) {
+            Utils.writeVInt(out, code);
+          } else {
+            Utils.writeVInt(out, -1);
+            Utils.writeString(out, s);
+            if (state.codes.size() < MAX_DICTIONARY_SIZE) {
+              state.codes.put(s, state.codes.size());
+            }
+          }
+          break;
+        case BYTES:
+          DataByteArray bytes = (DataByteArray) value;
+          Utils.writeVInt(out, bytes.size());
+          out.write(bytes.get(), 0, bytes.size());
+          break;
+        default:
+          throw new IOException("Cannot encode values of type " + type);
+      }
+      state.previous = value;
+    }
+  }
+
+  /**
+   * Reads rows written with the encoding, decoding the columns needed by the
+   * projection only.
+   */
+  public static class Reader {
+    private final Tuple tuple;
+    private final Projection projection;
+    private final SubColumnExtraction.SubColumn subcolextractor;
+    private final ColumnType[] types;
+    private final boolean[] needed;
+    private final ColumnState[] states;
+    private final int runSize;
+    private final byte[] header;
+    private long next = -1;
+
+    /**
+     * @param physical
+     *          The physical schema of on-disk data.
+     * @param projection
+     *          The logical schema of tuples user expect.
+     * @param runSize
+     *          The number of rows of a run the rows were written with.
+     */
+    public Reader(Schema physical, Projection projection, int runSize)
+        throws IOException, ParseException {
+      tuple = TypesUtils.createTuple(physical);
+      this.projection = projection;
+      this.runSize = runSize;
+      subcolextractor = new SubColumnExtraction.SubColumn(physical, projection);
+      subcolextractor.dispatchSource(tuple);
+      types = getTypes(physical);
+      needed = TypesUtils.getNeededColumns(physical, projection);
+      states = new ColumnState[types.length];
+      for (int i = 0; i < types.length; i++) {
+        states[i] = new ColumnState();
+        if (types[i] == ColumnType.STRING) {
+          states[i].dictionary = new ArrayList<String>();
+        }
+      }
+      header = new byte[(types.length * 2 + 7) / 8];
+    }
+
+    /**
+     * Whether the row can be decoded next: it is the first row of a run, or
+     * the row after the row decoded last.
+     *
+     * @param rowNum
+     *          The number of the row in its file.
+     */
+    public boolean canDecode(long rowNum) {
+      return rowNum % runSize == 0 || rowNum == next;
+    }
+
+    /**
+     * Get the number of the first row of the run of a row. The rows from it to
+     * the row should be given to {@link #skip(DataInputStream, long)} before
+     * the row can be decoded.
+     */
+    public long getRunStart(long rowNum) {
+      return rowNum - rowNum % runSize;
+    }
+
+    /**
+     * Read a row for the encoding state of the rows after it only.
+     *
+     * @param in
+     *          The input stream of the value of the row.
+     * @param rowNum
+     *          The number of the row in its file.
+     */
+    public void skip(DataInputStream in, long rowNum) throws IOException {
+      decode(in, rowNum);
+    }
+
+    /**
+     * Read a row, and perform projection.
+     *
+     * @param in
+     *          The input stream of the value of the row.
+     * @param rowNum
+     *          The number of the row in its file, for which
+     *          {@link #canDecode(long)} should be true.
+     * @param row
+     *          The input tuple that should conform to the projection schema.
+     */
+    public void get(DataInputStream in, long rowNum, Tuple row)
+        throws IOException, ParseException {
+      TypesUtils.checkCompatible(row, projection.getSchema());
+      decode(in, rowNum);
+      TypesUtils.resetTuple(row);
+      try {
+        subcolextractor.splitColumns(row);
+      }
+      catch (ExecException e) {
+        // not going to happen.
+      }
+    }
+
+    private void decode(DataInputStream in, long rowNum) throws IOException {
+      if (!canDecode(rowNum)) {
+        throw new IOException("Row " + rowNum + " cannot be decoded before row "
+            + getRunStart(rowNum));
+      }
+      if (rowNum % runSize == 0) {
+        for (ColumnState state : states) {
+          state.reset();
+        }
+      }
+      in.readFully(header);
+      for (int i = 0; i < types.length; i++) {
+        int kind = (header[i / 4] >> ((i % 4) * 2)) & 3;
+        Object value = null;
+        switch (kind) {
+          case SAME:
+            value = states[i].previous;
+            break;
+          case ENCODED:
+            value = readValue(in, types[i], states[i], needed[i]);
+            break;
+          case DATUM:
+            int length = Utils.readVInt(in);
+            if (needed[i]) {
+              value = DataReaderWriter.readDatum(in);
+            } else {
+              TypesUtils.skipFully(in, length);
+            }
+            break;
+          default:
+            break;
+        }
+        tuple.set(i, needed[i] ? value : null);
+      }
+      next = rowNum + 1;
+    }
+
+    private static Object readValue(DataInputStream in, ColumnType type,
+        ColumnState state, boolean needed) throws IOException {
+      Object value;
+      switch (type) {
+        case BOOL:
+          value = in.readBoolean();
+          break;
+        case INT:
+          state.base += Utils.readVLong(in);
+          value = needed ? Integer.valueOf((int) state.base) : null;
+          break;
+        case LONG:
+          state.base += Utils.readVLong(in);
+          value = needed ? Long.valueOf(state.base) : null;
+          break;
+        case FLOAT:
+          value = in.readFloat();
+          break;
+        case DOUBLE:
+          value = in.readDouble();
+          break;
+        case STRING:
+          int code = Utils.readVInt(in);
+          if (code >= 0) {
+            value = needed ? state.dictionary.get(code) : null;
+          } else if (needed) {
+            String s = Utils.readString(in);
+            if (state.dictionary.size() < MAX_DICTIONARY_SIZE) {
+              state.dictionary.add(s);
+            }
+            value = s;
+          } else {
+            TypesUtils.skipFully(in, Utils.readVInt(in));
+            value = null;
+          }
+          break;
+        case BYTES:
+          int length = Utils.readVInt(in);
+          if (needed) {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            value = new DataByteArray(bytes);
+          } else {
+            TypesUtils.skipFully(in, length);
+            value = null;
+          }
+          break;
+        default:
+          throw new IOException("Cannot decode values of type " + type);
+      }
+      state.previous = value;
+      return value;
+    }
+  }
+}
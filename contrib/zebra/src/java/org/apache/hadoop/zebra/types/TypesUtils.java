@@ -22,6 +22,8 @@ import java.io.IOException;
 
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataReaderWriter;
+import org.apache.pig.data.DataType;
 import org.apache.pig.data.DefaultDataBag;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
@@ -111,6 +113,48 @@ public class TypesUtils {
     }
   }
 
+  /**
+   * Find the top-level columns of the physical schema the projection needs.
+   * 
+   * @param physical
+   *          The physical schema of on-disk data.
+   * @param projection
+   *          The logical schema of tuples user expect.
+   * @return whether each column of the physical schema is needed.
+   */
+  static boolean[] getNeededColumns(Schema physical, Projection projection)
+      throws ParseException {
+    boolean[] needed = new boolean[physical.getNumColumns()];
+    Schema.ParsedName pn = new Schema.ParsedName();
+    for (int i = 0; i < projection.getSchema().getNumColumns(); i++) {
+      Schema.ColumnSchema fs = projection.getColumnSchema(i);
+      if (fs == null || fs.getName() == null) {
+        continue;
+      }
+      pn.setName(fs.getName());
+      fs = physical.getColumnSchema(pn);
+      if (fs != null) {
+        needed[fs.getIndex()] = true;
+      }
+    }
+    return needed;
+  }
+
+  /**
+   * Skip over the given number of bytes of the stream.
+   */
+  static void skipFully(DataInputStream in, int length) throws IOException {
+    while (length > 0) {
+      int skipped = in.skipBytes(length);
+      if (skipped <= 0) {
+        // the stream may skip nothing before its end
+        in.readByte();
+        skipped = 1;
+      }
+      length -= skipped;
+    }
+  }
+
   /**
    * Reading a tuple from disk with projection.
    */
@@ -119,6 +163,7 @@ public class TypesUtils {
     //@SuppressWarnings("unused")
     private Schema physical;
     private Projection projection;
+    private boolean[] needed;
     SubColumnExtraction.SubColumn subcolextractor = null;
 
     /**
@@ -136,6 +181,7 @@ public class TypesUtils {
       tuple = createTuple(physical);
       this.physical = physical;
       this.projection = projection;
+      needed = getNeededColumns(physical, projection);
       subcolextractor = new SubColumnExtraction.SubColumn(physical, projection);
       subcolextractor.dispatchSource(tuple);
     }
@@ -149,7 +195,9 @@ public class TypesUtils {
     }
 
     /**
-     * Read a tuple from the stream, and perform projection.
+     * Read a tuple from the stream, and perform projection. Only the fields
+     * of the columns in the projection are deserialized, the others are
+     * skipped over.
      * 
      * @param in
      *          The input stream
@@ -159,7 +207,21 @@ public class TypesUtils {
      */
     public void get(DataInputStream in, Tuple row) throws IOException, ParseException {
       checkCompatible(row, projection.getSchema());
-      tuple.readFields(in);
+      if (in.readByte() != DataType.TUPLE) {
+        throw new IOException("Unexpected data while reading tuple");
+      }
+      int size = in.readInt();
+      if (size != tuple.size()) {
+        tuple.reference(createTuple(size));
+      }
+      for (int i = 0; i < size; ++i) {
+        if (i < needed.length && needed[i]) {
+          tuple.set(i, DataReaderWriter.readDatum(in));
+        }
+        else {
+          skipDatum(in, in.readByte());
+        }
+      }
       TypesUtils.resetTuple(row);
       try {
         subcolextractor.splitColumns(row);
@@ -168,6 +230,56 @@ public class TypesUtils {
         // not going to happen.
       }
     }
+
+    /**
+     * Skip over a datum written by DataReaderWriter.writeDatum.
+     */
+    private static void skipDatum(DataInputStream in, byte type)
+        throws IOException {
+      switch (type) {
+        case DataType.NULL:
+          break;
+        case DataType.BOOLEAN:
+        case DataType.BYTE:
+          skipFully(in, 1);
+          break;
+        case DataType.INTEGER:
+        case DataType.FLOAT:
+          skipFully(in, 4);
+          break;
+        case DataType.LONG:
+        case DataType.DOUBLE:
+          skipFully(in, 8);
+          break;
+        case DataType.CHARARRAY:
+          skipFully(in, in.readUnsignedShort());
+          break;
+        case DataType.BYTEARRAY:
+        case DataType.BIGCHARARRAY:
+          skipFully(in, in.readInt());
+          break;
+        case DataType.TUPLE:
+          for (int n = in.readInt(); n > 0; --n) {
+            skipDatum(in, in.readByte());
+          }
+          break;
+        case DataType.BAG:
+          for (long n = in.readLong(); n > 0; --n) {
+            skipDatum(in, in.readByte());
+          }
+          break;
+        case DataType.MAP:
+        case DataType.INTERNALMAP:
+          for (int n = in.readInt(); n > 0; --n) {
+            skipDatum(in, in.readByte());
+            skipDatum(in, in.readByte());
+          }
+          break;
+        default:
+          // writables cannot be skipped without reading them
+          DataReaderWriter.readDatum(in, type);
+      }
+    }
   }
 
   /**
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.hadoop.zebra.io;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.zebra.parser.ParseException;
+import org.apache.hadoop.zebra.tfile.TFile;
+import org.apache.hadoop.zebra.types.TypesUtils;
+import org.apache.pig.data.Tuple;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Sorted tables with Bloom filters of the keys of their blocks.
+ */
+public class TestColumnGroupBloom {
+  private static final int ROWS = 20000;
+  private static Configuration conf;
+  private static Path path;
+
+  @BeforeClass
+  public static void setUpOnce() throws IOException {
+    TestBasicTable.setUpOnce();
+    conf = new Configuration(TestBasicTable.conf);
+    conf.setBoolean("table.output.cg.bloom", true);
+    conf.setInt("table.tfile.minblock.size", 2048);
+    path = new Path(TestBasicTable.rootPath, "TestColumnGroupBloom");
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    BasicTable.drop(path, conf);
+  }
+
+  /**
+   * Create a sorted table with the even keys only.
+   */
+  private static void createTable(Configuration conf) throws IOException {
+    BasicTable.drop(path, conf);
+    BasicTable.Writer writer = new BasicTable.Writer(path, "a:int, b:string",
+        "[a]; [b]", "a", null, conf);
+    writer.finish();
+    writer = new BasicTable.Writer(path, conf);
+    TableInserter inserter = writer.getInserter("part-0", true);
+    Tuple tuple = TypesUtils.createTuple(writer.getSchema());
+    for (int i = 0; i < ROWS; ++i) {
+      tuple.set(0, 2 * i);
+      tuple.set(1, "b" + i);
+      inserter.insert(TestBasicTable.makeKey(2 * i), tuple);
+    }
+    inserter.close();
+    writer = new BasicTable.Writer(path, conf);
+    writer.close();
+  }
+
+  @Test
+  public void testFilters() throws IOException, ParseException {
+    createTable(conf);
+    Path file = new Path(new Path(path, "CG0"), "part-0");
+    FileSystem fs = file.getFileSystem(conf);
+    FSDataInputStream ins = fs.open(file);
+    TFile.Reader reader = new TFile.Reader(ins, fs.getFileStatus(file).getLen(), conf);
+    ColumnGroup.CGBloomFilters bloom = new ColumnGroup.CGBloomFilters();
+    DataInputStream dis = reader.getMetaBlock(ColumnGroup.BLOCK_NAME_BLOOM);
+    bloom.readFields(dis);
+    dis.close();
+    Assert.assertTrue(bloom.blocks.size() > 1);
+
+    int falsePositives = 0;
+    for (int i = 0; i < 2 * ROWS; ++i) {
+      BytesWritable key = TestBasicTable.makeKey(i);
+      int block = reader.getBlockIndexContainsKey(key.getBytes(), 0, key.getLength());
+      boolean mayContain = bloom.mayContain(block, key);
+      if (i % 2 == 0) {
+        Assert.assertTrue(mayContain);
+      } else if (mayContain) {
+        ++falsePositives;
+      }
+    }
+    Assert.assertTrue(falsePositives < ROWS / 20);
+    BytesWritable last = TestBasicTable.makeKey(2 * ROWS);
+    Assert.assertEquals(-1, reader.getBlockIndexContainsKey(last.getBytes(), 0,
+        last.getLength()));
+    reader.close();
+    ins.close();
+  }
+
+  @Test
+  public void testSeekTo() throws IOException, ParseException {
+    createTable(conf);
+    BasicTable.Reader reader = new BasicTable.Reader(path, conf);
+    reader.setProjection("b, a");
+    TableScanner scanner = reader.getScanner(null, null, true);
+    BytesWritable key = new BytesWritable();
+    Tuple row = TypesUtils.createTuple(2);
+    // seeking past the last key would leave the scanner at the end
+    for (int i = 2 * ROWS - 3; i >= 0; i -= 7) {
+      Assert.assertEquals(i % 2 == 0, scanner.seekTo(TestBasicTable.makeKey(i)));
+      if (i % 3 == 0) {
+        // the cursor is at the first key after a key which is not there
+        int next = (i + 1) / 2 * 2;
+        Assert.assertFalse(scanner.atEnd());
+        scanner.getKey(key);
+        Assert.assertEquals(TestBasicTable.makeKey(next), key);
+        scanner.getValue(row);
+        Assert.assertEquals(next, row.get(1));
+        Assert.assertEquals("b" + next / 2, row.get(0));
+      }
+    }
+    Assert.assertFalse(scanner.seekTo(TestBasicTable.makeKey(2 * ROWS)));
+    Assert.assertTrue(scanner.atEnd());
+    scanner.close();
+  }
+
+  @Test
+  public void testNoFilters() throws IOException, ParseException {
+    Configuration noBloom = new Configuration(conf);
+    noBloom.setBoolean("table.output.cg.bloom", false);
+    createTable(noBloom);
+    BasicTable.Reader reader = new BasicTable.Reader(path, conf);
+    TableScanner scanner = reader.getScanner(null, null, true);
+    Assert.assertTrue(scanner.seekTo(TestBasicTable.makeKey(10)));
+    Assert.assertFalse(scanner.seekTo(TestBasicTable.makeKey(11)));
+    BytesWritable key = new BytesWritable();
+    scanner.getKey(key);
+    Assert.assertEquals(TestBasicTable.makeKey(12), key);
+    scanner.close();
+  }
+}
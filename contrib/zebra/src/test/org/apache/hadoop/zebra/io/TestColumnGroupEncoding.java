@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.hadoop.zebra.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.zebra.io.BasicTable.Reader.RowSplit;
+import org.apache.hadoop.zebra.parser.ParseException;
+import org.apache.hadoop.zebra.types.TypesUtils;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tables whose column groups are serialized by "encoded".
+ */
+public class TestColumnGroupEncoding {
+  private static final String SCHEMA = "s:string, l:long, i:int, d:double, b:bytes, m:map(string)";
+  private static final int ROWS = 500;
+  private static Configuration conf;
+  private static Path path;
+
+  @BeforeClass
+  public static void setUpOnce() throws IOException {
+    TestBasicTable.setUpOnce();
+    conf = new Configuration(TestBasicTable.conf);
+    // small runs and blocks, so that splits start in the middle of runs
+    conf.setInt("table.output.cg.encoding.run.size", 7);
+    conf.setInt("table.tfile.minblock.size", 512);
+    path = new Path(TestBasicTable.rootPath, "TestColumnGroupEncoding");
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    BasicTable.drop(path, conf);
+  }
+
+  private static Object[] makeRow(int n) {
+    Map<String, String> m = new HashMap<String, String>();
+    m.put("k", "v" + n % 3);
+    return new Object[] {
+        // repeated and low-cardinality strings
+        n % 11 == 0 ? null : "s" + n / 5 % 4,
+        // increasing longs, negative ints
+        1000000000000L + n * 17L, -n / 3,
+        n % 2 == 0 ? Double.NaN : n / 2.0,
+        new DataByteArray(new byte[] { (byte) n, (byte) (n >> 8) }),
+        n % 4 == 0 ? null : m };
+  }
+
+  private static void createTable(String storage) throws IOException,
+      ParseException {
+    BasicTable.drop(path, conf);
+    BasicTable.Writer writer = new BasicTable.Writer(path, SCHEMA, storage,
+        null, null, conf);
+    writer.finish();
+    writer = new BasicTable.Writer(path, conf);
+    TableInserter inserter = writer.getInserter("part-000000", true);
+    Tuple tuple = TypesUtils.createTuple(writer.getSchema());
+    for (int n = 0; n < ROWS; ++n) {
+      TypesUtils.resetTuple(tuple);
+      Object[] row = makeRow(n);
+      for (int k = 0; k < row.length; ++k) {
+        tuple.set(k, row[k]);
+      }
+      inserter.insert(new BytesWritable(String.format("key%09d", n).getBytes()), tuple);
+    }
+    inserter.close();
+    writer = new BasicTable.Writer(path, conf);
+    writer.close();
+  }
+
+  /**
+   * Split the file of the table into row splits of the given number of
+   * byte ranges.
+   */
+  private static List<RowSplit> rowSplit(BasicTable.Reader reader, int numSplits)
+      throws IOException {
+    int cgIndex = reader.getRowSplitCGIndex();
+    Path file = new Path(new Path(path, reader.getName(cgIndex)), "part-000000");
+    long length = file.getFileSystem(conf).getFileStatus(file).getLen();
+    long[] starts = new long[numSplits];
+    long[] lengths = new long[numSplits];
+    Path[] paths = new Path[numSplits];
+    int[] batches = new int[numSplits + 1];
+    for (int j = 0; j < numSplits; ++j) {
+      starts[j] = j * length / numSplits;
+      lengths[j] = (j + 1) * length / numSplits - starts[j];
+      paths[j] = file;
+      batches[j + 1] = j + 1;
+    }
+    return reader.rowSplit(starts, lengths, paths, cgIndex, batches, numSplits);
+  }
+
+  /**
+   * Read the given columns of all the rows, split by the given number of
+   * row splits.
+   */
+  private static List<List<Object>> read(String projection, int numSplits)
+      throws IOException, ParseException {
+    List<List<Object>> rows = new ArrayList<List<Object>>();
+    BasicTable.Reader reader = new BasicTable.Reader(path, conf);
+    reader.setProjection(projection);
+    for (RowSplit split : rowSplit(reader, numSplits)) {
+      TableScanner scanner = reader.getScanner(false, split);
+      Tuple row = TypesUtils.createTuple(scanner.getSchema());
+      for (; !scanner.atEnd(); scanner.advance()) {
+        scanner.getValue(row);
+        rows.add(new ArrayList<Object>(row.getAll()));
+      }
+      scanner.close();
+    }
+    reader.close();
+    return rows;
+  }
+
+  @Test
+  public void testEncoded() throws IOException, ParseException {
+    createTable("[s, l, i, d] SERIALIZE BY encoded; [b, m] SERIALIZE BY encoded");
+    List<List<Object>> all = read("s, l, i, d, b, m", 1);
+    Assert.assertEquals(ROWS, all.size());
+    for (int n = 0; n < ROWS; ++n) {
+      Object[] row = makeRow(n);
+      for (int k = 0; k < row.length; ++k) {
+        Assert.assertEquals("row " + n + " column " + k, row[k], all.get(n).get(k));
+      }
+    }
+
+    // the splits which start in the middle of runs
+    for (int numSplits : new int[] { 3, 10, 50 }) {
+      Assert.assertEquals(all, read("s, l, i, d, b, m", numSplits));
+    }
+    BasicTable.Reader reader = new BasicTable.Reader(path, conf);
+    int middle = 0;
+    for (RowSplit split : rowSplit(reader, 10)) {
+      long first = split.getCGRowSplit().startRowFirst;
+      if (first % 7 != 0) {
+        ++middle;
+      }
+    }
+    reader.close();
+    Assert.assertTrue(middle > 0);
+
+    // projections of some of the columns and of map keys
+    List<List<Object>> some = read("m#{k}, l, s", 10);
+    Assert.assertEquals(ROWS, some.size());
+    for (int n = 0; n < ROWS; ++n) {
+      Object[] row = makeRow(n);
+      Assert.assertEquals(row[5], some.get(n).get(0));
+      Assert.assertEquals(row[1], some.get(n).get(1));
+      Assert.assertEquals(row[0], some.get(n).get(2));
+    }
+  }
+
+  @Test
+  public void testSameAsPig() throws IOException, ParseException {
+    createTable("[s, l, i, d] SERIALIZE BY encoded; [b, m]");
+    List<List<Object>> encoded = read("s, l, i, d, b, m", 1);
+    createTable("[s, l, i, d]; [b, m]");
+    Assert.assertEquals(read("s, l, i, d, b, m", 1), encoded);
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.hadoop.zebra.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.zebra.parser.ParseException;
+import org.apache.hadoop.zebra.schema.Schema;
+import org.apache.hadoop.zebra.types.TypesUtils;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Writing the column groups of a table on threads of their own.
+ */
+public class TestColumnGroupParallelWrite {
+  private static final String SCHEMA = "s:string, r:record(f11:int, f12:long), "
+      + "m:map(string), l:long, c:collection(record(a:int, b:string)), b:bytes";
+  private static final String STORAGE = "[s, m#{k}, c]; [r.f12, m, b]; [r.f11, l]";
+  private static final int ROWS = 5000;
+  private static Configuration conf;
+  private static Path path;
+
+  @BeforeClass
+  public static void setUpOnce() throws IOException {
+    TestBasicTable.setUpOnce();
+    conf = new Configuration(TestBasicTable.conf);
+    path = new Path(TestBasicTable.rootPath, "TestColumnGroupParallelWrite");
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    BasicTable.drop(path, conf);
+  }
+
+  /**
+   * Write the rows in two files, reusing the tuples, the map, the bag and the
+   * byte array of a row for the next one, as the callers of the inserters do.
+   */
+  private static void createTable(Configuration conf, String sortColumns)
+      throws IOException, ParseException {
+    BasicTable.drop(path, conf);
+    BasicTable.Writer writer = new BasicTable.Writer(path, SCHEMA, STORAGE,
+        sortColumns, null, conf);
+    writer.finish();
+    Schema schema = writer.getSchema();
+    Tuple tuple = TypesUtils.createTuple(schema);
+    Tuple record = TypesUtils.createTuple(schema.getColumnSchema("r").getSchema());
+    Map<String, String> map = new HashMap<String, String>();
+    DataBag bag = TypesUtils.createBag();
+    Tuple[] items = new Tuple[3];
+    for (int i = 0; i < items.length; ++i) {
+      items[i] = TypesUtils.createTuple(2);
+    }
+    byte[] buf = new byte[2];
+    DataByteArray bytes = new DataByteArray(buf);
+    for (int part = 0; part < 2; ++part) {
+      writer = new BasicTable.Writer(path, conf);
+      TableInserter inserter = writer.getInserter("part-" + part, true);
+      for (int n = part * ROWS / 2; n < (part + 1) * ROWS / 2; ++n) {
+        tuple.set(0, n % 5 == 0 ? null : "s" + n);
+        record.set(0, n);
+        record.set(1, n * 10L);
+        tuple.set(1, record);
+        map.clear();
+        map.put("k", "v" + n);
+        if (n % 2 == 0) {
+          map.put("x", "y" + n);
+        }
+        tuple.set(2, map);
+        tuple.set(3, n % 7 == 0 ? null : (long) -n);
+        bag.clear();
+        for (int i = 0; i < n % 4; ++i) {
+          items[i].set(0, n + i);
+          items[i].set(1, "b" + n);
+          bag.add(items[i]);
+        }
+        tuple.set(4, bag);
+        buf[0] = (byte) n;
+        buf[1] = (byte) (n >> 8);
+        tuple.set(5, bytes);
+        inserter.insert(TestBasicTable.makeKey(n), tuple);
+      }
+      inserter.close();
+    }
+    writer = new BasicTable.Writer(path, conf);
+    writer.close();
+  }
+
+  private static List<List<Object>> read() throws IOException, ParseException {
+    List<List<Object>> rows = new ArrayList<List<Object>>();
+    BasicTable.Reader reader = new BasicTable.Reader(path, conf);
+    reader.setProjection("s, r, m, l, c, b");
+    TableScanner scanner = reader.getScanner(null, true);
+    Tuple row = TypesUtils.createTuple(scanner.getSchema());
+    for (; !scanner.atEnd(); scanner.advance()) {
+      scanner.getValue(row);
+      List<Object> values = new ArrayList<Object>();
+      for (Object value : row.getAll()) {
+        values.add(value instanceof Tuple ? ((Tuple) value).getAll() : value);
+      }
+      rows.add(values);
+    }
+    scanner.close();
+    return rows;
+  }
+
+  @Test
+  public void testSameRows() throws IOException, ParseException {
+    createTable(conf, null);
+    List<List<Object>> expected = read();
+    Assert.assertEquals(ROWS, expected.size());
+
+    Configuration parallel = new Configuration(conf);
+    parallel.setBoolean("table.output.cg.parallel", true);
+    createTable(parallel, null);
+    Assert.assertEquals(expected, read());
+
+    // one row at a time, one row in the queue
+    parallel.setInt("table.output.cg.queue.size", 1);
+    createTable(parallel, "l");
+    Assert.assertEquals(expected, read());
+  }
+
+  @Test
+  public void testFailure() throws IOException {
+    Configuration parallel = new Configuration(conf);
+    parallel.setBoolean("table.output.cg.parallel", true);
+    parallel.setInt("table.output.cg.queue.size", 16);
+    BasicTable.drop(path, parallel);
+    BasicTable.Writer writer = new BasicTable.Writer(path, SCHEMA, STORAGE,
+        "s", null, parallel);
+    writer.finish();
+    writer = new BasicTable.Writer(path, parallel);
+    TableInserter inserter = writer.getInserter("part-0", true);
+    Tuple tuple = TypesUtils.createTuple(writer.getSchema());
+    try {
+      // the keys of a sorted table must not go down
+      for (int n = ROWS; n > 0; --n) {
+        tuple.set(0, "s" + n);
+        inserter.insert(TestBasicTable.makeKey(n), tuple);
+      }
+      inserter.close();
+      Assert.fail("the keys which go down were inserted");
+    }
+    catch (IOException e) {
+      // expected, from a column group thread
+    }
+  }
+}
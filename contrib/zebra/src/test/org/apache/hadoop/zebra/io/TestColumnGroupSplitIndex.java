@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.hadoop.zebra.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.zebra.parser.ParseException;
+import org.apache.hadoop.zebra.tfile.RawComparable;
+import org.apache.hadoop.zebra.types.TypesUtils;
+import org.apache.pig.data.Tuple;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Key splits of sorted tables computed from the split index of their column
+ * groups.
+ */
+public class TestColumnGroupSplitIndex {
+  private static final int FILES = 4;
+  private static final int ROWS = 5000;
+  private static Configuration conf;
+  private static Path path;
+
+  @BeforeClass
+  public static void setUpOnce() throws IOException {
+    TestBasicTable.setUpOnce();
+    conf = new Configuration(TestBasicTable.conf);
+    conf.setInt("table.tfile.minblock.size", 4096);
+    conf.setLong("table.input.split.minSize", 8192);
+    path = new Path(TestBasicTable.rootPath, "TestColumnGroupSplitIndex");
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    BasicTable.drop(path, conf);
+  }
+
+  /**
+   * Create a sorted table of FILES files of consecutive keys.
+   */
+  private static void createTable(Configuration conf) throws IOException {
+    BasicTable.drop(path, conf);
+    BasicTable.Writer writer = new BasicTable.Writer(path, "a:int, b:string",
+        "[a, b]", "a", null, conf);
+    writer.finish();
+    for (int part = 0; part < FILES; ++part) {
+      writer = new BasicTable.Writer(path, conf);
+      TableInserter inserter = writer.getInserter("part-" + part, true);
+      Tuple tuple = TypesUtils.createTuple(writer.getSchema());
+      for (int i = part * ROWS; i < (part + 1) * ROWS; ++i) {
+        tuple.set(0, i);
+        // values which do not compress much, for a number of blocks
+        tuple.set(1, Long.toHexString(i * 0x9E3779B97F4A7C15L));
+        inserter.insert(TestBasicTable.makeKey(i), tuple);
+      }
+      inserter.close();
+    }
+    writer = new BasicTable.Writer(path, conf);
+    writer.close();
+  }
+
+  /**
+   * The keys of the key splits, and the number of bytes of each.
+   */
+  private static List<Object> getSplits(Configuration conf) throws IOException,
+      ParseException {
+    BasicTable.Reader reader = new BasicTable.Reader(path, conf);
+    KeyDistribution keys = reader.getKeyDistribution(20, 1, null);
+    reader.close();
+    List<Object> ret = new ArrayList<Object>();
+    for (RawComparable key : keys.getKeys()) {
+      ret.add(new BytesWritable(Arrays.copyOfRange(key.buffer(), key.offset(),
+          key.offset() + key.size())).toString());
+      ret.add(keys.getBlockDistribution(key).getLength());
+    }
+    return ret;
+  }
+
+  private static ColumnGroup.CGSplitIndex getSplitIndex() throws IOException,
+      ParseException {
+    ColumnGroup.Reader reader = new ColumnGroup.Reader(new Path(path, "CG0"), conf);
+    ColumnGroup.CGSplitIndex index = reader.getSplitIndex();
+    reader.close();
+    return index;
+  }
+
+  @Test
+  public void testSameSplits() throws IOException, ParseException {
+    Configuration noIndex = new Configuration(conf);
+    noIndex.setLong("table.output.split.index.granularity", -1);
+    createTable(noIndex);
+    Assert.assertNull(getSplitIndex());
+    List<Object> expected = getSplits(conf);
+    Assert.assertTrue(expected.size() > 2 * FILES);
+
+    // the files are opened on threads
+    Configuration threads = new Configuration(conf);
+    threads.setInt("table.input.split.threads", 3);
+    Assert.assertEquals(expected, getSplits(threads));
+
+    // an index of every block gives the splits of the files
+    Configuration everyBlock = new Configuration(conf);
+    everyBlock.setLong("table.output.split.index.granularity", 0);
+    createTable(everyBlock);
+    Assert.assertNotNull(getSplitIndex());
+    Assert.assertEquals(expected, getSplits(conf));
+    Assert.assertEquals(expected, getSplits(threads));
+  }
+
+  @Test
+  public void testCoarseIndex() throws IOException, ParseException {
+    Configuration coarse = new Configuration(conf);
+    coarse.setLong("table.output.split.index.granularity", 32 * 1024);
+    createTable(coarse);
+    ColumnGroup.CGSplitIndex index = getSplitIndex();
+    Assert.assertNotNull(index);
+    List<Object> splits = getSplits(conf);
+
+    // the files are split in ranges of blocks, in order
+    Assert.assertTrue(splits.size() >= 2 * FILES);
+    for (int i = 2; i < splits.size(); i += 2) {
+      Assert.assertTrue(((String) splits.get(i)).compareTo((String) splits.get(i - 2)) > 0);
+    }
+  }
+
+  @Test
+  public void testStaleIndex() throws IOException, ParseException {
+    Configuration everyBlock = new Configuration(conf);
+    everyBlock.setLong("table.output.split.index.granularity", 0);
+    createTable(everyBlock);
+    List<Object> expected = getSplits(conf);
+
+    // a file which is not the one the index is of is read instead
+    Path file = new Path(new Path(path, "CG0"), "part-1");
+    FileSystem fs = file.getFileSystem(conf);
+    Assert.assertNotNull(getSplitIndex().getKeys("part-1", fs.getFileStatus(file).getLen()));
+    Assert.assertNull(getSplitIndex().getKeys("part-1", fs.getFileStatus(file).getLen() + 1));
+    Assert.assertEquals(expected, getSplits(conf));
+  }
+}
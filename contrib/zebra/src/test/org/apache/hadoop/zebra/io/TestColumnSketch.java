@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.hadoop.zebra.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.zebra.parser.ParseException;
+import org.apache.hadoop.zebra.pig.TableLoader;
+import org.apache.hadoop.zebra.schema.ColumnType;
+import org.apache.hadoop.zebra.types.TypesUtils;
+import org.apache.pig.ResourceStatistics;
+import org.apache.pig.ResourceStatistics.ResourceFieldStatistics;
+import org.apache.pig.data.Tuple;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Sketches of the distinct and the most frequent values of the columns of a
+ * table.
+ */
+public class TestColumnSketch {
+  private static final int ROWS = 10000;
+  private static Configuration conf;
+  private static Path path;
+
+  @BeforeClass
+  public static void setUpOnce() throws IOException {
+    TestBasicTable.setUpOnce();
+    conf = new Configuration(TestBasicTable.conf);
+    path = new Path(TestBasicTable.rootPath, "TestColumnSketch");
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    BasicTable.drop(path, conf);
+  }
+
+  private static void assertClose(long expected, long actual) {
+    Assert.assertTrue("estimate " + actual + " of " + expected,
+        Math.abs(actual - expected) <= expected / 10);
+  }
+
+  @Test
+  public void testDistinctCount() {
+    ColumnSketch sketch = new ColumnSketch(ColumnType.LONG);
+    Assert.assertEquals(0, sketch.getDistinctCount());
+    for (long i = 0; i < 100; i++) {
+      sketch.add(i);
+    }
+    assertClose(100, sketch.getDistinctCount());
+    for (long i = 0; i < 100000; i++) {
+      sketch.add(i * 7);
+    }
+    assertClose(100000 + 100 - 15, sketch.getDistinctCount());
+
+    ColumnSketch strings = new ColumnSketch(ColumnType.STRING);
+    for (int i = 0; i < 50000; i++) {
+      strings.add("value" + i % 20000);
+    }
+    strings.add(null);
+    assertClose(20000, strings.getDistinctCount());
+    Assert.assertEquals(50001, strings.getRows());
+    Assert.assertEquals(1, strings.getNullCount());
+  }
+
+  @Test
+  public void testMostFrequentValues() {
+    ColumnSketch sketch = new ColumnSketch(ColumnType.INT);
+    // a skewed column: 3 values take half of the rows
+    for (int i = 0; i < ROWS; i++) {
+      sketch.add(i % 2 == 0 ? (i / 2) % 3 : i);
+    }
+    List<Map.Entry<Object, Long>> frequent = sketch.getMostFrequentValues();
+    Assert.assertTrue(frequent.size() >= 3);
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(frequent.get(i).getKey().equals(0)
+          || frequent.get(i).getKey().equals(1)
+          || frequent.get(i).getKey().equals(2));
+      // the counts are lower bounds
+      long count = frequent.get(i).getValue();
+      Assert.assertTrue(count <= (ROWS / 2 + 2) / 3 + 1);
+      Assert.assertTrue(count > ROWS / 8);
+    }
+  }
+
+  @Test
+  public void testMergeAndWrite() throws IOException {
+    ColumnSketch sketch1 = new ColumnSketch(ColumnType.STRING);
+    ColumnSketch sketch2 = new ColumnSketch(ColumnType.STRING);
+    ColumnSketch whole = new ColumnSketch(ColumnType.STRING);
+    for (int i = 0; i < ROWS; i++) {
+      String value = i % 4 == 0 ? "hot" : "v" + i;
+      (i < ROWS / 3 ? sketch1 : sketch2).add(value);
+      whole.add(value);
+    }
+    sketch1.merge(sketch2);
+    Assert.assertEquals(whole.getRows(), sketch1.getRows());
+    Assert.assertEquals(whole.getDistinctCount(), sketch1.getDistinctCount());
+    Assert.assertEquals("hot", sketch1.getMostFrequentValues().get(0).getKey());
+    Assert.assertTrue(sketch1.getMostFrequentValues().get(0).getValue() <= ROWS / 4);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    sketch1.write(out);
+    out.close();
+    ColumnSketch read = new ColumnSketch();
+    read.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    Assert.assertEquals(ColumnType.STRING, read.getType());
+    Assert.assertEquals(sketch1.getRows(), read.getRows());
+    Assert.assertEquals(sketch1.getDistinctCount(), read.getDistinctCount());
+    Assert.assertEquals(sketch1.getMostFrequentValues(), read.getMostFrequentValues());
+  }
+
+  /**
+   * Create a table of two files: "a" has ROWS distinct values over both, "b"
+   * has ten, one of which is in half of the rows.
+   */
+  private static void createTable(Configuration conf) throws IOException {
+    BasicTable.drop(path, conf);
+    BasicTable.Writer writer = new BasicTable.Writer(path, "a:int, b:string, c:bytes",
+        "[a]; [b, c]", conf);
+    writer.finish();
+    for (int part = 0; part < 2; part++) {
+      writer = new BasicTable.Writer(path, conf);
+      TableInserter inserter = writer.getInserter("part-" + part, true);
+      Tuple tuple = TypesUtils.createTuple(writer.getSchema());
+      for (int i = part * ROWS / 2; i < (part + 1) * ROWS / 2; ++i) {
+        tuple.set(0, i);
+        tuple.set(1, i % 2 == 0 ? "b" : "b" + i % 9);
+        tuple.set(2, null);
+        inserter.insert(TestBasicTable.makeKey(i), tuple);
+      }
+      inserter.close();
+    }
+    writer = new BasicTable.Writer(path, conf);
+    writer.close();
+  }
+
+  @Test
+  public void testTableSketches() throws IOException, ParseException {
+    createTable(conf);
+    BasicTable.Reader reader = new BasicTable.Reader(path, conf);
+    Map<String, ColumnSketch> sketches = reader.getSketches(Arrays.asList("a",
+        "b", "c", "d"));
+    reader.close();
+    Assert.assertEquals(2, sketches.size());
+    Assert.assertEquals(ROWS, sketches.get("a").getRows());
+    assertClose(ROWS, sketches.get("a").getDistinctCount());
+    Assert.assertEquals(10, sketches.get("b").getDistinctCount());
+    Assert.assertEquals("b", sketches.get("b").getMostFrequentValues().get(0).getKey());
+    Assert.assertEquals(ROWS / 2,
+        sketches.get("b").getMostFrequentValues().get(0).getValue().longValue());
+
+    TableLoader loader = new TableLoader("b, a, c");
+    loader.setUDFContextSignature("TestColumnSketch");
+    ResourceStatistics stats = loader.getStatistics(path.toString(), new Job(conf));
+    Assert.assertEquals(ROWS, stats.getNumRecords().longValue());
+    Assert.assertEquals(1, stats.getmBytes().longValue());
+    ResourceFieldStatistics[] fields = stats.getFields();
+    Assert.assertEquals(3, fields.length);
+    Assert.assertEquals(10, fields[0].getNumDistinctValues().longValue());
+    Assert.assertEquals("b", fields[0].getMostCommonValues()[0]);
+    Assert.assertEquals(0.5f, fields[0].getMostCommonValuesFreq()[0], 0.0001f);
+    assertClose(ROWS, fields[1].getNumDistinctValues());
+    Assert.assertNull(fields[2].getNumDistinctValues());
+  }
+
+  @Test
+  public void testNoSketches() throws IOException, ParseException {
+    Configuration noSketches = new Configuration(conf);
+    noSketches.setBoolean("table.output.cg.sketches", false);
+    createTable(noSketches);
+    BasicTable.Reader reader = new BasicTable.Reader(path, conf);
+    Assert.assertTrue(reader.getSketches(Arrays.asList("a", "b")).isEmpty());
+    reader.close();
+
+    TableLoader loader = new TableLoader();
+    loader.setUDFContextSignature("TestColumnSketch");
+    ResourceStatistics stats = loader.getStatistics(path.toString(), new Job(conf));
+    Assert.assertEquals(1, stats.getmBytes().longValue());
+    Assert.assertNull(stats.getFields()[0].getNumDistinctValues());
+  }
+}
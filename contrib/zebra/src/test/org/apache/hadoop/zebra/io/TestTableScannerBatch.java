@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.hadoop.zebra.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.zebra.parser.ParseException;
+import org.apache.hadoop.zebra.schema.Schema;
+import org.apache.hadoop.zebra.types.TypesUtils;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Reading rows in batches with TableScanner.getValues(), and reading the
+ * projected columns of column groups only.
+ */
+public class TestTableScannerBatch {
+  private static final String SCHEMA = "s:string, r:record(f11:int, f12:long), "
+      + "m:map(string), c:collection(record(a:double, b:string)), l:long";
+  private static final String STORAGE = "[s, c]; [r.f12, m]; [r.f11, l]";
+  private static final int ROWS = 300;
+  private static Configuration conf;
+  private static Path path;
+
+  @BeforeClass
+  public static void setUpOnce() throws IOException, ParseException {
+    TestBasicTable.setUpOnce();
+    conf = TestBasicTable.conf;
+    path = new Path(TestBasicTable.rootPath, "TestTableScannerBatch");
+    BasicTable.drop(path, conf);
+    BasicTable.Writer writer = new BasicTable.Writer(path, SCHEMA, STORAGE,
+        null, null, conf);
+    writer.finish();
+    Schema schema = writer.getSchema();
+    Tuple tuple = TypesUtils.createTuple(schema);
+    for (int part = 0; part < 2; ++part) {
+      writer = new BasicTable.Writer(path, conf);
+      TableInserter inserter = writer.getInserter("part-" + part, true);
+      for (int n = part * ROWS / 2; n < (part + 1) * ROWS / 2; ++n) {
+        TypesUtils.resetTuple(tuple);
+        tuple.set(0, n % 5 == 0 ? null : "s" + n);
+        Tuple record = TypesUtils.createTuple(schema.getColumnSchema("r").getSchema());
+        record.set(0, n);
+        record.set(1, n * 10L);
+        tuple.set(1, record);
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("k", "v" + n);
+        map.put("x", "y");
+        tuple.set(2, map);
+        DataBag bag = TypesUtils.createBag();
+        for (int i = 0; i < n % 3; ++i) {
+          Tuple item = TypesUtils.createTuple(2);
+          item.set(0, n + i / 10.0);
+          item.set(1, "b" + i);
+          bag.add(item);
+        }
+        tuple.set(3, bag);
+        tuple.set(4, n % 7 == 0 ? null : (long) -n);
+        inserter.insert(new BytesWritable(("k" + n).getBytes()), tuple);
+      }
+      inserter.close();
+    }
+    writer = new BasicTable.Writer(path, conf);
+    writer.close();
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    BasicTable.drop(path, conf);
+  }
+
+  /**
+   * Read the given columns of all the rows, one row at a time or in batches
+   * of the given size.
+   */
+  private static List<List<Object>> read(String projection, int batchSize)
+      throws IOException, ParseException {
+    return read(conf, projection, batchSize);
+  }
+
+  private static List<List<Object>> read(Configuration conf, String projection,
+      int batchSize) throws IOException, ParseException {
+    List<List<Object>> rows = new ArrayList<List<Object>>();
+    BasicTable.Reader reader = new BasicTable.Reader(path, conf);
+    reader.setProjection(projection);
+    TableScanner scanner = reader.getScanner(null, true);
+    if (batchSize == 0) {
+      Tuple row = TypesUtils.createTuple(scanner.getSchema());
+      for (; !scanner.atEnd(); scanner.advance()) {
+        scanner.getValue(row);
+        // getValue() reuses the records split across column groups
+        rows.add(copy(row).getAll());
+      }
+    } else {
+      Tuple[] batch = new Tuple[batchSize];
+      while (true) {
+        for (int i = 0; i < batchSize; ++i) {
+          batch[i] = TypesUtils.createTuple(scanner.getSchema());
+        }
+        int n = scanner.getValues(batch);
+        for (int i = 0; i < n; ++i) {
+          rows.add(batch[i].getAll());
+        }
+        if (n < batchSize) {
+          break;
+        }
+      }
+      Assert.assertTrue(scanner.atEnd());
+      Assert.assertEquals(0, scanner.getValues(batch));
+    }
+    scanner.close();
+    return rows;
+  }
+
+  private static Tuple copy(Tuple tuple) throws IOException {
+    Tuple copy = TypesUtils.createTuple(tuple.size());
+    for (int i = 0; i < tuple.size(); ++i) {
+      Object value = tuple.get(i);
+      copy.set(i, value instanceof Tuple ? copy((Tuple) value) : value);
+    }
+    return copy;
+  }
+
+  @Test
+  public void testSplitRecords() throws IOException, ParseException {
+    for (int batchSize : new int[] { 0, 4, ROWS + 1 }) {
+      List<List<Object>> rows = read("r, l", batchSize);
+      Assert.assertEquals(ROWS, rows.size());
+      for (int n = 0; n < ROWS; ++n) {
+        Tuple record = (Tuple) rows.get(n).get(0);
+        Assert.assertEquals("row " + n + " by " + batchSize, n, record.get(0));
+        Assert.assertEquals("row " + n + " by " + batchSize, n * 10L,
+            record.get(1));
+      }
+    }
+  }
+
+  @Test
+  public void testProjectedColumns() throws IOException, ParseException {
+    List<List<Object>> rows = read("l, m#{k}, s, r.f12", 0);
+    Assert.assertEquals(ROWS, rows.size());
+    for (int n = 0; n < ROWS; ++n) {
+      List<Object> row = rows.get(n);
+      Assert.assertEquals(n % 7 == 0 ? null : (long) -n, row.get(0));
+      Assert.assertEquals("v" + n, ((Map<?, ?>) row.get(1)).get("k"));
+      Assert.assertEquals(n % 5 == 0 ? null : "s" + n, row.get(2));
+      Assert.assertEquals(n * 10L, row.get(3));
+    }
+  }
+
+  @Test
+  public void testBatches() throws IOException, ParseException {
+    for (String projection : new String[] { "s, r, m, c, l", "c, r.f11",
+        "m#{x}, l", "nosuchcolumn" }) {
+      List<List<Object>> rows = read(projection, 0);
+      Assert.assertEquals(ROWS, rows.size());
+      for (int batchSize : new int[] { 1, 7, ROWS, ROWS + 1 }) {
+        Assert.assertEquals(projection + " by " + batchSize, rows,
+            read(projection, batchSize));
+      }
+    }
+  }
+
+  @Test
+  public void testPrefetch() throws IOException, ParseException {
+    Configuration serial = new Configuration(conf);
+    serial.setInt("table.input.cg.prefetch.threads", 0);
+    Configuration prefetch = new Configuration(conf);
+    prefetch.setInt("table.input.cg.prefetch.threads", 2);
+    for (String projection : new String[] { "s, r, m, c, l", "l, s" }) {
+      List<List<Object>> rows = read(serial, projection, 0);
+      for (int batchSize : new int[] { 1, 7, ROWS + 1 }) {
+        Assert.assertEquals(projection + " by " + batchSize, rows,
+            read(prefetch, projection, batchSize));
+      }
+    }
+  }
+}
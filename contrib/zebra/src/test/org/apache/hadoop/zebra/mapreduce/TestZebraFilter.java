@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.hadoop.zebra.mapreduce;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.zebra.io.BasicTable;
+import org.apache.hadoop.zebra.io.ColumnStats;
+import org.apache.hadoop.zebra.io.TableInserter;
+import org.apache.hadoop.zebra.io.TestBasicTable;
+import org.apache.hadoop.zebra.mapreduce.ZebraFilter.Op;
+import org.apache.hadoop.zebra.parser.ParseException;
+import org.apache.hadoop.zebra.schema.ColumnType;
+import org.apache.hadoop.zebra.types.TypesUtils;
+import org.apache.pig.data.Tuple;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestZebraFilter {
+  private static final int PARTS = 4;
+  private static final int ROWS = 50;
+  private static Configuration conf;
+  private static Path path;
+
+  @BeforeClass
+  public static void setUpOnce() throws IOException {
+    TestBasicTable.setUpOnce();
+    conf = TestBasicTable.conf;
+    path = new Path(TestBasicTable.rootPath, "ZebraFilterTest");
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    BasicTable.drop(path, conf);
+  }
+
+  /**
+   * Create a table whose part i has the values of ts from i * 1000 on.
+   */
+  private static void createTable(Configuration conf) throws IOException {
+    BasicTable.drop(path, conf);
+    BasicTable.Writer writer = new BasicTable.Writer(path, "ts:long, v:string",
+        "[ts]; [v]", null, null, conf);
+    writer.finish();
+    Tuple tuple = TypesUtils.createTuple(writer.getSchema());
+    for (int i = 0; i < PARTS; ++i) {
+      writer = new BasicTable.Writer(path, conf);
+      TableInserter inserter = writer.getInserter(String.format("part-%06d", i), true);
+      for (int j = 0; j < ROWS; ++j) {
+        TypesUtils.resetTuple(tuple);
+        tuple.set(0, (long) (i * 1000 + j));
+        tuple.set(1, j % 2 == 0 ? null : "v" + j);
+        inserter.insert(new BytesWritable(("k" + j).getBytes()), tuple);
+      }
+      inserter.close();
+    }
+    writer = new BasicTable.Writer(path, conf);
+    writer.close();
+  }
+
+  private static List<InputSplit> getSplits(ZebraFilter filter)
+      throws IOException, ParseException {
+    TableInputFormat inputFormat = new TableInputFormat();
+    Job job = new Job(conf);
+    TableInputFormat.setInputPaths(job, path);
+    TableInputFormat.setMinSplitSize(job, 100);
+    if (filter != null) {
+      TableInputFormat.setFilter(job, filter);
+    }
+    return inputFormat.getSplits(job);
+  }
+
+  private static ZebraFilter range(long from, long to) {
+    return ZebraFilter.createAnd(ZebraFilter.createComparison("ts", Op.GE, from),
+        ZebraFilter.createComparison("ts", Op.LT, to));
+  }
+
+  @Test
+  public void testSkipSplits() throws IOException, ParseException {
+    createTable(conf);
+    // the small files of the table are in one split
+    Assert.assertEquals(1, getSplits(null).size());
+    List<InputSplit> splits = getSplits(range(1020, 2010));
+    Assert.assertEquals(1, splits.size());
+
+    // with the statistics of each of the files
+    BasicTable.Reader reader = new BasicTable.Reader(path, conf);
+    List<Map<String, ColumnStats>> stats = reader.getStats(
+        ((RowTableSplit) splits.get(0)).getSplit(), Arrays.asList("ts", "v", "nosuchcolumn"));
+    reader.close();
+    Assert.assertEquals(PARTS, stats.size());
+    for (int i = 0; i < PARTS; ++i) {
+      ColumnStats ts = stats.get(i).get("ts");
+      Assert.assertEquals((long) i * 1000, ts.getMin());
+      Assert.assertEquals((long) i * 1000 + ROWS - 1, ts.getMax());
+      Assert.assertEquals(ROWS / 2, stats.get(i).get("v").getNullCount());
+      Assert.assertFalse(stats.get(i).containsKey("nosuchcolumn"));
+    }
+
+    Assert.assertEquals(0, getSplits(range(5000, 6000)).size());
+    Assert.assertEquals(0, getSplits(range(50, 1000)).size());
+    Assert.assertEquals(1, getSplits(ZebraFilter.createOr(
+        ZebraFilter.createComparison("ts", Op.EQ, 10L),
+        ZebraFilter.createComparison("ts", Op.EQ, 5000))).size());
+    // the columns without statistics may have any values
+    Assert.assertEquals(1, getSplits(ZebraFilter.createComparison(
+        "nosuchcolumn", Op.EQ, 1)).size());
+  }
+
+  @Test
+  public void testNoStats() throws IOException, ParseException {
+    Configuration noStats = new Configuration(conf);
+    noStats.setBoolean("table.output.cg.stats", false);
+    createTable(noStats);
+    Assert.assertEquals(1, getSplits(range(5000, 6000)).size());
+  }
+
+  @Test
+  public void testMayMatch() {
+    ColumnStats stats = new ColumnStats(ColumnType.INT);
+    for (int i : new int[] { 3, 7, 5 }) {
+      stats.add(i);
+    }
+    stats.add(null);
+    Assert.assertEquals(3, stats.getMin());
+    Assert.assertEquals(7, stats.getMax());
+    Assert.assertEquals(1, stats.getNullCount());
+    Map<String, ColumnStats> map = new HashMap<String, ColumnStats>();
+    map.put("a", stats);
+
+    Assert.assertTrue(ZebraFilter.createComparison("a", Op.EQ, 5L).mayMatch(map));
+    Assert.assertFalse(ZebraFilter.createComparison("a", Op.EQ, 8).mayMatch(map));
+    Assert.assertFalse(ZebraFilter.createComparison("a", Op.LT, 3).mayMatch(map));
+    Assert.assertTrue(ZebraFilter.createComparison("a", Op.LE, 3.0).mayMatch(map));
+    Assert.assertFalse(ZebraFilter.createComparison("a", Op.GT, 7).mayMatch(map));
+    Assert.assertTrue(ZebraFilter.createComparison("a", Op.NE, 5).mayMatch(map));
+    // values of another kind cannot be compared
+    Assert.assertTrue(ZebraFilter.createComparison("a", Op.EQ, "x").mayMatch(map));
+
+    // nor NaN
+    ColumnStats doubles = new ColumnStats(ColumnType.DOUBLE);
+    doubles.add(1.0);
+    doubles.add(Double.NaN);
+    map.put("d", doubles);
+    Assert.assertTrue(ZebraFilter.createComparison("d", Op.GT, 2.0).mayMatch(map));
+
+    ColumnStats nulls = new ColumnStats(ColumnType.STRING);
+    nulls.add(null);
+    map.put("s", nulls);
+    Assert.assertFalse(ZebraFilter.createComparison("s", Op.NE, "x").mayMatch(map));
+    Assert.assertTrue(ZebraFilter.createOr(
+        ZebraFilter.createComparison("s", Op.NE, "x"),
+        ZebraFilter.createComparison("a", Op.GT, 6)).mayMatch(map));
+
+    ColumnStats merged = new ColumnStats(ColumnType.INT);
+    merged.add(10);
+    merged.merge(stats);
+    Assert.assertEquals(Arrays.asList(3, 10, 5L),
+        Arrays.asList(merged.getMin(), merged.getMax(), merged.getRows()));
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.zebra.tfile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestLz4 extends TestCase {
+  private Random random = new Random(7);
+
+  private byte[] roundTrip(byte[] data) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    OutputStream out = new Lz4.Lz4Encoder(bout);
+    // uneven writes, across the chunks
+    for (int off = 0; off < data.length;) {
+      int len = Math.min(data.length - off, 1 + random.nextInt(3000));
+      out.write(data, off, len);
+      off += len;
+    }
+    out.flush();
+    InputStream in = new Lz4.Lz4Decoder(new ByteArrayInputStream(bout
+        .toByteArray()));
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buf = new byte[777];
+    for (int n; (n = in.read(buf)) > 0;) {
+      result.write(buf, 0, n);
+    }
+    assertEquals(-1, in.read());
+    in.close();
+    byte[] decoded = result.toByteArray();
+    assertTrue(Arrays.equals(data, decoded));
+    return bout.toByteArray();
+  }
+
+  public void testShort() throws IOException {
+    for (int len = 0; len < 40; ++len) {
+      byte[] data = new byte[len];
+      Arrays.fill(data, (byte) 'a');
+      roundTrip(data);
+    }
+  }
+
+  public void testRuns() throws IOException {
+    byte[] data = new byte[3 * Lz4.CHUNK_SIZE + 17];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte) (i / 1000 % 3);
+    }
+    assertTrue(roundTrip(data).length < data.length / 50);
+  }
+
+  public void testText() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; sb.length() < 200000; ++i) {
+      sb.append("key").append(random.nextInt(100000)).append(",value")
+          .append(i % 17).append('\n');
+    }
+    byte[] data = sb.toString().getBytes();
+    assertTrue(roundTrip(data).length < data.length);
+  }
+
+  public void testIncompressible() throws IOException {
+    byte[] data = new byte[Lz4.CHUNK_SIZE + 100];
+    random.nextBytes(data);
+    // stored as they are, with the chunk headers
+    assertEquals(data.length + 16, roundTrip(data).length);
+  }
+
+  public void testCorrupt() throws IOException {
+    byte[] data = new byte[1000];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte) (i % 10);
+    }
+    byte[] compressed = new byte[Lz4.maxCompressedLength(data.length)];
+    int len = Lz4.compress(data, 0, data.length, compressed, 0, new int[4096]);
+    byte[] result = new byte[data.length];
+    Lz4.decompress(compressed, 0, len, result, 0, data.length);
+    assertTrue(Arrays.equals(data, result));
+    try {
+      Lz4.decompress(compressed, 0, len - 3, result, 0, data.length);
+      fail("Truncated data should not decompress");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      Lz4.decompress(compressed, 0, len, result, 0, data.length - 1);
+      fail("Data should not decompress into a shorter buffer");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
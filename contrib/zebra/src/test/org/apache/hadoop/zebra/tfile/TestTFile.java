@@ -351,12 +351,14 @@ public class TestTFile extends TestCase {
   public void testTFileFeatures() throws IOException {
     basicWithSomeCodec("none");
     basicWithSomeCodec("gz");
+    basicWithSomeCodec("lz4");
   }
 
   // test unsorted t files.
   public void testUnsortedTFileFeatures() throws IOException {
     unsortedWithSomeCodec("none");
     unsortedWithSomeCodec("gz");
+    unsortedWithSomeCodec("lz4");
   }
 
   private void writeNumMetablocks(Writer writer, String compression, int n)
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.apache.hadoop.zebra.tfile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.zebra.tfile.TFile.Reader;
+import org.apache.hadoop.zebra.tfile.TFile.Writer;
+import org.apache.hadoop.zebra.tfile.TFile.Reader.Scanner;
+
+/**
+ * Reading TFiles through the block cache.
+ */
+public class TestTFileBlockCache extends TestCase {
+  private static String ROOT =
+      System.getProperty("test.build.data", "/tmp/tfile-test");
+
+  private final static int BLOCK_SIZE = 4 * 1024;
+  private final static int COUNT = 5000;
+
+  private FileSystem fs;
+  private Configuration conf;
+  private Path path;
+
+  @Override
+  public void setUp() throws IOException {
+    conf = new Configuration();
+    conf.setLong("tfile.block.cache.size", 16 * 1024 * 1024);
+    path = new Path(ROOT, "TestTFileBlockCache");
+    fs = path.getFileSystem(conf);
+    FSDataOutputStream out = fs.create(path);
+    Writer writer = new Writer(out, BLOCK_SIZE, "none", "memcmp", conf);
+    for (int nx = 0; nx < COUNT; nx++) {
+      writer.append(String.format("key%08d", nx).getBytes(),
+          ("value" + nx).getBytes());
+    }
+    writer.close();
+    out.close();
+    BlockCache cache = BlockCache.getInstance(conf);
+    cache.clear();
+  }
+
+  @Override
+  public void tearDown() throws IOException {
+    fs.delete(path, false);
+  }
+
+  /**
+   * Read the values of the file from the given key on, or all of them.
+   */
+  private List<String> read(Reader reader, String from) throws IOException {
+    List<String> values = new ArrayList<String>();
+    Scanner scanner = reader.createScanner();
+    if (from != null) {
+      scanner.seekTo(from.getBytes());
+    }
+    BytesWritable key = new BytesWritable();
+    BytesWritable value = new BytesWritable();
+    for (; !scanner.atEnd(); scanner.advance()) {
+      scanner.entry().get(key, value);
+      values.add(new String(value.getBytes(), 0, value.getLength()));
+    }
+    scanner.close();
+    return values;
+  }
+
+  private List<String> read(Configuration conf, boolean cached, String from)
+      throws IOException {
+    FSDataInputStream in = fs.open(path);
+    Reader reader = cached ? new Reader(in, fs.getFileStatus(path), conf)
+        : new Reader(in, fs.getFileStatus(path).getLen(), conf);
+    try {
+      return read(reader, from);
+    }
+    finally {
+      reader.close();
+      in.close();
+    }
+  }
+
+  public void testHits() throws IOException {
+    BlockCache cache = BlockCache.getInstance(conf);
+    long hits = cache.getHitCount();
+    long misses = cache.getMissCount();
+    List<String> expected = read(conf, false, null);
+    assertEquals(COUNT, expected.size());
+    assertEquals(misses, cache.getMissCount());
+
+    assertEquals(expected, read(conf, true, null));
+    int blocks = (int) (cache.getMissCount() - misses);
+    assertTrue(blocks > 1);
+    assertEquals(hits, cache.getHitCount());
+    assertTrue(cache.getSize() > 0);
+
+    // another reader of the same file finds the blocks
+    assertEquals(expected, read(conf, true, null));
+    assertEquals(hits + blocks, cache.getHitCount());
+    assertEquals(expected.subList(COUNT / 2, COUNT), read(conf, true,
+        String.format("key%08d", COUNT / 2)));
+    assertEquals(misses + blocks, cache.getMissCount());
+  }
+
+  public void testEviction() throws IOException {
+    BlockCache cache = BlockCache.getInstance(conf);
+    List<String> expected = read(conf, false, null);
+    Configuration small = new Configuration(conf);
+    small.setLong("tfile.block.cache.size", 3 * BLOCK_SIZE);
+    long evictions = cache.getEvictionCount();
+    assertEquals(expected, read(small, true, null));
+    assertTrue(cache.getEvictionCount() > evictions);
+    assertTrue(cache.getSize() <= 3 * BLOCK_SIZE);
+    assertEquals(3 * BLOCK_SIZE, cache.getCapacity());
+  }
+
+  public void testDisabled() throws IOException {
+    Configuration disabled = new Configuration(conf);
+    disabled.setLong("tfile.block.cache.size", 0);
+    assertNull(BlockCache.getInstance(disabled));
+    BlockCache cache = BlockCache.getInstance();
+    long hits = cache.getHitCount();
+    long misses = cache.getMissCount();
+    assertEquals(COUNT, read(disabled, true, null).size());
+    assertEquals(hits, cache.getHitCount());
+    assertEquals(misses, cache.getMissCount());
+  }
+}
@@ -18,6 +18,7 @@
 
 package org.apache.hadoop.zebra.types;
 
+import java.io.IOException;
 import java.io.StringReader;
 import java.util.Iterator;
 import java.util.Map;
@@ -194,6 +195,19 @@ public class TestStorePrimitive {
     }
   }
 
+  @Test
+  public void testStorageValidLz4() throws ParseException, IOException {
+    String strStorage = "[f1, f2] COMPRESS BY lz4; [f3, f4] SERIALIZE BY avro COMPRESS BY lz4";
+    Partition p = new Partition(schema.toString(), strStorage, null);
+    CGSchema[] cgschemas = p.getCGSchemas();
+    Assert.assertEquals(3, cgschemas.length);
+    Assert.assertEquals("lz4", cgschemas[0].getCompressor());
+    Assert.assertEquals("pig", cgschemas[0].getSerializer());
+    Assert.assertEquals("lz4", cgschemas[1].getCompressor());
+    Assert.assertEquals("avro", cgschemas[1].getSerializer());
+    Assert.assertEquals("gz", cgschemas[2].getCompressor());
+  }
+
   @Test
   public void testStorageInvalid1() {
     try {
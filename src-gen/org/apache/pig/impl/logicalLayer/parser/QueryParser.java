@@ -232,6 +232,20 @@ public class QueryParser/*@bgen(jjtree)*/implements QueryParserTreeConstants, Qu
             return cogroup;
         }
 
+        else if(modifier.equalsIgnoreCase("merge")){
+            if (gis.size() < 2) {
+                throw new ParseException("Merge cogroup is only supported for two or more inputs");
+                }
+            for (CogroupInput gi : gis) {
+                if (!isColumnProjectionsOrStar(gi)) {
+                    throw new ParseException("Merge cogroup is only supported for columns or star projection");
+                    }
+                }
+            LogicalOperator cogroup = parseCogroup(gis, lp, LOCogroup.GROUPTYPE.MERGE);
+            cogroup.pinOption(LOCogroup.OPTION_GROUPTYPE);
+            return cogroup;
+        }
+
         else if (modifier.equalsIgnoreCase("regular")){
             LogicalOperator cogroup = parseCogroup(gis, lp, LOCogroup.GROUPTYPE.REGULAR);
             cogroup.pinOption(LOCogroup.OPTION_GROUPTYPE);
@@ -239,7 +253,7 @@ public class QueryParser/*@bgen(jjtree)*/implements QueryParserTreeConstants, Qu
         }
 
         else{
-            throw new ParseException("Only COLLECTED or REGULAR are valid GROUP modifiers.");
+            throw new ParseException("Only COLLECTED, MERGE or REGULAR are valid GROUP modifiers.");
         }
     }
 
@@ -254,9 +268,6 @@ public class QueryParser/*@bgen(jjtree)*/implements QueryParserTreeConstants, Qu
                 if (jt == LOJoin.JOINTYPE.SKEWED && n != 2) {
                         throw new ParseException("Skewed join can only be applied for 2-way joins");
                 }
-                if (jt == LOJoin.JOINTYPE.MERGE && n != 2) {
-            throw new ParseException("Merge join can only be applied for 2-way joins");
-        }
 
                 ArrayList<LogicalOperator> los = new ArrayList<LogicalOperator>();
                 ArrayList<ArrayList<LogicalPlan>> plans = new ArrayList<ArrayList<LogicalPlan>>();
@@ -7220,33 +7231,6 @@ public class QueryParser/*@bgen(jjtree)*/implements QueryParserTreeConstants, Qu
     finally { jj_save(48, xla); }
   }
 
-  private boolean jj_3R_108() {
-    if (jj_scan_token(OR)) return true;
-    if (jj_3R_107()) return true;
-    return false;
-  }
-
-  private boolean jj_3_21() {
-    if (jj_3R_40()) return true;
-    return false;
-  }
-
-  private boolean jj_3R_59() {
-    Token xsp;
-    xsp = jj_scanpos;
-    if (jj_3R_95()) {
-    jj_scanpos = xsp;
-    if (jj_3R_96()) {
-    jj_scanpos = xsp;
-    if (jj_3R_97()) {
-    jj_scanpos = xsp;
-    if (jj_3R_98()) return true;
-    }
-    }
-    }
-    return false;
-  }
-
   private boolean jj_3R_65() {
     if (jj_3R_107()) return true;
     Token xsp;
@@ -8810,6 +8794,33 @@ public class QueryParser/*@bgen(jjtree)*/implements QueryParserTreeConstants, Qu
     return false;
   }
 
+  private boolean jj_3R_108() {
+    if (jj_scan_token(OR)) return true;
+    if (jj_3R_107()) return true;
+    return false;
+  }
+
+  private boolean jj_3_21() {
+    if (jj_3R_40()) return true;
+    return false;
+  }
+
+  private boolean jj_3R_59() {
+    Token xsp;
+    xsp = jj_scanpos;
+    if (jj_3R_95()) {
+    jj_scanpos = xsp;
+    if (jj_3R_96()) {
+    jj_scanpos = xsp;
+    if (jj_3R_97()) {
+    jj_scanpos = xsp;
+    if (jj_3R_98()) return true;
+    }
+    }
+    }
+    return false;
+  }
+
   /** Generated Token Manager. */
   public QueryParserTokenManager token_source;
   JavaCharStream jj_input_stream;
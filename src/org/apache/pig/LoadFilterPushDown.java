@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig;
+
+import java.io.IOException;
+
+/**
+ * This interface is implemented by loaders which advertise
+ * {@link LoadPushDown.OperatorSet#FILTER} in
+ * {@link LoadPushDown#getFeatures()}, and which can use the conditions of a
+ * filter that immediately follows the load to skip data which cannot match,
+ * for instance by the minimum and maximum values of the columns of the blocks
+ * of the data.
+ * <p>
+ * Unlike {@link LoadMetadata#setPartitionFilter(Expression)}, the filter is
+ * kept in the plan and is still applied to every tuple the loader returns,
+ * so the loader does not have to filter exactly, and may ignore any part of
+ * the condition.
+ */
+public interface LoadFilterPushDown {
+
+    /**
+     * Give the loader the conditions of the filter after the load that it may
+     * use. The condition is an AND or OR of comparisons of a
+     * {@link Expression.Column} with a {@link Expression.Const}. Columns are
+     * named as in the schema the loader returned from
+     * {@link LoadMetadata#getSchema(String, org.apache.hadoop.mapreduce.Job)}.
+     * Conditions which cannot be expressed this way are left out of the
+     * AND they are part of, so the tuples which match the filter are a subset
+     * of the tuples which match the given condition.
+     * @param filter the condition
+     * @throws IOException if the condition cannot be recorded
+     */
+    void pushFilter(Expression filter) throws IOException;
+}
@@ -31,9 +31,10 @@ import org.apache.pig.impl.logicalLayer.FrontendException;
 public interface LoadPushDown {
 
     /**
-     * Set of possible operations that Pig can push down to a loader. 
+     * Set of possible operations that Pig can push down to a loader. A loader
+     * which can accept a FILTER must also implement {@link LoadFilterPushDown}.
      */
-    enum OperatorSet {PROJECTION};
+    enum OperatorSet {PROJECTION, FILTER};
 
     /**
      * Determine the operators that can be pushed to the loader.  
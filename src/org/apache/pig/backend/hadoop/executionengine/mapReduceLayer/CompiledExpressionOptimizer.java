@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionCompiler;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POCompiledExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.impl.plan.DepthFirstWalker;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+
+/**
+ * An optimizer that compiles the expressions of filters and foreachs with
+ * the {@link ExpressionCompiler}, so that arithmetic and comparisons are
+ * computed on primitives instead of passing a {@link
+ * org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result}
+ * between operators. It has to run after the accumulator optimizer, as
+ * the compiled expressions do not support accumulative mode.
+ */
+class CompiledExpressionOptimizer extends MROpPlanVisitor {
+
+    private Log log = LogFactory.getLog(getClass());
+
+    CompiledExpressionOptimizer(MROperPlan plan) {
+        super(plan, new DepthFirstWalker<MapReduceOper, MROperPlan>(plan));
+    }
+
+    @Override
+    public void visitMROp(MapReduceOper mr) throws VisitorException {
+        new ExpressionVisitor(mr.mapPlan).visit();
+        new ExpressionVisitor(mr.combinePlan).visit();
+        new ExpressionVisitor(mr.reducePlan).visit();
+    }
+
+    private class ExpressionVisitor extends PhyPlanVisitor {
+
+        ExpressionVisitor(PhysicalPlan plan) {
+            super(plan, new DepthFirstWalker<PhysicalOperator, PhysicalPlan>(plan));
+        }
+
+        @Override
+        public void visitFilter(POFilter filter) throws VisitorException {
+            if (compile(filter.getPlan())) {
+                filter.setPlan(filter.getPlan());
+            }
+        }
+
+        @Override
+        public void visitPOForEach(POForEach foreach) throws VisitorException {
+            if (foreach.isAccumulative()) {
+                return;
+            }
+            boolean changed = false;
+            for (PhysicalPlan inner : foreach.getInputPlans()) {
+                changed |= compile(inner);
+            }
+            if (changed) {
+                // the foreach caches the leaves of its plans
+                foreach.setInputPlans(foreach.getInputPlans());
+            }
+        }
+    }
+
+    private boolean compile(PhysicalPlan plan) throws VisitorException {
+        List<PhysicalOperator> leaves = plan.getLeaves();
+        if (leaves == null || leaves.size() != 1
+                || !(leaves.get(0) instanceof ExpressionOperator)) {
+            return false;
+        }
+        ExpressionOperator leaf = (ExpressionOperator)leaves.get(0);
+        String scope = leaf.getOperatorKey().getScope();
+        POCompiledExpression compiled = ExpressionCompiler.compile(leaf,
+                new OperatorKey(scope, NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+        if (compiled == null) {
+            return false;
+        }
+        try {
+            plan.add(compiled);
+            plan.connect(leaf, compiled);
+        } catch (PlanException e) {
+            int errCode = 2224;
+            String msg = "Unable to compile expression " + leaf.name() + ".";
+            throw new OptimizerException(msg, errCode, PigException.BUG, e);
+        }
+        log.debug("Compiled expression " + leaf.name());
+        return true;
+    }
+}
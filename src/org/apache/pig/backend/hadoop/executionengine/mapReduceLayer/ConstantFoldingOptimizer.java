@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PigLogger;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POBinCond;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POCast;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.UnaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.DepthFirstWalker;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+
+/**
+ * An optimizer that evaluates the parts of the expressions of filters and
+ * foreachs which only depend on constants, such as arithmetic on literals or
+ * the casts the type checker puts around them, and replaces them with a
+ * constant holding their value. Only operators without side effects are
+ * folded, so UDFs are left alone, and so are casts of bytearrays as they
+ * need the load function. An expression which returns an error or gives a
+ * warning, such as a division by zero, is left to do so at run time as
+ * before.
+ * <p>
+ * It runs before the NoopFilterRemover, which then also removes the filters
+ * whose condition folds to true.
+ */
+public class ConstantFoldingOptimizer extends MROpPlanVisitor {
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private static final Tuple DUMMY_TUPLE = TupleFactory.getInstance().newTuple();
+
+    public ConstantFoldingOptimizer(MROperPlan plan) {
+        super(plan, new DepthFirstWalker<MapReduceOper, MROperPlan>(plan));
+    }
+
+    @Override
+    public void visitMROp(MapReduceOper mr) throws VisitorException {
+        new ExpressionVisitor(mr.mapPlan).visit();
+        new ExpressionVisitor(mr.combinePlan).visit();
+        new ExpressionVisitor(mr.reducePlan).visit();
+    }
+
+    private class ExpressionVisitor extends PhyPlanVisitor {
+
+        ExpressionVisitor(PhysicalPlan plan) {
+            super(plan, new DepthFirstWalker<PhysicalOperator, PhysicalPlan>(plan));
+        }
+
+        @Override
+        public void visitFilter(POFilter filter) throws VisitorException {
+            if (fold(filter.getPlan())) {
+                filter.setPlan(filter.getPlan());
+            }
+        }
+
+        @Override
+        public void visitPOForEach(POForEach foreach) throws VisitorException {
+            // folds the nested filters first
+            super.visitPOForEach(foreach);
+            boolean changed = false;
+            for (PhysicalPlan inner : foreach.getInputPlans()) {
+                changed |= fold(inner);
+            }
+            if (changed) {
+                // the foreach caches the leaves of its plans
+                foreach.setInputPlans(foreach.getInputPlans());
+            }
+        }
+    }
+
+    /**
+     * Folds the largest expressions of the plan which only depend on
+     * constants.
+     * @return whether the plan changed
+     */
+    private boolean fold(PhysicalPlan plan) throws VisitorException {
+        Map<PhysicalOperator, Boolean> constants = new HashMap<PhysicalOperator, Boolean>();
+        List<ExpressionOperator> folds = new ArrayList<ExpressionOperator>();
+        Iterator<PhysicalOperator> it = plan.iterator();
+        while (it.hasNext()) {
+            PhysicalOperator op = it.next();
+            if (op instanceof ConstantExpression || !isConstant(op, plan, constants)) {
+                continue;
+            }
+            List<PhysicalOperator> succs = plan.getSuccessors(op);
+            if (succs == null || !isConstant(succs.get(0), plan, constants)) {
+                folds.add((ExpressionOperator)op);
+            }
+        }
+        boolean changed = false;
+        for (ExpressionOperator op : folds) {
+            changed |= fold(op, plan);
+        }
+        return changed;
+    }
+
+    private boolean isConstant(PhysicalOperator op, PhysicalPlan plan,
+            Map<PhysicalOperator, Boolean> constants) {
+        Boolean known = constants.get(op);
+        if (known != null) {
+            return known;
+        }
+        boolean constant = isFoldable(op, plan);
+        List<PhysicalOperator> preds = plan.getPredecessors(op);
+        if (constant && preds != null) {
+            for (PhysicalOperator pred : preds) {
+                constant &= isConstant(pred, plan, constants);
+            }
+        }
+        constants.put(op, constant);
+        return constant;
+    }
+
+    private boolean isFoldable(PhysicalOperator op, PhysicalPlan plan) {
+        if (op instanceof ConstantExpression
+                || op instanceof BinaryExpressionOperator
+                || op instanceof UnaryExpressionOperator
+                || op instanceof POBinCond) {
+            return true;
+        }
+        if (op instanceof POCast) {
+            List<PhysicalOperator> preds = plan.getPredecessors(op);
+            return preds != null && preds.size() == 1
+                && preds.get(0).getResultType() != DataType.BYTEARRAY;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces an expression with a constant holding its value, unless it
+     * cannot be evaluated.
+     */
+    private boolean fold(ExpressionOperator expr, PhysicalPlan plan)
+            throws VisitorException {
+        List<PhysicalOperator> inputs = new ArrayList<PhysicalOperator>();
+        collectInputs(expr, plan, inputs);
+        for (PhysicalOperator input : inputs) {
+            if (input instanceof ConstantExpression) {
+                input.attachInput(DUMMY_TUPLE);
+            }
+        }
+
+        PigLogger pigLogger = PhysicalOperator.getPigLogger();
+        WarningRecorder warnings = new WarningRecorder();
+        PhysicalOperator.setPigLogger(warnings);
+        Result res;
+        try {
+            res = getNext(expr);
+        } catch (ExecException e) {
+            log.debug("Unable to fold " + expr.name() + ": " + e.getMessage());
+            return false;
+        } catch (RuntimeException e) {
+            log.debug("Unable to fold " + expr.name() + ": " + e.getMessage());
+            return false;
+        } finally {
+            PhysicalOperator.setPigLogger(pigLogger);
+            for (PhysicalOperator input : inputs) {
+                input.detachInput();
+            }
+        }
+        if (warnings.warned || (res.returnStatus != POStatus.STATUS_OK
+                && res.returnStatus != POStatus.STATUS_NULL)) {
+            return false;
+        }
+
+        String scope = expr.getOperatorKey().getScope();
+        ConstantExpression constant = new ConstantExpression(new OperatorKey(scope,
+                NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+        constant.setValue(res.result);
+        constant.setResultType(expr.getResultType());
+        constant.setAlias(expr.getAlias());
+        List<PhysicalOperator> succs = plan.getSuccessors(expr);
+        PhysicalOperator parent = (succs == null) ? null : succs.get(0);
+        try {
+            for (PhysicalOperator input : inputs) {
+                plan.remove(input);
+            }
+            plan.replace(expr, constant);
+        } catch (PlanException e) {
+            int errCode = 2227;
+            String msg = "Unable to fold constant expression " + expr.name() + ".";
+            throw new OptimizerException(msg, errCode, PigException.BUG, e);
+        }
+        // other operators get their operands from their inputs, which
+        // replace() takes care of
+        if (parent instanceof BinaryExpressionOperator) {
+            BinaryExpressionOperator bin = (BinaryExpressionOperator)parent;
+            if (bin.getLhs() == expr) bin.setLhs(constant);
+            if (bin.getRhs() == expr) bin.setRhs(constant);
+        } else if (parent instanceof UnaryExpressionOperator) {
+            ((UnaryExpressionOperator)parent).setExpr(constant);
+        } else if (parent instanceof POBinCond) {
+            POBinCond binCond = (POBinCond)parent;
+            if (binCond.getCond() == expr) binCond.setCond(constant);
+            if (binCond.getLhs() == expr) binCond.setLhs(constant);
+            if (binCond.getRhs() == expr) binCond.setRhs(constant);
+        }
+        log.debug("Folded " + expr.name() + " into " + res.result);
+        return true;
+    }
+
+    private void collectInputs(PhysicalOperator op, PhysicalPlan plan,
+            List<PhysicalOperator> inputs) {
+        List<PhysicalOperator> preds = plan.getPredecessors(op);
+        if (preds != null) {
+            for (PhysicalOperator pred : preds) {
+                inputs.add(pred);
+                collectInputs(pred, plan, inputs);
+            }
+        }
+    }
+
+    private Result getNext(ExpressionOperator expr) throws ExecException {
+        switch (expr.getResultType()) {
+        case DataType.INTEGER:
+            return expr.getNext((Integer)null);
+        case DataType.LONG:
+            return expr.getNext((Long)null);
+        case DataType.FLOAT:
+            return expr.getNext((Float)null);
+        case DataType.DOUBLE:
+            return expr.getNext((Double)null);
+        case DataType.BOOLEAN:
+            return expr.getNext((Boolean)null);
+        case DataType.CHARARRAY:
+            return expr.getNext((String)null);
+        case DataType.BYTEARRAY:
+            return expr.getNext((DataByteArray)null);
+        case DataType.MAP:
+            return expr.getNext((Map)null);
+        case DataType.TUPLE:
+            return expr.getNext((Tuple)null);
+        case DataType.BAG:
+            return expr.getNext((DataBag)null);
+        default:
+            Result res = new Result();
+            res.returnStatus = POStatus.STATUS_ERR;
+            return res;
+        }
+    }
+
+    private static class WarningRecorder implements PigLogger {
+        boolean warned = false;
+
+        public void warn(Object o, String msg, Enum warningEnum) {
+            warned = true;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POAnd;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POOr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.plan.DependencyOrderWalker;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+import org.apache.pig.impl.util.Pair;
+
+/**
+ * Lets the conditions of filters be evaluated in the order which turns out
+ * to be cheapest at run time. Adjacent filters are merged into one filter
+ * whose condition is the and of theirs, and the and and or operators of
+ * the filter conditions are set to reorder their operands, see {@link
+ * POAnd#setReorderOperands(boolean)}. Operands which can fail or call a UDF
+ * stay behind the ones before them, and only conditions which cannot are
+ * merged into the filter before them, as the merged condition is also
+ * evaluated for rows on which the first one is null, see {@link
+ * ExpressionOperator#isReorderSafe()}.
+ */
+public class FilterReorderOptimizer extends MROpPlanVisitor {
+
+    private Log log = LogFactory.getLog(getClass());
+
+    public FilterReorderOptimizer(MROperPlan plan) {
+        super(plan, new DependencyOrderWalker<MapReduceOper, MROperPlan>(plan));
+    }
+
+    @Override
+    public void visitMROp(MapReduceOper mr) throws VisitorException {
+        new FilterVisitor(mr.mapPlan).visit();
+        new FilterVisitor(mr.combinePlan).visit();
+        new FilterVisitor(mr.reducePlan).visit();
+    }
+
+    private class FilterVisitor extends PhyPlanVisitor {
+
+        private List<Pair<POFilter, PhysicalPlan>> filters;
+
+        FilterVisitor(PhysicalPlan plan) {
+            super(plan, new DependencyOrderWalker<PhysicalOperator, PhysicalPlan>(plan));
+            filters = new LinkedList<Pair<POFilter, PhysicalPlan>>();
+        }
+
+        @Override
+        public void visit() throws VisitorException {
+            super.visit();
+            // the walker gives the filters before the ones after them
+            Set<POFilter> merged = new HashSet<POFilter>();
+            for (Pair<POFilter, PhysicalPlan> pair : filters) {
+                if (merged.contains(pair.first)) {
+                    continue;
+                }
+                POFilter next;
+                while ((next = nextFilter(pair.first, pair.second)) != null) {
+                    merge(pair.first, next, pair.second);
+                    merged.add(next);
+                }
+                for (PhysicalOperator op : pair.first.getPlan()) {
+                    if (op instanceof POAnd) {
+                        ((POAnd)op).setReorderOperands(true);
+                    } else if (op instanceof POOr) {
+                        ((POOr)op).setReorderOperands(true);
+                    }
+                }
+            }
+            filters.clear();
+        }
+
+        @Override
+        public void visitFilter(POFilter fl) throws VisitorException {
+            filters.add(new Pair<POFilter, PhysicalPlan>(fl, mCurrentWalker.getPlan()));
+        }
+    }
+
+    /**
+     * @return the filter which only reads the output of the given filter,
+     * if it can be merged into it
+     */
+    private POFilter nextFilter(POFilter filter, PhysicalPlan plan) {
+        List<PhysicalOperator> succs = plan.getSuccessors(filter);
+        if (succs == null || succs.size() != 1
+                || !(succs.get(0) instanceof POFilter)
+                || plan.getPredecessors(succs.get(0)).size() != 1) {
+            return null;
+        }
+        POFilter next = (POFilter)succs.get(0);
+        if (!isCondition(filter.getPlan()) || !isCondition(next.getPlan())
+                || !((ExpressionOperator)next.getPlan().getLeaves().get(0)).isReorderSafe()) {
+            return null;
+        }
+        return next;
+    }
+
+    private boolean isCondition(PhysicalPlan plan) {
+        List<PhysicalOperator> leaves = plan.getLeaves();
+        return leaves != null && leaves.size() == 1
+            && leaves.get(0) instanceof ExpressionOperator
+            && leaves.get(0).getResultType() == DataType.BOOLEAN;
+    }
+
+    /**
+     * Moves the condition of next into filter, as the and of both
+     * conditions, and removes next from the plan.
+     */
+    private void merge(POFilter filter, POFilter next, PhysicalPlan plan)
+            throws VisitorException {
+        PhysicalPlan condition = filter.getPlan();
+        ExpressionOperator lhs = (ExpressionOperator)condition.getLeaves().get(0);
+        ExpressionOperator rhs = (ExpressionOperator)next.getPlan().getLeaves().get(0);
+        String scope = filter.getOperatorKey().getScope();
+        POAnd and = new POAnd(new OperatorKey(scope,
+                NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+        and.setLhs(lhs);
+        and.setRhs(rhs);
+        try {
+            condition.merge(next.getPlan());
+            condition.add(and);
+            condition.connect(lhs, and);
+            condition.connect(rhs, and);
+            List<PhysicalOperator> succs = plan.getSuccessors(next);
+            plan.removeAndReconnect(next);
+            if (succs != null) {
+                // in the order of the predecessors, which the plan keeps
+                for (PhysicalOperator succ : succs) {
+                    succ.setInputs(plan.getPredecessors(succ));
+                }
+            }
+        } catch (PlanException e) {
+            int errCode = 2228;
+            String msg = "Unable to merge filter " + next.name()
+                + " into " + filter.name() + ".";
+            throw new OptimizerException(msg, errCode, PigException.BUG, e);
+        }
+        filter.setPlan(condition);
+        log.debug("Merged filter " + next.name() + " into " + filter.name());
+    }
+}
@@ -55,10 +55,12 @@ import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.WeightedRangePartitioner;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
@@ -68,6 +70,7 @@ import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.builtin.BloomFilterCheck;
 import org.apache.pig.impl.io.FileLocalizer;
 import org.apache.pig.impl.io.FileSpec;
 import org.apache.pig.impl.io.NullableBytesWritable;
@@ -80,6 +83,7 @@ import org.apache.pig.impl.io.NullableText;
 import org.apache.pig.impl.io.NullableTuple;
 import org.apache.pig.impl.io.PigNullableWritable;
 import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
 import org.apache.pig.impl.plan.VisitorException;
 import org.apache.pig.impl.plan.DepthFirstWalker;
 import org.apache.pig.impl.util.JarManager;
@@ -122,6 +126,19 @@ public class JobControlCompiler{
     public static final String LOG_DIR = "_logs";
 
     public static final String END_OF_INP_IN_MAP = "pig.invoke.close.in.map";
+
+    /**
+     * Number of map tasks the hadoop local job runner executes concurrently.
+     */
+    public static final String LOCAL_MAX_MAPS = "mapreduce.local.map.tasks.maximum";
+
+    /**
+     * Whether local mode jobs run up to one map task per core concurrently.
+     * Off by default: the tasks share the operator reporter and logger, the
+     * UDF context and the job conf of {@link PigMapReduce}, so the loaders
+     * and UDFs of the script must be thread-safe.
+     */
+    public static final String LOCAL_PARALLEL_MAPS = "pig.exec.local.parallel.maps";
     
     /**
      * We will serialize the POStore(s) present in map and reduce in lists in
@@ -139,6 +156,10 @@ public class JobControlCompiler{
     
     private Map<Job, MapReduceOper> jobMroMap;
 
+    // runs the replicated joins whose inputs do not fit in memory as
+    // regular joins, if asked to
+    private ReplicatedJoinFallback replicatedJoinFallback;
+
     public JobControlCompiler(PigContext pigContext, Configuration conf) throws IOException {
         this.pigContext = pigContext;
         this.conf = conf;
@@ -164,6 +185,7 @@ public class JobControlCompiler{
     public void reset() {
         jobStoreMap = new HashMap<Job, Pair<List<POStore>, Path>>();
         jobMroMap = new HashMap<Job, MapReduceOper>();
+        replicatedJoinFallback = null;
         UDFContext.getUDFContext().reset();
     }
 
@@ -239,10 +261,23 @@ public class JobControlCompiler{
 
         JobControl jobCtrl = new JobControl(grpName);
 
+        if (replicatedJoinFallback == null && "true".equalsIgnoreCase(
+                pigContext.getProperties().getProperty(POFRJoin.FALLBACK))) {
+            replicatedJoinFallback = new ReplicatedJoinFallback(plan, pigContext, conf);
+        }
+
         try {
             List<MapReduceOper> roots = new LinkedList<MapReduceOper>();
             roots.addAll(plan.getRoots());
             for (MapReduceOper mro: roots) {
+                if (replicatedJoinFallback != null) {
+                    // a replicated join which is too large runs as a
+                    // regular join in a job of its own first
+                    MapReduceOper joinJob = replicatedJoinFallback.check(mro);
+                    if (joinJob != null) {
+                        mro = joinJob;
+                    }
+                }
                 Job job = getJob(mro, conf, pigContext);
                 jobMroMap.put(job, mro);
                 jobCtrl.addJob(job);
@@ -286,6 +321,25 @@ public class JobControlCompiler{
         return sizeBefore-sizeAfter;
     }
         
+    /**
+     * @return whether the job has a replicated join which can be run again
+     * as a regular join, see {@link ReplicatedJoinFallback}
+     */
+    public boolean canFallBack(Job job) {
+        return replicatedJoinFallback != null
+            && replicatedJoinFallback.canFallBack(jobMroMap.get(job));
+    }
+
+    /**
+     * Rewrites the replicated join of a job which failed as it ran out of
+     * memory as a regular join, and keeps the job in the plan, to be run
+     * again after the join.
+     */
+    public void fallBack(Job job) throws IOException, PlanException, VisitorException {
+        MapReduceOper mro = jobMroMap.remove(job);
+        replicatedJoinFallback.fallBack(mro);
+    }
+
     /**
      * The method that creates the Job corresponding to a MapReduceOper.
      * The assumption is that
@@ -488,6 +542,8 @@ public class JobControlCompiler{
             // serialized
             setupDistributedCacheForJoin(mro, pigContext, conf);
 
+            setLocalMapParallelism(mro, conf);
+
             POPackage pack = null;
             if(mro.reducePlan.isEmpty()){
                 //MapOnly Job
@@ -1029,6 +1085,39 @@ public class JobControlCompiler{
         return symlink;
     }
     
+    /**
+     * In local mode the hadoop job runner executes map tasks one after the
+     * other on a single thread. If {@link #LOCAL_PARALLEL_MAPS} is set, let
+     * it run them on a thread pool instead, sized to the number of cores
+     * and, if the job sorts map output, to the number of sort buffers that
+     * fit in the heap. Besides the static state of the map tasks which is
+     * shared by all tasks in the same JVM, jobs with streaming, merge join
+     * or skewed join keep per task state there, so they keep a single
+     * thread.
+     */
+    private void setLocalMapParallelism(MapReduceOper mro, Configuration conf) {
+        if (pigContext.getExecType() != ExecType.LOCAL
+                || !conf.getBoolean(LOCAL_PARALLEL_MAPS, false)
+                || conf.get(LOCAL_MAX_MAPS) != null) {
+            return;
+        }
+        int maxMaps = 1;
+        if (!mro.isEndOfAllInputSetInMap() && !mro.isSkewedJoin()) {
+            Runtime rt = Runtime.getRuntime();
+            maxMaps = rt.availableProcessors();
+            if (!mro.reducePlan.isEmpty()) {
+                long sortBuffer = (long)conf.getInt("mapreduce.task.io.sort.mb",
+                        conf.getInt("io.sort.mb", 100)) << 20;
+                if (sortBuffer > 0) {
+                    long fit = rt.maxMemory() / (2 * sortBuffer);
+                    maxMaps = (int)Math.max(1, Math.min(maxMaps, fit));
+                }
+            }
+        }
+        log.info("Running up to " + maxMaps + " local map task(s) in parallel");
+        conf.setInt(LOCAL_MAX_MAPS, maxMaps);
+    }
+
     private static class JoinDistributedCacheVisitor extends PhyPlanVisitor {
                  
         private PigContext pigContext = null;
@@ -1106,6 +1195,63 @@ public class JobControlCompiler{
                 throw new VisitorException(msg, e);
             }
          }
+
+         @Override
+         public void visitMergeCoGroup(POMergeCogroup mergeCoGrp) throws VisitorException {
+
+             // XXX Hadoop currently doesn't support distributed cache in local mode.
+             // This line will be removed after the support is added
+             if (pigContext.getExecType() == ExecType.LOCAL) return;
+
+             FileSpec indexFileSpec = mergeCoGrp.getIndexFileSpec();
+             String[] sideIndexFiles = mergeCoGrp.getSideIndexFiles();
+
+             try {
+                // merge cogroup implementing an inner join doesn't use an index file
+                if (indexFileSpec != null) {
+                    String symlink = addSingleFileToDistributedCache(pigContext,
+                            conf, indexFileSpec.getFileName(), "indexfile_");
+                    mergeCoGrp.setIndexFileSpec(new FileSpec(symlink, indexFileSpec.getFuncSpec()));
+                }
+                // side inputs without a loader of their own are read
+                // through a DefaultIndexableLoader with an index file
+                if (sideIndexFiles != null) {
+                    for (int i = 0; i < sideIndexFiles.length; i++) {
+                        if (sideIndexFiles[i] == null) continue;
+                        sideIndexFiles[i] = addSingleFileToDistributedCache(pigContext,
+                                conf, sideIndexFiles[i], "indexfile_");
+                    }
+                }
+            } catch (IOException e) {
+                String msg = "Internal error. Distributed cache could not " +
+                        "be set up for merge cogroup index file";
+                throw new VisitorException(msg, e);
+            }
+         }
+
+         @Override
+         public void visitUserFunc(POUserFunc userFunc) throws VisitorException {
+
+             // XXX Hadoop currently doesn't support distributed cache in local mode.
+             // This line will be removed after the support is added
+             if (pigContext.getExecType() == ExecType.LOCAL) return;
+
+             FuncSpec funcSpec = userFunc.getFuncSpec();
+             if (!funcSpec.getClassName().equals(BloomFilterCheck.class.getName())) {
+                 return;
+             }
+
+             try {
+                String symlink = addSingleFileToDistributedCache(pigContext,
+                        conf, funcSpec.getCtorArgs()[0], "pigbloom");
+                userFunc.setFuncSpec(new FuncSpec(funcSpec.getClassName(),
+                        new String[] { symlink }));
+            } catch (IOException e) {
+                String msg = "Internal error. Distributed cache could not " +
+                        "be set up for bloom join filter file";
+                throw new VisitorException(msg, e);
+            }
+         }
      }
     
 }
@@ -61,6 +61,7 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOpe
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackageLite;
@@ -75,6 +76,8 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelp
 import org.apache.pig.builtin.BinStorage;
 import org.apache.pig.data.DataType;
 import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.builtin.BloomFilterCheck;
+import org.apache.pig.impl.builtin.BuildBloomFilter;
 import org.apache.pig.impl.builtin.DefaultIndexableLoader;
 import org.apache.pig.impl.builtin.FindQuantiles;
 import org.apache.pig.impl.builtin.GetMemNumRows;
@@ -172,6 +175,18 @@ public class MRCompiler extends PhyPlanVisitor {
     private Map<PhysicalOperator,MapReduceOper> phyToMROpMap;
     
     public static final String USER_COMPARATOR_MARKER = "user.comparator.func:";
+
+    /**
+     * Property which turns on the bloom filter for joins, see
+     * {@link #addBloomFilter(POGlobalRearrange)}
+     */
+    public static final String BLOOM_JOIN = "pig.bloomjoin";
+
+    /** Property for the number of bits of the bloom filter of a join */
+    public static final String BLOOM_JOIN_VECTOR_SIZE = "pig.bloomjoin.vectorsize";
+
+    /** Property for the number of hash functions of the bloom filter of a join */
+    public static final String BLOOM_JOIN_HASH_COUNT = "pig.bloomjoin.hashcount";
     
     public MRCompiler(PhysicalPlan plan) throws MRCompilerException {
         this(plan,null);
@@ -985,6 +1000,10 @@ public class MRCompiler extends PhyPlanVisitor {
     @Override
     public void visitGlobalRearrange(POGlobalRearrange op) throws VisitorException{
         try{
+            if (pigContext != null && "true".equals(pigContext.getProperties()
+                    .getProperty(BLOOM_JOIN, "false"))) {
+                addBloomFilter(op);
+            }
             blocking(op);
             phyToMROpMap.put(op, curMROp);
         }catch(Exception e){
@@ -994,6 +1013,250 @@ public class MRCompiler extends PhyPlanVisitor {
         }
     }
     
+    /**
+     * Drops the rows of the second input of a two way inner join or
+     * cogroup whose keys are not in a bloom filter of the keys of the first
+     * input, before they are shuffled. By convention the last input of a
+     * join is the largest one. The filter is built by a job of its own,
+     * which reads the first input, and the join job waits for it.
+     * <p>
+     * Nothing is done unless the local rearrange of the second input is in
+     * a map phase, so that the rows are filtered as they are read.
+     */
+    private void addBloomFilter(POGlobalRearrange op) throws IOException,
+            PlanException, VisitorException {
+        List<PhysicalOperator> preds = plan.getPredecessors(op);
+        List<PhysicalOperator> succs = plan.getSuccessors(op);
+        if (compiledInputs.length != 2 || preds == null || preds.size() != 2
+                || succs == null || succs.size() != 1
+                || succs.get(0).getClass() != POPackage.class) {
+            return;
+        }
+        POPackage pkg = (POPackage)succs.get(0);
+        boolean[] inner = pkg.getInner();
+        if (pkg.getNumInps() != 2 || inner == null || !inner[0] || !inner[1]) {
+            return;
+        }
+        // the compiled inputs are in the order of the predecessors
+        int buildIdx = -1;
+        int probeIdx = -1;
+        for (int i = 0; i < 2; i++) {
+            if (!(preds.get(i) instanceof POLocalRearrange)) {
+                return;
+            }
+            int index = ((POLocalRearrange)preds.get(i)).getIndex();
+            if (index == 0) {
+                buildIdx = i;
+            } else if (index == 1) {
+                probeIdx = i;
+            }
+        }
+        if (buildIdx == -1 || probeIdx == -1) {
+            return;
+        }
+        POLocalRearrange buildLR = (POLocalRearrange)preds.get(buildIdx);
+        POLocalRearrange probeLR = (POLocalRearrange)preds.get(probeIdx);
+        MapReduceOper build = compiledInputs[buildIdx];
+        MapReduceOper probe = compiledInputs[probeIdx];
+        if (build == probe || probe.isMapDone()
+                || !isBloomKey(buildLR) || !isBloomKey(probeLR)) {
+            return;
+        }
+        PhysicalPlan buildPlan = build.isMapDone() ? build.reducePlan : build.mapPlan;
+        List<PhysicalOperator> buildPreds = buildPlan.getPredecessors(buildLR);
+        List<PhysicalOperator> probePreds = probe.mapPlan.getPredecessors(probeLR);
+        if (buildPreds == null || buildPreds.size() != 1
+                || probePreds == null || probePreds.size() != 1) {
+            return;
+        }
+
+        // the bloom filter job reads the first input, which is stored
+        // unless it is read as it is loaded
+        MapReduceOper bloomJob;
+        PhysicalOperator buildInput = buildPreds.get(0);
+        if (!build.isMapDone() && buildInput instanceof POLoad
+                && buildPlan.size() == 2) {
+            POLoad ld = getLoad();
+            ld.setLFile(((POLoad)buildInput).getLFile());
+            ld.setSignature(((POLoad)buildInput).getSignature());
+            bloomJob = getMROp();
+            bloomJob.mapPlan.add(ld);
+            bloomJob.UDFs.addAll(build.UDFs);
+            MRPlan.add(bloomJob);
+            List<MapReduceOper> buildMRPreds = MRPlan.getPredecessors(build);
+            if (buildMRPreds != null) {
+                for (MapReduceOper mro : buildMRPreds) {
+                    MRPlan.connect(mro, bloomJob);
+                }
+            }
+        } else {
+            FileSpec fSpec = getTempFileSpec();
+            buildPlan.remove(buildLR);
+            POStore str = getStore();
+            str.setSFile(fSpec);
+            buildPlan.add(str);
+            buildPlan.connect(buildInput, str);
+            if (!build.isMapDone()) {
+                build.setMapDoneSingle(true);
+            } else {
+                build.setReduceDone(true);
+            }
+            bloomJob = startNew(fSpec, build);
+            build = startNew(fSpec, build);
+            build.mapPlan.addAsLeaf(buildLR);
+            compiledInputs[buildIdx] = build;
+            phyToMROpMap.put(buildLR, build);
+        }
+
+        FileSpec filterFile = getTempFileSpec();
+        buildBloomFilter(bloomJob, buildLR, filterFile);
+
+        // the condition of the filter evaluates the key of the second input
+        PhysicalPlan cond = new PhysicalPlan();
+        List<PhysicalPlan> keyPlans = new ArrayList<PhysicalPlan>();
+        try {
+            for (PhysicalPlan keyPlan : probeLR.getPlans()) {
+                keyPlans.add(keyPlan.clone());
+            }
+        } catch (CloneNotSupportedException e) {
+            int errCode = 2229;
+            String msg = "Unable to clone the join key plans of " + probeLR.name();
+            throw new MRCompilerException(msg, errCode, PigException.BUG, e);
+        }
+        FuncSpec checkSpec = new FuncSpec(BloomFilterCheck.class.getName(),
+                new String[] { filterFile.getFileName() });
+        POUserFunc check = new POUserFunc(new OperatorKey(scope,
+                nig.getNextNodeId(scope)), -1, null, checkSpec);
+        check.setResultType(DataType.BOOLEAN);
+        for (PhysicalPlan keyPlan : keyPlans) {
+            cond.merge(keyPlan);
+        }
+        List<PhysicalOperator> keys = new ArrayList<PhysicalOperator>();
+        for (PhysicalPlan keyPlan : keyPlans) {
+            keys.add(keyPlan.getLeaves().get(0));
+        }
+        cond.add(check);
+        for (PhysicalOperator key : keys) {
+            cond.connect(key, check);
+        }
+        POFilter filter = new POFilter(new OperatorKey(scope, nig.getNextNodeId(scope)));
+        filter.setPlan(cond);
+        filter.setResultType(DataType.TUPLE);
+        PhysicalOperator probeInput = probePreds.get(0);
+        probe.mapPlan.disconnect(probeInput, probeLR);
+        probe.mapPlan.add(filter);
+        probe.mapPlan.connect(probeInput, filter);
+        probe.mapPlan.connect(filter, probeLR);
+        probe.UDFs.add(checkSpec.toString());
+        MRPlan.connect(bloomJob, probe);
+    }
+
+    /**
+     * @return true if the keys of the local rearrange can be put in a
+     * bloom filter, as the fields of a tuple
+     */
+    private boolean isBloomKey(POLocalRearrange lr) {
+        for (PhysicalPlan keyPlan : lr.getPlans()) {
+            List<PhysicalOperator> leaves = keyPlan.getLeaves();
+            if (leaves == null || leaves.size() != 1) {
+                return false;
+            }
+            // a projection of the whole tuple is flattened into the input
+            // of a function, but not into the output of a foreach
+            if (leaves.get(0) instanceof POProject
+                    && ((POProject)leaves.get(0)).isStar()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Makes bloomJob, whose map plan gives the rows of a join input, build
+     * a bloom filter of the keys of the join input, as given by lr, and
+     * store it into filterFile.
+     */
+    private void buildBloomFilter(MapReduceOper bloomJob, POLocalRearrange lr,
+            FileSpec filterFile) throws PlanException, VisitorException {
+        List<PhysicalPlan> keyPlans = new ArrayList<PhysicalPlan>();
+        List<Boolean> flat = new ArrayList<Boolean>();
+        try {
+            for (PhysicalPlan keyPlan : lr.getPlans()) {
+                keyPlans.add(keyPlan.clone());
+                flat.add(false);
+            }
+        } catch (CloneNotSupportedException e) {
+            int errCode = 2229;
+            String msg = "Unable to clone the join key plans of " + lr.name();
+            throw new MRCompilerException(msg, errCode, PigException.BUG, e);
+        }
+        POForEach keys = new POForEach(new OperatorKey(scope,
+                nig.getNextNodeId(scope)), -1, keyPlans, flat);
+        keys.setResultType(DataType.TUPLE);
+        bloomJob.mapPlan.addAsLeaf(keys);
+
+        // all keys go to a single reduce
+        PhysicalPlan allPlan = new PhysicalPlan();
+        ConstantExpression ce = new ConstantExpression(new OperatorKey(scope,nig.getNextNodeId(scope)));
+        ce.setValue("all");
+        ce.setResultType(DataType.CHARARRAY);
+        allPlan.add(ce);
+        List<PhysicalPlan> eps = new ArrayList<PhysicalPlan>();
+        eps.add(allPlan);
+        POLocalRearrange allLR = new POLocalRearrange(new OperatorKey(scope,nig.getNextNodeId(scope)));
+        try {
+            allLR.setIndex(0);
+        } catch (ExecException e) {
+            int errCode = 2058;
+            String msg = "Unable to set index on newly created POLocalRearrange.";
+            throw new PlanException(msg, errCode, PigException.BUG, e);
+        }
+        allLR.setKeyType(DataType.CHARARRAY);
+        allLR.setPlans(eps);
+        allLR.setResultType(DataType.TUPLE);
+        bloomJob.mapPlan.addAsLeaf(allLR);
+        bloomJob.setMapDone(true);
+
+        POPackage pkg = new POPackage(new OperatorKey(scope,nig.getNextNodeId(scope)));
+        pkg.setKeyType(DataType.CHARARRAY);
+        pkg.setNumInps(1);
+        pkg.setInner(new boolean[] { false });
+        bloomJob.reducePlan.add(pkg);
+
+        PhysicalPlan buildPlan = new PhysicalPlan();
+        POProject bagPrj = new POProject(new OperatorKey(scope,nig.getNextNodeId(scope)));
+        bagPrj.setColumn(1);
+        bagPrj.setResultType(DataType.BAG);
+        bagPrj.setOverloaded(false);
+        buildPlan.add(bagPrj);
+        String[] ctorArgs = {
+                pigContext.getProperties().getProperty(BLOOM_JOIN_VECTOR_SIZE,
+                        BuildBloomFilter.DEFAULT_VECTOR_SIZE),
+                pigContext.getProperties().getProperty(BLOOM_JOIN_HASH_COUNT,
+                        BuildBloomFilter.DEFAULT_HASH_COUNT) };
+        FuncSpec buildSpec = new FuncSpec(BuildBloomFilter.class.getName(), ctorArgs);
+        POUserFunc buildFunc = new POUserFunc(new OperatorKey(scope,
+                nig.getNextNodeId(scope)), -1, null, buildSpec);
+        buildFunc.setResultType(DataType.BYTEARRAY);
+        buildPlan.add(buildFunc);
+        buildPlan.connect(bagPrj, buildFunc);
+        List<PhysicalPlan> buildPlans = new ArrayList<PhysicalPlan>();
+        buildPlans.add(buildPlan);
+        List<Boolean> buildFlat = new ArrayList<Boolean>();
+        buildFlat.add(false);
+        POForEach buildFE = new POForEach(new OperatorKey(scope,
+                nig.getNextNodeId(scope)), -1, buildPlans, buildFlat);
+        buildFE.setResultType(DataType.TUPLE);
+        bloomJob.reducePlan.addAsLeaf(buildFE);
+
+        POStore str = getStore();
+        str.setSFile(filterFile);
+        bloomJob.reducePlan.addAsLeaf(str);
+        bloomJob.setReduceDone(true);
+        bloomJob.requestedParallelism = 1;
+        bloomJob.UDFs.add(buildSpec.toString());
+    }
+
     @Override
     public void visitPackage(POPackage op) throws VisitorException{
         try{
@@ -1253,75 +1516,7 @@ public class MRCompiler extends PhyPlanVisitor {
                 FileSpec lFile = new FileSpec(rightLoader.getLFile().getFileName(),new FuncSpec(MergeJoinIndexer.class.getName(), indexerArgs));
                 rightLoader.setLFile(lFile);
     
-                // Loader of mro will return a tuple of form - 
-                // (keyFirst1, keyFirst2, .. , position, splitIndex) See MergeJoinIndexer
-                // Now set up a POLocalRearrange which has "all" as the key and tuple fetched
-                // by loader as the "value" of POLocalRearrange
-                // Sorting of index can possibly be achieved by using Hadoop sorting 
-                // between map and reduce instead of Pig doing sort. If that is so, 
-                // it will simplify lot of the code below.
-                
-                PhysicalPlan lrPP = new PhysicalPlan();
-                ConstantExpression ce = new ConstantExpression(new OperatorKey(scope,nig.getNextNodeId(scope)));
-                ce.setValue("all");
-                ce.setResultType(DataType.CHARARRAY);
-                lrPP.add(ce);
-    
-                List<PhysicalPlan> lrInnerPlans = new ArrayList<PhysicalPlan>();
-                lrInnerPlans.add(lrPP);
-    
-                POLocalRearrange lr = new POLocalRearrange(new OperatorKey(scope,nig.getNextNodeId(scope)));
-                lr.setIndex(0);
-                lr.setKeyType(DataType.CHARARRAY);
-                lr.setPlans(lrInnerPlans);
-                lr.setResultType(DataType.TUPLE);
-                rightMROpr.mapPlan.addAsLeaf(lr);
-    
-                rightMROpr.setMapDone(true);
-    
-                // On the reduce side of this indexing job, there will be a global rearrange followed by POSort.
-                // Output of POSort will be index file dumped on the DFS.
-    
-                // First add POPackage.
-                POPackage pkg = new POPackage(new OperatorKey(scope,nig.getNextNodeId(scope)));
-                pkg.setKeyType(DataType.CHARARRAY);
-                pkg.setNumInps(1); 
-                pkg.setInner(new boolean[]{false});
-                rightMROpr.reducePlan.add(pkg);
-    
-                // Next project tuples from the bag created by POPackage.
-                POProject topPrj = new POProject(new OperatorKey(scope,nig.getNextNodeId(scope)));
-                topPrj.setColumn(1);
-                topPrj.setResultType(DataType.TUPLE);
-                topPrj.setOverloaded(true);
-                rightMROpr.reducePlan.add(topPrj);
-                rightMROpr.reducePlan.connect(pkg, topPrj);
-    
-                // Now create and add POSort. Sort plan is project *.
-                List<PhysicalPlan> sortPlans = new ArrayList<PhysicalPlan>(1);
-                PhysicalPlan innerSortPlan = new PhysicalPlan();
-                POProject prj = new POProject(new OperatorKey(scope,nig.getNextNodeId(scope)));
-                prj.setStar(true);
-                prj.setOverloaded(false);
-                prj.setResultType(DataType.TUPLE);
-                innerSortPlan.add(prj);
-                sortPlans.add(innerSortPlan);
-    
-                // Currently we assume all columns are in asc order.
-                // Add two because filename and offset are added by Indexer in addition to keys.
-                List<Boolean>  mAscCols = new ArrayList<Boolean>(rightInpPlans.size()+2);
-                for(int i=0; i< rightInpPlans.size()+2; i++)
-                    mAscCols.add(true);
-    
-                POSort sortOp = new POSort(new OperatorKey(scope,nig.getNextNodeId(scope)),1, null, sortPlans, mAscCols, null);
-                rightMROpr.reducePlan.add(sortOp);
-                rightMROpr.reducePlan.connect(topPrj, sortOp);
-    
-                POStore st = getStore();
-                FileSpec strFile = getTempFileSpec();
-                st.setSFile(strFile);
-                rightMROpr.reducePlan.addAsLeaf(st);
-                rightMROpr.setReduceDone(true);
+                FileSpec strFile = addIndexingSteps(rightMROpr, rightInpPlans.size());
                 
                 // set up the DefaultIndexableLoader for the join operator
                 String[] defaultIndexableLoaderArgs = new String[5];
@@ -1382,6 +1577,372 @@ public class MRCompiler extends PhyPlanVisitor {
        }
     }
 
+    /**
+     * Compiles a merge cogroup, which is also used for merge joins of more
+     * than two inputs. The first input is the base input and is streamed
+     * through the map. All other inputs are side inputs, which the operator
+     * reads itself in the map. Their map side operators are yanked into the
+     * cogroup as pipelines, the same way the right input of merge join is
+     * handled. Side inputs with an IndexableLoadFunc need no job of their
+     * own. For a join, side inputs with an OrderedLoadFunc are indexed in
+     * a separate job instead and read through a DefaultIndexableLoader.
+     * Unless all inputs are inner (the join case) the base input must be
+     * loaded by a loader which is both a CollectableLoadFunc and an
+     * OrderedLoadFunc. An additional job then indexes the first key of
+     * every base split, which tells every map what range of side keys it
+     * is responsible for.
+     */
+    @Override
+    public void visitMergeCoGroup(POMergeCogroup op) throws VisitorException {
+
+        try{
+            List<PhysicalOperator> inputs = op.getInputs();
+            int numInputs = inputs.size();
+            if(compiledInputs.length != numInputs){
+                int errCode = 2169;
+                String errMsg = "Physical operators preceding merge cogroup not found in compiled MR jobs.";
+                throw new MRCompilerException(errMsg,errCode,PigException.BUG);
+            }
+
+            MapReduceOper[] inpMROpers = new MapReduceOper[numInputs];
+            for(int i = 0; i < numInputs; i++){
+                OperatorKey inpKey = inputs.get(i).getOperatorKey();
+                for(MapReduceOper mro : compiledInputs){
+                    if(mro.mapPlan.getLeaves().get(0).getOperatorKey().equals(inpKey) || 
+                            (!mro.reducePlan.isEmpty() && mro.reducePlan.getLeaves().get(0).getOperatorKey().equals(inpKey))){
+                        inpMROpers[i] = mro;
+                        break;
+                    }
+                }
+                if(inpMROpers[i] == null){
+                    int errCode = 2169;
+                    String errMsg = "Physical operator preceding input " + i + " of merge cogroup not found in compiled MR jobs.";
+                    throw new MRCompilerException(errMsg,errCode,PigException.BUG);
+                }
+            }
+            curMROp = inpMROpers[0];
+
+            // The storage layer can only seek on the columns it is sorted on, 
+            // so keys must be simple column projections or '*'.
+            for(int i = 0; i < numInputs; i++){
+                for(PhysicalPlan keyPlan : op.getInnerPlansOf(i)){
+                    for(PhysicalOperator keyOp : keyPlan){
+                        if(!(keyOp instanceof POProject)){
+                            int errCode = 1106;
+                            String errMsg = "Merge cogroup is possible only for simple column or '*' keys.";
+                            throw new MRCompilerException(errMsg, errCode, PigException.INPUT);
+                        }
+                    }
+                }
+            }
+
+            // Side inputs are read by the operator itself. 
+            FuncSpec[] sideFuncSpecs = new FuncSpec[numInputs];
+            String[] sideFileNames = new String[numInputs];
+            String[] sideSignatures = new String[numInputs];
+            String[] sideIndexFiles = new String[numInputs];
+            List<MapReduceOper> indexerMROps = new ArrayList<MapReduceOper>();
+            for(int i = 1; i < numInputs; i++){
+                MapReduceOper sideMROp = inpMROpers[i];
+                if(sideMROp.equals(curMROp)){
+                    int errCode = 2170;
+                    String errMsg = "Physical operator preceding base and side input of merge cogroup found to be same. This is not expected.";
+                    throw new MRCompilerException(errMsg,errCode,PigException.BUG);
+                }
+
+                PhysicalPlan sidePipelinePlan = null;
+                if(sideMROp.mapDone){
+                    if(sideMROp.reduceDone){
+                        int errCode = 2022;
+                        String msg = "Both map and reduce phases have been done. This is unexpected while compiling.";
+                        throw new PlanException(msg, errCode, PigException.BUG);
+                    }
+                    // Side input must be read in map. Close this MROper and
+                    // read its output instead.
+                    POStore sideStore = getStore();
+                    FileSpec sideStrFile = getTempFileSpec();
+                    sideStore.setSFile(sideStrFile);
+                    sideMROp.reducePlan.addAsLeaf(sideStore);
+                    sideMROp.setReduceDone(true);
+                    sideMROp = startNew(sideStrFile, sideMROp);
+                }
+                else{
+                    sidePipelinePlan = yankMapPipeline(sideMROp);
+                }
+                op.setupSidePipeline(i, sidePipelinePlan);
+
+                POLoad sideLoader = (POLoad)sideMROp.mapPlan.getRoots().get(0);
+                FuncSpec sideFuncSpec = sideLoader.getLFile().getFuncSpec();
+                sideFileNames[i] = sideLoader.getLFile().getFileName();
+                sideSignatures[i] = sideLoader.getSignature();
+                if(!(PigContext.instantiateFuncFromSpec(sideFuncSpec) instanceof IndexableLoadFunc)){
+                    // A join can fall back to indexing the side input in a
+                    // separate job, as merge join does for its right input.
+                    // DefaultIndexableLoader can only start reading at an
+                    // index entry, which is not enough for a cogroup.
+                    if(!op.isAllInner() || !(PigContext.instantiateFuncFromSpec(sideFuncSpec) instanceof OrderedLoadFunc)){
+                        int errCode = 1104;
+                        String errMsg = "Side inputs of merge cogroup must implement " +
+                        "IndexableLoadFunc interface. The specified loader " 
+                        + sideFuncSpec + " doesn't implement it";
+                        throw new MRCompilerException(errMsg,errCode);
+                    }
+                    String[] indexerArgs = new String[3];
+                    indexerArgs[0] = sideFuncSpec.toString();
+                    indexerArgs[1] = ObjectSerializer.serialize((Serializable)op.getInnerPlansOf(i));
+                    indexerArgs[2] = ObjectSerializer.serialize(sidePipelinePlan);
+                    sideLoader.setLFile(new FileSpec(sideFileNames[i],
+                            new FuncSpec(MergeJoinIndexer.class.getName(), indexerArgs)));
+                    FileSpec strFile = addIndexingSteps(sideMROp, op.getInnerPlansOf(i).size());
+                    sideMROp.requestedParallelism = 1; // we need exactly one reducer for indexing job.
+
+                    String[] defaultIndexableLoaderArgs = new String[5];
+                    defaultIndexableLoaderArgs[0] = sideFuncSpec.toString();
+                    defaultIndexableLoaderArgs[1] = strFile.getFileName();
+                    defaultIndexableLoaderArgs[2] = strFile.getFuncSpec().toString();
+                    defaultIndexableLoaderArgs[3] = op.getOperatorKey().scope;
+                    defaultIndexableLoaderArgs[4] = sideFileNames[i];
+                    sideFuncSpecs[i] = new FuncSpec(DefaultIndexableLoader.class.getName(), defaultIndexableLoaderArgs);
+                    sideIndexFiles[i] = strFile.getFileName();
+                    indexerMROps.add(sideMROp);
+                    continue;
+                }
+                sideFuncSpecs[i] = sideFuncSpec;
+
+                // Side job is not needed any more, but the base job has to
+                // wait for whatever the side input depended on.
+                List<MapReduceOper> sidePreds = MRPlan.getPredecessors(sideMROp);
+                List<MapReduceOper> preds = (sidePreds == null) ? null : new ArrayList<MapReduceOper>(sidePreds);
+                MRPlan.remove(sideMROp);
+                if(preds != null){
+                    for(MapReduceOper pred : preds)
+                        MRPlan.connect(pred, curMROp);
+                }
+                for(int j = 0; j < compiledInputs.length; j++){
+                    if(compiledInputs[j] == sideMROp)
+                        compiledInputs[j] = null;
+                }
+            }
+            op.setSideLoaderFuncSpecs(sideFuncSpecs);
+            op.setSideFileNames(sideFileNames);
+            op.setSideSignatures(sideSignatures);
+            op.setSideIndexFiles(sideIndexFiles);
+
+            if(!op.isAllInner()){
+                // The index has to be built on the splits the base input is
+                // read with, so the base cannot come out of a reduce.
+                if(curMROp.mapDone){
+                    int errCode = 1113;
+                    String errMsg = "Base input of merge cogroup must be read by a loader in the map. Found it in a reduce phase.";
+                    throw new MRCompilerException(errMsg,errCode,PigException.INPUT);
+                }
+                POLoad baseLoader = (POLoad)curMROp.mapPlan.getRoots().get(0);
+                LoadFunc baseLoadFunc = (LoadFunc)PigContext.instantiateFuncFromSpec(baseLoader.getLFile().getFuncSpec());
+                if(!(baseLoadFunc instanceof CollectableLoadFunc) || !(baseLoadFunc instanceof OrderedLoadFunc)){
+                    int errCode = 1104;
+                    String errMsg = "Base input of merge cogroup must implement CollectableLoadFunc " +
+                    "and OrderedLoadFunc interfaces. The specified loader " 
+                    + baseLoader.getLFile().getFuncSpec() + " doesn't implement them";
+                    throw new MRCompilerException(errMsg,errCode);
+                }
+                baseLoadFunc.setUDFContextSignature(baseLoader.getSignature());
+                ((CollectableLoadFunc)baseLoadFunc).ensureAllKeyInstancesInSameSplit();
+
+                // Index the first key of every split of the base input, as
+                // seen by the cogroup after the map side operators.
+                PhysicalPlan basePipelinePlan = null;
+                if(curMROp.mapPlan.size() > 1){
+                    basePipelinePlan = curMROp.mapPlan.clone();
+                    PhysicalOperator root = basePipelinePlan.getRoots().get(0);
+                    basePipelinePlan.disconnect(root, basePipelinePlan.getSuccessors(root).get(0));
+                    basePipelinePlan.remove(root);
+                }
+                String[] indexerArgs = new String[3];
+                indexerArgs[0] = baseLoader.getLFile().getFuncSpec().toString();
+                indexerArgs[1] = ObjectSerializer.serialize((Serializable)op.getInnerPlansOf(0));
+                indexerArgs[2] = ObjectSerializer.serialize(basePipelinePlan);
+                POLoad idxLoader = getLoad();
+                idxLoader.setLFile(new FileSpec(baseLoader.getLFile().getFileName(),
+                        new FuncSpec(MergeJoinIndexer.class.getName(), indexerArgs)));
+                idxLoader.setSignature(baseLoader.getSignature());
+
+                MapReduceOper indexerMROp = getMROp();
+                indexerMROp.mapPlan.add(idxLoader);
+                indexerMROp.UDFs.add(baseLoader.getLFile().getFuncSpec().toString());
+                MRPlan.add(indexerMROp);
+                List<MapReduceOper> basePreds = MRPlan.getPredecessors(curMROp);
+                if(basePreds != null){
+                    for(MapReduceOper pred : new ArrayList<MapReduceOper>(basePreds))
+                        MRPlan.connect(pred, indexerMROp);
+                }
+                op.setIndexFileSpec(addIndexingSteps(indexerMROp, op.getInnerPlansOf(0).size()));
+                indexerMROp.requestedParallelism = 1; // we need exactly one reducer for indexing job.
+                indexerMROps.add(indexerMROp);
+            }
+
+            // Cogroup will be materialized in the base MROper.
+            if(!curMROp.mapDone)
+                curMROp.mapPlan.addAsLeaf(op);
+
+            else if(!curMROp.reduceDone){  // Close this MROper and start afresh.
+                POStore baseStore = getStore();
+                FileSpec baseStrFile = getTempFileSpec();
+                baseStore.setSFile(baseStrFile);
+                curMROp.reducePlan.addAsLeaf(baseStore);
+                curMROp.setReduceDone(true);
+                curMROp = startNew(baseStrFile, curMROp);
+                curMROp.mapPlan.addAsLeaf(op);
+            }
+
+            else{
+                int errCode = 2022;
+                String msg = "Both map and reduce phases have been done. This is unexpected while compiling.";
+                throw new PlanException(msg, errCode, PigException.BUG);
+            }
+
+            for(MapReduceOper mro : indexerMROps){
+                // Indexes must be built before the cogroup runs.
+                MRPlan.connect(mro, curMROp);
+            }
+
+            for(List<PhysicalPlan> keyPlans : op.getKeyPlans()){
+                for(PhysicalPlan keyPlan : keyPlans)
+                    addUDFs(keyPlan);
+            }
+            phyToMROpMap.put(op, curMROp);
+        }
+        catch(PlanException e){
+            int errCode = 2034;
+            String msg = "Error compiling operator " + op.getClass().getCanonicalName();
+            throw new MRCompilerException(msg, errCode, PigException.BUG, e);
+        }
+        catch (MRCompilerException e){
+            throw e;
+        }
+        catch (IOException e){
+            int errCode = 3000;
+            String errMsg = "IOException caught while compiling POMergeCogroup";
+            throw new MRCompilerException(errMsg, errCode,e);
+        }
+        catch(CloneNotSupportedException e){
+            int errCode = 2127;
+            String errMsg = "Cloning exception caught while compiling POMergeCogroup";
+            throw new MRCompilerException(errMsg, errCode, PigException.BUG, e);
+        }
+    }
+
+    /**
+     * Removes everything but the root POLoad from the map plan of mro.
+     * @return the removed operators, or null if there were none
+     */
+    private PhysicalPlan yankMapPipeline(MapReduceOper mro) throws PlanException, VisitorException, CloneNotSupportedException{
+        PhysicalPlan mapPlan = mro.mapPlan;
+        if(mapPlan.getRoots().size() != 1){
+            int errCode = 2171;
+            String errMsg = "Expected one but found more then one root physical operator in physical plan.";
+            throw new MRCompilerException(errMsg,errCode,PigException.BUG);
+        }
+
+        PhysicalOperator loader = mapPlan.getRoots().get(0);
+        if(! (loader instanceof POLoad)){
+            int errCode = 2172;
+            String errMsg = "Expected physical operator at root to be POLoad. Found : "+loader.getClass().getCanonicalName();
+            throw new MRCompilerException(errMsg,errCode);
+        }
+
+        if (mapPlan.getSuccessors(loader) == null || mapPlan.getSuccessors(loader).isEmpty())
+            return null;
+
+        PhysicalPlan pipelinePlan = mapPlan.clone();
+        PhysicalOperator root = pipelinePlan.getRoots().get(0);
+        pipelinePlan.disconnect(root, pipelinePlan.getSuccessors(root).get(0));
+        pipelinePlan.remove(root);
+        mapPlan.trimBelow(loader);
+        return pipelinePlan;
+    }
+
+    /**
+     * Completes an indexing job whose map plan consists of a POLoad
+     * with MergeJoinIndexer as its loader. The index is sorted in the reduce
+     * and stored in a temporary file.
+     * @param mro MROper whose map plan loads the data through MergeJoinIndexer
+     * @param numKeyCols number of key columns in the index entries
+     * @return FileSpec of the index file
+     */
+    private FileSpec addIndexingSteps(MapReduceOper mro, int numKeyCols) throws PlanException, IOException, ExecException {
+
+        // Loader of mro will return a tuple of form - 
+        // (keyFirst1, keyFirst2, .. , position, splitIndex) See MergeJoinIndexer
+        // Now set up a POLocalRearrange which has "all" as the key and tuple fetched
+        // by loader as the "value" of POLocalRearrange
+        // Sorting of index can possibly be achieved by using Hadoop sorting 
+        // between map and reduce instead of Pig doing sort. If that is so, 
+        // it will simplify lot of the code below.
+        
+        PhysicalPlan lrPP = new PhysicalPlan();
+        ConstantExpression ce = new ConstantExpression(new OperatorKey(scope,nig.getNextNodeId(scope)));
+        ce.setValue("all");
+        ce.setResultType(DataType.CHARARRAY);
+        lrPP.add(ce);
+
+        List<PhysicalPlan> lrInnerPlans = new ArrayList<PhysicalPlan>();
+        lrInnerPlans.add(lrPP);
+
+        POLocalRearrange lr = new POLocalRearrange(new OperatorKey(scope,nig.getNextNodeId(scope)));
+        lr.setIndex(0);
+        lr.setKeyType(DataType.CHARARRAY);
+        lr.setPlans(lrInnerPlans);
+        lr.setResultType(DataType.TUPLE);
+        mro.mapPlan.addAsLeaf(lr);
+
+        mro.setMapDone(true);
+
+        // On the reduce side of this indexing job, there will be a global rearrange followed by POSort.
+        // Output of POSort will be index file dumped on the DFS.
+
+        // First add POPackage.
+        POPackage pkg = new POPackage(new OperatorKey(scope,nig.getNextNodeId(scope)));
+        pkg.setKeyType(DataType.CHARARRAY);
+        pkg.setNumInps(1); 
+        pkg.setInner(new boolean[]{false});
+        mro.reducePlan.add(pkg);
+
+        // Next project tuples from the bag created by POPackage.
+        POProject topPrj = new POProject(new OperatorKey(scope,nig.getNextNodeId(scope)));
+        topPrj.setColumn(1);
+        topPrj.setResultType(DataType.TUPLE);
+        topPrj.setOverloaded(true);
+        mro.reducePlan.add(topPrj);
+        mro.reducePlan.connect(pkg, topPrj);
+
+        // Now create and add POSort. Sort plan is project *.
+        List<PhysicalPlan> sortPlans = new ArrayList<PhysicalPlan>(1);
+        PhysicalPlan innerSortPlan = new PhysicalPlan();
+        POProject prj = new POProject(new OperatorKey(scope,nig.getNextNodeId(scope)));
+        prj.setStar(true);
+        prj.setOverloaded(false);
+        prj.setResultType(DataType.TUPLE);
+        innerSortPlan.add(prj);
+        sortPlans.add(innerSortPlan);
+
+        // Currently we assume all columns are in asc order.
+        // Add two because filename and offset are added by Indexer in addition to keys.
+        List<Boolean>  mAscCols = new ArrayList<Boolean>(numKeyCols+2);
+        for(int i=0; i< numKeyCols+2; i++)
+            mAscCols.add(true);
+
+        POSort sortOp = new POSort(new OperatorKey(scope,nig.getNextNodeId(scope)),1, null, sortPlans, mAscCols, null);
+        mro.reducePlan.add(sortOp);
+        mro.reducePlan.connect(topPrj, sortOp);
+
+        POStore st = getStore();
+        FileSpec strFile = getTempFileSpec();
+        st.setSFile(strFile);
+        mro.reducePlan.addAsLeaf(st);
+        mro.setReduceDone(true);
+        return strFile;
+    }
+
     @Override
     public void visitDistinct(PODistinct op) throws VisitorException {
         try{
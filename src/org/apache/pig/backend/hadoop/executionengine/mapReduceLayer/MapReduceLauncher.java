@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Map;
@@ -34,6 +35,7 @@ import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.JobID;
 import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TaskReport;
 import org.apache.hadoop.mapred.jobcontrol.Job;
 import org.apache.hadoop.mapred.jobcontrol.JobControl;
 import org.apache.hadoop.mapreduce.JobContext;
@@ -53,6 +55,7 @@ import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MRPrin
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.DotMRPrinter;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.POPackageAnnotator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POJoinPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.impl.plan.CompilationMessageCollector;
@@ -211,17 +214,29 @@ public class MapReduceLauncher extends Launcher{
                 }
             }
 
-            if (!jc.getFailedJobs().isEmpty() )
+            List<Job> jobsFailedInThisRun = jc.getFailedJobs();
+            // replicated joins which ran out of memory run again as
+            // regular joins
+            for (Iterator<Job> it = jobsFailedInThisRun.iterator(); it.hasNext();) {
+                Job job = it.next();
+                if (jcc.canFallBack(job) && isReplicatedJoinOverflow(job, jobClient)) {
+                    jcc.fallBack(job);
+                    it.remove();
+                    totalMRJobs++;
+                }
+            }
+
+            if (!jobsFailedInThisRun.isEmpty() )
             {
                 if ("true".equalsIgnoreCase(
                   pc.getProperties().getProperty("stop.on.failure","false"))) {
                     int errCode = 6017;
                     StringBuilder msg = new StringBuilder();
                     
-                    for (int i=0;i<jc.getFailedJobs().size();i++) {
-                        Job j = jc.getFailedJobs().get(i);
+                    for (int i=0;i<jobsFailedInThisRun.size();i++) {
+                        Job j = jobsFailedInThisRun.get(i);
                         msg.append(getFirstLineFromMessage(j.getMessage()));
-                        if (i!=jc.getFailedJobs().size()-1)
+                        if (i!=jobsFailedInThisRun.size()-1)
                             msg.append("\n");
                     }
                     
@@ -229,13 +244,13 @@ public class MapReduceLauncher extends Launcher{
                                             errCode, PigException.REMOTE_ENVIRONMENT);
                 }
                 // If we only have one store and that job fail, then we sure that the job completely fail, and we shall stop dependent jobs
-                for (Job job : jc.getFailedJobs())
+                for (Job job : jobsFailedInThisRun)
                 {
                     List<POStore> sts = jcc.getStores(job);
                     if (sts.size()==1)
                         completeFailedJobsInThisRun.add(job);
                 }
-                failedJobs.addAll(jc.getFailedJobs());
+                failedJobs.addAll(jobsFailedInThisRun);
             }
             
             int removedMROp = jcc.updateMROpPlan(completeFailedJobsInThisRun);
@@ -441,6 +456,15 @@ public class MapReduceLauncher extends Launcher{
         KeyTypeDiscoveryVisitor kdv = new KeyTypeDiscoveryVisitor(plan);
         kdv.visit();
 
+        boolean isFoldConstants =
+            "true".equalsIgnoreCase(pc.getProperties().getProperty("opt.constantfolding","true"));
+        if (isFoldConstants) {
+            // before the NoopFilterRemover, so that it also removes the
+            // filters whose condition folds to true
+            ConstantFoldingOptimizer folder = new ConstantFoldingOptimizer(plan);
+            folder.visit();
+        }
+
         // removes the filter(constant(true)) operators introduced by
         // splits.
         NoopFilterRemover fRem = new NoopFilterRemover(plan);
@@ -461,7 +485,23 @@ public class MapReduceLauncher extends Launcher{
         // NoopFilterRemover.
         NoopStoreRemover sRem = new NoopStoreRemover(plan);
         sRem.visit();
-      
+
+        if (isMultiQuery) {
+            // lets the branches of the merged splits share the
+            // expressions they compute from the same input.
+            SharedExpressionOptimizer seOptimizer = new SharedExpressionOptimizer(plan);
+            seOptimizer.visit();
+        }
+
+        boolean isReorderFilters =
+            "true".equalsIgnoreCase(pc.getProperties().getProperty("opt.filterreorder","true"));
+        if (isReorderFilters) {
+            // after the multi-query optimizer, so that the filters it
+            // moves into splits are merged as well
+            FilterReorderOptimizer reorder = new FilterReorderOptimizer(plan);
+            reorder.visit();
+        }
+
         // check whether stream operator is present
         // after MultiQueryOptimizer because it can shift streams from
         // map to reduce, etc.
@@ -474,9 +514,42 @@ public class MapReduceLauncher extends Launcher{
             AccumulatorOptimizer accum = new AccumulatorOptimizer(plan);
             accum.visit();
         }
+
+        boolean isCompileExpressions =
+            "true".equalsIgnoreCase(pc.getProperties().getProperty("pig.exec.compile.expressions","false"));
+        if (isCompileExpressions) {
+            // has to be after the accumulator optimizer, see
+            // CompiledExpressionOptimizer
+            CompiledExpressionOptimizer compiler = new CompiledExpressionOptimizer(plan);
+            compiler.visit();
+        }
         return plan;
     }
     
+    /**
+     * @return whether a map task of the failed job gave up building the
+     * hash tables of a replicated join, as they did not fit in memory
+     */
+    private boolean isReplicatedJoinOverflow(Job job, JobClient jobClient) {
+        JobID mapRedJobID = JobID.downgrade(job.getJob().getJobID());
+        if (mapRedJobID == null) {
+            return false;
+        }
+        String marker = "ERROR " + POFRJoin.OVERFLOW_ERROR_CODE + ":";
+        try {
+            for (TaskReport report : jobClient.getMapTaskReports(mapRedJobID)) {
+                for (String msg : report.getDiagnostics()) {
+                    if (msg.contains(marker)) {
+                        return true;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Unable to get the diagnostics of failed job " + mapRedJobID, e);
+        }
+        return false;
+    }
+
     /**
      * @param job
      * @param st
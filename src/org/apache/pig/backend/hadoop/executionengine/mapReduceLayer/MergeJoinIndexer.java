@@ -208,4 +208,12 @@ public class MergeJoinIndexer  extends LoadFunc{
     public void setLocation(String location, Job job) throws IOException {
         loader.setLocation(location, job);
     }
+
+    /* (non-Javadoc)
+     * @see org.apache.pig.LoadFunc#setUDFContextSignature(java.lang.String)
+     */
+    @Override
+    public void setUDFContextSignature(String signature) {
+        loader.setUDFContextSignature(signature);
+    }
 }
@@ -261,6 +261,11 @@ public class PhyPlanSetter extends PhyPlanVisitor {
         join.setParentPlan(parent);
     }
 
+    @Override
+    public void visitMergeCoGroup(POMergeCogroup mergeCoGrp) throws VisitorException {
+        mergeCoGrp.setParentPlan(parent);
+    }
+
     @Override
     public void visitSkewedJoin(POSkewedJoin join) throws VisitorException {
         join.setParentPlan(parent);
@@ -40,8 +40,8 @@ public final class PigHadoopLogger implements PigLogger {
     } 
 
     private static Log log = LogFactory.getLog(PigHadoopLogger.class);
-    private TaskInputOutputContext<?, ?, ?, ?> taskIOContext = null;
-    private boolean aggregate = false;
+    private volatile TaskInputOutputContext<?, ?, ?, ?> taskIOContext = null;
+    private volatile boolean aggregate = false;
 
     private PigHadoopLogger() {
     }    
@@ -52,7 +52,10 @@ public final class PigHadoopLogger implements PigLogger {
         if(aggregate) {
             if(taskIOContext != null) {
                 Counter c = taskIOContext.getCounter(warningEnum);
-                c.increment(1);
+                // the map plan may run on several threads
+                synchronized (this) {
+                    c.increment(1);
+                }
             } else {
                 //TODO:
                 //in local mode of execution if the PigHadoopLogger is used initially,
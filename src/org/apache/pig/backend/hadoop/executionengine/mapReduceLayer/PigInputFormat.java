@@ -88,7 +88,7 @@ public class PigInputFormat extends InputFormat<Text, Tuple> {
         // createRecordReader() method
         
         PigSplit pigSplit = (PigSplit)split;
-        activeSplit = pigSplit;
+        activeSplit.set(pigSplit);
         // XXX hadoop 20 new API integration: get around a hadoop 20 bug by 
         // passing total # of splits to each split so it can be retrieved 
         // here and set it to the configuration object. This number is needed
@@ -296,9 +296,10 @@ public class PigInputFormat extends InputFormat<Text, Tuple> {
     }
 
     public static PigSplit getActiveSplit() {
-        return activeSplit;
+        return activeSplit.get();
     }
 
-    private static PigSplit activeSplit;
+    // map tasks of a local mode job may run concurrently in the same JVM
+    private static ThreadLocal<PigSplit> activeSplit = new ThreadLocal<PigSplit>();
     
 }
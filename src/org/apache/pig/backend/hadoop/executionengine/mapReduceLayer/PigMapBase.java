@@ -21,6 +21,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,7 +40,14 @@ import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POCast;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPartitionRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
 import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
@@ -44,6 +56,7 @@ import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.PigContext;
 import org.apache.pig.impl.io.PigNullableWritable;
 import org.apache.pig.impl.plan.DependencyOrderWalker;
+import org.apache.pig.impl.plan.DepthFirstWalker;
 import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.impl.plan.VisitorException;
 import org.apache.pig.impl.util.ObjectSerializer;
@@ -52,6 +65,28 @@ import org.apache.pig.impl.util.SpillableMemoryManager;
 public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable, Writable> {
     private static final Tuple DUMMYTUPLE = null;
 
+    /**
+     * Number of threads a map task runs its map plan on. Each thread gets
+     * its own copy of the plan, so this multiplies the memory used by UDFs
+     * and bags. The copies share the operator reporter and logger and the
+     * UDF context, which are thread-safe. Plans with UDFs or load casters
+     * from outside of the Pig builtins stay on a single thread, as those are
+     * not known to be thread-safe. Defaults to 1.
+     */
+    public static final String MAP_THREADS = "pig.map.threads";
+
+    /**
+     * Number of records handed to a map plan thread at a time.
+     */
+    public static final String MAP_THREADS_BATCH = "pig.map.threads.batch";
+
+    /**
+     * Number of records the map plan is run on at a time, when the plan
+     * starts with operators which can work on batches of records. Defaults
+     * to 0, which runs the plan one record at a time.
+     */
+    public static final String BATCH_SIZE = "pig.exec.batch.size";
+
     private final Log log = LogFactory.getLog(getClass());
     
     protected byte keyType;
@@ -98,6 +133,10 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
             // already and then lets run the pipeline one more time
             // This will result in nothing happening in the case
             // where there is no stream or it is not a merge-join in the pipeline
+            if (!initialized) {
+                // an empty split, a merge cogroup may still have output
+                initialize(context);
+            }
             mp.endOfAllInput = true;
             runPipeline(leaf);
         }
@@ -124,7 +163,11 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
         
         mp = null;
 
-        PhysicalOperator.setReporter(null);
+        // local mode map tasks may run concurrently, leave the reporter of
+        // another task in place
+        if (PhysicalOperator.reporter == pigReporter) {
+            PhysicalOperator.setReporter(null);
+        }
         initialized = false;
     }
 
@@ -193,26 +236,7 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
     @Override
     protected void map(Text key, Tuple inpTuple, Context context) throws IOException, InterruptedException {     
         if(!initialized) {
-            initialized  = true;
-            // cache the collector for use in runPipeline() which
-            // can be called from close()
-            this.outputCollector = context;
-            pigReporter.setRep(context);
-            PhysicalOperator.setReporter(pigReporter);
-
-            for (POStore store: stores) {
-                MapReducePOStoreImpl impl 
-                    = new MapReducePOStoreImpl(context);
-                store.setStoreImpl(impl);
-                store.setUp();
-            }
-            
-            boolean aggregateWarning = "true".equalsIgnoreCase(pigContext.getProperties().getProperty("aggregate.warning"));
-
-            PigHadoopLogger pigHadoopLogger = PigHadoopLogger.getInstance();
-            pigHadoopLogger.setAggregate(aggregateWarning);
-            pigHadoopLogger.setTaskIOContext(context);
-            PhysicalOperator.setPigLogger(pigHadoopLogger);
+            initialize(context);
         }
         
         if (mp.isEmpty()) {
@@ -227,6 +251,29 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
         runPipeline(leaf);
     }
 
+    private void initialize(Context context) throws IOException, InterruptedException {
+        initialized  = true;
+        // cache the collector for use in runPipeline() which
+        // can be called from close()
+        this.outputCollector = context;
+        pigReporter.setRep(context);
+        PhysicalOperator.setReporter(pigReporter);
+
+        for (POStore store: stores) {
+            MapReducePOStoreImpl impl 
+                = new MapReducePOStoreImpl(context);
+            store.setStoreImpl(impl);
+            store.setUp();
+        }
+        
+        boolean aggregateWarning = "true".equalsIgnoreCase(pigContext.getProperties().getProperty("aggregate.warning"));
+
+        PigHadoopLogger pigHadoopLogger = PigHadoopLogger.getInstance();
+        pigHadoopLogger.setAggregate(aggregateWarning);
+        pigHadoopLogger.setTaskIOContext(context);
+        PhysicalOperator.setPigLogger(pigHadoopLogger);
+    }
+
     protected void runPipeline(PhysicalOperator leaf) throws IOException, InterruptedException {
         while(true){
             Result res = leaf.getNext(DUMMYTUPLE);
@@ -243,25 +290,302 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
                 continue;
             
             if(res.returnStatus==POStatus.STATUS_ERR){
-                // remember that we had an issue so that in 
-                // close() we can do the right thing
-                errorInMap  = true;
-                // if there is an errmessage use it
-                String errMsg;
-                if(res.result != null) {
-                    errMsg = "Received Error while " +
-                    "processing the map plan: " + res.result;
-                } else {
-                    errMsg = "Received Error while " +
-                    "processing the map plan.";
+                throw pipelineError(res);
+            }
+        }
+        
+    }
+
+    private ExecException pipelineError(Result res) {
+        // remember that we had an issue so that in 
+        // close() we can do the right thing
+        errorInMap  = true;
+        // if there is an errmessage use it
+        String errMsg;
+        if(res.result != null) {
+            errMsg = "Received Error while " +
+            "processing the map plan: " + res.result;
+        } else {
+            errMsg = "Received Error while " +
+            "processing the map plan.";
+        }
+            
+        int errCode = 2055;
+        return new ExecException(errMsg, errCode, PigException.BUG);
+    }
+
+    /**
+     * Runs the map plan on {@link #MAP_THREADS} threads, or on batches of
+     * {@link #BATCH_SIZE} records, if asked to and if the plan allows it,
+     * otherwise calls {@link #map} for each record.
+     */
+    @Override
+    public void run(Context context) throws IOException, InterruptedException {
+        setup(context);
+        int threads = context.getConfiguration().getInt(MAP_THREADS, 1);
+        int batchSize = context.getConfiguration().getInt(BATCH_SIZE, 0);
+        if (threads > 1 && canRunInParallel(context.getConfiguration())) {
+            runParallel(context, threads);
+        } else if (batchSize > 1 && setUpBatchMode(context.getConfiguration())) {
+            setUpOutputReuse();
+            runBatches(context, batchSize);
+        } else {
+            setUpOutputReuse();
+            while (context.nextKeyValue()) {
+                map(context.getCurrentKey(), context.getCurrentValue(), context);
+            }
+        }
+        cleanup(context);
+    }
+
+    /**
+     * Puts the operators at the start of the plan which support batches in
+     * batch mode, up to the first one which does not or which has more than
+     * one successor.
+     * @return whether the plan can be run on batches of records
+     */
+    private boolean setUpBatchMode(Configuration job) {
+        if (mp.isEmpty() || roots.length != 1 || !roots[0].supportsBatch()
+                || job.get(JobControlCompiler.END_OF_INP_IN_MAP, "false").equals("true")) {
+            return false;
+        }
+        PhysicalOperator op = roots[0];
+        while (true) {
+            op.setBatchMode(true);
+            List<PhysicalOperator> succs = mp.getSuccessors(op);
+            if (succs == null || succs.size() != 1) {
+                break;
+            }
+            op = succs.get(0);
+            if (op.getInputs().size() != 1 || !op.supportsBatch()) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lets the operator in front of a POLocalRearrange at the end of the map
+     * plan reuse its output tuple, as collect() serializes the rearranged
+     * tuple before the next one is asked for. Not done when running on
+     * several threads, as the output is kept until the batch is done.
+     */
+    private void setUpOutputReuse() {
+        if (mp.isEmpty() || !(leaf instanceof POLocalRearrange)) {
+            return;
+        }
+        List<PhysicalOperator> preds = mp.getPredecessors(leaf);
+        if (preds != null && preds.size() == 1
+                && mp.getSuccessors(preds.get(0)).size() == 1) {
+            preds.get(0).setReuseOutput(true);
+        }
+    }
+
+    /**
+     * Attaches the input records to the root of the map plan a batch at a
+     * time.
+     */
+    private void runBatches(Context context, int batchSize)
+            throws IOException, InterruptedException {
+        log.info("Running map plan on batches of " + batchSize + " records");
+        initialize(context);
+        List<Tuple> batch = new ArrayList<Tuple>(batchSize);
+        boolean more = true;
+        while (more) {
+            batch.clear();
+            while (batch.size() < batchSize && (more = context.nextKeyValue())) {
+                // the loader may reuse its tuple for the next record
+                batch.add(tf.newTuple(context.getCurrentValue().getAll()));
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            roots[0].attachInputBatch(batch);
+            runPipeline(leaf);
+        }
+    }
+
+    /**
+     * The plan can be copied across threads unless it writes to stores
+     * itself, needs to see the end of all input, counts records, holds
+     * state loaded once per task or runs code from outside of Pig.
+     */
+    private boolean canRunInParallel(Configuration job) throws IOException {
+        if (mp.isEmpty() || !stores.isEmpty()
+                || job.get(JobControlCompiler.END_OF_INP_IN_MAP, "false").equals("true")) {
+            return false;
+        }
+        ParallelPlanChecker checker = new ParallelPlanChecker(mp);
+        checker.visit();
+        return checker.isParallel();
+    }
+
+    /**
+     * Hands out the input records in batches to threads which each run
+     * their own copy of the map plan, with their own UDF instances. The
+     * records of the next batch are read while the current ones are
+     * processed. The output is collected on the task thread, batch by
+     * batch, so it is in the same order as with a single thread.
+     */
+    private void runParallel(Context context, int threads)
+            throws IOException, InterruptedException {
+        Configuration job = context.getConfiguration();
+        int batchSize = job.getInt(MAP_THREADS_BATCH, 1000);
+        log.info("Running map plan on " + threads + " threads");
+        
+        initialize(context);
+        List<OperatorKey> targetOpKeys
+            = ((PigSplit)context.getInputSplit()).getTargetOps();
+        List<PipelineWorker> workers = new ArrayList<PipelineWorker>(threads);
+        workers.add(new PipelineWorker(mp, roots, leaf));
+        for (int i = 1; i < threads; i++) {
+            PhysicalPlan plan = (PhysicalPlan) ObjectSerializer.deserialize(
+                job.get("pig.mapPlan"));
+            PhysicalOperator[] planRoots = new PhysicalOperator[targetOpKeys.size()];
+            for (int j = 0; j < planRoots.length; j++) {
+                planRoots[j] = plan.getOperator(targetOpKeys.get(j));
+            }
+            workers.add(new PipelineWorker(plan, planRoots, plan.getLeaves().get(0)));
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Tuple>>> batches = new ArrayList<Future<List<Tuple>>>(threads);
+            boolean more = true;
+            while (more) {
+                batches.clear();
+                for (PipelineWorker worker : workers) {
+                    worker.input.clear();
+                    while (worker.input.size() < batchSize
+                            && (more = context.nextKeyValue())) {
+                        // the loader may reuse its tuple for the next record
+                        worker.input.add(tf.newTuple(context.getCurrentValue().getAll()));
+                    }
+                    if (worker.input.isEmpty()) break;
+                    batches.add(executor.submit(worker));
+                    if (!more) break;
+                }
+                for (Future<List<Tuple>> batch : batches) {
+                    for (Tuple t : batch.get()) {
+                        collect(context, t);
+                    }
                 }
-                    
-                int errCode = 2055;
-                ExecException ee = new ExecException(errMsg, errCode, PigException.BUG);
-                throw ee;
             }
+        } catch (ExecutionException e) {
+            errorInMap = true;
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            int errCode = 2222;
+            String msg = "Error while running the map plan on multiple threads.";
+            throw new ExecException(msg, errCode, PigException.BUG, cause);
+        } finally {
+            executor.shutdownNow();
         }
         
+        // the task thread's copy is finished in cleanup()
+        for (PipelineWorker worker : workers.subList(1, workers.size())) {
+            UDFFinishVisitor finisher = new UDFFinishVisitor(worker.plan, 
+                    new DependencyOrderWalker<PhysicalOperator, PhysicalPlan>(worker.plan));
+            try {
+                finisher.visit();
+            } catch (VisitorException e) {
+                int errCode = 2121;
+                String msg = "Error while calling finish method on UDFs.";
+                throw new VisitorException(msg, errCode, PigException.BUG, e);
+            }
+        }
+    }
+
+    /**
+     * Runs a batch of records through one copy of the map plan.
+     */
+    private class PipelineWorker implements Callable<List<Tuple>> {
+        private PhysicalPlan plan;
+        private PhysicalOperator[] roots;
+        private PhysicalOperator leaf;
+        private List<Tuple> input = new ArrayList<Tuple>();
+        private List<Tuple> output = new ArrayList<Tuple>();
+        
+        PipelineWorker(PhysicalPlan plan, PhysicalOperator[] roots, PhysicalOperator leaf) {
+            this.plan = plan;
+            this.roots = roots;
+            this.leaf = leaf;
+        }
+
+        public List<Tuple> call() throws Exception {
+            output.clear();
+            for (Tuple inpTuple : input) {
+                for (PhysicalOperator root : roots) {
+                    root.attachInput(tf.newTupleNoCopy(inpTuple.getAll()));
+                }
+                while (true) {
+                    Result res = leaf.getNext(DUMMYTUPLE);
+                    if (res.returnStatus == POStatus.STATUS_OK) {
+                        // operators like POLocalRearrange reuse their
+                        // output tuple, so copy it before the next record
+                        output.add(tf.newTuple(((Tuple)res.result).getAll()));
+                    } else if (res.returnStatus == POStatus.STATUS_EOP) {
+                        break;
+                    } else if (res.returnStatus == POStatus.STATUS_ERR) {
+                        throw pipelineError(res);
+                    }
+                }
+            }
+            return output;
+        }
+    }
+
+    /**
+     * Finds operators which keep state across records of the whole task.
+     */
+    private static class ParallelPlanChecker extends PhyPlanVisitor {
+        private boolean parallel = true;
+
+        ParallelPlanChecker(PhysicalPlan plan) {
+            super(plan, new DepthFirstWalker<PhysicalOperator, PhysicalPlan>(plan));
+        }
+
+        @Override
+        public void visitLimit(POLimit lim) throws VisitorException {
+            parallel = false;
+        }
+
+        @Override
+        public void visitFRJoin(POFRJoin join) throws VisitorException {
+            // every copy would load the replicated inputs
+            parallel = false;
+        }
+
+        @Override
+        public void visitPartitionRearrange(POPartitionRearrange pr) throws VisitorException {
+            parallel = false;
+        }
+
+        @Override
+        public void visitUserFunc(POUserFunc userFunc) throws VisitorException {
+            // the instances are per copy, but their static state is not
+            if (!isBuiltin(userFunc.getFuncSpec().getClassName())) {
+                parallel = false;
+            }
+        }
+
+        @Override
+        public void visitCast(POCast cast) {
+            if (cast.getLoadCaster() != null
+                    && !isBuiltin(cast.getLoadCaster().getClass().getName())) {
+                parallel = false;
+            }
+        }
+
+        private static boolean isBuiltin(String className) {
+            return className.startsWith("org.apache.pig.builtin.");
+        }
+
+        boolean isParallel() {
+            return parallel;
+        }
     }
 
     abstract public void collect(Context oc, Tuple tuple) throws InterruptedException, IOException;
@@ -21,7 +21,8 @@ import org.apache.hadoop.util.Progressable;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PigProgressable;
 
 public class ProgressableReporter implements PigProgressable {
-    Progressable rep;
+    // the map plan may run on several threads, see PigMapBase.MAP_THREADS
+    volatile Progressable rep;
 
     public ProgressableReporter(){
         
@@ -0,0 +1,392 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.datastorage.ElementDescriptor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.POPackageAnnotator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POUnion;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
+import org.apache.pig.builtin.BinStorage;
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.FileLocalizer;
+import org.apache.pig.impl.io.FileSpec;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.util.CompilerUtils;
+import org.apache.pig.impl.util.ObjectSerializer;
+
+/**
+ * Runs a replicated join whose replicated inputs do not fit in the memory
+ * of the map tasks as a regular join, rather than failing the script. It is
+ * only used if {@link POFRJoin#FALLBACK} is true.
+ * <p>
+ * Before a job with a replicated join in its map plan is run, the sizes of
+ * its replicated files are checked against the part of the heap of a map
+ * task given by {@link POFRJoin#MEMORY_USAGE}. The plans of the jobs which
+ * pass are kept, so that they can be rewritten if the hash tables grow
+ * larger than that part while the job runs, and {@link POFRJoin} gives up.
+ * <p>
+ * The join is rewritten as a job of its own, which reads the fragment input
+ * through the operators of the map plan before the join, and the
+ * replicated files, groups them by the join key in a package and flattens
+ * the groups. The job of the replicated join then reads the output of that
+ * job in place of the join. Joins in reduce plans or in the inner plans of
+ * splits are left alone.
+ */
+public class ReplicatedJoinFallback {
+
+    private static final Log log = LogFactory.getLog(ReplicatedJoinFallback.class);
+
+    private static final Pattern MAX_HEAP = Pattern.compile("-Xmx(\\d+)([kKmMgG]?)");
+
+    // the heap of the map tasks if mapred.child.java.opts does not say
+    private static final long DEFAULT_MAX_HEAP = 200L * 1024 * 1024;
+
+    private MROperPlan plan;
+
+    private PigContext pigContext;
+
+    private Configuration conf;
+
+    private NodeIdGenerator nig = NodeIdGenerator.getGenerator();
+
+    // the map, combine and reduce plans of the jobs with a replicated join
+    // as they were before they were compiled into jobs
+    private Map<MapReduceOper, String[]> savedPlans = new HashMap<MapReduceOper, String[]>();
+
+    /**
+     * @param plan the plan of the jobs of the script
+     * @param pigContext
+     * @param conf the configuration the jobs are compiled with
+     */
+    public ReplicatedJoinFallback(MROperPlan plan, PigContext pigContext, Configuration conf) {
+        this.plan = plan;
+        this.pigContext = pigContext;
+        this.conf = conf;
+    }
+
+    /**
+     * Checks the replicated join in the map plan of a job which is about to
+     * be compiled. If its replicated files are larger than the part of the
+     * heap the hash tables may take, the join is rewritten as a regular
+     * join, which has to run first. Otherwise the plans of the job are kept
+     * for {@link #fallBack(MapReduceOper)}.
+     *
+     * @return the job of the regular join, or null if the job is left as
+     * it is
+     */
+    public MapReduceOper check(MapReduceOper mro) throws IOException, PlanException,
+            VisitorException {
+        POFRJoin join = findJoin(mro);
+        if (join == null) {
+            return null;
+        }
+        long bytes = getReplicatedBytes(join);
+        long maxBytes = getMaxBytes();
+        if (bytes > maxBytes) {
+            log.info("Replicated inputs of " + join.getAlias() + " are " + bytes
+                    + " bytes, more than the " + maxBytes
+                    + " bytes the map tasks may use; running it as a regular join");
+            return rewrite(mro, join);
+        }
+        savedPlans.put(mro, new String[] {
+                ObjectSerializer.serialize(mro.mapPlan),
+                ObjectSerializer.serialize(mro.combinePlan),
+                ObjectSerializer.serialize(mro.reducePlan) });
+        return null;
+    }
+
+    /**
+     * @return whether the job was checked by {@link #check(MapReduceOper)}
+     * and can be run again with its replicated join as a regular join
+     */
+    public boolean canFallBack(MapReduceOper mro) {
+        return savedPlans.containsKey(mro);
+    }
+
+    /**
+     * Gives a job whose replicated join ran out of memory back the plans it
+     * had before it was compiled, deletes what it stored, and rewrites the
+     * join as a regular join, which has to run first.
+     *
+     * @return the job of the regular join
+     */
+    public MapReduceOper fallBack(MapReduceOper mro) throws IOException, PlanException,
+            VisitorException {
+        String[] saved = savedPlans.remove(mro);
+        mro.mapPlan = (PhysicalPlan)ObjectSerializer.deserialize(saved[0]);
+        mro.combinePlan = (PhysicalPlan)ObjectSerializer.deserialize(saved[1]);
+        mro.reducePlan = (PhysicalPlan)ObjectSerializer.deserialize(saved[2]);
+        for (PhysicalPlan p : new PhysicalPlan[] { mro.mapPlan, mro.reducePlan }) {
+            for (POStore store : PlanHelper.getStores(p)) {
+                ElementDescriptor elem = pigContext.getDfs().asElement(
+                        store.getSFile().getFileName());
+                if (elem.exists()) {
+                    elem.delete();
+                }
+            }
+        }
+        POFRJoin join = findJoin(mro);
+        log.info("Replicated inputs of " + join.getAlias()
+                + " do not fit in memory; running it as a regular join");
+        return rewrite(mro, join);
+    }
+
+    /**
+     * @return the replicated join in the map plan of the job which can be
+     * rewritten, that is whose fragment input is read by operators which
+     * feed nothing else
+     */
+    static POFRJoin findJoin(MapReduceOper mro) {
+        for (PhysicalOperator op : mro.mapPlan) {
+            if (!(op instanceof POFRJoin)) {
+                continue;
+            }
+            List<PhysicalOperator> above = getAbove(mro.mapPlan, op);
+            for (PhysicalOperator a : above) {
+                for (PhysicalOperator succ : mro.mapPlan.getSuccessors(a)) {
+                    if (succ != op && !above.contains(succ)) {
+                        return null;
+                    }
+                }
+            }
+            return (POFRJoin)op;
+        }
+        return null;
+    }
+
+    /**
+     * @return the operators the input of the given one comes through, the
+     * roots first
+     */
+    private static List<PhysicalOperator> getAbove(PhysicalPlan p, PhysicalOperator op) {
+        List<PhysicalOperator> above = new ArrayList<PhysicalOperator>();
+        List<PhysicalOperator> preds = p.getPredecessors(op);
+        if (preds != null) {
+            for (PhysicalOperator pred : preds) {
+                for (PhysicalOperator a : getAbove(p, pred)) {
+                    if (!above.contains(a)) {
+                        above.add(a);
+                    }
+                }
+                if (!above.contains(pred)) {
+                    above.add(pred);
+                }
+            }
+        }
+        return above;
+    }
+
+    private long getReplicatedBytes(POFRJoin join) throws IOException {
+        long bytes = 0;
+        FileSpec[] replFiles = join.getReplFiles();
+        for (int i = 0; i < replFiles.length; i++) {
+            if (i == join.getFragment()) {
+                continue;
+            }
+            Path p = new Path(replFiles[i].getFileName());
+            FileSystem fs = p.getFileSystem(conf);
+            FileStatus[] matches = fs.globStatus(p);
+            if (matches != null) {
+                for (FileStatus match : matches) {
+                    bytes += fs.getContentSummary(match.getPath()).getLength();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of bytes the hash tables of the replicated inputs
+     * may take in the heap of a map task
+     */
+    long getMaxBytes() {
+        long heap = DEFAULT_MAX_HEAP;
+        Matcher m = MAX_HEAP.matcher(conf.get("mapred.child.java.opts", ""));
+        if (m.find()) {
+            heap = Long.parseLong(m.group(1));
+            String unit = m.group(2).toLowerCase();
+            if (unit.equals("g")) {
+                heap <<= 30;
+            } else if (unit.equals("m")) {
+                heap <<= 20;
+            } else if (unit.equals("k")) {
+                heap <<= 10;
+            }
+        }
+        float usage = Float.parseFloat(conf.get(POFRJoin.MEMORY_USAGE,
+                POFRJoin.DEFAULT_MEMORY_USAGE));
+        return (long)(heap * usage);
+    }
+
+    /**
+     * Moves the replicated join of the job and the operators before it to
+     * a job of their own, where the join is a regular join, and has the job
+     * read the output of the join in its place.
+     */
+    private MapReduceOper rewrite(MapReduceOper mro, POFRJoin join) throws IOException,
+            PlanException, VisitorException {
+        String scope = join.getOperatorKey().scope;
+        MapReduceOper joinJob = new MapReduceOper(new OperatorKey(scope,
+                nig.getNextNodeId(scope)));
+        PhysicalPlan mapPlan = mro.mapPlan;
+
+        // move the operators the fragment comes through
+        List<PhysicalOperator> above = getAbove(mapPlan, join);
+        Map<PhysicalOperator, List<PhysicalOperator>> preds =
+            new HashMap<PhysicalOperator, List<PhysicalOperator>>();
+        for (PhysicalOperator op : above) {
+            List<PhysicalOperator> p = mapPlan.getPredecessors(op);
+            preds.put(op, p == null ? new ArrayList<PhysicalOperator>()
+                    : new ArrayList<PhysicalOperator>(p));
+        }
+        PhysicalOperator fragmentLeaf = mapPlan.getPredecessors(join).get(0);
+        for (PhysicalOperator op : above) {
+            mapPlan.remove(op);
+        }
+        for (PhysicalOperator op : above) {
+            joinJob.mapPlan.add(op);
+            for (PhysicalOperator pred : preds.get(op)) {
+                joinJob.mapPlan.connect(pred, op);
+            }
+        }
+
+        // rearrange the fragment and the replicated files by the join key
+        // and union them, as the map collects the output of its only leaf
+        POLocalRearrange[] lrs = join.getLRs();
+        FileSpec[] replFiles = join.getReplFiles();
+        POUnion union = new POUnion(new OperatorKey(scope, nig.getNextNodeId(scope)));
+        union.setResultType(DataType.TUPLE);
+        joinJob.mapPlan.add(union);
+        boolean[] inner = new boolean[lrs.length];
+        for (int i = 0; i < lrs.length; i++) {
+            POLocalRearrange lr;
+            try {
+                lr = lrs[i].clone();
+            } catch (CloneNotSupportedException e) {
+                int errCode = 2230;
+                String msg = "Unable to copy the keys of replicated join " + join.getAlias();
+                throw new PlanException(msg, errCode, PigException.BUG, e);
+            }
+            lr.setAlias(join.getAlias());
+            lr.setResultType(DataType.TUPLE);
+            joinJob.mapPlan.add(lr);
+            if (i == join.getFragment()) {
+                joinJob.mapPlan.connect(fragmentLeaf, lr);
+            } else {
+                POLoad ld = new POLoad(new OperatorKey(scope, nig.getNextNodeId(scope)),
+                        replFiles[i]);
+                ld.setPc(pigContext);
+                joinJob.mapPlan.add(ld);
+                joinJob.mapPlan.connect(ld, lr);
+            }
+            joinJob.mapPlan.connect(lr, union);
+            inner[i] = i == join.getFragment() || !join.isLeftOuterJoin();
+        }
+        joinJob.mapKeyType = lrs[join.getFragment()].getKeyType();
+        joinJob.setMapDone(true);
+
+        // group the rows by the join key and flatten the groups
+        POPackage pkg = new POPackage(new OperatorKey(scope, nig.getNextNodeId(scope)),
+                join.getRequestedParallelism());
+        pkg.setAlias(join.getAlias());
+        pkg.setKeyType(joinJob.mapKeyType);
+        pkg.setResultType(DataType.TUPLE);
+        pkg.setNumInps(lrs.length);
+        pkg.setInner(inner);
+        List<PhysicalPlan> fePlans = new ArrayList<PhysicalPlan>();
+        List<Boolean> flattenLst = new ArrayList<Boolean>();
+        for (int i = 0; i < lrs.length; i++) {
+            PhysicalPlan fep = new PhysicalPlan();
+            // i+1 since the first column is the "group" field
+            POProject proj = new POProject(new OperatorKey(scope, nig.getNextNodeId(scope)),
+                    -1, i + 1);
+            proj.setResultType(DataType.BAG);
+            proj.setOverloaded(false);
+            fep.add(proj);
+            if (!inner[i]) {
+                CompilerUtils.addEmptyBagOuterJoin(fep, join.getNullTuple().size());
+            }
+            fePlans.add(fep);
+            flattenLst.add(true);
+        }
+        POForEach fe = new POForEach(new OperatorKey(scope, nig.getNextNodeId(scope)),
+                -1, fePlans, flattenLst);
+        fe.setAlias(join.getAlias());
+        fe.setResultType(DataType.TUPLE);
+        FileSpec tmp = new FileSpec(FileLocalizer.getTemporaryPath(null, pigContext)
+                .toString(), new FuncSpec(BinStorage.class.getName()));
+        POStore st = new POStore(new OperatorKey(scope, nig.getNextNodeId(scope)));
+        st.setIsTmpStore(true);
+        st.setSFile(tmp);
+        joinJob.reducePlan.add(pkg);
+        joinJob.reducePlan.add(fe);
+        joinJob.reducePlan.add(st);
+        joinJob.reducePlan.connect(pkg, fe);
+        joinJob.reducePlan.connect(fe, st);
+        joinJob.setReduceDone(true);
+        joinJob.requestedParallelism = join.getRequestedParallelism();
+        joinJob.UDFs.addAll(mro.UDFs);
+
+        // the job reads the output of the join in its place
+        POLoad ld = new POLoad(new OperatorKey(scope, nig.getNextNodeId(scope)), tmp);
+        ld.setPc(pigContext);
+        mapPlan.replace(join, ld);
+
+        plan.add(joinJob);
+        List<MapReduceOper> mroPreds = plan.getPredecessors(mro);
+        if (mroPreds != null) {
+            for (MapReduceOper pred : new ArrayList<MapReduceOper>(mroPreds)) {
+                plan.connect(pred, joinJob);
+            }
+        }
+        plan.connect(joinJob, mro);
+        new POPackageAnnotator(plan).visitMROp(joinJob);
+        return joinJob;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryComparisonOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POCast;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POMapLookUp;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POSharedExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
+import org.apache.pig.builtin.RANDOM;
+import org.apache.pig.impl.plan.DepthFirstWalker;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+
+/**
+ * An optimizer that lets the branches of a split share the expressions
+ * they have in common. Multi-query scripts often run the same costly
+ * expression (a UDF or a cast) over the same input in several branches,
+ * e.g.:
+ *
+ *    A = load 'x';
+ *    B = foreach A generate UPPER($0), $1;
+ *    C = foreach A generate UPPER($0), $2;
+ *
+ * After the multi-query optimizer has merged the branches into one split,
+ * each branch still evaluates UPPER($0) for every input tuple. This
+ * optimizer looks at the foreach operators which take their input directly
+ * from the split, and wraps the generate expressions which are the same in
+ * a {@link POSharedExpression}, so the expression is computed once per input
+ * tuple and the result is handed to the other branches.
+ */
+class SharedExpressionOptimizer extends MROpPlanVisitor {
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private static final String RANDOM_FUNC = RANDOM.class.getName();
+
+    SharedExpressionOptimizer(MROperPlan plan) {
+        super(plan, new DepthFirstWalker<MapReduceOper, MROperPlan>(plan));
+    }
+
+    @Override
+    public void visitMROp(MapReduceOper mr) throws VisitorException {
+        new SplitVisitor(mr.mapPlan).visit();
+        new SplitVisitor(mr.reducePlan).visit();
+    }
+
+    private class SplitVisitor extends PhyPlanVisitor {
+
+        SplitVisitor(PhysicalPlan plan) {
+            super(plan, new DepthFirstWalker<PhysicalOperator, PhysicalPlan>(plan));
+        }
+
+        @Override
+        public void visitSplit(POSplit split) throws VisitorException {
+            // handle the nested splits first
+            super.visitSplit(split);
+
+            Map<String, List<PhysicalPlan>> candidates =
+                new LinkedHashMap<String, List<PhysicalPlan>>();
+            List<POForEach> foreachs = new ArrayList<POForEach>();
+
+            for (PhysicalPlan branch : split.getPlans()) {
+                for (PhysicalOperator root : branch.getRoots()) {
+                    if (!(root instanceof POForEach)) {
+                        continue;
+                    }
+                    POForEach foreach = (POForEach)root;
+                    foreachs.add(foreach);
+                    for (PhysicalPlan inner : foreach.getInputPlans()) {
+                        List<PhysicalOperator> leaves = inner.getLeaves();
+                        if (leaves == null || leaves.size() != 1) {
+                            continue;
+                        }
+                        PhysicalOperator leaf = leaves.get(0);
+                        if (!isCostly(leaf)) {
+                            continue;
+                        }
+                        String sig = signature(leaf);
+                        if (sig == null) {
+                            continue;
+                        }
+                        List<PhysicalPlan> plans = candidates.get(sig);
+                        if (plans == null) {
+                            plans = new ArrayList<PhysicalPlan>();
+                            candidates.put(sig, plans);
+                        }
+                        plans.add(inner);
+                    }
+                }
+            }
+
+            boolean changed = false;
+            for (List<PhysicalPlan> plans : candidates.values()) {
+                if (plans.size() < 2) {
+                    continue;
+                }
+                POSharedExpression.SharedResult shared =
+                    new POSharedExpression.SharedResult();
+                for (PhysicalPlan inner : plans) {
+                    share(inner, split, shared);
+                }
+                changed = true;
+            }
+
+            if (changed) {
+                // the foreach operators cache the leaves of their plans
+                for (POForEach foreach : foreachs) {
+                    foreach.setInputPlans(foreach.getInputPlans());
+                }
+            }
+        }
+    }
+
+    private void share(PhysicalPlan inner, POSplit split,
+            POSharedExpression.SharedResult shared) throws VisitorException {
+        ExpressionOperator leaf = (ExpressionOperator)inner.getLeaves().get(0);
+        String scope = leaf.getOperatorKey().getScope();
+        POSharedExpression wrapper = new POSharedExpression(
+                new OperatorKey(scope, NodeIdGenerator.getGenerator().getNextNodeId(scope)),
+                leaf, split, shared);
+        try {
+            inner.add(wrapper);
+            inner.connect(leaf, wrapper);
+        } catch (PlanException e) {
+            int errCode = 2220;
+            String msg = "Unable to share expression " + leaf.name() + ".";
+            throw new OptimizerException(msg, errCode, PigException.BUG, e);
+        }
+        log.debug("Sharing expression " + leaf.name() + " among split branches");
+    }
+
+    /**
+     * Only expressions which cost more than passing on a result are shared.
+     */
+    private boolean isCostly(PhysicalOperator op) {
+        if (op instanceof POUserFunc || op instanceof POCast) {
+            return true;
+        }
+        if (op.getInputs() != null) {
+            for (PhysicalOperator in : op.getInputs()) {
+                if (isCostly(in)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes a string which is the same for two expressions if they
+     * compute the same value for the same input.
+     * @return the signature, or null if the expression cannot be shared
+     */
+    private String signature(PhysicalOperator op) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(op.getClass().getName());
+        sb.append('[').append(op.getResultType());
+
+        List<PhysicalOperator> inputs = op.getInputs();
+        if (op.getClass() == POProject.class) {
+            POProject proj = (POProject)op;
+            if (proj.isOverloaded()) {
+                return null;
+            }
+            sb.append(',').append(proj.isStar()).append(',').append(proj.getColumns());
+        } else if (op instanceof POCast) {
+            sb.append(',').append(((POCast)op).getFuncSpec());
+        } else if (op instanceof POUserFunc) {
+            POUserFunc func = (POUserFunc)op;
+            if (func.getFuncSpec() == null
+                    || RANDOM_FUNC.equals(func.getFuncSpec().getClassName())) {
+                return null;
+            }
+            sb.append(',').append(func.getFuncSpec());
+        } else if (op instanceof ConstantExpression) {
+            Object value = ((ConstantExpression)op).getValue();
+            sb.append(',').append(value == null ? "null" :
+                value.getClass().getName() + ':' + value);
+        } else if (op instanceof POMapLookUp) {
+            sb.append(',').append(((POMapLookUp)op).getLookUpKey());
+        } else if (op instanceof BinaryExpressionOperator) {
+            BinaryExpressionOperator bin = (BinaryExpressionOperator)op;
+            if (op instanceof BinaryComparisonOperator) {
+                sb.append(',').append(((BinaryComparisonOperator)op).getOperandType());
+            }
+            // the operands are not kept in the input list
+            inputs = new ArrayList<PhysicalOperator>();
+            inputs.add(bin.getLhs());
+            inputs.add(bin.getRhs());
+        } else {
+            return null;
+        }
+        sb.append(']');
+
+        if (inputs != null) {
+            sb.append('(');
+            for (PhysicalOperator in : inputs) {
+                if (in == null) {
+                    return null;
+                }
+                String sig = signature(in);
+                if (sig == null) {
+                    return null;
+                }
+                sb.append(sig).append(';');
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+}
@@ -670,6 +670,10 @@ public class LogToPhyTranslationVisitor extends LOVisitor {
 
             translateCollectedCogroup(cg);
 
+        } else if (cg.getGroupType() == LOCogroup.GROUPTYPE.MERGE) {
+
+            translateMergeCogroup(cg);
+
         } else {
             
             translateRegularCogroup(cg);
@@ -811,6 +815,61 @@ public class LogToPhyTranslationVisitor extends LOVisitor {
         logToPhyMap.put(cg, physOp);
     }
     
+    private void translateMergeCogroup(LOCogroup cg) throws VisitorException {
+        String scope = cg.getOperatorKey().scope;
+        List<LogicalOperator> inputs = cg.getInputs();
+
+        List<PhysicalOperator> inp = new ArrayList<PhysicalOperator>();
+        List<List<PhysicalPlan>> keyPlans = new ArrayList<List<PhysicalPlan>>();
+        List<List<Byte>> keyTypes = new ArrayList<List<Byte>>();
+        for (LogicalOperator op : inputs) {
+            inp.add(logToPhyMap.get(op));
+            List<LogicalPlan> plans = (List<LogicalPlan>) cg.getGroupByPlans().get(op);
+            List<PhysicalPlan> exprPlans = new ArrayList<PhysicalPlan>();
+            currentPlans.push(currentPlan);
+            for (LogicalPlan lp : plans) {
+                currentPlan = new PhysicalPlan();
+                PlanWalker<LogicalOperator, LogicalPlan> childWalker = 
+                    mCurrentWalker.spawnChildWalker(lp);
+                pushWalker(childWalker);
+                mCurrentWalker.walk(this);
+                exprPlans.add(currentPlan);
+                popWalker();
+            }
+            currentPlan = currentPlans.pop();
+            keyPlans.add(exprPlans);
+
+            List<Byte> tupleKeyMemberTypes = new ArrayList<Byte>();
+            for(PhysicalPlan exprPlan : exprPlans)
+                tupleKeyMemberTypes.add(exprPlan.getLeaves().get(0).getResultType());
+            keyTypes.add(tupleKeyMemberTypes);
+        }
+
+        POMergeCogroup physOp;
+        try {
+            physOp = new POMergeCogroup(new OperatorKey(scope, nodeGen.getNextNodeId(scope)),
+                    cg.getRequestedParallelism(), inp, keyPlans, keyTypes, cg.getInner());
+        } catch (ExecException e) {
+            int errCode = 2071;
+            String msg = "Problem with setting up merge cogroup's plans.";
+            throw new LogicalToPhysicalTranslatorException(msg, errCode, PigException.BUG, e);
+        }
+        physOp.setAlias(cg.getAlias());
+        physOp.setResultType(DataType.TUPLE);
+        currentPlan.add(physOp);
+
+        for (LogicalOperator op : inputs) {
+            try {
+                currentPlan.connect(logToPhyMap.get(op), physOp);
+            } catch (PlanException e) {
+                int errCode = 2015;
+                String msg = "Invalid physical operators in the physical plan" ;
+                throw new LogicalToPhysicalTranslatorException(msg, errCode, PigException.BUG, e);
+            }
+        }
+        logToPhyMap.put(cg, physOp);
+    }
+    
 	@Override
 	protected void visit(LOJoin loj) throws VisitorException {
 
@@ -971,6 +1030,10 @@ public class LogToPhyTranslationVisitor extends LOVisitor {
 		
 		else if (loj.getJoinType() == LOJoin.JOINTYPE.MERGE && validateMergeJoin(loj)) {
             
+		    if (inputs.size() > 2) {
+		        translateMultiWayMergeJoin(loj, inp, ppLists, keyTypes);
+		        return;
+		    }
 		    POMergeJoin smj;
             try {
                 smj = new POMergeJoin(new OperatorKey(scope,nodeGen.getNextNodeId(scope)),loj.getRequestedParallelism(),inp,joinPlans,keyTypes);
@@ -1122,6 +1185,64 @@ public class LogToPhyTranslationVisitor extends LOVisitor {
 		}
 	}
 
+	/**
+	 * Merge join on more than two inputs is done as a merge cogroup on all
+	 * inputs, followed by a foreach which flattens the bags of the groups.
+	 */
+	private void translateMultiWayMergeJoin(LOJoin loj, List<PhysicalOperator> inp,
+	        List<List<PhysicalPlan>> ppLists, List<List<Byte>> keyTypes) throws VisitorException {
+	    
+	    String scope = loj.getOperatorKey().scope;
+	    int count = inp.size();
+	    boolean[] innerFlags = new boolean[count];
+	    for (int i = 0; i < count; i++)
+	        innerFlags[i] = true;
+	    
+	    POMergeCogroup mcg;
+	    try {
+	        mcg = new POMergeCogroup(new OperatorKey(scope,nodeGen.getNextNodeId(scope)),
+	                loj.getRequestedParallelism(), inp, ppLists, keyTypes, innerFlags);
+	    }
+	    catch (Exception e) {
+	        int errCode = 2042;
+	        String msg = "Merge Join creation failed";
+	        throw new LogicalToPhysicalTranslatorException(msg, errCode, PigException.BUG, e);
+	    }
+	    mcg.setAlias(loj.getAlias());
+	    mcg.setResultType(DataType.TUPLE);
+	    currentPlan.add(mcg);
+	    
+	    List<PhysicalPlan> fePlans = new ArrayList<PhysicalPlan>();
+	    List<Boolean> flattenLst = new ArrayList<Boolean>();
+	    try {
+	        for (PhysicalOperator op : inp)
+	            currentPlan.connect(op, mcg);
+	        
+	        for(int i=0;i< count;i++){
+	            PhysicalPlan fep1 = new PhysicalPlan();
+	            POProject feproj1 = new POProject(new OperatorKey(scope, nodeGen.getNextNodeId(scope)), 
+	                    loj.getRequestedParallelism(), i+1); //i+1 since the first column is the "group" field
+	            feproj1.setAlias(loj.getAlias());
+	            feproj1.setResultType(DataType.BAG);
+	            feproj1.setOverloaded(false);
+	            fep1.add(feproj1);
+	            fePlans.add(fep1);
+	            flattenLst.add(true);
+	        }
+	        
+	        POForEach fe = new POForEach(new OperatorKey(scope, nodeGen.getNextNodeId(scope)), 
+	                loj.getRequestedParallelism(), fePlans, flattenLst );
+	        fe.setAlias(loj.getAlias());
+	        currentPlan.add(fe);
+	        currentPlan.connect(mcg, fe);
+	        logToPhyMap.put(loj, fe);
+	    } catch (PlanException e) {
+	        int errCode = 2015;
+	        String msg = "Invalid physical operators in the physical plan" ;
+	        throw new LogicalToPhysicalTranslatorException(msg, errCode, PigException.BUG, e);
+	    }
+	}
+
 	/**
 	 * updates plan with check for empty bag and if bag is empty to flatten a bag
 	 * with as many null's as dictated by the schema
@@ -1157,8 +1278,8 @@ public class LogToPhyTranslationVisitor extends LOVisitor {
 	    List<LogicalOperator> preds = loj.getInputs();
 
 	    int errCode = 1101;
-	    String errMsg = "Merge Join must have exactly two inputs.";
-	    if(preds.size() != 2)
+	    String errMsg = "Merge Join must have at least two inputs.";
+	    if(preds.size() < 2)
             throw new LogicalToPhysicalTranslatorException(errMsg+" Found: "+preds.size(),errCode);
         
 	    return mergeJoinValidator(preds,loj.getPlan());
@@ -23,6 +23,7 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.apache.pig.PigException;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -57,6 +58,16 @@ import org.apache.pig.pen.util.LineageTracer;
  * to an unsupported operation on that type. So the operators need to implement
  * only those types that are supported.
  *
+ * To keep the allocations per record down, the Result returned by getNext
+ * belongs to the operator, which may reuse it for its next call. Callers
+ * should take the status and the result out of it before calling getNext on
+ * the same operator again, and copy the Result if they want to keep it. The
+ * same goes for the Result returned by {@link #processInput()}. The objects
+ * inside a Result are not reused, except for the output tuples of operators
+ * for which {@link #setReuseOutput(boolean)} is turned on. As consumers such
+ * as bags keep the tuples they get, that is only done when the consumer is
+ * known to copy or serialize the tuple right away.
+ *
  */
 public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implements Cloneable {
 
@@ -130,6 +141,20 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
     private boolean accum;
     private transient boolean accumStart;
 
+    // The Result returned by processInput() for attached inputs
+    private transient Result inputResult;
+
+    // See setReuseOutput()
+    private transient boolean reuseOutput;
+
+    // Batch mode, see setBatchMode()
+    private transient boolean batchMode;
+    private transient List<Tuple> inputBatch;
+    private transient List<Tuple> outputBatch;
+    private transient int outputIndex;
+    // The Result returned by getNextFromBatch()
+    private transient Result batchResult;
+
     public PhysicalOperator(OperatorKey k) {
         this(k, -1, null);
     }
@@ -236,6 +261,117 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
         this.inputAttached = false;
     }
 
+    /**
+     * Operators which can compute their output for a batch of input tuples
+     * at a time, with {@link #getNextBatch()}, should override this to
+     * return true.
+     *
+     * @return true if the operator can be put in batch mode
+     */
+    public boolean supportsBatch() {
+        return false;
+    }
+
+    /**
+     * In batch mode, the operator reads its input a batch at a time, either
+     * from a batch attached with {@link #attachInputBatch(List)} or from
+     * its predecessor which should then be in batch mode too. getNext(Tuple)
+     * returns the tuples of the output batches one at a time.
+     */
+    public void setBatchMode(boolean batchMode) {
+        this.batchMode = batchMode;
+    }
+
+    public boolean isBatchMode() {
+        return batchMode;
+    }
+
+    /**
+     * Lets the operator return the same output tuple, with new contents, for
+     * each call to getNext. Only operators with a fixed output layout make
+     * use of it; the others keep returning new tuples.
+     *
+     * @param reuseOutput true if the consumer of this operator does not keep
+     * the output tuples
+     */
+    public void setReuseOutput(boolean reuseOutput) {
+        this.reuseOutput = reuseOutput;
+    }
+
+    public boolean isReuseOutput() {
+        return reuseOutput;
+    }
+
+    /**
+     * Provides a batch of input tuples directly, in batch mode.
+     *
+     * @param batch -
+     *            The tuples that should be used as input
+     */
+    public void attachInputBatch(List<Tuple> batch) {
+        inputBatch = batch;
+    }
+
+    /**
+     * Computes the output for the next batch of input, in batch mode.
+     * Operators which support batches override this.
+     *
+     * @return the output tuples, or null when there is no more input
+     * @throws ExecException
+     */
+    public List<Tuple> getNextBatch() throws ExecException {
+        int errCode = 2225;
+        String msg = name() + " does not support batches of tuples.";
+        throw new ExecException(msg, errCode, PigException.BUG);
+    }
+
+    /**
+     * The batch version of {@link #processInput()}.
+     *
+     * @return the attached batch, or the next batch of the predecessor, or
+     * null if there is no more input
+     * @throws ExecException
+     */
+    protected List<Tuple> processInputBatch() throws ExecException {
+        if(reporter!=null) reporter.progress();
+
+        if (inputBatch != null) {
+            List<Tuple> batch = inputBatch;
+            inputBatch = null;
+            return batch;
+        }
+        if (inputs == null || inputs.size() != 1 || !inputs.get(0).isBatchMode()) {
+            return null;
+        }
+        return inputs.get(0).getNextBatch();
+    }
+
+    /**
+     * Returns the tuples of the output batches one at a time, for
+     * getNext(Tuple) in batch mode.
+     *
+     * @return the next output tuple, or EOP when there is no more input
+     * @throws ExecException
+     */
+    protected Result getNextFromBatch() throws ExecException {
+        if (batchResult == null) {
+            batchResult = new Result();
+        }
+        Result res = batchResult;
+        while (outputBatch == null || outputIndex == outputBatch.size()) {
+            outputBatch = getNextBatch();
+            outputIndex = 0;
+            if (outputBatch == null) {
+                res.returnStatus = POStatus.STATUS_EOP;
+                res.result = null;
+                return res;
+            }
+        }
+        res.result = outputBatch.get(outputIndex++);
+        res.returnStatus = POStatus.STATUS_OK;
+        return res;
+    }
+
     /**
      * A blocking operator should override this to return true. Blocking
      * operators are those that need the full bag before operate on the tuples
@@ -258,10 +394,14 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
      */
     public Result processInput() throws ExecException {
         
-        Result res = new Result();
+        if (inputResult == null) {
+            inputResult = new Result();
+        }
+        Result res = inputResult;
         if (input == null && (inputs == null || inputs.size()==0)) {
 //            log.warn("No inputs found. Signaling End of Processing.");
             res.returnStatus = POStatus.STATUS_EOP;
+            res.result = null;
             return res;
         }
         
@@ -350,7 +490,9 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
      */
     @Override
     public PhysicalOperator clone() throws CloneNotSupportedException {
-        return (PhysicalOperator)super.clone();
+        PhysicalOperator clone = (PhysicalOperator)super.clone();
+        clone.inputResult = null;
+        return clone;
     }
 
     protected void cloneHelper(PhysicalOperator op) {
@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+
+/**
+ * Evaluates a chain of {@link POAnd} or of {@link POOr} operators as one
+ * operator with many operands, and orders the operands at run time so that
+ * the cheap operands which are likely to decide the result are evaluated
+ * first.
+ * <p>
+ * The cost and the selectivity of the operands are sampled over the first
+ * {@link #SAMPLE_ROWS} rows, and again every {@link #RESAMPLE_INTERVAL} rows
+ * after that. The operands are then sorted by their cost divided by the
+ * fraction of the rows on which they decide the result (false for and, true
+ * for or), which is the cheapest order for independent operands. While
+ * sampling, each row starts with another operand, so that every operand is
+ * also measured on rows which the others have not filtered out.
+ * <p>
+ * And and or give the same result in any order, but an operand may rely on
+ * an earlier one to guard it, as in <code>d != 0 and a / d > 2</code>, and
+ * a UDF may have side effects. So an operand which can fail or calls a UDF
+ * is always evaluated after all the operands before it in the script, see
+ * {@link ExpressionOperator#isReorderSafe()}. The other operands may move
+ * ahead of it, which only lets it be evaluated on fewer rows. Each row is
+ * evaluated once.
+ */
+class AdaptiveBooleanChain {
+
+    static final int SAMPLE_ROWS = 1000;
+
+    static final int RESAMPLE_INTERVAL = 100000;
+
+    // operands measured on fewer rows keep their previous estimates
+    private static final int MIN_SAMPLES = 20;
+
+    // the order only changes if it lowers the expected cost by this factor
+    private static final double MIN_GAIN = 0.9;
+
+    // true for and, false for or
+    private final boolean and;
+
+    // the operands, in script order
+    private final ExpressionOperator[] operands;
+
+    // the order the operands are evaluated in, as indexes into operands
+    private final int[] order;
+
+    // false for the operands which have to stay after all the operands
+    // before them in script order
+    private final boolean[] movable;
+
+    // false if the operands have to stay in script order
+    private final boolean adaptive;
+
+    private long rows = 0;
+
+    // statistics of the current sample
+    private final long[] evaluated;
+    private final long[] decided;
+    private final long[] nanos;
+
+    // estimates from the last sample with enough rows, NaN if none yet
+    private final double[] cost;
+    private final double[] decideRate;
+
+    /**
+     * @param root the top {@link POAnd} or {@link POOr} of the chain
+     */
+    AdaptiveBooleanChain(BinaryExpressionOperator root) {
+        and = root instanceof POAnd;
+        List<ExpressionOperator> list = new ArrayList<ExpressionOperator>();
+        flatten(root, list);
+        operands = list.toArray(new ExpressionOperator[list.size()]);
+        int n = operands.length;
+        order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        evaluated = new long[n];
+        decided = new long[n];
+        nanos = new long[n];
+        cost = new double[n];
+        decideRate = new double[n];
+        Arrays.fill(cost, Double.NaN);
+        Arrays.fill(decideRate, Double.NaN);
+        movable = new boolean[n];
+        boolean canMove = false;
+        for (int i = 0; i < n; i++) {
+            movable[i] = operands[i].isReorderSafe();
+            // the first operand has nothing to move ahead of
+            canMove |= i > 0 && movable[i];
+        }
+        adaptive = canMove;
+    }
+
+    private void flatten(ExpressionOperator op, List<ExpressionOperator> list) {
+        if (and ? op instanceof POAnd : op instanceof POOr) {
+            BinaryExpressionOperator bin = (BinaryExpressionOperator)op;
+            flatten(bin.getLhs(), list);
+            flatten(bin.getRhs(), list);
+        } else {
+            list.add(op);
+        }
+    }
+
+    /**
+     * @return the operands, in script order
+     */
+    ExpressionOperator[] getOperands() {
+        return operands;
+    }
+
+    /**
+     * @return the indexes of the operands in the order they are evaluated
+     */
+    int[] getOrder() {
+        return order;
+    }
+
+    /**
+     * Evaluates the chain for the input attached to the operands, with the
+     * same result and null handling as the nested binary operators.
+     */
+    Result getNext() throws ExecException {
+        boolean sampling = adaptive && rows % RESAMPLE_INTERVAL < SAMPLE_ROWS;
+        int first = -1;
+        if (sampling) {
+            // only an operand which may go first starts a row
+            first = (int)(rows % operands.length);
+            if (first > 0 && !movable[first]) {
+                first = -1;
+            }
+        }
+        rows++;
+        Result res = evaluate(first, sampling);
+        if (sampling && rows % RESAMPLE_INTERVAL == SAMPLE_ROWS) {
+            reorder();
+        }
+        return res;
+    }
+
+    /**
+     * Evaluates the operands in the current order, but the given one first
+     * unless it is -1.
+     */
+    private Result evaluate(int first, boolean sampling) throws ExecException {
+        int n = order.length;
+        Result nullResult = null;
+        Result last = null;
+        for (int i = (first < 0 ? 0 : -1); i < n; i++) {
+            int op = (i < 0) ? first : order[i];
+            if (i >= 0 && op == first) {
+                continue;
+            }
+            long start = sampling ? System.nanoTime() : 0;
+            Result r = operands[op].getNext((Boolean)null);
+            if (sampling) {
+                nanos[op] += System.nanoTime() - start;
+                evaluated[op]++;
+            }
+            // pass on ERROR and EOP
+            if (r.returnStatus != POStatus.STATUS_OK
+                    && r.returnStatus != POStatus.STATUS_NULL) {
+                return r;
+            }
+            if (r.result == null) {
+                // null unless a later operand decides the result
+                if (nullResult == null) {
+                    nullResult = r;
+                }
+            } else if (((Boolean)r.result).booleanValue() != and) {
+                // short circuit, false for and, true for or
+                if (sampling) {
+                    decided[op]++;
+                }
+                return r;
+            }
+            last = r;
+        }
+        return nullResult != null ? nullResult : last;
+    }
+
+    /**
+     * Updates the estimates from the sample which just ended, and switches
+     * to the order with the lowest expected cost if it is clearly better.
+     */
+    private void reorder() {
+        int n = operands.length;
+        for (int i = 0; i < n; i++) {
+            if (evaluated[i] >= MIN_SAMPLES) {
+                cost[i] = (double)nanos[i] / evaluated[i];
+                decideRate[i] = (double)decided[i] / evaluated[i];
+            }
+            evaluated[i] = 0;
+            decided[i] = 0;
+            nanos[i] = 0;
+        }
+        Integer[] candidate = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            if (Double.isNaN(cost[i])) {
+                return;
+            }
+            candidate[i] = i;
+        }
+        // stable, so operands of the same rank stay in script order
+        Arrays.sort(candidate, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(rank(o1), rank(o2));
+            }
+        });
+        List<Integer> newOrder = new ArrayList<Integer>(n);
+        for (int op : candidate) {
+            place(op, candidate, newOrder);
+        }
+        int[] ord = new int[n];
+        for (int i = 0; i < n; i++) {
+            ord[i] = newOrder.get(i);
+        }
+        if (expectedCost(ord) < MIN_GAIN * expectedCost(order)) {
+            System.arraycopy(ord, 0, order, 0, n);
+        }
+    }
+
+    /**
+     * Appends the given operand to the order, after the operands before it
+     * in script order if it has to stay behind them, which are placed by
+     * rank as well.
+     */
+    private void place(int op, Integer[] byRank, List<Integer> ord) {
+        if (ord.contains(op)) {
+            return;
+        }
+        if (!movable[op]) {
+            for (int before : byRank) {
+                if (before < op) {
+                    place(before, byRank, ord);
+                }
+            }
+        }
+        ord.add(op);
+    }
+
+    private double rank(int op) {
+        return decideRate[op] == 0 ? Double.POSITIVE_INFINITY
+                : cost[op] / decideRate[op];
+    }
+
+    private double expectedCost(int[] ord) {
+        double total = 0;
+        double reached = 1;
+        for (int op : ord) {
+            total += reached * cost[op];
+            reached *= 1 - decideRate[op];
+        }
+        return total;
+    }
+}
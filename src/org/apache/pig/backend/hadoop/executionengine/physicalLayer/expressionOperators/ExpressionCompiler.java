@@ -0,0 +1,816 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import java.io.Serializable;
+
+import org.apache.pig.PigException;
+import org.apache.pig.PigWarning;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.plan.OperatorKey;
+
+/**
+ * Compiles an expression into a tree of evaluators which are specialized
+ * for the operator and the type it works on. An evaluator returns its value
+ * as a primitive and sets a null flag instead of allocating a
+ * {@link Result} and a boxed value, so only the root of the tree boxes its
+ * value. Arithmetic, comparison, and, or, not, negation and bincond on
+ * numbers, booleans and chararrays are compiled, together with constants. Any other
+ * operator, such as a project, a cast or a UDF, is evaluated by calling its
+ * getNext as usual, along with the operators below it.
+ * <p>
+ * The evaluators follow the same evaluation order and null handling as the
+ * operators they replace. An operator which returns an error or end of
+ * processing aborts the evaluation and its result is passed on.
+ */
+public class ExpressionCompiler {
+
+    private ExpressionCompiler() {}
+
+    /**
+     * Compiles an expression.
+     * @param expr the root of the expression
+     * @param k operator key for the compiled expression
+     * @return an operator which computes the same value as expr, or null if
+     * nothing in the expression can be compiled
+     */
+    public static POCompiledExpression compile(ExpressionOperator expr,
+            OperatorKey k) {
+        Frame frame = new Frame();
+        Node root = compile(expr, frame);
+        if (root == null || root instanceof Interpreted) {
+            return null;
+        }
+        return new POCompiledExpression(k, expr, root, frame);
+    }
+
+    private static Node compile(ExpressionOperator op, Frame frame) {
+        byte type = op.getResultType();
+        if (!isCompiledType(type)) {
+            return null;
+        }
+        if (op instanceof ConstantExpression) {
+            Object value = ((ConstantExpression)op).getValue();
+            if (value == null || DataType.findType(value) == type) {
+                return new Constant(type, frame, value);
+            }
+        } else if (op instanceof Add || op instanceof Subtract
+                || op instanceof Multiply || op instanceof Divide
+                || op instanceof Mod) {
+            BinaryExpressionOperator bin = (BinaryExpressionOperator)op;
+            if (isNumber(type) && !(op instanceof Mod && isFloatingPoint(type))) {
+                Node lhs = compileOperand(bin.getLhs(), type, frame);
+                Node rhs = compileOperand(bin.getRhs(), type, frame);
+                if (lhs != null && rhs != null) {
+                    return new Arithmetic(bin, frame, lhs, rhs);
+                }
+            }
+        } else if (op instanceof PONegative) {
+            if (isNumber(type)) {
+                Node expr = compileOperand(((PONegative)op).getExpr(), type, frame);
+                if (expr != null) {
+                    return new Negative(type, frame, expr);
+                }
+            }
+        } else if (op instanceof EqualToExpr || op instanceof NotEqualToExpr
+                || op instanceof LessThanExpr || op instanceof LTOrEqualToExpr
+                || op instanceof GreaterThanExpr || op instanceof GTOrEqualToExpr) {
+            BinaryComparisonOperator cmp = (BinaryComparisonOperator)op;
+            byte operandType = cmp.getOperandType();
+            if (isNumber(operandType) || operandType == DataType.CHARARRAY) {
+                Node lhs = compileOperand(cmp.getLhs(), operandType, frame);
+                Node rhs = compileOperand(cmp.getRhs(), operandType, frame);
+                if (lhs != null && rhs != null) {
+                    return new Comparison(cmp, frame, lhs, rhs);
+                }
+            }
+        } else if (op instanceof POAnd || op instanceof POOr) {
+            BinaryExpressionOperator bin = (BinaryExpressionOperator)op;
+            Node lhs = compileOperand(bin.getLhs(), DataType.BOOLEAN, frame);
+            Node rhs = compileOperand(bin.getRhs(), DataType.BOOLEAN, frame);
+            if (lhs != null && rhs != null) {
+                return op instanceof POAnd ? new And(frame, lhs, rhs)
+                        : new Or(frame, lhs, rhs);
+            }
+        } else if (op instanceof POBinCond) {
+            POBinCond binCond = (POBinCond)op;
+            Node cond = compileOperand(binCond.getCond(), DataType.BOOLEAN, frame);
+            Node lhs = compileOperand(binCond.getLhs(), type, frame);
+            Node rhs = compileOperand(binCond.getRhs(), type, frame);
+            if (cond != null && lhs != null && rhs != null) {
+                return new BinCond(type, frame, cond, lhs, rhs);
+            }
+        } else if (op instanceof PONot) {
+            Node expr = compileOperand(((PONot)op).getExpr(), DataType.BOOLEAN, frame);
+            if (expr != null) {
+                return new Not(frame, expr);
+            }
+        }
+        return new Interpreted(type, frame, op);
+    }
+
+    private static Node compileOperand(ExpressionOperator op, byte type,
+            Frame frame) {
+        if (op == null || op.getResultType() != type) {
+            return null;
+        }
+        return compile(op, frame);
+    }
+
+    private static boolean isCompiledType(byte type) {
+        return isNumber(type) || type == DataType.BOOLEAN
+            || type == DataType.CHARARRAY;
+    }
+
+    private static boolean isNumber(byte type) {
+        return type == DataType.INTEGER || type == DataType.LONG
+            || isFloatingPoint(type);
+    }
+
+    private static boolean isFloatingPoint(byte type) {
+        return type == DataType.FLOAT || type == DataType.DOUBLE;
+    }
+
+    /**
+     * State shared by the evaluators of one compiled expression.
+     */
+    static class Frame implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        // the first error or end of processing returned by an operator
+        // while evaluating the expression for the current input
+        transient Result abort;
+    }
+
+    /**
+     * An evaluator for one operator of an expression. Only the eval method
+     * matching the type of the operator is implemented.
+     */
+    abstract static class Node implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final byte type;
+
+        protected final Frame frame;
+
+        // whether the value last returned is null
+        protected transient boolean isNull;
+
+        Node(byte type, Frame frame) {
+            this.type = type;
+            this.frame = frame;
+        }
+
+        int evalInt() throws ExecException {
+            throw unsupported(DataType.INTEGER);
+        }
+
+        long evalLong() throws ExecException {
+            throw unsupported(DataType.LONG);
+        }
+
+        float evalFloat() throws ExecException {
+            throw unsupported(DataType.FLOAT);
+        }
+
+        double evalDouble() throws ExecException {
+            throw unsupported(DataType.DOUBLE);
+        }
+
+        boolean evalBoolean() throws ExecException {
+            throw unsupported(DataType.BOOLEAN);
+        }
+
+        String evalString() throws ExecException {
+            throw unsupported(DataType.CHARARRAY);
+        }
+
+        /**
+         * @return the value of the operator as an object, null if the value
+         * is null
+         */
+        Object evalObject() throws ExecException {
+            Object value;
+            switch (type) {
+            case DataType.INTEGER:
+                value = evalInt();
+                break;
+            case DataType.LONG:
+                value = evalLong();
+                break;
+            case DataType.FLOAT:
+                value = evalFloat();
+                break;
+            case DataType.DOUBLE:
+                value = evalDouble();
+                break;
+            case DataType.BOOLEAN:
+                value = evalBoolean();
+                break;
+            default:
+                value = evalString();
+            }
+            return isNull ? null : value;
+        }
+
+        private ExecException unsupported(byte asType) {
+            int errCode = 2223;
+            String msg = "Compiled expression of type " + DataType.findTypeName(type)
+                + " cannot be evaluated as " + DataType.findTypeName(asType) + ".";
+            return new ExecException(msg, errCode, PigException.BUG);
+        }
+    }
+
+    /**
+     * Evaluates an operator which is not compiled by calling its getNext.
+     */
+    static class Interpreted extends Node {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ExpressionOperator op;
+
+        Interpreted(byte type, Frame frame, ExpressionOperator op) {
+            super(type, frame);
+            this.op = op;
+        }
+
+        private Object value() throws ExecException {
+            Result res;
+            switch (type) {
+            case DataType.INTEGER:
+                res = op.getNext((Integer)null);
+                break;
+            case DataType.LONG:
+                res = op.getNext((Long)null);
+                break;
+            case DataType.FLOAT:
+                res = op.getNext((Float)null);
+                break;
+            case DataType.DOUBLE:
+                res = op.getNext((Double)null);
+                break;
+            case DataType.BOOLEAN:
+                res = op.getNext((Boolean)null);
+                break;
+            default:
+                res = op.getNext((String)null);
+            }
+            if (res.returnStatus != POStatus.STATUS_OK
+                    && res.returnStatus != POStatus.STATUS_NULL) {
+                if (frame.abort == null) {
+                    frame.abort = res;
+                }
+                isNull = true;
+                return null;
+            }
+            isNull = (res.result == null);
+            return res.result;
+        }
+
+        @Override
+        int evalInt() throws ExecException {
+            Object value = value();
+            return isNull ? 0 : (Integer)value;
+        }
+
+        @Override
+        long evalLong() throws ExecException {
+            Object value = value();
+            return isNull ? 0 : (Long)value;
+        }
+
+        @Override
+        float evalFloat() throws ExecException {
+            Object value = value();
+            return isNull ? 0 : (Float)value;
+        }
+
+        @Override
+        double evalDouble() throws ExecException {
+            Object value = value();
+            return isNull ? 0 : (Double)value;
+        }
+
+        @Override
+        boolean evalBoolean() throws ExecException {
+            Object value = value();
+            return isNull ? false : (Boolean)value;
+        }
+
+        @Override
+        String evalString() throws ExecException {
+            return (String)value();
+        }
+
+        @Override
+        Object evalObject() throws ExecException {
+            return value();
+        }
+    }
+
+    static class Constant extends Node {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object value;
+
+        Constant(byte type, Frame frame, Object value) {
+            super(type, frame);
+            this.value = value;
+            this.isNull = (value == null);
+        }
+
+        @Override
+        int evalInt() {
+            isNull = (value == null);
+            return isNull ? 0 : (Integer)value;
+        }
+
+        @Override
+        long evalLong() {
+            isNull = (value == null);
+            return isNull ? 0 : (Long)value;
+        }
+
+        @Override
+        float evalFloat() {
+            isNull = (value == null);
+            return isNull ? 0 : (Float)value;
+        }
+
+        @Override
+        double evalDouble() {
+            isNull = (value == null);
+            return isNull ? 0 : (Double)value;
+        }
+
+        @Override
+        boolean evalBoolean() {
+            isNull = (value == null);
+            return isNull ? false : (Boolean)value;
+        }
+
+        @Override
+        String evalString() {
+            isNull = (value == null);
+            return (String)value;
+        }
+
+        @Override
+        Object evalObject() {
+            isNull = (value == null);
+            return value;
+        }
+    }
+
+    /**
+     * Add, Subtract, Multiply, Divide and Mod. As in the operators, the right
+     * operand is not evaluated if the left one is null, and division by zero
+     * gives null with a warning.
+     */
+    static class Arithmetic extends Node {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2,
+            DIVIDE = 3, MOD = 4;
+
+        private final BinaryExpressionOperator op;
+
+        private final int kind;
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        Arithmetic(BinaryExpressionOperator op, Frame frame, Node lhs, Node rhs) {
+            super(op.getResultType(), frame);
+            this.op = op;
+            this.lhs = lhs;
+            this.rhs = rhs;
+            if (op instanceof Add) {
+                kind = ADD;
+            } else if (op instanceof Subtract) {
+                kind = SUBTRACT;
+            } else if (op instanceof Multiply) {
+                kind = MULTIPLY;
+            } else if (op instanceof Divide) {
+                kind = DIVIDE;
+            } else {
+                kind = MOD;
+            }
+        }
+
+        private boolean divideByZero() {
+            if (PhysicalOperator.getPigLogger() != null) {
+                PhysicalOperator.getPigLogger().warn(op,
+                        "Divide by zero. Converting it to NULL.",
+                        PigWarning.DIVIDE_BY_ZERO);
+            }
+            isNull = true;
+            return true;
+        }
+
+        @Override
+        int evalInt() throws ExecException {
+            int left = lhs.evalInt();
+            if (lhs.isNull) {
+                isNull = true;
+                return 0;
+            }
+            int right = rhs.evalInt();
+            if (rhs.isNull) {
+                isNull = true;
+                return 0;
+            }
+            isNull = false;
+            switch (kind) {
+            case ADD: return left + right;
+            case SUBTRACT: return left - right;
+            case MULTIPLY: return left * right;
+            case DIVIDE: return (right == 0 && divideByZero()) ? 0 : left / right;
+            default: return left % right;
+            }
+        }
+
+        @Override
+        long evalLong() throws ExecException {
+            long left = lhs.evalLong();
+            if (lhs.isNull) {
+                isNull = true;
+                return 0;
+            }
+            long right = rhs.evalLong();
+            if (rhs.isNull) {
+                isNull = true;
+                return 0;
+            }
+            isNull = false;
+            switch (kind) {
+            case ADD: return left + right;
+            case SUBTRACT: return left - right;
+            case MULTIPLY: return left * right;
+            case DIVIDE: return (right == 0 && divideByZero()) ? 0 : left / right;
+            default: return left % right;
+            }
+        }
+
+        @Override
+        float evalFloat() throws ExecException {
+            float left = lhs.evalFloat();
+            if (lhs.isNull) {
+                isNull = true;
+                return 0;
+            }
+            float right = rhs.evalFloat();
+            if (rhs.isNull) {
+                isNull = true;
+                return 0;
+            }
+            isNull = false;
+            switch (kind) {
+            case ADD: return left + right;
+            case SUBTRACT: return left - right;
+            case MULTIPLY: return left * right;
+            default: return (right == 0 && divideByZero()) ? 0 : left / right;
+            }
+        }
+
+        @Override
+        double evalDouble() throws ExecException {
+            double left = lhs.evalDouble();
+            if (lhs.isNull) {
+                isNull = true;
+                return 0;
+            }
+            double right = rhs.evalDouble();
+            if (rhs.isNull) {
+                isNull = true;
+                return 0;
+            }
+            isNull = false;
+            switch (kind) {
+            case ADD: return left + right;
+            case SUBTRACT: return left - right;
+            case MULTIPLY: return left * right;
+            default: return (right == 0 && divideByZero()) ? 0 : left / right;
+            }
+        }
+    }
+
+    static class Negative extends Node {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node expr;
+
+        Negative(byte type, Frame frame, Node expr) {
+            super(type, frame);
+            this.expr = expr;
+        }
+
+        @Override
+        int evalInt() throws ExecException {
+            int value = expr.evalInt();
+            isNull = expr.isNull;
+            return -1 * value;
+        }
+
+        @Override
+        long evalLong() throws ExecException {
+            long value = expr.evalLong();
+            isNull = expr.isNull;
+            return -1 * value;
+        }
+
+        @Override
+        float evalFloat() throws ExecException {
+            float value = expr.evalFloat();
+            isNull = expr.isNull;
+            return -1 * value;
+        }
+
+        @Override
+        double evalDouble() throws ExecException {
+            double value = expr.evalDouble();
+            isNull = expr.isNull;
+            return -1 * value;
+        }
+    }
+
+    /**
+     * The binary comparison operators. Both operands are always evaluated,
+     * and the values are compared as by their compareTo methods.
+     */
+    static class Comparison extends Node {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int EQ = 0, NE = 1, LT = 2, LTE = 3, GT = 4, GTE = 5;
+
+        private final byte operandType;
+
+        private final int kind;
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        Comparison(BinaryComparisonOperator op, Frame frame, Node lhs, Node rhs) {
+            super(DataType.BOOLEAN, frame);
+            this.operandType = op.getOperandType();
+            this.lhs = lhs;
+            this.rhs = rhs;
+            if (op instanceof EqualToExpr) {
+                kind = EQ;
+            } else if (op instanceof NotEqualToExpr) {
+                kind = NE;
+            } else if (op instanceof LessThanExpr) {
+                kind = LT;
+            } else if (op instanceof LTOrEqualToExpr) {
+                kind = LTE;
+            } else if (op instanceof GreaterThanExpr) {
+                kind = GT;
+            } else {
+                kind = GTE;
+            }
+        }
+
+        private int compare() throws ExecException {
+            int cmp;
+            switch (operandType) {
+            case DataType.INTEGER: {
+                int left = lhs.evalInt();
+                int right = rhs.evalInt();
+                cmp = left < right ? -1 : (left == right ? 0 : 1);
+                break;
+            }
+            case DataType.LONG: {
+                long left = lhs.evalLong();
+                long right = rhs.evalLong();
+                cmp = left < right ? -1 : (left == right ? 0 : 1);
+                break;
+            }
+            case DataType.FLOAT:
+                cmp = Float.compare(lhs.evalFloat(), rhs.evalFloat());
+                break;
+            case DataType.DOUBLE:
+                cmp = Double.compare(lhs.evalDouble(), rhs.evalDouble());
+                break;
+            default: {
+                String left = lhs.evalString();
+                String right = rhs.evalString();
+                cmp = (lhs.isNull || rhs.isNull) ? 0 : left.compareTo(right);
+            }
+            }
+            isNull = lhs.isNull || rhs.isNull;
+            return cmp;
+        }
+
+        @Override
+        boolean evalBoolean() throws ExecException {
+            int cmp = compare();
+            if (isNull) return false;
+            switch (kind) {
+            case EQ: return cmp == 0;
+            case NE: return cmp != 0;
+            case LT: return cmp < 0;
+            case LTE: return cmp <= 0;
+            case GT: return cmp > 0;
+            default: return cmp >= 0;
+            }
+        }
+    }
+
+    /**
+     * Three valued and; the right operand is not evaluated if the left one
+     * is false.
+     */
+    static class And extends Node {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        And(Frame frame, Node lhs, Node rhs) {
+            super(DataType.BOOLEAN, frame);
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        boolean evalBoolean() throws ExecException {
+            boolean left = lhs.evalBoolean();
+            if (frame.abort != null || (!lhs.isNull && !left)) {
+                isNull = lhs.isNull;
+                return false;
+            }
+            boolean right = rhs.evalBoolean();
+            // null and true is null, anything else is the right value
+            isNull = rhs.isNull || (lhs.isNull && right);
+            return right;
+        }
+    }
+
+    /**
+     * Three valued or; the right operand is not evaluated if the left one
+     * is true.
+     */
+    static class Or extends Node {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        Or(Frame frame, Node lhs, Node rhs) {
+            super(DataType.BOOLEAN, frame);
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        boolean evalBoolean() throws ExecException {
+            boolean left = lhs.evalBoolean();
+            if (frame.abort != null || (!lhs.isNull && left)) {
+                isNull = lhs.isNull;
+                return left;
+            }
+            boolean right = rhs.evalBoolean();
+            // null or false is null, anything else is the right value
+            isNull = rhs.isNull || (lhs.isNull && !right);
+            return right;
+        }
+    }
+
+    static class Not extends Node {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node expr;
+
+        Not(Frame frame, Node expr) {
+            super(DataType.BOOLEAN, frame);
+            this.expr = expr;
+        }
+
+        @Override
+        boolean evalBoolean() throws ExecException {
+            boolean value = expr.evalBoolean();
+            isNull = expr.isNull;
+            return !value;
+        }
+    }
+
+    /**
+     * Only the chosen branch is evaluated; a null condition gives null.
+     */
+    static class BinCond extends Node {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node cond;
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        BinCond(byte type, Frame frame, Node cond, Node lhs, Node rhs) {
+            super(type, frame);
+            this.cond = cond;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        /**
+         * @return the branch to evaluate, or null if the condition is null
+         */
+        private Node branch() throws ExecException {
+            boolean value = cond.evalBoolean();
+            if (cond.isNull) {
+                isNull = true;
+                return null;
+            }
+            return value ? lhs : rhs;
+        }
+
+        @Override
+        int evalInt() throws ExecException {
+            Node branch = branch();
+            if (branch == null) return 0;
+            int value = branch.evalInt();
+            isNull = branch.isNull;
+            return value;
+        }
+
+        @Override
+        long evalLong() throws ExecException {
+            Node branch = branch();
+            if (branch == null) return 0;
+            long value = branch.evalLong();
+            isNull = branch.isNull;
+            return value;
+        }
+
+        @Override
+        float evalFloat() throws ExecException {
+            Node branch = branch();
+            if (branch == null) return 0;
+            float value = branch.evalFloat();
+            isNull = branch.isNull;
+            return value;
+        }
+
+        @Override
+        double evalDouble() throws ExecException {
+            Node branch = branch();
+            if (branch == null) return 0;
+            double value = branch.evalDouble();
+            isNull = branch.isNull;
+            return value;
+        }
+
+        @Override
+        boolean evalBoolean() throws ExecException {
+            Node branch = branch();
+            if (branch == null) return false;
+            boolean value = branch.evalBoolean();
+            isNull = branch.isNull;
+            return value;
+        }
+
+        @Override
+        String evalString() throws ExecException {
+            Node branch = branch();
+            if (branch == null) return null;
+            String value = branch.evalString();
+            isNull = branch.isNull;
+            return value;
+        }
+    }
+}
@@ -107,6 +107,32 @@ public abstract class ExpressionOperator extends PhysicalOperator {
         return false;
     }
 
+    /** check whether this expression may be evaluated before the operands
+     * which precede it in the script, as an operand of an and or an or. It
+     * must not call a UDF, which may have side effects, nor contain an
+     * operator which can fail or warn on inputs an earlier operand is meant
+     * to filter out, such as a division, a cast or a map lookup.
+     */
+    public boolean isReorderSafe() {
+        if (this instanceof POUserFunc || this instanceof POUserComparisonFunc
+                || this instanceof POCast || this instanceof Divide
+                || this instanceof Mod || this instanceof PORegexp
+                || this instanceof POMapLookUp) {
+            return false;
+        }
+
+        List<ExpressionOperator> l = getChildExpressions();
+        if (l != null) {
+            for(ExpressionOperator e: l) {
+                if (!e.isReorderSafe()) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Drive all the UDFs in accumulative mode
      */
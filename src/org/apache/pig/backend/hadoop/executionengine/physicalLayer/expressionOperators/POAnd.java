@@ -37,6 +37,11 @@ public class POAnd extends BinaryComparisonOperator {
      */
     private static final long serialVersionUID = 1L;
 
+    // whether the operands may be evaluated in another order than the script's
+    private boolean reorderOperands = false;
+
+    private transient AdaptiveBooleanChain chain;
+
     public POAnd(OperatorKey k) {
         this(k, -1);
     }
@@ -62,6 +67,12 @@ public class POAnd extends BinaryComparisonOperator {
         if (r != null) {
             return r;
         }
+        if (reorderOperands) {
+            if (chain == null) {
+                chain = new AdaptiveBooleanChain(this);
+            }
+            return chain.getNext();
+        }
         
         Result left;
         left = lhs.getNext(dummyBool);
@@ -97,11 +108,28 @@ public class POAnd extends BinaryComparisonOperator {
         return right;
     }
 
+    /**
+     * Lets this and and the and operators below it be evaluated as one chain
+     * whose operands are ordered at run time by their cost and selectivity.
+     * Operands which can fail or call a UDF stay behind the ones before
+     * them in the script, see {@link AdaptiveBooleanChain}.
+     * @param reorderOperands whether to reorder the operands
+     */
+    public void setReorderOperands(boolean reorderOperands) {
+        this.reorderOperands = reorderOperands;
+        chain = null;
+    }
+
+    public boolean isReorderOperands() {
+        return reorderOperands;
+    }
+
     @Override
     public POAnd clone() throws CloneNotSupportedException {
         POAnd clone = new POAnd(new OperatorKey(mKey.scope, 
             NodeIdGenerator.getGenerator().getNextNodeId(mKey.scope)));
         clone.cloneHelper(this);
+        clone.reorderOperands = reorderOperands;
         return clone;
     }
 }
@@ -1033,4 +1033,11 @@ public class POCast extends ExpressionOperator {
         return funcSpec;
     }
 
+    /**
+     * @return the caster of the load function the bytes come from, or null
+     */
+    public LoadCaster getLoadCaster() {
+        return caster;
+    }
+
 }
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * Computes the value of an expression with the evaluators built by
+ * {@link ExpressionCompiler} instead of the getNext methods of its
+ * operators. The original expression stays in the plan as the input of this
+ * operator, but is not evaluated through it.
+ */
+public class POCompiledExpression extends ExpressionOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private ExpressionOperator expr;
+
+    private ExpressionCompiler.Node code;
+
+    private ExpressionCompiler.Frame frame;
+
+    private transient Result res;
+
+    POCompiledExpression(OperatorKey k, ExpressionOperator expr,
+            ExpressionCompiler.Node code, ExpressionCompiler.Frame frame) {
+        super(k);
+        this.expr = expr;
+        this.code = code;
+        this.frame = frame;
+        this.resultType = expr.getResultType();
+    }
+
+    public ExpressionOperator getExpr() {
+        return expr;
+    }
+
+    @Override
+    public void visit(PhyPlanVisitor v) throws VisitorException {
+        v.visitCompiledExpression(this);
+    }
+
+    @Override
+    public String name() {
+        return "Compiled" + "[" + DataType.findTypeName(resultType) + "]" + " - " + mKey.toString();
+    }
+
+    @Override
+    public boolean supportsMultipleInputs() {
+        return false;
+    }
+
+    @Override
+    protected List<ExpressionOperator> getChildExpressions() {
+        List<ExpressionOperator> child = new ArrayList<ExpressionOperator>();
+        child.add(expr);
+        return child;
+    }
+
+    private Result evaluate() throws ExecException {
+        frame.abort = null;
+        Object value = code.evalObject();
+        if (frame.abort != null) {
+            Result abort = frame.abort;
+            frame.abort = null;
+            return abort;
+        }
+        // the result is read by the filter or foreach before the next call
+        if (res == null) {
+            res = new Result();
+        }
+        res.returnStatus = POStatus.STATUS_OK;
+        res.result = value;
+        return res;
+    }
+
+    @Override
+    public Result getNext(Integer i) throws ExecException {
+        return evaluate();
+    }
+
+    @Override
+    public Result getNext(Long l) throws ExecException {
+        return evaluate();
+    }
+
+    @Override
+    public Result getNext(Double d) throws ExecException {
+        return evaluate();
+    }
+
+    @Override
+    public Result getNext(Float f) throws ExecException {
+        return evaluate();
+    }
+
+    @Override
+    public Result getNext(String s) throws ExecException {
+        return evaluate();
+    }
+
+    @Override
+    public Result getNext(Boolean b) throws ExecException {
+        return evaluate();
+    }
+
+    @Override
+    public Result getNext(DataByteArray ba) throws ExecException {
+        return evaluate();
+    }
+
+    @Override
+    public Result getNext(Map m) throws ExecException {
+        return evaluate();
+    }
+
+    @Override
+    public Result getNext(Tuple t) throws ExecException {
+        return evaluate();
+    }
+
+    @Override
+    public Result getNext(DataBag db) throws ExecException {
+        return evaluate();
+    }
+}
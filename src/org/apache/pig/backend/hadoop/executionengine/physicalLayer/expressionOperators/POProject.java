@@ -320,7 +320,7 @@ public class POProject extends ExpressionOperator {
      */
     @Override
     public Result getNext(Tuple t) throws ExecException {
-        Result res = new Result();
+        Result res = this.res;
         if(!processingBagOfTuples){
             Tuple inpValue = null;
             res = processInput();
@@ -17,7 +17,8 @@
  */
 package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
 
-import java.util.regex.PatternSyntaxException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
@@ -35,6 +36,11 @@ public class PORegexp extends BinaryComparisonOperator {
      */
     private static final long serialVersionUID = 1L;
 
+    // The regular expression is almost always a constant, so it is only
+    // compiled again when it changes.
+    private transient String regex;
+    private transient Matcher matcher;
+
     public PORegexp(OperatorKey k) {
         this(k, -1);
     }
@@ -70,7 +76,11 @@ public class PORegexp extends BinaryComparisonOperator {
         if (trueRef == null) initializeRefs();
         if (left.returnStatus != POStatus.STATUS_OK || left.result == null) return left;
         if (right.returnStatus != POStatus.STATUS_OK || right.result == null) return right;
-        if (((String)left.result).matches((String)right.result)) {
+        if (matcher == null || !right.result.equals(regex)) {
+            regex = (String)right.result;
+            matcher = Pattern.compile(regex).matcher("");
+        }
+        if (matcher.reset((String)left.result).matches()) {
             left.result = trueRef;
         } else {
             left.result = falseRef;
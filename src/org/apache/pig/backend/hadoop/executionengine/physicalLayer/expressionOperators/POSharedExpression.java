@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * Wraps an expression which is evaluated in the same way by several branches
+ * of a split. All the copies of the expression share one {@link SharedResult},
+ * so the expression is evaluated by the first branch which needs it and the
+ * other branches reuse the result for the same input tuple of the split.
+ * The split tells when the input has changed, see
+ * {@link POSplit#getInputCount()}. In accumulative mode the expression is
+ * called once per batch of the same input, so nothing is shared then.
+ */
+public class POSharedExpression extends ExpressionOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The result of a shared expression for one input of a split.
+     */
+    public static class SharedResult implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        // input count of the split the result was computed for
+        private transient long inputCount;
+
+        private transient Result result;
+    }
+
+    private ExpressionOperator expr;
+
+    private POSplit split;
+
+    private SharedResult shared;
+
+    /**
+     * @param k operator key
+     * @param expr the expression to wrap
+     * @param split the split whose branches share the expression
+     * @param shared the result holder common to all copies of the expression
+     */
+    public POSharedExpression(OperatorKey k, ExpressionOperator expr,
+            POSplit split, SharedResult shared) {
+        super(k);
+        this.expr = expr;
+        this.split = split;
+        this.shared = shared;
+        this.resultType = expr.getResultType();
+    }
+
+    public ExpressionOperator getExpr() {
+        return expr;
+    }
+
+    @Override
+    public void visit(PhyPlanVisitor v) throws VisitorException {
+        v.visitSharedExpression(this);
+    }
+
+    @Override
+    public String name() {
+        return "Shared" + "[" + DataType.findTypeName(resultType) + "]" + " - " + mKey.toString();
+    }
+
+    @Override
+    public boolean supportsMultipleInputs() {
+        return false;
+    }
+
+    @Override
+    protected List<ExpressionOperator> getChildExpressions() {
+        List<ExpressionOperator> child = new ArrayList<ExpressionOperator>();
+        child.add(expr);
+        return child;
+    }
+
+    /**
+     * @return the result computed by another branch for the current input
+     * of the split, or null if there is none yet
+     */
+    private Result lookup() {
+        if (isAccumulative() || shared.result == null || shared.inputCount != split.getInputCount()) {
+            return null;
+        }
+        // the successor may hold on to the Result object it got
+        return new Result(shared.result.returnStatus, shared.result.result);
+    }
+
+    private Result remember(Result r) {
+        if (isAccumulative()) {
+            return r;
+        }
+        shared.inputCount = split.getInputCount();
+        shared.result = new Result(r.returnStatus, r.result);
+        return r;
+    }
+
+    @Override
+    public Result getNext(Integer i) throws ExecException {
+        Result r = lookup();
+        return (r != null) ? r : remember(expr.getNext(i));
+    }
+
+    @Override
+    public Result getNext(Long l) throws ExecException {
+        Result r = lookup();
+        return (r != null) ? r : remember(expr.getNext(l));
+    }
+
+    @Override
+    public Result getNext(Double d) throws ExecException {
+        Result r = lookup();
+        return (r != null) ? r : remember(expr.getNext(d));
+    }
+
+    @Override
+    public Result getNext(Float f) throws ExecException {
+        Result r = lookup();
+        return (r != null) ? r : remember(expr.getNext(f));
+    }
+
+    @Override
+    public Result getNext(String s) throws ExecException {
+        Result r = lookup();
+        return (r != null) ? r : remember(expr.getNext(s));
+    }
+
+    @Override
+    public Result getNext(DataByteArray ba) throws ExecException {
+        Result r = lookup();
+        return (r != null) ? r : remember(expr.getNext(ba));
+    }
+
+    @Override
+    public Result getNext(Map m) throws ExecException {
+        Result r = lookup();
+        return (r != null) ? r : remember(expr.getNext(m));
+    }
+
+    @Override
+    public Result getNext(Boolean b) throws ExecException {
+        Result r = lookup();
+        return (r != null) ? r : remember(expr.getNext(b));
+    }
+
+    @Override
+    public Result getNext(Tuple t) throws ExecException {
+        Result r = lookup();
+        return (r != null) ? r : remember(expr.getNext(t));
+    }
+
+    @Override
+    public Result getNext(DataBag db) throws ExecException {
+        Result r = lookup();
+        return (r != null) ? r : remember(expr.getNext(db));
+    }
+}
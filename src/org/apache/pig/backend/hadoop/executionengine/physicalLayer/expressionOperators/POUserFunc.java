@@ -62,6 +62,9 @@ public class POUserFunc extends ExpressionOperator {
     public static final byte INTERMEDIATE = 1;
     public static final byte FINAL = 2;
     private boolean initialized = false;
+    // reused by processInput(), the argument tuple is new each time as
+    // functions may keep it
+    transient private Result inputResult;
 
     public POUserFunc(OperatorKey k, int rp, List<PhysicalOperator> inp) {
         super(k, rp);
@@ -116,7 +119,11 @@ public class POUserFunc extends ExpressionOperator {
             initialized = true;
         }
 
-        Result res = new Result();
+        if (inputResult == null) {
+            inputResult = new Result();
+        }
+        Result res = inputResult;
+        res.result = null;
         Tuple inpValue = null;
         if (input == null && (inputs == null || inputs.size()==0)) {
 //			log.warn("No inputs found. Signaling End of Processing.");
@@ -406,6 +413,16 @@ public class POUserFunc extends ExpressionOperator {
         return funcSpec;
     }
 
+    /**
+     * Replaces the function, as when one of its arguments is a file which
+     * is only known by another name at run time.
+     */
+    public void setFuncSpec(FuncSpec funcSpec) {
+        this.funcSpec = funcSpec;
+        this.origFSpec = funcSpec;
+        instantiateFunc(funcSpec);
+    }
+
     public boolean combinable() {
         return (func instanceof Algebraic);
     }
@@ -0,0 +1,876 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.PigException;
+import org.apache.pig.PigWarning;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Evaluates an expression plan on a batch of tuples at a time, one operator
+ * at a time. The values an operator computes for the batch are kept in a
+ * primitive array along with an array of null flags. Projections of a single
+ * column, constants, arithmetic, negation, comparisons, and, or, not, is null
+ * and bincond are evaluated this way. Any other operator is evaluated row by
+ * row by attaching each tuple to the plan and calling its getNext, along with
+ * the operators below it.
+ * <p>
+ * An operand is only evaluated for the rows the operator would evaluate it
+ * for, so the right side of an and is skipped for the rows where the left
+ * side is false, and a bincond only evaluates the chosen branch.
+ */
+public class VectorizedExpression {
+
+    private final Node root;
+
+    private VectorizedExpression(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @param plan an expression plan
+     * @return the plan prepared for evaluation on batches, or null if the
+     * plan has operators which are not expressions or does not have a single
+     * leaf
+     */
+    public static VectorizedExpression compile(PhysicalPlan plan) {
+        List<PhysicalOperator> leaves = plan.getLeaves();
+        if (leaves == null || leaves.size() != 1) {
+            return null;
+        }
+        Iterator<PhysicalOperator> it = plan.iterator();
+        while (it.hasNext()) {
+            if (!(it.next() instanceof ExpressionOperator)) {
+                return null;
+            }
+        }
+        ExpressionOperator leaf = (ExpressionOperator)leaves.get(0);
+        if (!isKnownType(leaf.getResultType())) {
+            return null;
+        }
+        Node root = null;
+        if (leaf instanceof POCompiledExpression) {
+            root = compile(((POCompiledExpression)leaf).getExpr(), plan);
+        }
+        if (root == null || root instanceof Interpreted) {
+            // a compiled expression is still faster than the interpreter
+            root = compile(leaf, plan);
+        }
+        return new VectorizedExpression(root);
+    }
+
+    /**
+     * Computes the value of the expression for each of the tuples.
+     */
+    public void evaluate(List<Tuple> rows) throws ExecException {
+        root.evaluate(rows, rows.size(), null);
+    }
+
+    /**
+     * @return whether the value for a row of the last batch is true, for a
+     * boolean expression
+     */
+    public boolean isTrue(int row) {
+        return !root.isNull[row] && root.longs[row] != 0;
+    }
+
+    /**
+     * @return the value for a row of the last batch
+     */
+    public Object get(int row) {
+        return root.get(row);
+    }
+
+    private static Node compile(ExpressionOperator op, PhysicalPlan plan) {
+        byte type = op.getResultType();
+        if (!isKnownType(type)) {
+            return null;
+        }
+        if (op instanceof POProject) {
+            POProject project = (POProject)op;
+            if (!project.isStar() && !project.isOverloaded()
+                    && project.getColumns().size() == 1
+                    && (project.getInputs() == null || project.getInputs().isEmpty())) {
+                return new Column(project);
+            }
+        } else if (op instanceof ConstantExpression) {
+            Object value = ((ConstantExpression)op).getValue();
+            if (value == null || DataType.findType(value) == type) {
+                return new Constant(type, value);
+            }
+        } else if (op instanceof Add || op instanceof Subtract
+                || op instanceof Multiply || op instanceof Divide
+                || op instanceof Mod) {
+            BinaryExpressionOperator bin = (BinaryExpressionOperator)op;
+            if (isNumber(type) && !(op instanceof Mod && isFloatingPoint(type))) {
+                Node lhs = compileOperand(bin.getLhs(), type, plan);
+                Node rhs = compileOperand(bin.getRhs(), type, plan);
+                if (lhs != null && rhs != null) {
+                    return new Arithmetic(bin, lhs, rhs);
+                }
+            }
+        } else if (op instanceof PONegative) {
+            if (isNumber(type)) {
+                Node expr = compileOperand(((PONegative)op).getExpr(), type, plan);
+                if (expr != null) {
+                    return new Negative(type, expr);
+                }
+            }
+        } else if (op instanceof EqualToExpr || op instanceof NotEqualToExpr
+                || op instanceof LessThanExpr || op instanceof LTOrEqualToExpr
+                || op instanceof GreaterThanExpr || op instanceof GTOrEqualToExpr) {
+            BinaryComparisonOperator cmp = (BinaryComparisonOperator)op;
+            byte operandType = cmp.getOperandType();
+            if (isNumber(operandType) || operandType == DataType.CHARARRAY) {
+                Node lhs = compileOperand(cmp.getLhs(), operandType, plan);
+                Node rhs = compileOperand(cmp.getRhs(), operandType, plan);
+                if (lhs != null && rhs != null) {
+                    return new Comparison(cmp, lhs, rhs);
+                }
+            }
+        } else if (op instanceof POAnd || op instanceof POOr) {
+            BinaryExpressionOperator bin = (BinaryExpressionOperator)op;
+            Node lhs = compileOperand(bin.getLhs(), DataType.BOOLEAN, plan);
+            Node rhs = compileOperand(bin.getRhs(), DataType.BOOLEAN, plan);
+            if (lhs != null && rhs != null) {
+                return op instanceof POAnd ? new And(lhs, rhs) : new Or(lhs, rhs);
+            }
+        } else if (op instanceof PONot) {
+            Node expr = compileOperand(((PONot)op).getExpr(), DataType.BOOLEAN, plan);
+            if (expr != null) {
+                return new Not(expr);
+            }
+        } else if (op instanceof POIsNull) {
+            // the operator passes on a null status from its operand instead
+            // of returning true, so only projections are vectorized
+            POIsNull isNull = (POIsNull)op;
+            Node expr = compileOperand(isNull.getExpr(), isNull.getOperandType(), plan);
+            if (expr instanceof Column) {
+                return new IsNull(expr);
+            }
+        } else if (op instanceof POBinCond) {
+            POBinCond binCond = (POBinCond)op;
+            if (isNumber(type) || type == DataType.BOOLEAN
+                    || type == DataType.CHARARRAY) {
+                Node cond = compileOperand(binCond.getCond(), DataType.BOOLEAN, plan);
+                Node lhs = compileOperand(binCond.getLhs(), type, plan);
+                Node rhs = compileOperand(binCond.getRhs(), type, plan);
+                if (cond != null && lhs != null && rhs != null) {
+                    return new BinCond(type, cond, lhs, rhs);
+                }
+            }
+        }
+        return new Interpreted(op, plan);
+    }
+
+    private static Node compileOperand(ExpressionOperator op, byte type,
+            PhysicalPlan plan) {
+        if (op == null || op.getResultType() != type) {
+            return null;
+        }
+        return compile(op, plan);
+    }
+
+    private static boolean isKnownType(byte type) {
+        switch (type) {
+        case DataType.INTEGER:
+        case DataType.LONG:
+        case DataType.FLOAT:
+        case DataType.DOUBLE:
+        case DataType.BOOLEAN:
+        case DataType.CHARARRAY:
+        case DataType.BYTEARRAY:
+        case DataType.MAP:
+        case DataType.TUPLE:
+        case DataType.BAG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static boolean isNumber(byte type) {
+        return type == DataType.INTEGER || type == DataType.LONG
+            || isFloatingPoint(type);
+    }
+
+    private static boolean isFloatingPoint(byte type) {
+        return type == DataType.FLOAT || type == DataType.DOUBLE;
+    }
+
+    private static boolean isActive(boolean[] active, int row) {
+        return active == null || active[row];
+    }
+
+    /**
+     * The values of one operator for a batch. Integers, longs and booleans
+     * are kept in longs, floats and doubles in doubles and anything else in
+     * objects.
+     */
+    abstract static class Node {
+
+        protected final byte type;
+
+        protected long[] longs;
+
+        protected double[] doubles;
+
+        protected Object[] objects;
+
+        protected boolean[] isNull;
+
+        Node(byte type) {
+            this.type = type;
+        }
+
+        /**
+         * Computes the values for the active rows, or all of them if active
+         * is null. The values of the other rows are left undefined.
+         */
+        abstract void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException;
+
+        protected void allocate(int n) {
+            if (isNull != null && isNull.length >= n) {
+                return;
+            }
+            isNull = new boolean[n];
+            switch (type) {
+            case DataType.INTEGER:
+            case DataType.LONG:
+            case DataType.BOOLEAN:
+                longs = new long[n];
+                break;
+            case DataType.FLOAT:
+            case DataType.DOUBLE:
+                doubles = new double[n];
+                break;
+            default:
+                objects = new Object[n];
+            }
+        }
+
+        protected void set(int row, Object value) {
+            isNull[row] = (value == null);
+            if (value == null) {
+                return;
+            }
+            switch (type) {
+            case DataType.INTEGER:
+                longs[row] = (Integer)value;
+                break;
+            case DataType.LONG:
+                longs[row] = (Long)value;
+                break;
+            case DataType.BOOLEAN:
+                longs[row] = ((Boolean)value) ? 1 : 0;
+                break;
+            case DataType.FLOAT:
+                doubles[row] = (Float)value;
+                break;
+            case DataType.DOUBLE:
+                doubles[row] = (Double)value;
+                break;
+            default:
+                objects[row] = value;
+            }
+        }
+
+        protected void copy(int row, Node from) {
+            isNull[row] = from.isNull[row];
+            switch (type) {
+            case DataType.INTEGER:
+            case DataType.LONG:
+            case DataType.BOOLEAN:
+                longs[row] = from.longs[row];
+                break;
+            case DataType.FLOAT:
+            case DataType.DOUBLE:
+                doubles[row] = from.doubles[row];
+                break;
+            default:
+                objects[row] = from.objects[row];
+            }
+        }
+
+        Object get(int row) {
+            if (isNull[row]) {
+                return null;
+            }
+            switch (type) {
+            case DataType.INTEGER:
+                return Integer.valueOf((int)longs[row]);
+            case DataType.LONG:
+                return Long.valueOf(longs[row]);
+            case DataType.BOOLEAN:
+                return Boolean.valueOf(longs[row] != 0);
+            case DataType.FLOAT:
+                return Float.valueOf((float)doubles[row]);
+            case DataType.DOUBLE:
+                return Double.valueOf(doubles[row]);
+            default:
+                return objects[row];
+            }
+        }
+    }
+
+    /**
+     * Evaluates an operator row by row through its getNext.
+     */
+    static class Interpreted extends Node {
+
+        private final ExpressionOperator op;
+
+        private final PhysicalPlan plan;
+
+        Interpreted(ExpressionOperator op, PhysicalPlan plan) {
+            super(op.getResultType());
+            this.op = op;
+            this.plan = plan;
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException {
+            allocate(n);
+            for (int i = 0; i < n; i++) {
+                if (!isActive(active, i)) {
+                    continue;
+                }
+                plan.attachInput(rows.get(i));
+                Result res = getNext();
+                if (res.returnStatus != POStatus.STATUS_OK
+                        && res.returnStatus != POStatus.STATUS_NULL) {
+                    int errCode = 2226;
+                    String msg = "Received Error while evaluating " + op.name()
+                        + " on a batch of tuples";
+                    msg += (res.result != null ? ": " + res.result : ".");
+                    throw new ExecException(msg, errCode, PigException.BUG);
+                }
+                set(i, res.result);
+            }
+        }
+
+        private Result getNext() throws ExecException {
+            switch (type) {
+            case DataType.INTEGER:
+                return op.getNext((Integer)null);
+            case DataType.LONG:
+                return op.getNext((Long)null);
+            case DataType.FLOAT:
+                return op.getNext((Float)null);
+            case DataType.DOUBLE:
+                return op.getNext((Double)null);
+            case DataType.BOOLEAN:
+                return op.getNext((Boolean)null);
+            case DataType.CHARARRAY:
+                return op.getNext((String)null);
+            case DataType.BYTEARRAY:
+                return op.getNext((DataByteArray)null);
+            case DataType.MAP:
+                return op.getNext((Map)null);
+            case DataType.TUPLE:
+                return op.getNext((Tuple)null);
+            default:
+                return op.getNext((DataBag)null);
+            }
+        }
+    }
+
+    /**
+     * A projection of one column of the input tuple.
+     */
+    static class Column extends Node {
+
+        private final POProject project;
+
+        private final int column;
+
+        Column(POProject project) {
+            super(project.getResultType());
+            this.project = project;
+            this.column = project.getColumns().get(0);
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException {
+            allocate(n);
+            for (int i = 0; i < n; i++) {
+                if (!isActive(active, i)) {
+                    continue;
+                }
+                Tuple t = rows.get(i);
+                Object value;
+                if (t == null) {
+                    value = null;
+                } else if (column < t.size()) {
+                    value = t.get(column);
+                } else {
+                    if (PhysicalOperator.getPigLogger() != null) {
+                        PhysicalOperator.getPigLogger().warn(project, "Attempt to access field " +
+                                "which was not found in the input", PigWarning.ACCESSING_NON_EXISTENT_FIELD);
+                    }
+                    value = null;
+                }
+                set(i, value);
+            }
+        }
+    }
+
+    static class Constant extends Node {
+
+        private final Object value;
+
+        Constant(byte type, Object value) {
+            super(type);
+            this.value = value;
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active) {
+            allocate(n);
+            for (int i = 0; i < n; i++) {
+                set(i, value);
+            }
+        }
+    }
+
+    /**
+     * Add, Subtract, Multiply, Divide and Mod. The right operand is only
+     * evaluated for the rows where the left one is not null, and division
+     * by zero gives null with a warning.
+     */
+    static class Arithmetic extends Node {
+
+        private static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2,
+            DIVIDE = 3, MOD = 4;
+
+        private final BinaryExpressionOperator op;
+
+        private final int kind;
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        private boolean[] rhsActive;
+
+        Arithmetic(BinaryExpressionOperator op, Node lhs, Node rhs) {
+            super(op.getResultType());
+            this.op = op;
+            this.lhs = lhs;
+            this.rhs = rhs;
+            if (op instanceof Add) {
+                kind = ADD;
+            } else if (op instanceof Subtract) {
+                kind = SUBTRACT;
+            } else if (op instanceof Multiply) {
+                kind = MULTIPLY;
+            } else if (op instanceof Divide) {
+                kind = DIVIDE;
+            } else {
+                kind = MOD;
+            }
+        }
+
+        private void divideByZero(int row) {
+            if (PhysicalOperator.getPigLogger() != null) {
+                PhysicalOperator.getPigLogger().warn(op,
+                        "Divide by zero. Converting it to NULL.",
+                        PigWarning.DIVIDE_BY_ZERO);
+            }
+            isNull[row] = true;
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException {
+            allocate(n);
+            lhs.evaluate(rows, n, active);
+            if (rhsActive == null || rhsActive.length < n) {
+                rhsActive = new boolean[n];
+            }
+            for (int i = 0; i < n; i++) {
+                rhsActive[i] = isActive(active, i) && !lhs.isNull[i];
+            }
+            rhs.evaluate(rows, n, rhsActive);
+            for (int i = 0; i < n; i++) {
+                isNull[i] = !rhsActive[i] || rhs.isNull[i];
+            }
+            switch (type) {
+            case DataType.INTEGER:
+                for (int i = 0; i < n; i++) {
+                    if (isNull[i]) continue;
+                    int left = (int)lhs.longs[i];
+                    int right = (int)rhs.longs[i];
+                    switch (kind) {
+                    case ADD: longs[i] = left + right; break;
+                    case SUBTRACT: longs[i] = left - right; break;
+                    case MULTIPLY: longs[i] = left * right; break;
+                    case DIVIDE:
+                        if (right == 0) divideByZero(i); else longs[i] = left / right;
+                        break;
+                    default: longs[i] = left % right;
+                    }
+                }
+                break;
+            case DataType.LONG:
+                for (int i = 0; i < n; i++) {
+                    if (isNull[i]) continue;
+                    long left = lhs.longs[i];
+                    long right = rhs.longs[i];
+                    switch (kind) {
+                    case ADD: longs[i] = left + right; break;
+                    case SUBTRACT: longs[i] = left - right; break;
+                    case MULTIPLY: longs[i] = left * right; break;
+                    case DIVIDE:
+                        if (right == 0) divideByZero(i); else longs[i] = left / right;
+                        break;
+                    default: longs[i] = left % right;
+                    }
+                }
+                break;
+            case DataType.FLOAT:
+                for (int i = 0; i < n; i++) {
+                    if (isNull[i]) continue;
+                    float left = (float)lhs.doubles[i];
+                    float right = (float)rhs.doubles[i];
+                    switch (kind) {
+                    case ADD: doubles[i] = left + right; break;
+                    case SUBTRACT: doubles[i] = left - right; break;
+                    case MULTIPLY: doubles[i] = left * right; break;
+                    default:
+                        if (right == 0) divideByZero(i); else doubles[i] = left / right;
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    if (isNull[i]) continue;
+                    double left = lhs.doubles[i];
+                    double right = rhs.doubles[i];
+                    switch (kind) {
+                    case ADD: doubles[i] = left + right; break;
+                    case SUBTRACT: doubles[i] = left - right; break;
+                    case MULTIPLY: doubles[i] = left * right; break;
+                    default:
+                        if (right == 0) divideByZero(i); else doubles[i] = left / right;
+                    }
+                }
+            }
+        }
+    }
+
+    static class Negative extends Node {
+
+        private final Node expr;
+
+        Negative(byte type, Node expr) {
+            super(type);
+            this.expr = expr;
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException {
+            allocate(n);
+            expr.evaluate(rows, n, active);
+            for (int i = 0; i < n; i++) {
+                isNull[i] = expr.isNull[i];
+                switch (type) {
+                case DataType.INTEGER: longs[i] = -1 * (int)expr.longs[i]; break;
+                case DataType.LONG: longs[i] = -1 * expr.longs[i]; break;
+                case DataType.FLOAT: doubles[i] = -1 * (float)expr.doubles[i]; break;
+                default: doubles[i] = -1 * expr.doubles[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * The binary comparison operators. Both operands are evaluated, and the
+     * values are compared as by their compareTo methods.
+     */
+    static class Comparison extends Node {
+
+        private static final int EQ = 0, NE = 1, LT = 2, LTE = 3, GT = 4, GTE = 5;
+
+        private final byte operandType;
+
+        private final int kind;
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        Comparison(BinaryComparisonOperator op, Node lhs, Node rhs) {
+            super(DataType.BOOLEAN);
+            this.operandType = op.getOperandType();
+            this.lhs = lhs;
+            this.rhs = rhs;
+            if (op instanceof EqualToExpr) {
+                kind = EQ;
+            } else if (op instanceof NotEqualToExpr) {
+                kind = NE;
+            } else if (op instanceof LessThanExpr) {
+                kind = LT;
+            } else if (op instanceof LTOrEqualToExpr) {
+                kind = LTE;
+            } else if (op instanceof GreaterThanExpr) {
+                kind = GT;
+            } else {
+                kind = GTE;
+            }
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException {
+            allocate(n);
+            lhs.evaluate(rows, n, active);
+            rhs.evaluate(rows, n, active);
+            for (int i = 0; i < n; i++) {
+                if (!isActive(active, i)) {
+                    continue;
+                }
+                isNull[i] = lhs.isNull[i] || rhs.isNull[i];
+                if (isNull[i]) continue;
+                int cmp;
+                switch (operandType) {
+                case DataType.INTEGER:
+                case DataType.LONG: {
+                    long left = lhs.longs[i];
+                    long right = rhs.longs[i];
+                    cmp = left < right ? -1 : (left == right ? 0 : 1);
+                    break;
+                }
+                case DataType.FLOAT:
+                case DataType.DOUBLE:
+                    cmp = Double.compare(lhs.doubles[i], rhs.doubles[i]);
+                    break;
+                default:
+                    cmp = ((String)lhs.objects[i]).compareTo((String)rhs.objects[i]);
+                }
+                boolean value;
+                switch (kind) {
+                case EQ: value = cmp == 0; break;
+                case NE: value = cmp != 0; break;
+                case LT: value = cmp < 0; break;
+                case LTE: value = cmp <= 0; break;
+                case GT: value = cmp > 0; break;
+                default: value = cmp >= 0;
+                }
+                longs[i] = value ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * Three valued and; the right operand is not evaluated for the rows
+     * where the left one is false.
+     */
+    static class And extends Node {
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        private boolean[] rhsActive;
+
+        And(Node lhs, Node rhs) {
+            super(DataType.BOOLEAN);
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException {
+            allocate(n);
+            lhs.evaluate(rows, n, active);
+            if (rhsActive == null || rhsActive.length < n) {
+                rhsActive = new boolean[n];
+            }
+            for (int i = 0; i < n; i++) {
+                rhsActive[i] = isActive(active, i)
+                    && (lhs.isNull[i] || lhs.longs[i] != 0);
+            }
+            rhs.evaluate(rows, n, rhsActive);
+            for (int i = 0; i < n; i++) {
+                if (!rhsActive[i]) {
+                    isNull[i] = false;
+                    longs[i] = 0;
+                } else {
+                    // null and true is null, anything else is the right value
+                    isNull[i] = rhs.isNull[i] || (lhs.isNull[i] && rhs.longs[i] != 0);
+                    longs[i] = rhs.longs[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Three valued or; the right operand is not evaluated for the rows
+     * where the left one is true.
+     */
+    static class Or extends Node {
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        private boolean[] rhsActive;
+
+        Or(Node lhs, Node rhs) {
+            super(DataType.BOOLEAN);
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException {
+            allocate(n);
+            lhs.evaluate(rows, n, active);
+            if (rhsActive == null || rhsActive.length < n) {
+                rhsActive = new boolean[n];
+            }
+            for (int i = 0; i < n; i++) {
+                rhsActive[i] = isActive(active, i)
+                    && (lhs.isNull[i] || lhs.longs[i] == 0);
+            }
+            rhs.evaluate(rows, n, rhsActive);
+            for (int i = 0; i < n; i++) {
+                if (!rhsActive[i]) {
+                    isNull[i] = false;
+                    longs[i] = 1;
+                } else {
+                    // null or false is null, anything else is the right value
+                    isNull[i] = rhs.isNull[i] || (lhs.isNull[i] && rhs.longs[i] == 0);
+                    longs[i] = rhs.longs[i];
+                }
+            }
+        }
+    }
+
+    static class Not extends Node {
+
+        private final Node expr;
+
+        Not(Node expr) {
+            super(DataType.BOOLEAN);
+            this.expr = expr;
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException {
+            allocate(n);
+            expr.evaluate(rows, n, active);
+            for (int i = 0; i < n; i++) {
+                isNull[i] = expr.isNull[i];
+                longs[i] = expr.longs[i] == 0 ? 1 : 0;
+            }
+        }
+    }
+
+    static class IsNull extends Node {
+
+        private final Node expr;
+
+        IsNull(Node expr) {
+            super(DataType.BOOLEAN);
+            this.expr = expr;
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException {
+            allocate(n);
+            expr.evaluate(rows, n, active);
+            for (int i = 0; i < n; i++) {
+                isNull[i] = false;
+                longs[i] = expr.isNull[i] ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * Each branch is only evaluated for the rows which choose it; a null
+     * condition gives null.
+     */
+    static class BinCond extends Node {
+
+        private final Node cond;
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        private boolean[] lhsActive;
+
+        private boolean[] rhsActive;
+
+        BinCond(byte type, Node cond, Node lhs, Node rhs) {
+            super(type);
+            this.cond = cond;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        void evaluate(List<Tuple> rows, int n, boolean[] active)
+                throws ExecException {
+            allocate(n);
+            cond.evaluate(rows, n, active);
+            if (lhsActive == null || lhsActive.length < n) {
+                lhsActive = new boolean[n];
+                rhsActive = new boolean[n];
+            }
+            for (int i = 0; i < n; i++) {
+                boolean evaluated = isActive(active, i) && !cond.isNull[i];
+                lhsActive[i] = evaluated && cond.longs[i] != 0;
+                rhsActive[i] = evaluated && cond.longs[i] == 0;
+            }
+            lhs.evaluate(rows, n, lhsActive);
+            rhs.evaluate(rows, n, rhsActive);
+            for (int i = 0; i < n; i++) {
+                if (lhsActive[i]) {
+                    copy(i, lhs);
+                } else if (rhsActive[i]) {
+                    copy(i, rhs);
+                } else {
+                    isNull[i] = true;
+                }
+            }
+        }
+    }
+}
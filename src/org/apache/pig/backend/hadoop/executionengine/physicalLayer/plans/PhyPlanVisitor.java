@@ -252,7 +252,15 @@ public class PhyPlanVisitor extends PlanVisitor<PhysicalOperator,PhysicalPlan> {
 
     public void visitCast(POCast cast) {
         // TODO Auto-generated method stub
-        
+
+    }
+
+    public void visitSharedExpression(POSharedExpression shared) throws VisitorException {
+        //do nothing
+    }
+
+    public void visitCompiledExpression(POCompiledExpression compiled) throws VisitorException {
+        //do nothing
     }
     
     public void visitLimit(POLimit lim) throws VisitorException{
@@ -266,6 +274,10 @@ public class PhyPlanVisitor extends PlanVisitor<PhysicalOperator,PhysicalPlan> {
     public void visitMergeJoin(POMergeJoin join) throws VisitorException {
         //do nothing
     }
+
+    public void visitMergeCoGroup(POMergeCogroup mergeCoGrp) throws VisitorException {
+        //do nothing
+    }
     /**
      * @param stream
      * @throws VisitorException 
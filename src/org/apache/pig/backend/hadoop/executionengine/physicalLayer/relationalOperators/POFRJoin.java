@@ -76,6 +76,26 @@ public class POFRJoin extends PhysicalOperator {
      */
     private static final long serialVersionUID = 1L;
     static private Log log = LogFactory.getLog(POFRJoin.class);          
+
+    /**
+     * Property which, if true, has the replicated inputs checked against
+     * the memory of the map tasks, and the join run as a regular join if
+     * they do not fit. See {@link
+     * org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.ReplicatedJoinFallback}
+     */
+    public static final String FALLBACK = "pig.join.replicated.fallback";
+
+    /**
+     * Property for the part of the heap of a map task the hash tables of
+     * the replicated inputs may take, if {@link #FALLBACK} is true
+     */
+    public static final String MEMORY_USAGE = "pig.join.replicated.memusage";
+
+    public static final String DEFAULT_MEMORY_USAGE = "0.5";
+
+    /** The error code of a replicated input which does not fit in memory */
+    public static final int OVERFLOW_ERROR_CODE = 6019;
+
     // The number in the input list which denotes the fragmented input
     private int fragment;
     // There can be n inputs each being a List<PhysicalPlan>
@@ -308,6 +328,9 @@ public class POFRJoin extends PhysicalOperator {
      */
     private void setUpHashMap() throws ExecException {
         int i = -1;
+        long maxBytes = getMaxBytes(PigMapReduce.sJobConf);
+        // all the hash tables are in memory together
+        long bytes = 0;
         long time1 = System.currentTimeMillis();
         for (FileSpec replFile : replFiles) {
             ++i;
@@ -345,6 +368,17 @@ public class POFRJoin extends PhysicalOperator {
                 Tuple key = mTupleFactory.newTuple(1);
                 key.set(0, tuple.get(1));
                 Tuple value = getValueTuple(lr, tuple);
+                if (maxBytes != Long.MAX_VALUE) {
+                    // give up before the task runs out of memory, so that
+                    // the join can be run again as a regular join
+                    bytes += key.getMemorySize() + value.getMemorySize();
+                    if (bytes > maxBytes) {
+                        int errCode = OVERFLOW_ERROR_CODE;
+                        String msg = "Replicated inputs up to input " + i + " are larger than "
+                                + maxBytes + " bytes in memory after " + cnt + " rows of it.";
+                        throw new ExecException(msg, errCode, PigException.REMOTE_ENVIRONMENT);
+                    }
+                }
                 if (!replicate.containsKey(key))
                     replicate.put(key, new ArrayList<Tuple>());
                 replicate.get(key).add(value);
@@ -356,6 +390,18 @@ public class POFRJoin extends PhysicalOperator {
         log.debug("Hash Table built. Time taken: " + (time2 - time1));
     }
 
+    /**
+     * @return the number of bytes the hash tables may take in the memory
+     * of this task, unbounded unless {@link #FALLBACK} is true
+     */
+    static long getMaxBytes(Configuration conf) {
+        if (conf == null || !conf.getBoolean(FALLBACK, false)) {
+            return Long.MAX_VALUE;
+        }
+        float usage = Float.parseFloat(conf.get(MEMORY_USAGE, DEFAULT_MEMORY_USAGE));
+        return (long)(Runtime.getRuntime().maxMemory() * usage);
+    }
+
     private void readObject(ObjectInputStream is) throws IOException,
             ClassNotFoundException, ExecException {
         is.defaultReadObject();
@@ -428,6 +474,26 @@ public class POFRJoin extends PhysicalOperator {
         this.fragment = fragment;
     }
 
+    public boolean isLeftOuterJoin() {
+        return isLeftOuterJoin;
+    }
+
+    /**
+     * @return the tuple of nulls which stands for the missing rows of the
+     * replicated input of a left outer join
+     */
+    public Tuple getNullTuple() {
+        return nullBag.iterator().next();
+    }
+
+    /**
+     * @return the local rearranges which split the rows of each input in
+     * their keys and values
+     */
+    public POLocalRearrange[] getLRs() {
+        return LRs;
+    }
+
     public FileSpec[] getReplFiles() {
         return replFiles;
     }
@@ -17,6 +17,7 @@
  */
 package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.pig.backend.executionengine.ExecException;
@@ -26,6 +27,7 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ComparisonOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorizedExpression;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.impl.plan.OperatorKey;
@@ -65,6 +67,12 @@ public class POFilter extends PhysicalOperator {
     // appropriate type
     byte compOperandType;
 
+    // The expression plan evaluated on a batch of tuples, in batch mode
+    private transient VectorizedExpression batchPlan;
+
+    // The tuples of the last batch which passed the filter
+    private transient List<Tuple> selected;
+
     public POFilter(OperatorKey k) {
         this(k, -1, null);
     }
@@ -89,6 +97,9 @@ public class POFilter extends PhysicalOperator {
      */
     @Override
     public Result getNext(Tuple t) throws ExecException {
+        if (isBatchMode()) {
+            return getNextFromBatch();
+        }
         Result res = null;
         Result inp = null;
         while (true) {
@@ -162,6 +173,38 @@ public class POFilter extends PhysicalOperator {
         return inp;
     }
 
+    @Override
+    public boolean supportsBatch() {
+        if (batchPlan == null && plan != null && lineageTracer == null) {
+            batchPlan = VectorizedExpression.compile(plan);
+        }
+        return batchPlan != null;
+    }
+
+    /**
+     * Evaluates the expression plan on the whole batch and returns the
+     * tuples which pass the filter.
+     */
+    @Override
+    public List<Tuple> getNextBatch() throws ExecException {
+        List<Tuple> batch = processInputBatch();
+        if (batch == null) {
+            return null;
+        }
+        batchPlan.evaluate(batch);
+        if (selected == null) {
+            selected = new ArrayList<Tuple>(batch.size());
+        } else {
+            selected.clear();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (batchPlan.isTrue(i)) {
+                selected.add(batch.get(i));
+            }
+        }
+        return selected;
+    }
+
     @Override
     public String name() {
         return "Filter" + "[" + DataType.findTypeName(resultType) + "]" + " - " + mKey.toString();
@@ -185,6 +228,7 @@ public class POFilter extends PhysicalOperator {
     public void setPlan(PhysicalPlan plan) {
         this.plan = plan;
         comOp = plan.getLeaves().get(0);
+        batchPlan = null;
 //        compOperandType = comOp.getOperandType();
     }
 
@@ -41,6 +41,7 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PORelationToExprProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorizedExpression;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.impl.plan.DependencyOrderWalker;
@@ -92,6 +93,19 @@ public class POForEach extends PhysicalOperator {
     protected PhysicalOperator[] planLeafOps = null;
     
     protected transient AccumulativeTupleBuffer buffer;
+
+    // The plans evaluated on a batch of tuples, in batch mode
+    private transient VectorizedExpression[] batchPlans;
+
+    // The output tuples of the last batch
+    private transient List<Tuple> batchOutput;
+
+    // Reused from record to record, see processPlan() and createTuple()
+    private transient Result planResult;
+    private transient Iterator<Tuple>[] itsBuffer;
+    private transient Object[] bagsBuffer;
+    private transient Object[] dataBuffer;
+    private transient Tuple reusedOutput;
     
     public POForEach(OperatorKey k) {
         this(k,-1,null,null);
@@ -198,6 +212,9 @@ public class POForEach extends PhysicalOperator {
      */
     @Override
     public Result getNext(Tuple t) throws ExecException {    	
+        if (isBatchMode()) {
+            return getNextFromBatch();
+        }
         Result res = null;
         Result inp = null;
         //The nested plan is under processing
@@ -304,8 +321,65 @@ public class POForEach extends PhysicalOperator {
         }
     }
 
+    /**
+     * Batches are supported when the plans are made of expressions only and
+     * nothing is flattened.
+     */
+    @Override
+    public boolean supportsBatch() {
+        if (batchPlans == null && inputPlans != null && lineageTracer == null
+                && !isAccumulative() && opsToBeReset.isEmpty()) {
+            for (int i = 0; i < noItems; i++) {
+                if (isToBeFlattenedArray[i]) {
+                    return false;
+                }
+            }
+            VectorizedExpression[] plans = new VectorizedExpression[noItems];
+            for (int i = 0; i < noItems; i++) {
+                plans[i] = VectorizedExpression.compile(inputPlans.get(i));
+                if (plans[i] == null) {
+                    return false;
+                }
+            }
+            batchPlans = plans;
+        }
+        return batchPlans != null;
+    }
+
+    /**
+     * Evaluates each plan on the whole batch and then puts together the
+     * output tuples.
+     */
+    @Override
+    public List<Tuple> getNextBatch() throws ExecException {
+        List<Tuple> batch = processInputBatch();
+        if (batch == null) {
+            return null;
+        }
+        for (VectorizedExpression plan : batchPlans) {
+            plan.evaluate(batch);
+        }
+        if (batchOutput == null) {
+            batchOutput = new ArrayList<Tuple>(batch.size());
+        } else {
+            batchOutput.clear();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Tuple out = mTupleFactory.newTuple(noItems);
+            for (int j = 0; j < noItems; j++) {
+                out.set(j, batchPlans[j].get(i));
+            }
+            batchOutput.add(out);
+        }
+        return batchOutput;
+    }
+
     protected Result processPlan() throws ExecException{    	
-        Result res = new Result();
+        if (planResult == null) {
+            planResult = new Result();
+        }
+        Result res = planResult;
+        res.result = null;
 
         //We check if all the databags have exhausted the tuples. If so we enforce the reading of new data by setting data and its to null
         if(its != null) {
@@ -324,10 +398,17 @@ public class POForEach extends PhysicalOperator {
  
         if(its == null) {
             //getNext being called for the first time OR starting with a set of new data from inputs 
-            its = new Iterator[noItems];
-            bags = new Object[noItems];
+            if (itsBuffer == null || itsBuffer.length != noItems) {
+                itsBuffer = new Iterator[noItems];
+                bagsBuffer = new Object[noItems];
+                dataBuffer = new Object[noItems];
+            }
+            its = itsBuffer;
+            bags = bagsBuffer;
             
             for(int i = 0; i < noItems; ++i) {
+                its[i] = null;
+                bags[i] = null;
                 //Getting the iterators
                 //populate the input data
                 Result inputData = null;
@@ -408,7 +489,7 @@ public class POForEach extends PhysicalOperator {
             if(data == null) {
                 //getNext being called for the first time or starting on new input data
                 //we instantiate the template array and start populating it with data
-                data = new Object[noItems];
+                data = dataBuffer;
                 for(int i = 0; i < noItems; ++i) {
                     if(isToBeFlattenedArray[i] && bags[i] instanceof DataBag) {
                         if(its[i].hasNext()) {
@@ -466,6 +547,15 @@ public class POForEach extends PhysicalOperator {
      * @return the final flattened tuple
      */
     protected Tuple createTuple(Object[] data) throws ExecException {
+        if (isReuseOutput() && lineageTracer == null && !flattensTuple(data)) {
+            if (reusedOutput == null || reusedOutput.size() != data.length) {
+                reusedOutput = mTupleFactory.newTuple(data.length);
+            }
+            for (int i = 0; i < data.length; ++i) {
+                reusedOutput.set(i, data[i]);
+            }
+            return reusedOutput;
+        }
         Tuple out =  mTupleFactory.newTuple();
         for(int i = 0; i < data.length; ++i) {
             Object in = data[i];
@@ -488,6 +578,19 @@ public class POForEach extends PhysicalOperator {
     }
 
     
+    /**
+     * @return whether createTuple() would flatten one of the items, so that
+     * the output does not have one field per plan
+     */
+    private boolean flattensTuple(Object[] data) {
+        for (int i = 0; i < data.length; ++i) {
+            if (isToBeFlattenedArray[i] && data[i] instanceof Tuple) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected void attachInputToPlans(Tuple t) {
         //super.attachInput(t);    	
         for(PhysicalPlan p : inputPlans) {        	
@@ -518,6 +621,7 @@ public class POForEach extends PhysicalOperator {
     }
     
     private void reInitialize() {
+        batchPlans = null;
         if(planLeafOps != null) {
             noItems = planLeafOps.length;
             resultTypes = new byte[noItems];
@@ -119,6 +119,10 @@ public class POLocalRearrange extends PhysicalOperator {
     private int mSecondaryProjectedColsMapSize = 0;
 
     private Tuple lrOutput;
+
+    // the results of the key plans, reused from record to record
+    private transient List<Result> resLst;
+    private transient List<Result> secondaryResLstBuffer;
     
     private boolean useSecondaryKey = false;
     
@@ -262,7 +266,10 @@ public class POLocalRearrange extends PhysicalOperator {
                 ep.attachInput((Tuple)inp.result);
             }
             
-            List<Result> resLst = new ArrayList<Result>();
+            if (resLst == null) {
+                resLst = new ArrayList<Result>(leafOps.size());
+            }
+            resLst.clear();
             
             if (secondaryPlans!=null) {
                 for (PhysicalPlan ep : secondaryPlans) {
@@ -271,8 +278,13 @@ public class POLocalRearrange extends PhysicalOperator {
             }
             
             List<Result> secondaryResLst = null;
-            if (secondaryLeafOps!=null)
-                secondaryResLst = new ArrayList<Result>();
+            if (secondaryLeafOps!=null) {
+                if (secondaryResLstBuffer == null) {
+                    secondaryResLstBuffer = new ArrayList<Result>(secondaryLeafOps.size());
+                }
+                secondaryResLst = secondaryResLstBuffer;
+                secondaryResLst.clear();
+            }
             
             for (ExpressionOperator op : leafOps){
                 
@@ -0,0 +1,711 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.ExecType;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.IndexableLoadFunc;
+import org.apache.pig.LoadFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigOutputFormat;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.builtin.DefaultIndexableLoader;
+import org.apache.pig.impl.io.FileSpec;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * This operator implements a map side cogroup of any number of inputs which
+ * are all sorted on the cogroup key. It is used for COGROUP ... USING 'merge'
+ * and, followed by a foreach that flattens the bags, for merge joins on more
+ * than two inputs.
+ * <p>
+ * Input 0 is the base input, its tuples are the input records of the map.
+ * All other inputs are side inputs which are read by the operator itself
+ * through their {@link IndexableLoadFunc}. Output tuples have the same layout
+ * as those produced by POPackage: (key, bag of input 0, bag of input 1, ...).
+ * <p>
+ * When all inputs are inner (the join case) every map positions the side
+ * loaders at its first key and reads them for as long as it needs to, in the
+ * same way as {@link POMergeJoin}. For a real cogroup keys which are only
+ * present on side inputs must be emitted exactly once. In that case all
+ * instances of a key of the base input are required to be in the same split,
+ * and an index holding the first key of every base split is supplied. A map
+ * then owns the side keys from its own first key up to (but not including)
+ * the first key of the next split. The map reading the first split does not
+ * seek at all, so side loaders must be positioned at the start of their input
+ * after {@link IndexableLoadFunc#initialize(Configuration)}. The other maps
+ * skip the side tuples before their first key, which seekNear() may leave in
+ * front of it. If the base input has no keys at all, the first map task emits
+ * all side keys.
+ * <p>
+ * Data is assumed to be sorted in ascending order on all inputs.
+ */
+public class POMergeCogroup extends PhysicalOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(POMergeCogroup.class);
+
+    // The Local Rearrange operators modeling the cogroup key of every input
+    private POLocalRearrange[] LRs;
+
+    // Inner plans of the keys, one list per input
+    private List<List<PhysicalPlan>> keyPlans;
+
+    private boolean[] isInner;
+
+    // Load functions, locations and signatures of the side inputs. Index 0
+    // (the base input) is unused.
+    private FuncSpec[] sideLoaderFuncSpecs;
+
+    private String[] sideFileNames;
+
+    private String[] sideSignatures;
+
+    // Map side pipelines of the side inputs, null entries for side inputs
+    // which are loaded directly.
+    private PhysicalOperator[] sidePipelineRoots;
+
+    private PhysicalOperator[] sidePipelineLeaves;
+
+    // Index files of side inputs which are read through a
+    // DefaultIndexableLoader, null entries for all others.
+    private String[] sideIndexFiles;
+
+    // Index of the first keys of the base splits, null for inner joins
+    private FileSpec indexFileSpec;
+
+    // flag to indicate when getNext() is called first.
+    private boolean firstTime = true;
+
+    private transient boolean sidesInitialized;
+
+    private transient boolean inputDrained;
+
+    private transient TupleFactory mTupleFactory;
+
+    private transient BagFactory mBagFactory;
+
+    private transient LoadFunc[] sideLoaders;
+
+    // Next unconsumed tuple and its key for every side input.
+    private transient Tuple[] sideTuples;
+
+    private transient Object[] sideKeys;
+
+    private transient boolean[] sideDone;
+
+    // First key of the next base split. Side keys >= this key belong to
+    // another map.
+    private transient Object upperBound;
+
+    // First key of our split if the side loaders were positioned with
+    // seekNear(), which may leave them before it. Smaller side keys, and
+    // null keys, belong to an earlier map.
+    private transient Object lowerBound;
+
+    private transient boolean haveBaseKey;
+
+    private transient Object curKey;
+
+    private transient DataBag baseBag;
+
+    // Groups which are ready to be handed to the successor
+    private transient LinkedList<Tuple> outputQueue;
+
+    /**
+     * @param k
+     * @param rp
+     * @param inp
+     * @param keyPlans one list of key plans per input
+     * @param keyTypes one list of key member types per input
+     * @param isInner inner flag per input
+     * Ex. cogroup A by ($0,$1), B by ($1,$2), C by ($0,$3) using 'merge';
+     */
+    public POMergeCogroup(OperatorKey k, int rp, List<PhysicalOperator> inp,
+            List<List<PhysicalPlan>> keyPlans, List<List<Byte>> keyTypes,
+            boolean[] isInner) throws ExecException {
+
+        super(k, rp, inp);
+        this.keyPlans = keyPlans;
+        this.isInner = isInner;
+        this.indexFileSpec = null;
+        createKeyPlans(keyPlans, keyTypes);
+    }
+
+    /**
+     * Configures the Local Rearrange operators to get keys out of tuple.
+     * @throws ExecException
+     */
+    private void createKeyPlans(List<List<PhysicalPlan>> keyPlans, List<List<Byte>> keyTypes) throws ExecException{
+
+        LRs = new POLocalRearrange[keyPlans.size()];
+        for (int i = 0; i < keyPlans.size(); i++) {
+            POLocalRearrange lr = new POLocalRearrange(genKey());
+            lr.setIndex(i);
+            lr.setResultType(DataType.TUPLE);
+            lr.setKeyType(keyTypes.get(i).size() > 1 ? DataType.TUPLE : keyTypes.get(i).get(0));
+            try {
+                lr.setPlans(keyPlans.get(i));
+            } catch (PlanException pe) {
+                int errCode = 2071;
+                String msg = "Problem with setting up local rearrange's plans.";
+                throw new ExecException(msg, errCode, PigException.BUG, pe);
+            }
+            LRs[i]= lr;
+        }
+    }
+
+    @Override
+    public Result getNext(Tuple t) throws ExecException {
+
+        try {
+            if (firstTime) {
+                setUpRuntimeState();
+                firstTime = false;
+            }
+
+            // Groups finished by an earlier call go first.
+            if (!outputQueue.isEmpty()) {
+                return new Result(POStatus.STATUS_OK, outputQueue.poll());
+            }
+
+            if (this.parentPlan.endOfAllInput) {
+                if (!inputDrained) {
+                    // Last call of the map. Emit the group we were still
+                    // collecting and whatever is left in our range of the
+                    // side inputs.
+                    inputDrained = true;
+                    if (haveBaseKey) {
+                        flush(curKey, baseBag);
+                        haveBaseKey = false;
+                    }
+                    if (!sidesInitialized && !isInner[0] && ownsAllSideKeys()) {
+                        openSideLoaders(null);
+                    }
+                    if (sidesInitialized && !isInner[0]) {
+                        emitSideOnlyGroups(null);
+                    }
+                    closeSideLoaders();
+                }
+                if (!outputQueue.isEmpty()) {
+                    return new Result(POStatus.STATUS_OK, outputQueue.poll());
+                }
+                return new Result(POStatus.STATUS_EOP, null);
+            }
+
+            Result inp = processInput();
+            if (inp.returnStatus != POStatus.STATUS_OK) {
+                // EOP: fetch next base input; ERR/NULL: send it down.
+                return inp;
+            }
+
+            Tuple baseTuple = (Tuple)inp.result;
+            Object key = extractKeysFromTuple(baseTuple, 0);
+
+            if (!haveBaseKey) {
+                startGroup(key, baseTuple);
+                return new Result(POStatus.STATUS_EOP, null);
+            }
+
+            if (key == null ? curKey == null : (curKey != null && compareKeys(key, curKey) == 0)) {
+                // Keep on accumulating.
+                baseBag.add(baseTuple);
+                return new Result(POStatus.STATUS_EOP, null);
+            }
+
+            if (key != null && curKey != null && compareKeys(key, curKey) < 0) {
+                int errCode = 1102;
+                String errMsg = "Data is not sorted on base input of merge cogroup. Last two keys encountered were: \n" +
+                curKey + "\n" + key;
+                throw new ExecException(errMsg, errCode);
+            }
+
+            // Key changed, the group of the previous key is complete.
+            flush(curKey, baseBag);
+            startGroup(key, baseTuple);
+
+            if (!outputQueue.isEmpty()) {
+                return new Result(POStatus.STATUS_OK, outputQueue.poll());
+            }
+            return new Result(POStatus.STATUS_EOP, null);
+
+        } catch (IOException e) {
+            throwProcessingException(true, e);
+        } catch (ClassCastException e) {
+            throwProcessingException(true, e);
+        }
+        // we should never get here!
+        return new Result(POStatus.STATUS_ERR, null);
+    }
+
+    private void setUpRuntimeState() {
+        int numInputs = LRs.length;
+        mTupleFactory = TupleFactory.getInstance();
+        mBagFactory = BagFactory.getInstance();
+        outputQueue = new LinkedList<Tuple>();
+        sideLoaders = new LoadFunc[numInputs];
+        sideTuples = new Tuple[numInputs];
+        sideKeys = new Object[numInputs];
+        sideDone = new boolean[numInputs];
+    }
+
+    private void startGroup(Object key, Tuple baseTuple) throws IOException {
+        // Side inputs are positioned on the first non null key of the split.
+        if (key != null && !sidesInitialized) {
+            initSideLoaders(key);
+        }
+        haveBaseKey = true;
+        curKey = key;
+        baseBag = mBagFactory.newDefaultBag();
+        baseBag.add(baseTuple);
+    }
+
+    /**
+     * Emits the group of the given base key, preceded by the groups of all
+     * side keys smaller than it.
+     */
+    private void flush(Object key, DataBag bag) throws IOException {
+        DataBag[] bags = new DataBag[LRs.length];
+        bags[0] = bag;
+        if (key == null) {
+            // Tuples with null keys never match anything on other inputs.
+            for (int i = 1; i < bags.length; i++) {
+                bags[i] = mBagFactory.newDefaultBag();
+            }
+            emit(null, bags);
+            return;
+        }
+
+        if (isInner[0]) {
+            // No group can be produced without a base tuple, so there is
+            // no need to collect the side tuples in between.
+            for (int i = 1; i < bags.length; i++) {
+                while (!sideDone[i] && compareKeys(sideKeys[i], key) < 0) {
+                    readSide(i);
+                }
+            }
+        } else {
+            emitSideOnlyGroups(key);
+        }
+
+        for (int i = 1; i < bags.length; i++) {
+            bags[i] = collectSide(i, key);
+        }
+        emit(key, bags);
+    }
+
+    /**
+     * Emits groups for the keys of side inputs which are smaller than
+     * bound, or for all the remaining keys in our range if bound is null.
+     */
+    private void emitSideOnlyGroups(Object bound) throws IOException {
+        while (true) {
+            Object minKey = null;
+            for (int i = 1; i < LRs.length; i++) {
+                if (!sideDone[i] && (minKey == null || compareKeys(sideKeys[i], minKey) < 0)) {
+                    minKey = sideKeys[i];
+                }
+            }
+            if (minKey == null || (bound != null && compareKeys(minKey, bound) >= 0)) {
+                return;
+            }
+            DataBag[] bags = new DataBag[LRs.length];
+            bags[0] = mBagFactory.newDefaultBag();
+            for (int i = 1; i < bags.length; i++) {
+                bags[i] = collectSide(i, minKey);
+            }
+            emit(minKey, bags);
+        }
+    }
+
+    private DataBag collectSide(int i, Object key) throws IOException {
+        DataBag bag = mBagFactory.newDefaultBag();
+        while (!sideDone[i] && compareKeys(sideKeys[i], key) == 0) {
+            bag.add(sideTuples[i]);
+            readSide(i);
+        }
+        return bag;
+    }
+
+    /**
+     * Reads the next tuple with a non null key in our range of side input i.
+     * Tuples with null keys are grouped on their own, as regular cogroup does.
+     */
+    private void readSide(int i) throws IOException {
+        DataBag nullBag = null;
+        while (true) {
+            Tuple t = getNextSideTuple(i);
+            if (t == null) {
+                sideDone[i] = true;
+                break;
+            }
+            Object key = extractKeysFromTuple(t, i);
+            if (key == null) {
+                if (lowerBound != null) {
+                    continue;
+                }
+                if (nullBag == null) {
+                    nullBag = mBagFactory.newDefaultBag();
+                }
+                nullBag.add(t);
+                continue;
+            }
+            if (lowerBound != null && compareKeys(key, lowerBound) < 0) {
+                continue;
+            }
+            if (upperBound != null && compareKeys(key, upperBound) >= 0) {
+                // Rest of the input belongs to the next split.
+                sideDone[i] = true;
+                break;
+            }
+            if (sideKeys[i] != null && compareKeys(key, sideKeys[i]) < 0) {
+                int errCode = 1102;
+                String errMsg = "Data is not sorted on side input " + i + " of merge cogroup. Last two keys encountered were: \n" +
+                sideKeys[i] + "\n" + key;
+                throw new ExecException(errMsg, errCode);
+            }
+            sideTuples[i] = t;
+            sideKeys[i] = key;
+            break;
+        }
+        if (nullBag != null) {
+            DataBag[] bags = new DataBag[LRs.length];
+            for (int j = 0; j < bags.length; j++) {
+                bags[j] = (j == i) ? nullBag : mBagFactory.newDefaultBag();
+            }
+            emit(null, bags);
+        }
+    }
+
+    /**
+     * @return the next tuple of side input i after it went through the
+     * pipeline of that input, null at the end of the input.
+     */
+    private Tuple getNextSideTuple(int i) throws IOException {
+        if (sidePipelineLeaves == null || sidePipelineLeaves[i] == null) {
+            return sideLoaders[i].getNext();
+        }
+        while (true) {
+            Result res = sidePipelineLeaves[i].getNext(dummyTuple);
+            switch (res.returnStatus) {
+            case POStatus.STATUS_OK:
+                return (Tuple)res.result;
+
+            case POStatus.STATUS_EOP:
+                Tuple t = sideLoaders[i].getNext();
+                if (t == null) { // no more data on this side
+                    return null;
+                }
+                // run the tuple through the pipeline
+                sidePipelineRoots[i].attachInput(t);
+                break;
+
+            default: // We don't deal with ERR/NULL. just pass them down
+                throwProcessingException(false, null);
+            }
+        }
+    }
+
+    private void emit(Object key, DataBag[] bags) throws ExecException {
+        for (int i = 0; i < bags.length; i++) {
+            if (isInner[i] && bags[i].size() == 0) {
+                return;
+            }
+        }
+        Tuple out = mTupleFactory.newTuple(bags.length + 1);
+        out.set(0, key);
+        for (int i = 0; i < bags.length; i++) {
+            out.set(i + 1, bags[i]);
+        }
+        outputQueue.add(out);
+    }
+
+    private void initSideLoaders(Object firstBaseKey) throws IOException {
+        boolean seek = true;
+        if (indexFileSpec != null) {
+            List<Object> splitKeys = readIndex();
+            int pos = -1;
+            for (int i = 0; i < splitKeys.size(); i++) {
+                if (compareKeys(splitKeys.get(i), firstBaseKey) == 0) {
+                    pos = i;
+                    break;
+                }
+            }
+            if (pos == -1) {
+                int errCode = 2219;
+                String errMsg = "First key of the split " + firstBaseKey + " was not found in the merge cogroup index.";
+                throw new ExecException(errMsg, errCode, PigException.BUG);
+            }
+            // The first split also owns all side keys smaller than its
+            // first key, so read the side inputs from their start.
+            seek = (pos > 0);
+            lowerBound = seek ? firstBaseKey : null;
+            upperBound = (pos + 1 < splitKeys.size()) ? splitKeys.get(pos + 1) : null;
+        }
+
+        Tuple seekKey = firstBaseKey instanceof Tuple ? (Tuple)firstBaseKey : mTupleFactory.newTuple(firstBaseKey);
+        openSideLoaders(seek ? seekKey : null);
+    }
+
+    /**
+     * Opens the side loaders, positioned near the given key, or at the start
+     * of their input if it is null.
+     */
+    private void openSideLoaders(Tuple seekKey) throws IOException {
+        sidesInitialized = true;
+        for (int i = 1; i < LRs.length; i++) {
+            LoadFunc loader = (LoadFunc)PigContext.instantiateFuncFromSpec(sideLoaderFuncSpecs[i]);
+            // check if hadoop distributed cache is used
+            if (sideIndexFiles != null && sideIndexFiles[i] != null && loader instanceof DefaultIndexableLoader) {
+                ((DefaultIndexableLoader)loader).setIndexFile(sideIndexFiles[i]);
+            }
+            loader.setUDFContextSignature(sideSignatures[i]);
+            // make a copy of the conf to use in calls to the side loader.
+            Job job = new Job(new Configuration(PigMapReduce.sJobConf));
+            loader.setLocation(sideFileNames[i], job);
+            ((IndexableLoadFunc)loader).initialize(job.getConfiguration());
+            if (seekKey != null) {
+                ((IndexableLoadFunc)loader).seekNear(seekKey);
+            }
+            sideLoaders[i] = loader;
+            readSide(i);
+        }
+    }
+
+    /**
+     * A map which reads no key of the base input owns no side keys, as the
+     * maps which do read keys share all of them. If the base input has no
+     * keys at all, the first map owns them.
+     * @return true if this map owns all keys of the side inputs
+     */
+    private boolean ownsAllSideKeys() throws ExecException {
+        return indexFileSpec != null
+            && PigMapReduce.sJobConf.getInt(PigOutputFormat.MAPRED_TASK_PARTITION, -1) == 0
+            && readIndex().isEmpty();
+    }
+
+    /**
+     * Reads the index of the base input. Entries are of the form
+     * (key0, key1,..., position, splitIndex) and are sorted on the keys,
+     * see MergeJoinIndexer. Entries of empty splits have null keys and
+     * are skipped.
+     */
+    private List<Object> readIndex() throws ExecException {
+        POLoad ld = new POLoad(genKey(), indexFileSpec);
+        Properties props = new Properties();
+        props.setProperty(MapRedUtil.FILE_SYSTEM_NAME, "file:///");
+        ld.setPc(new PigContext(ExecType.LOCAL, props));
+
+        List<Object> splitKeys = new ArrayList<Object>();
+        for (Result res = ld.getNext(dummyTuple); res.returnStatus != POStatus.STATUS_EOP; res = ld.getNext(dummyTuple)) {
+            Tuple idxTuple = (Tuple)res.result;
+            int numColsInKey = idxTuple.size() - 2;
+            boolean allNull = true;
+            List<Object> keyCols = new ArrayList<Object>(numColsInKey);
+            for (int i = 0; i < numColsInKey; i++) {
+                Object col = idxTuple.get(i);
+                allNull &= (col == null);
+                keyCols.add(col);
+            }
+            if (allNull) {
+                continue;
+            }
+            splitKeys.add(numColsInKey == 1 ? keyCols.get(0) : mTupleFactory.newTupleNoCopy(keyCols));
+        }
+        return splitKeys;
+    }
+
+    private void closeSideLoaders() {
+        if (sideLoaders == null) {
+            return;
+        }
+        for (int i = 1; i < sideLoaders.length; i++) {
+            if (sideLoaders[i] == null) {
+                continue;
+            }
+            try {
+                ((IndexableLoadFunc)sideLoaders[i]).close();
+            } catch (IOException e) {
+                // Non-fatal error. We can continue.
+                log.error("Received exception while trying to close side input " + i + ": " + e.getMessage());
+            }
+            sideLoaders[i] = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareKeys(Object k1, Object k2) {
+        return ((Comparable)k1).compareTo(k2);
+    }
+
+    private Object extractKeysFromTuple(Tuple inp, int lrIdx) throws ExecException{
+
+        //Separate Key & Value of input using corresponding LR operator
+        POLocalRearrange lr = LRs[lrIdx];
+        lr.attachInput(inp);
+        Result lrOut = lr.getNext(dummyTuple);
+        if(lrOut.returnStatus!=POStatus.STATUS_OK){
+            int errCode = 2167;
+            String errMsg = "LocalRearrange used to extract keys from tuple isn't configured correctly";
+            throw new ExecException(errMsg,errCode,PigException.BUG);
+        }
+
+        return ((Tuple) lrOut.result).get(1);
+    }
+
+    private void throwProcessingException(boolean withCauseException, Exception e) throws ExecException {
+        int errCode = 2176;
+        String errMsg = "Error processing side input during merge cogroup";
+        if(withCauseException) {
+            throw new ExecException(errMsg, errCode, PigException.BUG, e);
+        } else {
+            throw new ExecException(errMsg, errCode, PigException.BUG);
+        }
+    }
+
+    private OperatorKey genKey(){
+        return new OperatorKey(mKey.scope,NodeIdGenerator.getGenerator().getNextNodeId(mKey.scope));
+    }
+
+    public List<PhysicalPlan> getInnerPlansOf(int index) {
+        return keyPlans.get(index);
+    }
+
+    public List<List<PhysicalPlan>> getKeyPlans() {
+        return keyPlans;
+    }
+
+    public boolean[] getInner() {
+        return isInner;
+    }
+
+    /**
+     * @return true if groups are only produced for keys present on all
+     * inputs, which is the case when this operator implements a merge join.
+     */
+    public boolean isAllInner() {
+        for (boolean inner : isInner) {
+            if (!inner) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void setSideLoaderFuncSpecs(FuncSpec[] sideLoaderFuncSpecs) {
+        this.sideLoaderFuncSpecs = sideLoaderFuncSpecs;
+    }
+
+    public void setSideFileNames(String[] sideFileNames) {
+        this.sideFileNames = sideFileNames;
+    }
+
+    public void setSideSignatures(String[] sideSignatures) {
+        this.sideSignatures = sideSignatures;
+    }
+
+    /**
+     * Sets up the operators side input i has to go through in the map
+     * before it is cogrouped.
+     * @param i index of the side input
+     * @param sidePipeline plan with exactly one root and one leaf, or null
+     * if the input is used as loaded
+     * @throws FrontendException
+     */
+    public void setupSidePipeline(int i, PhysicalPlan sidePipeline) throws FrontendException {
+        if (sidePipeline == null) {
+            return;
+        }
+        if (sidePipeline.getLeaves().size() != 1 || sidePipeline.getRoots().size() != 1) {
+            int errCode = 2168;
+            String errMsg = "Expected physical plan with exactly one root and one leaf.";
+            throw new FrontendException(errMsg, errCode, PigException.BUG);
+        }
+        if (sidePipelineRoots == null) {
+            sidePipelineRoots = new PhysicalOperator[LRs.length];
+            sidePipelineLeaves = new PhysicalOperator[LRs.length];
+        }
+        sidePipelineLeaves[i] = sidePipeline.getLeaves().get(0);
+        sidePipelineRoots[i] = sidePipeline.getRoots().get(0);
+        sidePipelineRoots[i].setInputs(null);
+    }
+
+    public String[] getSideIndexFiles() {
+        return sideIndexFiles;
+    }
+
+    public void setSideIndexFiles(String[] sideIndexFiles) {
+        this.sideIndexFiles = sideIndexFiles;
+    }
+
+    public FileSpec getIndexFileSpec() {
+        return indexFileSpec;
+    }
+
+    public void setIndexFileSpec(FileSpec indexFileSpec) {
+        this.indexFileSpec = indexFileSpec;
+    }
+
+    @Override
+    public void visit(PhyPlanVisitor v) throws VisitorException {
+        v.visitMergeCoGroup(this);
+    }
+
+    @Override
+    public String name() {
+        return "MergeCogroup[" + DataType.findTypeName(resultType) + "]" +" - " + mKey.toString();
+    }
+
+    @Override
+    public boolean supportsMultipleInputs() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsMultipleOutputs() {
+        return false;
+    }
+}
@@ -237,7 +237,7 @@ public class POMergeJoin extends PhysicalOperator {
                     else if(cmpval > 0){    // We got ahead on right side. Store currently read right tuple.
                         if(!this.parentPlan.endOfAllInput){
                             prevRightKey = rightKey;
-                            prevRightInp = rightInp;
+                            prevRightInp = copy(rightInp);
                             // There cant be any more join on this key.
                             leftTuples = new ArrayList<Tuple>(arrayListSize);
                             leftTuples.add((Tuple)prevLeftInp.result);
@@ -310,7 +310,7 @@ public class POMergeJoin extends PhysicalOperator {
             // In that case, throw away the tuples accumulated till now and add the one we read in this function call.
             leftTuples = new ArrayList<Tuple>(arrayListSize);
             leftTuples.add((Tuple)curLeftInp.result);
-            prevLeftInp = curLeftInp;
+            prevLeftInp = copy(curLeftInp);
             prevLeftKey = curLeftKey;
             return new Result(POStatus.STATUS_EOP, null);
         }
@@ -325,7 +325,7 @@ public class POMergeJoin extends PhysicalOperator {
             counter = leftTuples.size();
             rightTupSize = curJoiningRightTup.size();
             doingJoin = true;
-            prevLeftInp = curLeftInp;
+            prevLeftInp = copy(curLeftInp);
             prevLeftKey = curLeftKey;
             return this.getNext(dummyTuple);
         }
@@ -362,18 +362,18 @@ public class POMergeJoin extends PhysicalOperator {
                 counter = leftTuples.size();
                 rightTupSize = curJoiningRightTup.size();
                 doingJoin = true;
-                prevLeftInp = curLeftInp;
+                prevLeftInp = copy(curLeftInp);
                 prevLeftKey = curLeftKey;
                 return this.getNext(dummyTuple);
             }
 
             else{    // We got ahead on right side. Store currently read right tuple.
                 prevRightKey = rightKey;
-                prevRightInp = rightInp;
+                prevRightInp = copy(rightInp);
                 // Since we didn't find any matching right tuple we throw away the buffered left tuples and add the one read in this function call. 
                 leftTuples = new ArrayList<Tuple>(arrayListSize);
                 leftTuples.add((Tuple)curLeftInp.result);
-                prevLeftInp = curLeftInp;
+                prevLeftInp = copy(curLeftInp);
                 prevLeftKey = curLeftKey;
                 if(this.parentPlan.endOfAllInput){  // This is end of all input and this is last time we will read right input.
                     // Right loader in this case wouldn't get a chance to close input stream. So, we close it ourself.
@@ -409,6 +409,14 @@ public class POMergeJoin extends PhysicalOperator {
     }
 
 
+    /**
+     * The operators which produce our inputs may reuse their Result
+     * objects, so the ones kept across calls are copied.
+     */
+    private static Result copy(Result r) {
+        return new Result(r.returnStatus, r.result);
+    }
+
     private Result getNextRightInp() throws ExecException{
 
         try {
@@ -80,7 +80,12 @@ public class POOptimizedForEach extends POForEach {
         String fString = getFlatStr();
         return "Optimized For Each" + "(" + fString + ")" + "[" + DataType.findTypeName(resultType) + "]" +" - " + mKey.toString();
     }
-    
+
+    @Override
+    public boolean supportsBatch() {
+        return false;
+    }
+
     /**
      * Calls getNext on the generate operator inside the nested
      * physical plan and returns it maintaining an additional state
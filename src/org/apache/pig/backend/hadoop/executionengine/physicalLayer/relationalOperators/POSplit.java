@@ -97,6 +97,13 @@ public class POSplit extends PhysicalOperator {
     
     private boolean inpEOP = false;
     
+    /*
+     * Number of input tuples handed to the sub-plans so far. Shared
+     * expressions use it to tell whether their cached result still
+     * belongs to the current input.
+     */
+    private transient long inputCount = 0;
+    
     /**
      * Constructs an operator with the specified key
      * @param k the operator key
@@ -199,7 +206,16 @@ public class POSplit extends PhysicalOperator {
         myPlans.remove(plan);
         processedSet.clear(myPlans.size());
     }
-   
+
+    /**
+     * Returns the number of input tuples attached
+     * to the nested input plans so far
+     * @return the input count
+     */
+    public long getInputCount() {
+        return inputCount;
+    }
+
     @Override
     public Result getNext(Tuple t) throws ExecException {
 
@@ -218,6 +234,7 @@ public class POSplit extends PhysicalOperator {
             }
          
             Tuple tuple = (Tuple)inp.result;
+            inputCount++;
             for (PhysicalPlan pl : myPlans) {
                 pl.attachInput(tuple);
             }
@@ -276,6 +293,7 @@ public class POSplit extends PhysicalOperator {
                 Result inp = processInput();
                 if (inp.returnStatus == POStatus.STATUS_OK) {                
                     Tuple tuple = (Tuple)inp.result;
+                    inputCount++;
                     for (PhysicalPlan pl : myPlans) {
                         pl.attachInput(tuple);
                     }
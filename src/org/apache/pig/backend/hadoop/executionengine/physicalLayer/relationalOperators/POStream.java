@@ -176,7 +176,7 @@ public class POStream extends PhysicalOperator {
                     if(initialized) {
                         // signal End of ALL input to the Executable Manager's 
                         // Input handler thread
-                        binaryInputQueue.put(r);
+                        binaryInputQueue.put(new Result(r.returnStatus, r.result));
                         // note this state for future calls
                         allInputFromPredecessorConsumed  = true;
                         // look for output from binary
@@ -281,8 +281,9 @@ public class POStream extends PhysicalOperator {
                             }
                             
                             // send this input to the streaming
-                            // process
-                            binaryInputQueue.put(input);
+                            // process, the Result is reused by the
+                            // operator we got it from
+                            binaryInputQueue.put(new Result(input.returnStatus, input.result));
                         }
                         
                     } else {
@@ -55,6 +55,8 @@ public class Utf8StorageConverter implements LoadCaster {
     private Integer mMaxInt = Integer.valueOf(Integer.MAX_VALUE);
     private Long mMaxLong = Long.valueOf(Long.MAX_VALUE);
     private static final int BUFFER_SIZE = 1024;
+    // 18 digits can never parse to this
+    private static final long NOT_DECIMAL = Long.MIN_VALUE;
         
     public Utf8StorageConverter() {
     }
@@ -304,6 +306,35 @@ public class Utf8StorageConverter implements LoadCaster {
         return db;
     }
 
+    /**
+     * Parses the first len bytes as a decimal number straight from the
+     * bytes, without creating a String.  Only the common case of an
+     * optional minus sign followed by at most 18 digits is handled.
+     * @return the number, or NOT_DECIMAL for anything else, such as
+     * numbers with a fraction, exponent or white space, which the callers
+     * leave to the Java parsers so that they behave as before
+     */
+    private static long parseDecimal(byte[] b, int len) {
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && b[0] == '-') {
+            negative = true;
+            i = 1;
+        }
+        if (i == len || len - i > 18) {
+            return NOT_DECIMAL;
+        }
+        long value = 0;
+        for (; i < len; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_DECIMAL;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
     public String bytesToCharArray(byte[] b) throws IOException {
         if(b == null)
             return null;
@@ -357,6 +388,10 @@ public class Utf8StorageConverter implements LoadCaster {
     public Integer bytesToInteger(byte[] b) throws IOException {
         if(b == null)
             return null;
+        long l = parseDecimal(b, b.length);
+        if (l != NOT_DECIMAL && l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+            return Integer.valueOf((int)l);
+        }
         String s = new String(b);
         try {
             return Integer.valueOf(s);
@@ -391,9 +426,17 @@ public class Utf8StorageConverter implements LoadCaster {
         String s;
         if(b.length > 0  &&  
            (b[b.length - 1] == 'L' || b[b.length - 1] == 'l') ){
+            long l = parseDecimal(b, b.length - 1);
+            if (l != NOT_DECIMAL) {
+                return Long.valueOf(l);
+            }
             s = new String(b, 0, b.length - 1);
         } 
         else {
+            long l = parseDecimal(b, b.length);
+            if (l != NOT_DECIMAL) {
+                return Long.valueOf(l);
+            }
             s = new String(b);
         }
 
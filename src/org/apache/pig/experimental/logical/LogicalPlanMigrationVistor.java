@@ -166,6 +166,8 @@ public class LogicalPlanMigrationVistor extends LOVisitor {
         org.apache.pig.experimental.logical.relational.LOCogroup.GROUPTYPE grouptype;
         if( cg.getGroupType() == GROUPTYPE.COLLECTED ) {
             grouptype = org.apache.pig.experimental.logical.relational.LOCogroup.GROUPTYPE.COLLECTED;
+        } else if( cg.getGroupType() == GROUPTYPE.MERGE ) {
+            grouptype = org.apache.pig.experimental.logical.relational.LOCogroup.GROUPTYPE.MERGE;
         } else {
             grouptype = org.apache.pig.experimental.logical.relational.LOCogroup.GROUPTYPE.REGULAR;
         }
@@ -52,7 +52,8 @@ public class LOCogroup extends LogicalRelationalOperator {
      */
     public static enum GROUPTYPE {
         REGULAR,    // Regular (co)group
-        COLLECTED   // Collected group
+        COLLECTED,  // Collected group
+        MERGE       // Map side merge cogroup on sorted inputs
     };
     
     private GROUPTYPE mGroupType;
@@ -38,6 +38,7 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOpe
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSkewedJoin;
@@ -429,6 +430,8 @@ public class LogToPhyTranslationVisitor extends LogicalPlanVisitor {
     public void visitLOCogroup( LOCogroup cg ) throws IOException {
         if (cg.getGroupType() == LOCogroup.GROUPTYPE.COLLECTED) {
             translateCollectedCogroup(cg);
+        } else if (cg.getGroupType() == LOCogroup.GROUPTYPE.MERGE) {
+            translateMergeCogroup(cg);
         } else {
             translateRegularCogroup(cg);
         }
@@ -546,6 +549,49 @@ public class LogToPhyTranslationVisitor extends LogicalPlanVisitor {
         logToPhyMap.put(cg, physOp);
     }
     
+    private void translateMergeCogroup(LOCogroup cg) throws IOException {
+        List<Operator> preds = plan.getPredecessors(cg);
+        
+        List<PhysicalOperator> inp = new ArrayList<PhysicalOperator>();
+        List<List<PhysicalPlan>> keyPlans = new ArrayList<List<PhysicalPlan>>();
+        List<List<Byte>> keyTypes = new ArrayList<List<Byte>>();
+        for (int i = 0; i < preds.size(); i++) {
+            inp.add(logToPhyMap.get(preds.get(i)));
+            List<LogicalExpressionPlan> exprPlans = (List<LogicalExpressionPlan>) cg.getExpressionPlans().get(i);
+            List<PhysicalPlan> pExprPlans = translateExpressionPlans(cg, exprPlans);
+            keyPlans.add(pExprPlans);
+            
+            List<Byte> tupleKeyMemberTypes = new ArrayList<Byte>();
+            for(PhysicalPlan exprPlan : pExprPlans)
+                tupleKeyMemberTypes.add(exprPlan.getLeaves().get(0).getResultType());
+            keyTypes.add(tupleKeyMemberTypes);
+        }
+        
+        POMergeCogroup physOp;
+        try {
+            physOp = new POMergeCogroup(new OperatorKey(DEFAULT_SCOPE, nodeGen.getNextNodeId(DEFAULT_SCOPE)),
+                    cg.getRequestedParallelisam(), inp, keyPlans, keyTypes, cg.getInner());
+        } catch (ExecException e) {
+            int errCode = 2071;
+            String msg = "Problem with setting up merge cogroup's plans.";
+            throw new LogicalToPhysicalTranslatorException(msg, errCode, PigException.BUG, e);
+        }
+        physOp.setAlias(cg.getAlias());
+        physOp.setResultType(DataType.TUPLE);
+        currentPlan.add(physOp);
+        
+        for (Operator op : preds) {
+            try {
+                currentPlan.connect(logToPhyMap.get(op), physOp);
+            } catch (PlanException e) {
+                int errCode = 2015;
+                String msg = "Invalid physical operators in the physical plan" ;
+                throw new LogicalToPhysicalTranslatorException(msg, errCode, PigException.BUG, e);
+            }
+        }
+        logToPhyMap.put(cg, physOp);
+    }
+    
     @Override
     public void visitLOJoin(LOJoin loj) throws IOException {
         String scope = DEFAULT_SCOPE;
@@ -704,6 +750,10 @@ public class LogToPhyTranslationVisitor extends LogicalPlanVisitor {
         
         else if (loj.getJoinType() == LOJoin.JOINTYPE.MERGE && validateMergeJoin(loj)) {
             
+            if (inp.size() > 2) {
+                translateMultiWayMergeJoin(loj, inp, ppLists, keyTypes);
+                return;
+            }
             POMergeJoin smj;
             try {
                 smj = new POMergeJoin(new OperatorKey(scope,nodeGen.getNextNodeId(scope)),loj.getRequestedParallelisam(),inp,joinPlans,keyTypes);
@@ -1010,13 +1060,71 @@ public class LogToPhyTranslationVisitor extends LogicalPlanVisitor {
         
     }
 
+    /**
+     * Merge join on more than two inputs is done as a merge cogroup on all
+     * inputs, followed by a foreach which flattens the bags of the groups.
+     */
+    private void translateMultiWayMergeJoin(LOJoin loj, List<PhysicalOperator> inp,
+            List<List<PhysicalPlan>> ppLists, List<List<Byte>> keyTypes) throws IOException {
+        
+        String scope = DEFAULT_SCOPE;
+        int count = inp.size();
+        boolean[] innerFlags = new boolean[count];
+        for (int i = 0; i < count; i++)
+            innerFlags[i] = true;
+        
+        POMergeCogroup mcg;
+        try {
+            mcg = new POMergeCogroup(new OperatorKey(scope,nodeGen.getNextNodeId(scope)),
+                    loj.getRequestedParallelisam(), inp, ppLists, keyTypes, innerFlags);
+        }
+        catch (Exception e) {
+            int errCode = 2042;
+            String msg = "Merge Join creation failed";
+            throw new LogicalToPhysicalTranslatorException(msg, errCode, PigException.BUG, e);
+        }
+        mcg.setAlias(loj.getAlias());
+        mcg.setResultType(DataType.TUPLE);
+        currentPlan.add(mcg);
+        
+        List<PhysicalPlan> fePlans = new ArrayList<PhysicalPlan>();
+        List<Boolean> flattenLst = new ArrayList<Boolean>();
+        try {
+            for (PhysicalOperator op : inp)
+                currentPlan.connect(op, mcg);
+            
+            for(int i=0;i< count;i++){
+                PhysicalPlan fep1 = new PhysicalPlan();
+                POProject feproj1 = new POProject(new OperatorKey(scope, nodeGen.getNextNodeId(scope)), 
+                        loj.getRequestedParallelisam(), i+1); //i+1 since the first column is the "group" field
+                feproj1.setAlias(loj.getAlias());
+                feproj1.setResultType(DataType.BAG);
+                feproj1.setOverloaded(false);
+                fep1.add(feproj1);
+                fePlans.add(fep1);
+                flattenLst.add(true);
+            }
+            
+            POForEach fe = new POForEach(new OperatorKey(scope, nodeGen.getNextNodeId(scope)), 
+                    loj.getRequestedParallelisam(), fePlans, flattenLst );
+            fe.setAlias(loj.getAlias());
+            currentPlan.add(fe);
+            currentPlan.connect(mcg, fe);
+            logToPhyMap.put(loj, fe);
+        } catch (PlanException e) {
+            int errCode = 2015;
+            String msg = "Invalid physical operators in the physical plan" ;
+            throw new LogicalToPhysicalTranslatorException(msg, errCode, PigException.BUG, e);
+        }
+    }
+    
     private boolean validateMergeJoin(LOJoin loj) throws IOException{
         
         List<Operator> preds = plan.getPredecessors(loj);
 
         int errCode = 1101;
-        String errMsg = "Merge Join must have exactly two inputs.";
-        if(preds.size() != 2)
+        String errMsg = "Merge Join must have at least two inputs.";
+        if(preds.size() < 2)
             throw new LogicalToPhysicalTranslatorException(errMsg+" Found: "+preds.size(),errCode);
         
         return mergeJoinValidator(preds,loj.getPlan());
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.builtin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
+import org.apache.pig.builtin.BinStorage;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.io.ReadToEndLoader;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Tells whether a join key may be in the bloom filter built by {@link
+ * BuildBloomFilter} over the keys of another input of the join. The input
+ * holds the fields of the key. The filter is read from the local file
+ * system, where the distributed cache puts it in map reduce mode.
+ */
+public class BloomFilterCheck extends EvalFunc<Boolean> {
+
+    private final String filterFile;
+
+    private BloomFilter filter;
+
+    // false if the filter file is empty, as the other input had no rows
+    private boolean anyKeys;
+
+    private ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+    /**
+     * @param filterFile the file the bloom filter was stored in
+     */
+    public BloomFilterCheck(String filterFile) {
+        this.filterFile = filterFile;
+    }
+
+    @Override
+    public Boolean exec(Tuple input) throws IOException {
+        if (filter == null) {
+            readFilter();
+        }
+        return anyKeys && filter.membershipTest(BuildBloomFilter.toKey(input, buf));
+    }
+
+    private void readFilter() throws IOException {
+        // use local file system to get the filter file
+        Configuration conf = new Configuration(false);
+        conf.set(MapRedUtil.FILE_SYSTEM_NAME, "file:///");
+        ReadToEndLoader loader = new ReadToEndLoader(new BinStorage(), conf,
+                filterFile, 0);
+        Tuple t = loader.getNext();
+        anyKeys = t != null && t.get(0) != null;
+        filter = anyKeys ? BuildBloomFilter.readFilter((DataByteArray)t.get(0))
+                : new BloomFilter();
+    }
+
+    @Override
+    public Schema outputSchema(Schema input) {
+        return new Schema(new Schema.FieldSchema(null, DataType.BOOLEAN));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.builtin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataReaderWriter;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Builds a bloom filter over the join keys of one input of a join, so that
+ * the rows of the other inputs whose keys cannot match are dropped before
+ * they are shuffled. It is used by the bloom join, see
+ * {@link BloomFilterCheck}.
+ * <p>
+ * The input is a bag of tuples which hold the fields of the join key. The
+ * filter is returned serialized in a DataByteArray. As an algebraic
+ * function, the initial step passes the key on, and the intermediate and
+ * final steps add the keys and merge the filters they get.
+ */
+public class BuildBloomFilter extends EvalFunc<DataByteArray> implements Algebraic {
+
+    private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+    /** The number of bits of the filter, unless given */
+    public static final String DEFAULT_VECTOR_SIZE = "8388608";
+
+    /** The number of hash functions of the filter, unless given */
+    public static final String DEFAULT_HASH_COUNT = "3";
+
+    private final int vectorSize;
+
+    private final int hashCount;
+
+    public BuildBloomFilter() {
+        this(DEFAULT_VECTOR_SIZE, DEFAULT_HASH_COUNT);
+    }
+
+    /**
+     * @param vectorSize the number of bits of the filter
+     * @param hashCount the number of hash functions
+     */
+    public BuildBloomFilter(String vectorSize, String hashCount) {
+        this.vectorSize = Integer.parseInt(vectorSize);
+        this.hashCount = Integer.parseInt(hashCount);
+    }
+
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException {
+        return build(input, vectorSize, hashCount, false);
+    }
+
+    public String getInitial() {
+        return Initial.class.getName();
+    }
+
+    public String getIntermed() {
+        return Intermediate.class.getName();
+    }
+
+    public String getFinal() {
+        return Final.class.getName();
+    }
+
+    static public class Initial extends EvalFunc<Tuple> {
+
+        public Initial() {
+        }
+
+        public Initial(String vectorSize, String hashCount) {
+        }
+
+        @Override
+        public Tuple exec(Tuple input) throws IOException {
+            // a bag with a single key, which the next step adds to its
+            // filter, rather than making a whole filter for each row
+            DataBag bag = (DataBag)input.get(0);
+            for (Tuple t : bag) {
+                return mTupleFactory.newTuple(t);
+            }
+            return null;
+        }
+    }
+
+    static public class Intermediate extends EvalFunc<Tuple> {
+
+        private final int vectorSize;
+
+        private final int hashCount;
+
+        public Intermediate() {
+            this(DEFAULT_VECTOR_SIZE, DEFAULT_HASH_COUNT);
+        }
+
+        public Intermediate(String vectorSize, String hashCount) {
+            this.vectorSize = Integer.parseInt(vectorSize);
+            this.hashCount = Integer.parseInt(hashCount);
+        }
+
+        @Override
+        public Tuple exec(Tuple input) throws IOException {
+            return mTupleFactory.newTuple(build(input, vectorSize, hashCount, true));
+        }
+    }
+
+    static public class Final extends EvalFunc<DataByteArray> {
+
+        private final int vectorSize;
+
+        private final int hashCount;
+
+        public Final() {
+            this(DEFAULT_VECTOR_SIZE, DEFAULT_HASH_COUNT);
+        }
+
+        public Final(String vectorSize, String hashCount) {
+            this.vectorSize = Integer.parseInt(vectorSize);
+            this.hashCount = Integer.parseInt(hashCount);
+        }
+
+        @Override
+        public DataByteArray exec(Tuple input) throws IOException {
+            return build(input, vectorSize, hashCount, true);
+        }
+    }
+
+    /**
+     * Builds a filter from a bag of keys, as tuples of the key fields, or
+     * of partial results, as tuples which hold either a key or a filter.
+     */
+    private static DataByteArray build(Tuple input, int vectorSize,
+            int hashCount, boolean partials) throws IOException {
+        try {
+            BloomFilter filter = newFilter(vectorSize, hashCount);
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataBag bag = (DataBag)input.get(0);
+            for (Tuple t : bag) {
+                if (!partials) {
+                    filter.add(toKey(t, buf));
+                } else if (t.get(0) instanceof DataByteArray) {
+                    filter.or(readFilter((DataByteArray)t.get(0)));
+                } else {
+                    filter.add(toKey((Tuple)t.get(0), buf));
+                }
+            }
+            return writeFilter(filter);
+        } catch (ExecException ee) {
+            throw ee;
+        } catch (Exception e) {
+            int errCode = 2106;
+            String msg = "Error while building bloom filter in " + BuildBloomFilter.class.getSimpleName();
+            throw new ExecException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    static BloomFilter newFilter(int vectorSize, int hashCount) {
+        return new BloomFilter(vectorSize, hashCount, Hash.MURMUR_HASH);
+    }
+
+    /**
+     * @return the key of a bloom filter for the fields of a join key
+     */
+    static Key toKey(Tuple fields, ByteArrayOutputStream buf) throws IOException {
+        buf.reset();
+        DataOutputStream out = new DataOutputStream(buf);
+        for (int i = 0; i < fields.size(); i++) {
+            DataReaderWriter.writeDatum(out, fields.get(i));
+        }
+        out.flush();
+        return new Key(buf.toByteArray());
+    }
+
+    static DataByteArray writeFilter(BloomFilter filter) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        filter.write(out);
+        out.flush();
+        return new DataByteArray(buf.toByteArray());
+    }
+
+    static BloomFilter readFilter(DataByteArray bytes) throws IOException {
+        BloomFilter filter = new BloomFilter();
+        filter.readFields(new DataInputStream(new ByteArrayInputStream(bytes.get())));
+        return filter;
+    }
+
+    @Override
+    public Schema outputSchema(Schema input) {
+        return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+    }
+}
@@ -66,6 +66,7 @@ public class LOJoin extends RelationalOperator {
     private MultiMap<LogicalOperator, LogicalPlan> mJoinPlans;
     private boolean[] mInnerFlags;
 	private JOINTYPE mJoinType; // Retains the type of the join
+	private String mJoinTypeReason; // Why the type was chosen, unless given by the user
 	private List<LogicalOperator> mSchemaInputMapping = new ArrayList<LogicalOperator>();
 
 	/** 
@@ -123,8 +124,31 @@ public class LOJoin extends RelationalOperator {
         return mJoinType;
     }
 
+    /**
+     * Sets the type of join, as chosen by the optimizer rather than the
+     * user.
+     * @param jt the type of join
+     * @param reason why the type was chosen, shown by explain
+     */
+    public void setJoinType(JOINTYPE jt, String reason) {
+        mJoinType = jt;
+        mJoinTypeReason = reason;
+    }
+
+    /**
+     * @return why the optimizer chose the type of join, or null if it did
+     * not
+     */
+    public String getJoinTypeReason() {
+        return mJoinTypeReason;
+    }
+
     @Override
     public String name() {
+        if (mJoinTypeReason != null) {
+            return "LOJoin " + mKey.scope + "-" + mKey.id + " using "
+                + mJoinType.toString().toLowerCase() + " (" + mJoinTypeReason + ")";
+        }
         return "LOJoin " + mKey.scope + "-" + mKey.id;
     }
 
@@ -0,0 +1,471 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.logicalLayer.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pig.PigException;
+import org.apache.pig.builtin.RANDOM;
+import org.apache.pig.impl.logicalLayer.BinaryExpressionOperator;
+import org.apache.pig.impl.logicalLayer.ExpressionOperator;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.LOBinCond;
+import org.apache.pig.impl.logicalLayer.LOCast;
+import org.apache.pig.impl.logicalLayer.LOCogroup;
+import org.apache.pig.impl.logicalLayer.LOConst;
+import org.apache.pig.impl.logicalLayer.LODistinct;
+import org.apache.pig.impl.logicalLayer.LOFilter;
+import org.apache.pig.impl.logicalLayer.LOForEach;
+import org.apache.pig.impl.logicalLayer.LOJoin;
+import org.apache.pig.impl.logicalLayer.LOLimit;
+import org.apache.pig.impl.logicalLayer.LOLoad;
+import org.apache.pig.impl.logicalLayer.LOMapLookup;
+import org.apache.pig.impl.logicalLayer.LOProject;
+import org.apache.pig.impl.logicalLayer.LOSort;
+import org.apache.pig.impl.logicalLayer.LOSplit;
+import org.apache.pig.impl.logicalLayer.LOUserFunc;
+import org.apache.pig.impl.logicalLayer.LOVisitor;
+import org.apache.pig.impl.logicalLayer.LogicalOperator;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.impl.logicalLayer.UnaryExpressionOperator;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+import org.apache.pig.impl.util.MultiMap;
+
+/**
+ * Merges structurally identical sub-plans. Scripts often load the same
+ * input more than once, or apply the same filter or foreach to the same
+ * relation under different aliases:
+ *
+ *    A = load 'x' as (a, b);
+ *    B = filter A by a > 0;
+ *    C = load 'x' as (a, b);
+ *    D = filter C by a > 0;
+ *
+ * Loads of the same file with the same load function and schema are merged
+ * into one load, then filters and foreachs which read the same input and
+ * compute the same thing are merged, repeating down the plan. The merged
+ * operator gets the successors of all the copies, so the implicit split
+ * inserter turns it into a split, and the multi-query optimizer reads and
+ * computes the shared part only once.
+ *
+ * The rule matches loads; the check looks for any duplicates reachable
+ * from the load.
+ */
+public class CommonSubPlanMerger extends LogicalTransformer {
+
+    private static final String RANDOM_FUNC = RANDOM.class.getName();
+
+    public CommonSubPlanMerger(LogicalPlan plan) {
+        super(plan);
+    }
+
+    @Override
+    public boolean check(List<LogicalOperator> nodes) throws OptimizerException {
+        if((nodes == null) || (nodes.size() <= 0)) {
+            int errCode = 2052;
+            String msg = "Internal error. Cannot retrieve operator from null or empty list.";
+            throw new OptimizerException(msg, errCode, PigException.BUG);
+        }
+        LogicalOperator load = nodes.get(0);
+        // an earlier match may have merged this load away
+        if (mPlan.getOperator(load.getOperatorKey()) == null) {
+            return false;
+        }
+        if (findDuplicateLoads(load).size() > 0) {
+            return true;
+        }
+        Set<LogicalOperator> seen = new HashSet<LogicalOperator>();
+        LinkedList<LogicalOperator> queue = new LinkedList<LogicalOperator>();
+        queue.add(load);
+        while (!queue.isEmpty()) {
+            LogicalOperator op = queue.removeFirst();
+            if (!seen.add(op)) {
+                continue;
+            }
+            for (List<LogicalOperator> group : groupSuccessors(op)) {
+                for (int i = 1; i < group.size(); i++) {
+                    if (canMerge(group.get(0), group.get(i))) {
+                        return true;
+                    }
+                }
+            }
+            List<LogicalOperator> succs = mPlan.getSuccessors(op);
+            if (succs != null) {
+                queue.addAll(succs);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void transform(List<LogicalOperator> nodes) throws OptimizerException {
+        if((nodes == null) || (nodes.size() <= 0)) {
+            int errCode = 2052;
+            String msg = "Internal error. Cannot retrieve operator from null or empty list.";
+            throw new OptimizerException(msg, errCode, PigException.BUG);
+        }
+        LogicalOperator load = nodes.get(0);
+        try {
+            for (LogicalOperator dup : findDuplicateLoads(load)) {
+                if (canMerge(load, dup)) {
+                    merge(load, dup);
+                }
+            }
+
+            Set<LogicalOperator> seen = new HashSet<LogicalOperator>();
+            LinkedList<LogicalOperator> queue = new LinkedList<LogicalOperator>();
+            queue.add(load);
+            while (!queue.isEmpty()) {
+                LogicalOperator op = queue.removeFirst();
+                if (!seen.add(op)) {
+                    continue;
+                }
+                for (List<LogicalOperator> group : groupSuccessors(op)) {
+                    for (int i = 1; i < group.size(); i++) {
+                        if (canMerge(group.get(0), group.get(i))) {
+                            merge(group.get(0), group.get(i));
+                        }
+                    }
+                }
+                List<LogicalOperator> succs = mPlan.getSuccessors(op);
+                if (succs != null) {
+                    queue.addAll(succs);
+                }
+            }
+        } catch (OptimizerException oe) {
+            throw oe;
+        } catch (Exception e) {
+            int errCode = 2221;
+            String msg = "Internal error. Unable to merge common sub-plans.";
+            throw new OptimizerException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    /**
+     * @return the other root loads which read the same data as load
+     */
+    private List<LogicalOperator> findDuplicateLoads(LogicalOperator load) {
+        List<LogicalOperator> dups = new ArrayList<LogicalOperator>();
+        if (!isMergeable(load) || mPlan.getPredecessors(load) != null) {
+            return dups;
+        }
+        String sig = signature(load);
+        if (sig == null) {
+            return dups;
+        }
+        for (LogicalOperator root : mPlan.getRoots()) {
+            if (root != load && root instanceof LOLoad && isMergeable(root)
+                    && sig.equals(signature(root)) && canMerge(load, root)) {
+                dups.add(root);
+            }
+        }
+        return dups;
+    }
+
+    /**
+     * Groups the filters and foreachs which read op and compute the same
+     * thing.
+     */
+    private List<List<LogicalOperator>> groupSuccessors(LogicalOperator op) {
+        Map<String, List<LogicalOperator>> groups =
+            new LinkedHashMap<String, List<LogicalOperator>>();
+        List<LogicalOperator> succs = mPlan.getSuccessors(op);
+        if (succs != null) {
+            for (LogicalOperator succ : succs) {
+                if (!(succ instanceof LOFilter || succ instanceof LOForEach)
+                        || !isMergeable(succ)) {
+                    continue;
+                }
+                String sig = signature(succ);
+                if (sig == null) {
+                    continue;
+                }
+                List<LogicalOperator> group = groups.get(sig);
+                if (group == null) {
+                    group = new ArrayList<LogicalOperator>();
+                    groups.put(sig, group);
+                }
+                group.add(succ);
+            }
+        }
+        return new ArrayList<List<LogicalOperator>>(groups.values());
+    }
+
+    /**
+     * Only operators which feed into something are merged, so that the
+     * leaves of the plan stay the same.
+     */
+    private boolean isMergeable(LogicalOperator op) {
+        List<LogicalOperator> succs = mPlan.getSuccessors(op);
+        return succs != null && succs.size() > 0;
+    }
+
+    /**
+     * An operator cannot read the same input twice, so two copies which
+     * feed into the same operator (as in a self join) are left alone.
+     */
+    private boolean canMerge(LogicalOperator keep, LogicalOperator dup) {
+        List<LogicalOperator> keepSuccs = mPlan.getSuccessors(keep);
+        for (LogicalOperator succ : mPlan.getSuccessors(dup)) {
+            if (keepSuccs.contains(succ)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the successors of dup over to keep and removes dup from the
+     * plan. The position of the input is kept for successors with more than
+     * one input.
+     */
+    private void merge(LogicalOperator keep, LogicalOperator dup)
+            throws FrontendException, VisitorException {
+        List<LogicalOperator> succs = new ArrayList<LogicalOperator>(mPlan.getSuccessors(dup));
+        ProjectInputReplacer replacer = new ProjectInputReplacer(dup, keep);
+        for (LogicalOperator succ : succs) {
+            List<LogicalOperator> preds = new ArrayList<LogicalOperator>(mPlan.getPredecessors(succ));
+            int index = preds.indexOf(dup);
+            for (int i = index; i < preds.size(); i++) {
+                mPlan.disconnect(preds.get(i), succ);
+            }
+            mPlan.connect(keep, succ);
+            for (int i = index + 1; i < preds.size(); i++) {
+                mPlan.connect(preds.get(i), succ);
+            }
+
+            succ.visit(replacer);
+            if (succ instanceof LOSplit) {
+                // the conditions of the split outputs refer to the input
+                // of the split
+                for (LogicalOperator output : mPlan.getSuccessors(succ)) {
+                    output.visit(replacer);
+                }
+            }
+        }
+        mPlan.remove(dup);
+    }
+
+    /**
+     * Makes the projections which read from one operator read from another.
+     */
+    private static class ProjectInputReplacer extends LOVisitor {
+
+        private LogicalOperator mOldInput;
+
+        private LogicalOperator mNewInput;
+
+        ProjectInputReplacer(LogicalOperator oldInput, LogicalOperator newInput) {
+            super(null, null);
+            mOldInput = oldInput;
+            mNewInput = newInput;
+        }
+
+        @Override
+        protected void visit(LOCogroup cg) throws VisitorException {
+            replaceKey(cg.getGroupByPlans());
+            super.visit(cg);
+        }
+
+        @Override
+        protected void visit(LOJoin join) throws VisitorException {
+            replaceKey(join.getJoinPlans());
+            super.visit(join);
+        }
+
+        @Override
+        protected void visit(LOProject project) throws VisitorException {
+            if (project.getExpression() == mOldInput) {
+                project.setExpression(mNewInput);
+            }
+        }
+
+        private void replaceKey(MultiMap<LogicalOperator, LogicalPlan> plans) {
+            if (plans.containsKey(mOldInput)) {
+                plans.put(mNewInput, plans.removeKey(mOldInput));
+            }
+        }
+    }
+
+    /**
+     * Computes a string which is the same for two operators if they compute
+     * the same data from the same inputs.
+     * @return the signature, or null if the operator cannot be merged
+     */
+    private String signature(LogicalOperator op) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(op.getClass().getName()).append('[');
+        try {
+            if (op instanceof LOLoad) {
+                LOLoad load = (LOLoad)op;
+                sb.append(load.getInputFile()).append(',');
+                sb.append(schema(load.getSchema()));
+            } else if (op instanceof LOFilter) {
+                String plan = signature(((LOFilter)op).getComparisonPlan());
+                if (plan == null) {
+                    return null;
+                }
+                sb.append(plan);
+            } else if (op instanceof LOForEach) {
+                LOForEach foreach = (LOForEach)op;
+                sb.append(foreach.getFlatten()).append(',');
+                List<Schema> userSchemas = foreach.getUserDefinedSchema();
+                if (userSchemas != null) {
+                    for (Schema s : userSchemas) {
+                        sb.append(schema(s)).append(',');
+                    }
+                }
+                for (LogicalPlan p : foreach.getForEachPlans()) {
+                    String plan = signature(p);
+                    if (plan == null) {
+                        return null;
+                    }
+                    sb.append(plan).append(';');
+                }
+            } else {
+                return null;
+            }
+        } catch (FrontendException fe) {
+            return null;
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    private String schema(Schema s) {
+        return (s == null) ? "null" : s.toString();
+    }
+
+    /**
+     * @return the signature of the leaves of an inner plan, or null if the
+     * plan cannot be merged
+     */
+    private String signature(LogicalPlan plan) {
+        StringBuilder sb = new StringBuilder();
+        for (LogicalOperator leaf : plan.getLeaves()) {
+            String sig = innerSignature(plan, leaf);
+            if (sig == null) {
+                return null;
+            }
+            sb.append(sig).append(';');
+        }
+        return sb.toString();
+    }
+
+    private String innerSignature(LogicalPlan plan, LogicalOperator op) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(op.getClass().getName()).append('[');
+        if (op instanceof ExpressionOperator) {
+            sb.append(((ExpressionOperator)op).getType()).append(',');
+        }
+
+        List<LogicalOperator> inputs = plan.getPredecessors(op);
+        if (op instanceof LOProject) {
+            LOProject proj = (LOProject)op;
+            sb.append(proj.getProjection()).append(',');
+            sb.append(proj.isStar()).append(',');
+            sb.append(proj.getSentinel()).append(',');
+            sb.append(proj.getOverloaded()).append(',');
+            sb.append(proj.isSendEmptyBagOnEOP()).append(',');
+            LogicalOperator expr = proj.getExpression();
+            if (expr == null) {
+                return null;
+            } else if (plan.getOperator(expr.getOperatorKey()) == null) {
+                // reads from the input of the outer operator, which is
+                // the same for both copies
+                sb.append("input");
+            } else {
+                String sig = innerSignature(plan, expr);
+                if (sig == null) {
+                    return null;
+                }
+                sb.append(sig);
+            }
+        } else if (op instanceof LOConst) {
+            Object value = ((LOConst)op).getValue();
+            sb.append(value == null ? "null" :
+                value.getClass().getName() + ':' + value);
+        } else if (op instanceof LOCast) {
+            sb.append(((LOCast)op).getLoadFuncSpec());
+        } else if (op instanceof LOUserFunc) {
+            LOUserFunc func = (LOUserFunc)op;
+            if (func.getFuncSpec() == null
+                    || RANDOM_FUNC.equals(func.getFuncSpec().getClassName())) {
+                return null;
+            }
+            sb.append(func.getFuncSpec());
+        } else if (op instanceof LOMapLookup) {
+            LOMapLookup lookup = (LOMapLookup)op;
+            sb.append(lookup.getLookUpKey()).append(',').append(lookup.getValueType());
+        } else if (op instanceof BinaryExpressionOperator) {
+            BinaryExpressionOperator bin = (BinaryExpressionOperator)op;
+            inputs = new ArrayList<LogicalOperator>();
+            inputs.add(bin.getLhsOperand());
+            inputs.add(bin.getRhsOperand());
+        } else if (op instanceof LOSort) {
+            LOSort sort = (LOSort)op;
+            sb.append(sort.getAscendingCols()).append(',');
+            sb.append(sort.isStar()).append(',');
+            sb.append(sort.getUserFunc()).append(',');
+            sb.append(sort.getLimit()).append(',');
+            for (LogicalPlan p : sort.getSortColPlans()) {
+                String sig = signature(p);
+                if (sig == null) {
+                    return null;
+                }
+                sb.append(sig);
+            }
+        } else if (op instanceof LOFilter) {
+            String sig = signature(((LOFilter)op).getComparisonPlan());
+            if (sig == null) {
+                return null;
+            }
+            sb.append(sig);
+        } else if (op instanceof LOLimit) {
+            sb.append(((LOLimit)op).getLimit());
+        } else if (!(op instanceof UnaryExpressionOperator
+                || op instanceof LOBinCond || op instanceof LODistinct)) {
+            return null;
+        }
+        sb.append(']');
+
+        if (inputs != null) {
+            sb.append('(');
+            for (LogicalOperator in : inputs) {
+                if (in == null) {
+                    return null;
+                }
+                String sig = innerSignature(plan, in);
+                if (sig == null) {
+                    return null;
+                }
+                sb.append(sig).append(';');
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.logicalLayer.optimizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.IndexableLoadFunc;
+import org.apache.pig.LoadFunc;
+import org.apache.pig.LoadMetadata;
+import org.apache.pig.OrderedLoadFunc;
+import org.apache.pig.ResourceSchema;
+import org.apache.pig.ResourceStatistics;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.LODistinct;
+import org.apache.pig.impl.logicalLayer.LOFilter;
+import org.apache.pig.impl.logicalLayer.LOForEach;
+import org.apache.pig.impl.logicalLayer.LOJoin;
+import org.apache.pig.impl.logicalLayer.LOLimit;
+import org.apache.pig.impl.logicalLayer.LOLoad;
+import org.apache.pig.impl.logicalLayer.LOProject;
+import org.apache.pig.impl.logicalLayer.LOSort;
+import org.apache.pig.impl.logicalLayer.LOSplit;
+import org.apache.pig.impl.logicalLayer.LOSplitOutput;
+import org.apache.pig.impl.logicalLayer.LOUnion;
+import org.apache.pig.impl.logicalLayer.LogicalOperator;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+
+/**
+ * Chooses the type of a join the user did not give a type for, from what
+ * is known of its inputs before they are read. A join of inputs which are
+ * loaded sorted on the join keys is a merge join. A join whose inputs
+ * other than the first are small enough to be held in memory is a
+ * replicated join. A join of two inputs where a key value is in a large
+ * part of the rows of the first one is a skewed join. Other joins are
+ * left as they are.
+ * <p>
+ * Sizes come from {@link LoadMetadata#getStatistics(String, Job)} or else
+ * from the file system, key frequencies from the statistics of the fields
+ * and sort orders from {@link LoadMetadata#getSchema(String, Job)}. The
+ * rule is off unless {@link #AUTO_SELECT} is set.
+ */
+public class JoinStrategySelector extends LogicalTransformer {
+
+    /** Property which turns on choosing the type of joins */
+    public static final String AUTO_SELECT = "pig.join.autoselect";
+
+    /** Property for the most bytes of the inputs a replicated join holds in memory */
+    public static final String REPLICATED_MAX_BYTES = "pig.join.replicated.maxbytes";
+
+    /** Property for the least part of the rows with the same key which makes a join skewed */
+    public static final String SKEWED_MIN_FREQ = "pig.join.skewed.minfreq";
+
+    static final long DEFAULT_REPLICATED_MAX_BYTES = 10L * 1024 * 1024;
+
+    static final float DEFAULT_SKEWED_MIN_FREQ = 0.05f;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    // the type of join chosen by check, and why
+    private LOJoin.JOINTYPE mJoinType = null;
+
+    private String mReason = null;
+
+    public JoinStrategySelector(LogicalPlan plan) {
+        super(plan);
+    }
+
+    @Override
+    public boolean check(List<LogicalOperator> nodes) throws OptimizerException {
+        if (nodes == null || nodes.size() != 1 || !(nodes.get(0) instanceof LOJoin)) {
+            return false;
+        }
+        LOJoin join = (LOJoin)nodes.get(0);
+        if (join.getJoinType() != LOJoin.JOINTYPE.HASH
+                || join.isPinnedOption(LOJoin.OPTION_JOIN)) {
+            return false;
+        }
+        List<LogicalOperator> inputs = join.getInputs();
+        Configuration conf = null;
+        for (LogicalOperator input : inputs) {
+            List<LOLoad> loads = new ArrayList<LOLoad>();
+            findLoads(input, loads);
+            if (!loads.isEmpty() && loads.get(0).getConfiguration() != null) {
+                conf = loads.get(0).getConfiguration();
+                break;
+            }
+        }
+        if (conf == null || !conf.getBoolean(AUTO_SELECT, false)) {
+            return false;
+        }
+        try {
+            choose(join, inputs, conf);
+        } catch (Exception e) {
+            // without statistics the join is left as it is
+            log.warn("Unable to choose the type of join " + join.getAlias()
+                    + ": " + e.getMessage());
+            reset();
+        }
+        return mJoinType != null;
+    }
+
+    @Override
+    public void transform(List<LogicalOperator> nodes) throws OptimizerException {
+        LOJoin join = (LOJoin)nodes.get(0);
+        join.setJoinType(mJoinType, mReason);
+        log.info("Using " + mJoinType.toString().toLowerCase() + " join for "
+                + join.getAlias() + ", as " + mReason);
+    }
+
+    @Override
+    public void reset() {
+        mJoinType = null;
+        mReason = null;
+    }
+
+    private void choose(LOJoin join, List<LogicalOperator> inputs,
+            Configuration conf) throws IOException, FrontendException {
+        boolean[] inner = join.getInnerFlags();
+        boolean allInner = true;
+        for (boolean b : inner) {
+            allInner &= b;
+        }
+        int n = inputs.size();
+
+        if (n == 2 && allInner && isSortedOnKeys(join, inputs)) {
+            mJoinType = LOJoin.JOINTYPE.MERGE;
+            mReason = "both inputs are loaded sorted on the join keys";
+            return;
+        }
+
+        // a left outer replicated join needs the schema of the right input
+        boolean leftOuter = n == 2 && inner[0] && !inner[1]
+            && inputs.get(1).getSchema() != null;
+        if (allInner || leftOuter) {
+            long maxBytes = conf.getLong(REPLICATED_MAX_BYTES, DEFAULT_REPLICATED_MAX_BYTES);
+            long bytes = 0;
+            for (int i = 1; i < n && bytes >= 0; i++) {
+                Long b = estimateBytes(inputs.get(i));
+                bytes = b == null ? -1 : bytes + b;
+            }
+            if (bytes >= 0 && bytes <= maxBytes) {
+                mJoinType = LOJoin.JOINTYPE.REPLICATED;
+                mReason = "the inputs after the first are " + bytes
+                    + " bytes, at most " + maxBytes;
+                return;
+            }
+        }
+
+        if (n == 2) {
+            float minFreq = conf.getFloat(SKEWED_MIN_FREQ, DEFAULT_SKEWED_MIN_FREQ);
+            Float freq = mostCommonKeyFreq(join, inputs.get(0));
+            if (freq != null && freq >= minFreq) {
+                mJoinType = LOJoin.JOINTYPE.SKEWED;
+                mReason = "a key is in " + freq + " of the rows of the first input, at least "
+                    + minFreq;
+            }
+        }
+    }
+
+    /**
+     * Adds the loads the given operator reads from to loads.
+     */
+    private void findLoads(LogicalOperator op, List<LOLoad> loads) {
+        if (op instanceof LOLoad) {
+            loads.add((LOLoad)op);
+            return;
+        }
+        List<LogicalOperator> preds = mPlan.getPredecessors(op);
+        if (preds != null) {
+            for (LogicalOperator pred : preds) {
+                findLoads(pred, loads);
+            }
+        }
+    }
+
+    /**
+     * @return at most the number of bytes of the output of op, or null if
+     * it cannot be told
+     */
+    private Long estimateBytes(LogicalOperator op) throws IOException {
+        if (op instanceof LOLoad) {
+            return loadBytes((LOLoad)op);
+        }
+        List<LogicalOperator> preds = mPlan.getPredecessors(op);
+        if (preds == null) {
+            return null;
+        }
+        if (op instanceof LOUnion) {
+            long bytes = 0;
+            for (LogicalOperator pred : preds) {
+                Long b = estimateBytes(pred);
+                if (b == null) {
+                    return null;
+                }
+                bytes += b;
+            }
+            return bytes;
+        }
+        // operators which give no more than they get
+        if (preds.size() == 1 && (op instanceof LOFilter || op instanceof LOLimit
+                || op instanceof LODistinct || op instanceof LOSort
+                || op instanceof LOSplit || op instanceof LOSplitOutput
+                || (op instanceof LOForEach && !((LOForEach)op).hasFlatten().first))) {
+            return estimateBytes(preds.get(0));
+        }
+        return null;
+    }
+
+    private Long loadBytes(LOLoad load) throws IOException {
+        String location = load.getInputFile().getFileName();
+        Job job = new Job(load.getConfiguration());
+        LoadFunc loadFunc = load.getLoadFunc();
+        if (loadFunc instanceof LoadMetadata) {
+            ResourceStatistics stats = ((LoadMetadata)loadFunc).getStatistics(location, job);
+            if (stats != null && stats.getmBytes() != null) {
+                return stats.getmBytes() * 1024 * 1024;
+            }
+        }
+        long bytes = 0;
+        for (String path : LoadFunc.getPathStrings(location)) {
+            Path p = new Path(path);
+            FileSystem fs = p.getFileSystem(job.getConfiguration());
+            FileStatus[] matches = fs.globStatus(p);
+            if (matches == null || matches.length == 0) {
+                return null;
+            }
+            for (FileStatus match : matches) {
+                bytes += fs.getContentSummary(match.getPath()).getLength();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the columns of the input the join keys of the input are, or
+     * null if the keys are not plain columns
+     */
+    private int[] keyColumns(LOJoin join, LogicalOperator input) {
+        List<LogicalPlan> keyPlans = (List<LogicalPlan>)join.getJoinPlans().get(input);
+        int[] cols = new int[keyPlans.size()];
+        for (int i = 0; i < cols.length; i++) {
+            LogicalPlan keyPlan = keyPlans.get(i);
+            if (keyPlan.size() != 1 || !(keyPlan.getLeaves().get(0) instanceof LOProject)) {
+                return null;
+            }
+            LOProject prj = (LOProject)keyPlan.getLeaves().get(0);
+            if (prj.isStar() || prj.getProjection().size() != 1) {
+                return null;
+            }
+            cols[i] = prj.getCol();
+        }
+        return cols;
+    }
+
+    private boolean isSortedOnKeys(LOJoin join, List<LogicalOperator> inputs)
+            throws IOException {
+        for (int i = 0; i < inputs.size(); i++) {
+            if (!(inputs.get(i) instanceof LOLoad)) {
+                return false;
+            }
+            LOLoad load = (LOLoad)inputs.get(i);
+            LoadFunc loadFunc = load.getLoadFunc();
+            int[] cols = keyColumns(join, load);
+            if (cols == null || !(loadFunc instanceof LoadMetadata)) {
+                return false;
+            }
+            // the right input is read through an index
+            if (i > 0 && !(loadFunc instanceof IndexableLoadFunc)
+                    && !(loadFunc instanceof OrderedLoadFunc)) {
+                return false;
+            }
+            ResourceSchema schema = ((LoadMetadata)loadFunc).getSchema(
+                    load.getInputFile().getFileName(), new Job(load.getConfiguration()));
+            if (schema == null || schema.getSortKeys().length < cols.length) {
+                return false;
+            }
+            for (int j = 0; j < cols.length; j++) {
+                if (schema.getSortKeys()[j] != cols[j]
+                        || schema.getSortKeyOrders()[j] != ResourceSchema.Order.ASCENDING) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the part of the rows of the input with the most common value
+     * of the join key, or null if it cannot be told
+     */
+    private Float mostCommonKeyFreq(LOJoin join, LogicalOperator input)
+            throws IOException {
+        int[] cols = keyColumns(join, input);
+        if (cols == null || cols.length != 1) {
+            return null;
+        }
+        // operators which keep the columns of their input
+        LogicalOperator op = input;
+        while (op instanceof LOFilter || op instanceof LOLimit
+                || op instanceof LOSplit || op instanceof LOSplitOutput) {
+            op = mPlan.getPredecessors(op).get(0);
+        }
+        if (!(op instanceof LOLoad)) {
+            return null;
+        }
+        LOLoad load = (LOLoad)op;
+        if (!(load.getLoadFunc() instanceof LoadMetadata)) {
+            return null;
+        }
+        ResourceStatistics stats = ((LoadMetadata)load.getLoadFunc()).getStatistics(
+                load.getInputFile().getFileName(), new Job(load.getConfiguration()));
+        if (stats == null || stats.getFields() == null
+                || stats.getFields().length <= cols[0]
+                || stats.getFields()[cols[0]] == null) {
+            return null;
+        }
+        float[] freqs = stats.getFields()[cols[0]].getMostCommonValuesFreq();
+        if (freqs == null || freqs.length == 0) {
+            return null;
+        }
+        float max = 0;
+        for (float f : freqs) {
+            max = Math.max(max, f);
+        }
+        return max;
+    }
+}
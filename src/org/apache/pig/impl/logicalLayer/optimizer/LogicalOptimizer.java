@@ -25,6 +25,7 @@ import org.apache.pig.PigException;
 import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.impl.logicalLayer.LOFilter;
 import org.apache.pig.impl.logicalLayer.LOForEach;
+import org.apache.pig.impl.logicalLayer.LOJoin;
 import org.apache.pig.impl.logicalLayer.LOLimit;
 import org.apache.pig.impl.logicalLayer.LOLoad;
 import org.apache.pig.impl.logicalLayer.LOStream;
@@ -82,6 +83,18 @@ public class LogicalOptimizer extends
             }
         }
         
+        if (!turnAllRulesOff) {
+            // Merge loads, filters and foreachs which compute the same data
+            // under different aliases. This has to be before the implicit
+            // split inserter, which then splits the merged operators.
+            rulePlan = new RulePlan();
+            RuleOperator loLoad = new RuleOperator(LOLoad.class,
+                    new OperatorKey(SCOPE, nodeIdGen.getNextNodeId(SCOPE)));
+            rulePlan.add(loLoad);
+            checkAndAddRule(new Rule<LogicalOperator, LogicalPlan>(rulePlan,
+                    new CommonSubPlanMerger(plan), "CommonSubPlanMerger"));
+        }
+
         // This one has to be before the type cast inserter as it expects the
         // load to only have one output.
         // Find any places in the plan that have an implicit split and make
@@ -107,6 +120,27 @@ public class LogicalOptimizer extends
         mRules.add(new Rule<LogicalOperator, LogicalPlan>(rulePlan,
                 new PartitionFilterOptimizer(plan), "PartitionFilterOptimizer"));
 
+        if (!turnAllRulesOff) {
+            // Choose the type of joins from the statistics of their inputs.
+            // This has to be before the load type cast inserter, so that
+            // the join keys are still columns of the loads.
+            rulePlan = new RulePlan();
+            RuleOperator loJoin = new RuleOperator(LOJoin.class,
+                    new OperatorKey(SCOPE, nodeIdGen.getNextNodeId(SCOPE)));
+            rulePlan.add(loJoin);
+            checkAndAddRule(new Rule<LogicalOperator, LogicalPlan>(rulePlan,
+                    new JoinStrategySelector(plan), "JoinStrategySelector"));
+
+            // Aggregate the inputs of joins which are only aggregated after
+            // the join. This has to be after the type of the joins is chosen.
+            rulePlan = new RulePlan();
+            loJoin = new RuleOperator(LOJoin.class,
+                    new OperatorKey(SCOPE, nodeIdGen.getNextNodeId(SCOPE)));
+            rulePlan.add(loJoin);
+            checkAndAddRule(new Rule<LogicalOperator, LogicalPlan>(rulePlan,
+                    new PartialAggregationPushdown(plan), "PartialAggregationPushdown"));
+        }
+
 
         // Add type casting to plans where the schema has been declared (by
         // user, data, or data catalog).
@@ -146,6 +180,16 @@ public class LogicalOptimizer extends
             rule = new Rule<LogicalOperator, LogicalPlan>(rulePlan,
                     new PushUpFilter(plan), "PushUpFilter");
             checkAndAddRule(rule);
+
+            // Give the loaders the conditions of the filters right after them,
+            // after the filters were pushed up to the loads
+            rulePlan = new RulePlan();
+            loLoad = new RuleOperator(LOLoad.class,
+                    new OperatorKey(SCOPE, nodeIdGen.getNextNodeId(SCOPE)));
+            rulePlan.add(loLoad);
+            rule = new Rule<LogicalOperator, LogicalPlan>(rulePlan,
+                    new PushFilterIntoLoad(plan), "PushFilterIntoLoad");
+            checkAndAddRule(rule);
             
             // Push foreach with flatten down wherever possible
             rulePlan = new RulePlan();
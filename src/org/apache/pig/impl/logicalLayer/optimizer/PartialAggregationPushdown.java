@@ -0,0 +1,470 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.logicalLayer.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.PigException;
+import org.apache.pig.builtin.COUNT;
+import org.apache.pig.builtin.COUNT_STAR;
+import org.apache.pig.builtin.DoubleMax;
+import org.apache.pig.builtin.DoubleMin;
+import org.apache.pig.builtin.DoubleSum;
+import org.apache.pig.builtin.FloatMax;
+import org.apache.pig.builtin.FloatMin;
+import org.apache.pig.builtin.FloatSum;
+import org.apache.pig.builtin.IntMax;
+import org.apache.pig.builtin.IntMin;
+import org.apache.pig.builtin.IntSum;
+import org.apache.pig.builtin.LongMax;
+import org.apache.pig.builtin.LongMin;
+import org.apache.pig.builtin.LongSum;
+import org.apache.pig.builtin.MAX;
+import org.apache.pig.builtin.MIN;
+import org.apache.pig.builtin.SUM;
+import org.apache.pig.builtin.StringMax;
+import org.apache.pig.builtin.StringMin;
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.logicalLayer.LOCogroup;
+import org.apache.pig.impl.logicalLayer.LOForEach;
+import org.apache.pig.impl.logicalLayer.LOJoin;
+import org.apache.pig.impl.logicalLayer.LOLoad;
+import org.apache.pig.impl.logicalLayer.LOProject;
+import org.apache.pig.impl.logicalLayer.LOUserFunc;
+import org.apache.pig.impl.logicalLayer.LogicalOperator;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+import org.apache.pig.impl.util.MultiMap;
+
+/**
+ * Aggregates the rows of one input of a join on the join key before the
+ * join, when the join is only grouped afterwards on columns of the other
+ * input and the groups are only aggregated with sums, counts, minimums and
+ * maximums of the columns of the first one. That is, for a fact input F
+ * and a dimension input D,
+ * <pre>
+ * J = join F by fk, D by k;
+ * G = group J by D::attr;
+ * R = foreach G generate group, SUM(J.v), COUNT(J);
+ * </pre>
+ * is run as
+ * <pre>
+ * F1 = foreach (group F by fk) generate flatten(group), SUM(F.v), COUNT(F);
+ * J = join F1 by $0, D by k;
+ * G = group J by D::attr;
+ * R = foreach G generate group, SUM(J.$1), SUM(J.$2);
+ * </pre>
+ * so that F is shuffled for the join as at most one row per key, after
+ * being aggregated in the combiner of the new group. The sums of the new
+ * group are then summed, the counts summed and the minimums and maximums
+ * taken again. The rule is off unless {@link #PARTIAL_AGGREGATION} is set.
+ */
+public class PartialAggregationPushdown extends LogicalTransformer {
+
+    /** Property which turns on aggregating inputs of joins before the join */
+    public static final String PARTIAL_AGGREGATION = "pig.join.partialagg";
+
+    private enum Aggregate { SUM, COUNT, COUNT_STAR, MIN, MAX }
+
+    private static final Map<String, Aggregate> AGGREGATES = new HashMap<String, Aggregate>();
+
+    static {
+        for (Class<?> c : new Class<?>[] { SUM.class, IntSum.class, LongSum.class,
+                FloatSum.class, DoubleSum.class }) {
+            AGGREGATES.put(c.getName(), Aggregate.SUM);
+        }
+        for (Class<?> c : new Class<?>[] { MIN.class, IntMin.class, LongMin.class,
+                FloatMin.class, DoubleMin.class, StringMin.class }) {
+            AGGREGATES.put(c.getName(), Aggregate.MIN);
+        }
+        for (Class<?> c : new Class<?>[] { MAX.class, IntMax.class, LongMax.class,
+                FloatMax.class, DoubleMax.class, StringMax.class }) {
+            AGGREGATES.put(c.getName(), Aggregate.MAX);
+        }
+        AGGREGATES.put(COUNT.class.getName(), Aggregate.COUNT);
+        AGGREGATES.put(COUNT_STAR.class.getName(), Aggregate.COUNT_STAR);
+    }
+
+    /**
+     * An aggregate of the foreach after the group, with the column of the
+     * join it is of, or -1 for the whole rows
+     */
+    private static class AggregateCall {
+        final LOUserFunc func;
+        final LOProject bag;
+        final LOProject column;
+        final Aggregate aggregate;
+
+        AggregateCall(LOUserFunc func, LOProject bag, LOProject column, Aggregate aggregate) {
+            this.func = func;
+            this.bag = bag;
+            this.column = column;
+            this.aggregate = aggregate;
+        }
+
+        int getCol() {
+            return column == null ? -1 : column.getCol();
+        }
+    }
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    // what check found, for transform
+    private int mFactInput = -1;
+
+    private LOCogroup mGroup = null;
+
+    private List<AggregateCall> mCalls = new ArrayList<AggregateCall>();
+
+    public PartialAggregationPushdown(LogicalPlan plan) {
+        super(plan);
+    }
+
+    @Override
+    public boolean check(List<LogicalOperator> nodes) throws OptimizerException {
+        if (nodes == null || nodes.size() != 1 || !(nodes.get(0) instanceof LOJoin)) {
+            return false;
+        }
+        LOJoin join = (LOJoin)nodes.get(0);
+        List<LogicalOperator> inputs = join.getInputs();
+        if (join.getJoinType() != LOJoin.JOINTYPE.HASH || inputs.size() != 2) {
+            return false;
+        }
+        for (boolean inner : join.getInnerFlags()) {
+            if (!inner) {
+                return false;
+            }
+        }
+        Configuration conf = getConfiguration(join);
+        if (conf == null || !conf.getBoolean(PARTIAL_AGGREGATION, false)) {
+            return false;
+        }
+        try {
+            if (!match(join, inputs)) {
+                reset();
+                return false;
+            }
+        } catch (Exception e) {
+            log.warn("Unable to aggregate the inputs of join " + join.getAlias()
+                    + " before the join: " + e.getMessage());
+            reset();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the group of the join and the aggregates of the groups, and
+     * which input of the join they are of.
+     */
+    private boolean match(LOJoin join, List<LogicalOperator> inputs) throws Exception {
+        List<LogicalOperator> succs = mPlan.getSuccessors(join);
+        if (succs == null || succs.size() != 1 || !(succs.get(0) instanceof LOCogroup)) {
+            return false;
+        }
+        LOCogroup group = (LOCogroup)succs.get(0);
+        succs = mPlan.getSuccessors(group);
+        if (group.getInputs().size() != 1 || group.getGroupType() != LOCogroup.GROUPTYPE.REGULAR
+                || succs == null || succs.size() != 1 || !(succs.get(0) instanceof LOForEach)) {
+            return false;
+        }
+        LOForEach foreach = (LOForEach)succs.get(0);
+
+        Schema first = inputs.get(0).getSchema();
+        Schema second = inputs.get(1).getSchema();
+        if (first == null || second == null) {
+            return false;
+        }
+
+        // the columns the group is on are all of one input, and the
+        // aggregates all of the other
+        int groupInput = -1;
+        for (LogicalPlan plan : group.getGroupByPlans().get(join)) {
+            for (LogicalOperator op : plan) {
+                if (!(op instanceof LOProject) || ((LOProject)op).getExpression() != join) {
+                    continue;
+                }
+                LOProject project = (LOProject)op;
+                if (project.isStar() || project.getProjection().size() != 1) {
+                    return false;
+                }
+                int input = project.getCol() < first.size() ? 0 : 1;
+                if (groupInput != -1 && groupInput != input) {
+                    return false;
+                }
+                groupInput = input;
+            }
+        }
+        if (groupInput == -1) {
+            return false;
+        }
+        int factInput = 1 - groupInput;
+        int factStart = factInput == 0 ? 0 : first.size();
+        int factEnd = factStart + (factInput == 0 ? first.size() : second.size());
+
+        // a fact input which is already grouped has nothing more to aggregate
+        LogicalOperator fact = inputs.get(factInput);
+        List<LogicalOperator> factPreds = mPlan.getPredecessors(fact);
+        if (fact instanceof LOForEach && factPreds != null
+                && factPreds.get(0) instanceof LOCogroup) {
+            return false;
+        }
+
+        for (LogicalPlan plan : foreach.getForEachPlans()) {
+            AggregateCall call = matchAggregate(plan, group);
+            if (call == null) {
+                // anything else may only use the group
+                for (LogicalOperator op : plan) {
+                    if (op instanceof LOProject && ((LOProject)op).getExpression() == group
+                            && (((LOProject)op).isStar() || ((LOProject)op).getCol() != 0)) {
+                        return false;
+                    }
+                }
+                continue;
+            }
+            int col = call.getCol();
+            if (col == -1) {
+                // counts of whole rows count the rows whose first field
+                // is not null
+                if (call.aggregate == Aggregate.COUNT && factInput != 0) {
+                    return false;
+                }
+            } else if (col < factStart || col >= factEnd) {
+                return false;
+            }
+            mCalls.add(call);
+        }
+        if (mCalls.isEmpty()) {
+            return false;
+        }
+        mFactInput = factInput;
+        mGroup = group;
+        return true;
+    }
+
+    /**
+     * @return the aggregate the plan is, if it is a supported function of
+     * one column of the bag of the group, or of the bag itself
+     */
+    private AggregateCall matchAggregate(LogicalPlan plan, LOCogroup group) {
+        List<LogicalOperator> leaves = plan.getLeaves();
+        if (leaves.size() != 1 || !(leaves.get(0) instanceof LOUserFunc)) {
+            return null;
+        }
+        LOUserFunc func = (LOUserFunc)leaves.get(0);
+        Aggregate aggregate = AGGREGATES.get(func.getFuncSpec().getClassName());
+        List<LogicalOperator> args = plan.getPredecessors(func);
+        if (aggregate == null || func.getFuncSpec().getCtorArgs() != null
+                || args == null || args.size() != 1 || !(args.get(0) instanceof LOProject)) {
+            return null;
+        }
+        LOProject arg = (LOProject)args.get(0);
+        LOProject column = null;
+        if (arg.getExpression() != group) {
+            column = arg;
+            if (!(arg.getExpression() instanceof LOProject) || arg.isStar()
+                    || arg.getProjection().size() != 1) {
+                return null;
+            }
+            arg = (LOProject)arg.getExpression();
+            if (aggregate == Aggregate.COUNT_STAR) {
+                return null;
+            }
+        } else if (aggregate != Aggregate.COUNT && aggregate != Aggregate.COUNT_STAR) {
+            return null;
+        }
+        if (arg.getExpression() != group || arg.isStar() || arg.getCol() != 1
+                || plan.size() != (column == null ? 2 : 3)) {
+            return null;
+        }
+        return new AggregateCall(func, arg, column, aggregate);
+    }
+
+    @Override
+    public void transform(List<LogicalOperator> nodes) throws OptimizerException {
+        LOJoin join = (LOJoin)nodes.get(0);
+        try {
+            List<LogicalOperator> inputs = join.getInputs();
+            LogicalOperator fact = inputs.get(mFactInput);
+            int firstSize = inputs.get(0).getSchema().size();
+            int factSize = fact.getSchema().size();
+            int factStart = mFactInput == 0 ? 0 : firstSize;
+            String scope = join.getOperatorKey().scope;
+
+            // group the fact input by the keys of the join
+            List<LogicalPlan> keyPlans = new ArrayList<LogicalPlan>(join.getJoinPlans().get(fact));
+            MultiMap<LogicalOperator, LogicalPlan> groupByPlans =
+                new MultiMap<LogicalOperator, LogicalPlan>();
+            groupByPlans.put(fact, keyPlans);
+            LOCogroup factGroup = new LOCogroup(mPlan, OperatorKey.genOpKey(scope),
+                    groupByPlans, new boolean[] { false });
+            factGroup.setAlias(fact.getAlias());
+            mPlan.add(factGroup);
+            mPlan.doInsertBetween(fact, factGroup, join, false);
+
+            // and generate the keys and the partial aggregates
+            ArrayList<LogicalPlan> genPlans = new ArrayList<LogicalPlan>();
+            ArrayList<Boolean> flattens = new ArrayList<Boolean>();
+            LogicalPlan keyPlan = new LogicalPlan();
+            keyPlan.add(new LOProject(keyPlan, OperatorKey.genOpKey(scope), factGroup, 0));
+            genPlans.add(keyPlan);
+            flattens.add(true);
+            for (AggregateCall call : mCalls) {
+                LogicalPlan plan = new LogicalPlan();
+                LOProject bag = new LOProject(plan, OperatorKey.genOpKey(scope), factGroup, 1);
+                plan.add(bag);
+                LOProject arg = bag;
+                if (call.column != null) {
+                    arg = new LOProject(plan, OperatorKey.genOpKey(scope), bag,
+                            call.getCol() - factStart);
+                    plan.add(arg);
+                    plan.connect(bag, arg);
+                }
+                LOUserFunc func = new LOUserFunc(plan, OperatorKey.genOpKey(scope),
+                        call.func.getFuncSpec().clone(), call.func.getType());
+                plan.add(func);
+                plan.connect(arg, func);
+                genPlans.add(plan);
+                flattens.add(false);
+            }
+            LOForEach partial = new LOForEach(mPlan, OperatorKey.genOpKey(scope),
+                    genPlans, flattens);
+            partial.setAlias(fact.getAlias());
+            mPlan.add(partial);
+            mPlan.doInsertBetween(factGroup, partial, join, false);
+
+            // join on the keys of the new rows
+            List<LogicalPlan> joinPlans = new ArrayList<LogicalPlan>();
+            for (int i = 0; i < keyPlans.size(); i++) {
+                LogicalPlan plan = new LogicalPlan();
+                LOProject project = new LOProject(plan, OperatorKey.genOpKey(scope), partial, i);
+                project.setType(keyPlans.get(i).getLeaves().get(0).getType());
+                plan.add(project);
+                joinPlans.add(plan);
+            }
+            join.getJoinPlans().removeKey(fact);
+            join.getJoinPlans().put(partial, joinPlans);
+
+            // the columns of the other input move after the new rows
+            int shift = keyPlans.size() + mCalls.size() - factSize;
+            if (mFactInput == 0) {
+                for (LogicalPlan plan : mGroup.getGroupByPlans().get(join)) {
+                    for (LogicalOperator op : plan) {
+                        if (op instanceof LOProject && ((LOProject)op).getExpression() == join) {
+                            LOProject project = (LOProject)op;
+                            project.setProjection(col(project.getCol() + shift));
+                        }
+                    }
+                }
+            }
+
+            // and the aggregates are of the partial aggregates
+            int factCol = factStart + keyPlans.size();
+            for (AggregateCall call : mCalls) {
+                LogicalPlan plan = call.func.getPlan();
+                LOProject column = call.column;
+                if (column == null) {
+                    column = new LOProject(plan, OperatorKey.genOpKey(scope), call.bag, factCol);
+                    plan.add(column);
+                    plan.doInsertBetween(call.bag, column, call.func, false);
+                } else {
+                    column.setProjection(col(factCol));
+                }
+                call.func.setFuncSpec(finalFunc(call.aggregate, call.func.getType()));
+                factCol++;
+            }
+            log.info("Aggregating " + fact.getAlias() + " by the keys of join "
+                    + join.getAlias() + " before the join");
+        } catch (Exception e) {
+            int errCode = 2231;
+            String msg = "Unable to aggregate the input of join " + join.getAlias()
+                    + " before the join";
+            throw new OptimizerException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    /**
+     * @return the function which aggregates the results of the given
+     * aggregate of the given type
+     */
+    private static FuncSpec finalFunc(Aggregate aggregate, byte type) {
+        Class<?> func;
+        switch (aggregate) {
+        case SUM:
+        case COUNT:
+        case COUNT_STAR:
+            func = type == DataType.DOUBLE ? DoubleSum.class : LongSum.class;
+            break;
+        case MIN:
+            func = type == DataType.INTEGER ? IntMin.class
+                : type == DataType.LONG ? LongMin.class
+                : type == DataType.FLOAT ? FloatMin.class
+                : type == DataType.CHARARRAY ? StringMin.class
+                : DoubleMin.class;
+            break;
+        default:
+            func = type == DataType.INTEGER ? IntMax.class
+                : type == DataType.LONG ? LongMax.class
+                : type == DataType.FLOAT ? FloatMax.class
+                : type == DataType.CHARARRAY ? StringMax.class
+                : DoubleMax.class;
+        }
+        return new FuncSpec(func.getName());
+    }
+
+    private static List<Integer> col(int col) {
+        List<Integer> projection = new ArrayList<Integer>(1);
+        projection.add(col);
+        return projection;
+    }
+
+    /**
+     * @return the configuration of the first load the operator reads from
+     */
+    private Configuration getConfiguration(LogicalOperator op) {
+        if (op instanceof LOLoad) {
+            return ((LOLoad)op).getConfiguration();
+        }
+        List<LogicalOperator> preds = mPlan.getPredecessors(op);
+        if (preds != null) {
+            for (LogicalOperator pred : preds) {
+                Configuration conf = getConfiguration(pred);
+                if (conf != null) {
+                    return conf;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void reset() {
+        mFactInput = -1;
+        mGroup = null;
+        mCalls = new ArrayList<AggregateCall>();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.logicalLayer.optimizer;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.Expression;
+import org.apache.pig.LoadFilterPushDown;
+import org.apache.pig.LoadFunc;
+import org.apache.pig.LoadPushDown;
+import org.apache.pig.PigException;
+import org.apache.pig.Expression.BinaryExpression;
+import org.apache.pig.Expression.OpType;
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.logicalLayer.BinaryExpressionOperator;
+import org.apache.pig.impl.logicalLayer.ExpressionOperator;
+import org.apache.pig.impl.logicalLayer.LOAnd;
+import org.apache.pig.impl.logicalLayer.LOCast;
+import org.apache.pig.impl.logicalLayer.LOConst;
+import org.apache.pig.impl.logicalLayer.LOEqual;
+import org.apache.pig.impl.logicalLayer.LOFilter;
+import org.apache.pig.impl.logicalLayer.LOGreaterThan;
+import org.apache.pig.impl.logicalLayer.LOGreaterThanEqual;
+import org.apache.pig.impl.logicalLayer.LOLesserThan;
+import org.apache.pig.impl.logicalLayer.LOLesserThanEqual;
+import org.apache.pig.impl.logicalLayer.LOLoad;
+import org.apache.pig.impl.logicalLayer.LONotEqual;
+import org.apache.pig.impl.logicalLayer.LOOr;
+import org.apache.pig.impl.logicalLayer.LOProject;
+import org.apache.pig.impl.logicalLayer.LogicalOperator;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+
+/**
+ * Gives a loader which implements {@link LoadFilterPushDown} the comparisons
+ * of its columns with constants in the filter which immediately follows the
+ * load, so that the loader can skip the data which cannot match them. The
+ * filter itself is kept in the plan, so that any part of its condition that
+ * cannot be given to the loader, or that the loader does not use, is still
+ * applied.
+ */
+public class PushFilterIntoLoad extends LogicalTransformer {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * the filters whose conditions were already given to their loads
+     */
+    private Set<LogicalOperator> alreadyPushed = new HashSet<LogicalOperator>();
+
+    private LOLoad mLoad = null;
+
+    private LOFilter mFilter = null;
+
+    public PushFilterIntoLoad(LogicalPlan plan) {
+        super(plan);
+    }
+
+    @Override
+    public boolean check(List<LogicalOperator> nodes) throws OptimizerException {
+        if ((nodes == null) || (nodes.size() <= 0)) {
+            int errCode = 2052;
+            String msg = "Internal error. Cannot retrieve operator from null " +
+                    "or empty list.";
+            throw new OptimizerException(msg, errCode, PigException.BUG);
+        }
+        if (nodes.size() != 1 || !(nodes.get(0) instanceof LOLoad)) {
+            return false;
+        }
+        LOLoad load = (LOLoad)nodes.get(0);
+        List<LogicalOperator> sucs = mPlan.getSuccessors(load);
+        if (sucs == null || sucs.size() != 1 || !(sucs.get(0) instanceof LOFilter)) {
+            return false;
+        }
+        if (alreadyPushed.contains(sucs.get(0))) {
+            return false;
+        }
+        LoadFunc loadFunc = load.getLoadFunc();
+        if (!(loadFunc instanceof LoadFilterPushDown) || !(loadFunc instanceof LoadPushDown)) {
+            return false;
+        }
+        List<LoadPushDown.OperatorSet> features = ((LoadPushDown)loadFunc).getFeatures();
+        if (features == null || !features.contains(LoadPushDown.OperatorSet.FILTER)) {
+            return false;
+        }
+        try {
+            // the columns are given to the loader by the names it knows
+            if (load.getDeterminedSchema() == null || load.getSchema() == null) {
+                return false;
+            }
+        } catch (Exception e) {
+            return false;
+        }
+        mLoad = load;
+        mFilter = (LOFilter)sucs.get(0);
+        return true;
+    }
+
+    @Override
+    public void transform(List<LogicalOperator> nodes) throws OptimizerException {
+        alreadyPushed.add(mFilter);
+        try {
+            LogicalPlan plan = mFilter.getComparisonPlan();
+            List<LogicalOperator> leaves = plan.getLeaves();
+            if (leaves.size() != 1) {
+                return;
+            }
+            Expression filter = getFilter(plan, leaves.get(0));
+            if (filter != null) {
+                log.info("Pushing the condition " + filter + " of " + mFilter.getAlias()
+                        + " into the load of " + mLoad.getInputFile().getFileName());
+                ((LoadFilterPushDown)mLoad.getLoadFunc()).pushFilter(filter);
+            }
+        } catch (Exception e) {
+            int errCode = 2232;
+            String msg = "Unable to push the condition of " + mFilter.getAlias()
+                    + " into the load";
+            throw new OptimizerException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    @Override
+    public void reset() {
+        mLoad = null;
+        mFilter = null;
+    }
+
+    /**
+     * @return the condition the tuples which match the expression also match,
+     * made of the comparisons of columns with constants in it, or null if
+     * there is no such condition
+     */
+    private Expression getFilter(LogicalPlan plan, LogicalOperator op)
+            throws Exception {
+        if (op instanceof LOAnd || op instanceof LOOr) {
+            BinaryExpressionOperator binOp = (BinaryExpressionOperator)op;
+            Expression lhs = getFilter(plan, binOp.getLhsOperand());
+            Expression rhs = getFilter(plan, binOp.getRhsOperand());
+            if (lhs != null && rhs != null) {
+                return new BinaryExpression(lhs, rhs,
+                        op instanceof LOAnd ? OpType.OP_AND : OpType.OP_OR);
+            }
+            // a side of an and can be left out, but not of an or
+            return op instanceof LOAnd ? (lhs != null ? lhs : rhs) : null;
+        }
+        OpType opType = getComparison(op);
+        if (opType == null) {
+            return null;
+        }
+        BinaryExpressionOperator binOp = (BinaryExpressionOperator)op;
+        Expression lhs = getOperand(binOp.getLhsOperand());
+        Expression rhs = getOperand(binOp.getRhsOperand());
+        if (lhs == null || rhs == null) {
+            return null;
+        }
+        if (lhs instanceof Expression.Column == rhs instanceof Expression.Column) {
+            // only comparisons of a column with a constant
+            return null;
+        }
+        return new BinaryExpression(lhs, rhs, opType);
+    }
+
+    private static OpType getComparison(LogicalOperator op) {
+        if (op instanceof LOEqual) {
+            return OpType.OP_EQ;
+        } else if (op instanceof LONotEqual) {
+            return OpType.OP_NE;
+        } else if (op instanceof LOGreaterThan) {
+            return OpType.OP_GT;
+        } else if (op instanceof LOGreaterThanEqual) {
+            return OpType.OP_GE;
+        } else if (op instanceof LOLesserThan) {
+            return OpType.OP_LT;
+        } else if (op instanceof LOLesserThanEqual) {
+            return OpType.OP_LE;
+        }
+        return null;
+    }
+
+    /**
+     * @return the constant cast to the type, or null if it is not a cast
+     * between numbers or of a chararray to itself
+     */
+    private static Object cast(Object value, byte type) {
+        if (value instanceof Number) {
+            Number n = (Number)value;
+            switch (type) {
+            case DataType.INTEGER:
+                return n.intValue();
+            case DataType.LONG:
+                return n.longValue();
+            case DataType.FLOAT:
+                return n.floatValue();
+            case DataType.DOUBLE:
+                return n.doubleValue();
+            }
+        } else if (value instanceof String && type == DataType.CHARARRAY) {
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * @return the column of the load or the constant the operand is, or null
+     * if it is neither
+     */
+    private Expression getOperand(ExpressionOperator op) throws Exception {
+        if (op instanceof LOCast) {
+            // the type checker casts constants to the type of the column
+            ExpressionOperator input = ((LOCast)op).getExpression();
+            if (!(input instanceof LOConst)) {
+                return null;
+            }
+            Object value = cast(((LOConst)input).getValue(), op.getType());
+            return value == null ? null : new Expression.Const(value);
+        }
+        if (op instanceof LOConst) {
+            Object value = ((LOConst)op).getValue();
+            return value == null ? null : new Expression.Const(value);
+        }
+        if (op instanceof LOProject) {
+            LOProject project = (LOProject)op;
+            if (project.isStar() || project.getProjection().size() != 1
+                    || project.getExpression() != mFilter
+                    && project.getExpression() != mLoad) {
+                return null;
+            }
+            int col = project.getCol();
+            Schema determined = mLoad.getDeterminedSchema();
+            Schema schema = mLoad.getSchema();
+            if (col >= determined.size() || col >= schema.size()
+                    || !DataType.isAtomic(schema.getField(col).type)
+                    || schema.getField(col).type != determined.getField(col).type) {
+                return null;
+            }
+            String name = determined.getField(col).alias;
+            return name == null ? null : new Expression.Column(name);
+        }
+        return null;
+    }
+}
@@ -48,6 +48,14 @@ import org.apache.pig.impl.plan.PlanException;
 public class CompilerUtils {
 
     public static void addEmptyBagOuterJoin(PhysicalPlan fePlan, Schema inputSchema) throws PlanException {
+        addEmptyBagOuterJoin(fePlan, inputSchema.size());
+    }
+
+    /**
+     * @param fieldCount the number of fields of the input whose bag is
+     * replaced with a bag of one tuple of nulls when it is empty
+     */
+    public static void addEmptyBagOuterJoin(PhysicalPlan fePlan, int fieldCount) throws PlanException {
         // we currently have POProject[bag] as the only operator in the plan
         // If the bag is an empty bag, we should replace
         // it with a bag with one tuple with null fields so that when we flatten
@@ -82,8 +90,8 @@ public class CompilerUtils {
                     NodeIdGenerator.getGenerator().getNextNodeId(scope)));
             // the following should give a tuple with the
             // required number of nulls
-            Tuple t = TupleFactory.getInstance().newTuple(inputSchema.size());
-            for(int i = 0; i < inputSchema.size(); i++) {
+            Tuple t = TupleFactory.getInstance().newTuple(fieldCount);
+            for(int i = 0; i < fieldCount; i++) {
                 t.set(i, null);
             }
             List<Tuple> bagContents = new ArrayList<Tuple>(1);
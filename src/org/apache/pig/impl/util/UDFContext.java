@@ -29,6 +29,8 @@ import org.apache.pig.impl.util.ObjectSerializer;
 public class UDFContext {
     
     private Configuration jconf = null;
+    // the map plan of a task may run on several threads, so the methods
+    // which use the properties of the UDFs are synchronized
     private HashMap<Integer, Properties> udfConfs;
     private Properties clientSysProps;
     private static final String CLIENT_SYS_PROPS = "pig.client.sys.props";
@@ -38,7 +40,7 @@ public class UDFContext {
         udfConfs = new HashMap<Integer, Properties>();
     }
 
-    public static UDFContext getUDFContext() {
+    public static synchronized UDFContext getUDFContext() {
         if (self == null) {
             self = new UDFContext();
         }
@@ -108,7 +110,7 @@ public class UDFContext {
      */
     
     @SuppressWarnings("unchecked")
-    public Properties getUDFProperties(Class c, String[] args) {
+    public synchronized Properties getUDFProperties(Class c, String[] args) {
         Integer k = generateKey(c, args);
         Properties p = udfConfs.get(k);
         if (p == null) {
@@ -141,7 +143,7 @@ public class UDFContext {
      * function.
      */
     @SuppressWarnings("unchecked")
-    public Properties getUDFProperties(Class c) {
+    public synchronized Properties getUDFProperties(Class c) {
         Integer k = generateKey(c);
         Properties p = udfConfs.get(k);
         if (p == null) {
@@ -159,7 +161,7 @@ public class UDFContext {
      * @param conf JobConf to serialize into
      * @throws IOException if underlying serialization throws it
      */
-    public void serialize(Configuration conf) throws IOException {
+    public synchronized void serialize(Configuration conf) throws IOException {
         conf.set(UDF_CONTEXT, ObjectSerializer.serialize(udfConfs));
         conf.set(CLIENT_SYS_PROPS, ObjectSerializer.serialize(clientSysProps));
     }
@@ -171,7 +173,7 @@ public class UDFContext {
      * @throws IOException if underlying deseralization throws it
      */
     @SuppressWarnings("unchecked")
-    public void deserialize() throws IOException {  
+    public synchronized void deserialize() throws IOException {  
         udfConfs = (HashMap<Integer, Properties>)ObjectSerializer.deserialize(jconf.get(UDF_CONTEXT));
         clientSysProps = (Properties)ObjectSerializer.deserialize(
                 jconf.get(CLIENT_SYS_PROPS));
@@ -192,7 +194,7 @@ public class UDFContext {
         return hc;
     }
     
-    public void reset() {
+    public synchronized void reset() {
         udfConfs.clear();
     }
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MRCompiler;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.builtin.COUNT;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.builtin.BloomFilterCheck;
+import org.apache.pig.impl.builtin.BuildBloomFilter;
+import org.apache.pig.impl.io.BinStorageRecordWriter;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.test.utils.LogicalPlanTester;
+import org.junit.Test;
+
+public class TestBloomJoin extends TestCase {
+
+    private static TupleFactory tf = TupleFactory.getInstance();
+
+    private static BagFactory bf = BagFactory.getInstance();
+
+    private static Tuple key(Object... fields) {
+        Tuple t = tf.newTuple(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            try {
+                t.set(i, fields[i]);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return t;
+    }
+
+    private static Tuple bagOf(Tuple... tuples) {
+        DataBag bag = bf.newDefaultBag();
+        for (Tuple t : tuples) {
+            bag.add(t);
+        }
+        return tf.newTuple(bag);
+    }
+
+    private static BloomFilterCheck check(DataByteArray filter) throws Exception {
+        File f = File.createTempFile("bloom", null);
+        f.deleteOnExit();
+        // the filter is stored by BinStorage in a one field tuple
+        BinStorageRecordWriter writer = new BinStorageRecordWriter(
+                new DataOutputStream(new FileOutputStream(f)));
+        if (filter != null) {
+            writer.write(null, tf.newTuple(filter));
+        }
+        writer.close(null);
+        return new BloomFilterCheck(f.getAbsolutePath());
+    }
+
+    private static MROperPlan compile(PigContext pc, String... query) throws Exception {
+        LogicalPlanTester planTester = new LogicalPlanTester(pc);
+        LogicalPlan lp = null;
+        for (String q : query) {
+            lp = planTester.buildPlan(q);
+        }
+        planTester.typeCheckPlan(lp);
+        PhysicalPlan pp = Util.buildPhysicalPlan(lp, pc);
+        return Util.buildMRPlan(pp, pc);
+    }
+
+    private static PigContext context(boolean bloomJoin) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(MRCompiler.BLOOM_JOIN, Boolean.toString(bloomJoin));
+        PigContext pc = new PigContext(ExecType.LOCAL, props);
+        pc.connect();
+        return pc;
+    }
+
+    /**
+     * @return the map reduce operator with a function of the given class,
+     * in the filter or foreach operators of one of its plans
+     */
+    private static MapReduceOper findFunc(MROperPlan mrPlan, Class<?> func) {
+        for (MapReduceOper mro : mrPlan) {
+            for (PhysicalPlan phase : new PhysicalPlan[] {
+                    mro.mapPlan, mro.combinePlan, mro.reducePlan }) {
+                for (PhysicalOperator op : phase) {
+                    List<PhysicalPlan> inner = new ArrayList<PhysicalPlan>();
+                    if (op instanceof POFilter) {
+                        inner.add(((POFilter)op).getPlan());
+                    } else if (op instanceof POForEach) {
+                        inner.addAll(((POForEach)op).getInputPlans());
+                    }
+                    for (PhysicalPlan p : inner) {
+                        for (PhysicalOperator e : p) {
+                            if (e instanceof POUserFunc && ((POUserFunc)e)
+                                    .getFuncSpec().getClassName().startsWith(func.getName())) {
+                                return mro;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testCheck() throws Exception {
+        Tuple[] keys = new Tuple[100];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(i, "k" + i);
+        }
+        DataByteArray filter = new BuildBloomFilter("65536", "3").exec(bagOf(keys));
+        BloomFilterCheck check = check(filter);
+        for (Tuple k : keys) {
+            assertTrue(check.exec(k));
+        }
+        int falsePositives = 0;
+        for (int i = keys.length; i < 10 * keys.length; i++) {
+            if (check.exec(key(i, "k" + i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 10);
+        // a key with the same fields of other types is another key
+        assertFalse(check.exec(key((long)0, "k0")));
+
+        // no keys on the other side of the join
+        assertFalse(check(null).exec(keys[0]));
+    }
+
+    @Test
+    public void testJoinPlan() throws Exception {
+        String[] query = {
+                "A = load 'a' as (a0:int, a1:chararray);",
+                "B = load 'b' as (b0:int, b1:chararray);",
+                "C = filter B by b1 != 'x';",
+                "D = join A by (a0, a1), C by (b0, b1);",
+                "store D into 'output';" };
+        MROperPlan mrPlan = compile(context(true), query);
+        MapReduceOper bloomJob = findFunc(mrPlan, BuildBloomFilter.class);
+        MapReduceOper joinJob = findFunc(mrPlan, BloomFilterCheck.class);
+        assertNotNull(bloomJob);
+        assertNotNull(joinJob);
+        assertNotSame(bloomJob, joinJob);
+        assertTrue(mrPlan.getPredecessors(joinJob).contains(bloomJob));
+        assertEquals(1, bloomJob.getRequestedParallelism());
+        // the first input is read as it is loaded
+        assertEquals(2, mrPlan.size());
+        POStore filterStore = (POStore)bloomJob.reducePlan.getLeaves().get(0);
+        POUserFunc check = null;
+        for (PhysicalOperator op : joinJob.mapPlan) {
+            if (op instanceof POFilter && ((POFilter)op).getPlan().getLeaves().get(0)
+                    instanceof POUserFunc) {
+                check = (POUserFunc)((POFilter)op).getPlan().getLeaves().get(0);
+            }
+        }
+        assertNotNull(check);
+        assertEquals(filterStore.getSFile().getFileName(),
+                check.getFuncSpec().getCtorArgs()[0]);
+        // both fields of the key
+        assertEquals(2, check.getInputs().size());
+
+        // not without the property, nor for outer joins
+        assertNull(findFunc(compile(context(false), query), BloomFilterCheck.class));
+        query[3] = "D = join A by (a0, a1) left outer, C by (b0, b1);";
+        assertNull(findFunc(compile(context(true), query), BloomFilterCheck.class));
+    }
+
+    @Test
+    public void testJoinAfterGroup() throws Exception {
+        MROperPlan mrPlan = compile(context(true),
+                "A = load 'a' as (a0:int, a1:chararray);",
+                "B = group A by a1;",
+                "C = foreach B generate group, COUNT(A);",
+                "D = load 'd' as (d0:chararray);",
+                "E = join C by group, D by d0;",
+                "store E into 'output';");
+        MapReduceOper bloomJob = findFunc(mrPlan, BuildBloomFilter.class);
+        MapReduceOper joinJob = findFunc(mrPlan, BloomFilterCheck.class);
+        assertNotNull(bloomJob);
+        assertNotNull(joinJob);
+        // the group output is stored, and read by both jobs
+        MapReduceOper group = findFunc(mrPlan, COUNT.class);
+        assertEquals(1, mrPlan.getPredecessors(bloomJob).size());
+        assertSame(group, mrPlan.getPredecessors(bloomJob).get(0));
+        assertTrue(mrPlan.getPredecessors(joinJob).contains(group));
+        assertTrue(mrPlan.getPredecessors(joinJob).contains(bloomJob));
+    }
+
+    @Test
+    public void testAlgebraicSameAsExec() throws Exception {
+        String[] args = { "1024", "3" };
+        Tuple[] keys = new Tuple[20];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(i, "k" + i);
+        }
+        BuildBloomFilter.Initial initial = new BuildBloomFilter.Initial(args[0], args[1]);
+        BuildBloomFilter.Intermediate intermed = new BuildBloomFilter.Intermediate(args[0], args[1]);
+        BuildBloomFilter.Final fin = new BuildBloomFilter.Final(args[0], args[1]);
+
+        // the keys of the first half reach the final step as a filter of
+        // a combiner, the others as they come from the map
+        DataBag partials = bf.newDefaultBag();
+        for (int i = 0; i < keys.length / 2; i++) {
+            partials.add(initial.exec(bagOf(keys[i])));
+        }
+        DataBag finals = bf.newDefaultBag();
+        finals.add(intermed.exec(tf.newTuple(partials)));
+        for (int i = keys.length / 2; i < keys.length; i++) {
+            finals.add(initial.exec(bagOf(keys[i])));
+        }
+        DataByteArray merged = fin.exec(tf.newTuple(finals));
+
+        DataByteArray direct = new BuildBloomFilter(args[0], args[1]).exec(bagOf(keys));
+        assertEquals(direct, merged);
+    }
+}
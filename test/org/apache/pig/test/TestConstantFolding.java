@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.ConstantFoldingOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Divide;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.test.utils.LogicalPlanTester;
+import org.junit.Test;
+
+public class TestConstantFolding extends TestCase {
+
+    static PigContext pc;
+    static {
+        pc = new PigContext(ExecType.LOCAL, new Properties());
+        try {
+            pc.connect();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private MapReduceOper optimize(String... query) throws Exception {
+        LogicalPlanTester planTester = new LogicalPlanTester(pc);
+        LogicalPlan lp = null;
+        for (String line : query) {
+            lp = planTester.buildPlan(line);
+        }
+        planTester.typeCheckPlan(lp);
+        PhysicalPlan pp = Util.buildPhysicalPlan(lp, pc);
+        MROperPlan mrPlan = Util.buildMRPlan(pp, pc);
+        new ConstantFoldingOptimizer(mrPlan).visit();
+        return mrPlan.getRoots().get(0);
+    }
+
+    private <T extends PhysicalOperator> T find(PhysicalPlan plan, Class<T> c) {
+        for (PhysicalOperator op : plan) {
+            if (c.isInstance(op)) {
+                return c.cast(op);
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testFoldArithmetic() throws Exception {
+        MapReduceOper mr = optimize("A = load 'input' as (a0:int, a1:chararray);",
+                "B = filter A by a0 > 1 + 2 * 3;",
+                "store B into 'output';");
+        PhysicalPlan filterPlan = find(mr.mapPlan, POFilter.class).getPlan();
+        assertEquals(3, filterPlan.size());
+        BinaryExpressionOperator gt = (BinaryExpressionOperator)filterPlan.getLeaves().get(0);
+        assertTrue(gt.getRhs() instanceof ConstantExpression);
+        assertEquals(7, ((ConstantExpression)gt.getRhs()).getValue());
+        assertSame(gt.getRhs(), filterPlan.getPredecessors(gt).get(1));
+    }
+
+    @Test
+    public void testFoldCondition() throws Exception {
+        MapReduceOper mr = optimize("A = load 'input' as (a0:int, a1:chararray);",
+                "B = filter A by 2 > 1 and 'abc' matches 'a.*';",
+                "store B into 'output';");
+        PhysicalPlan filterPlan = find(mr.mapPlan, POFilter.class).getPlan();
+        assertEquals(1, filterPlan.size());
+        ConstantExpression c = (ConstantExpression)filterPlan.getRoots().get(0);
+        assertEquals(Boolean.TRUE, c.getValue());
+    }
+
+    @Test
+    public void testFoldCast() throws Exception {
+        MapReduceOper mr = optimize("A = load 'input' as (a0:long, a1:chararray);",
+                "B = foreach A generate a0 + 5, (a1 is null ? 1.5 : 2);",
+                "store B into 'output';");
+        POForEach foreach = find(mr.mapPlan, POForEach.class);
+        PhysicalPlan first = foreach.getInputPlans().get(0);
+        BinaryExpressionOperator add = (BinaryExpressionOperator)first.getLeaves().get(0);
+        assertEquals(5L, ((ConstantExpression)add.getRhs()).getValue());
+        PhysicalPlan second = foreach.getInputPlans().get(1);
+        for (PhysicalOperator op : second) {
+            if (op instanceof ConstantExpression) {
+                assertTrue(((ConstantExpression)op).getValue() instanceof Double);
+            }
+        }
+    }
+
+    @Test
+    public void testNoFoldWithWarning() throws Exception {
+        // the division by zero warning is left to be given at run time
+        MapReduceOper mr = optimize("A = load 'input' as (a0:int, a1:chararray);",
+                "B = foreach A generate a0, 1 / 0;",
+                "store B into 'output';");
+        POForEach foreach = find(mr.mapPlan, POForEach.class);
+        assertNotNull(find(foreach.getInputPlans().get(1), Divide.class));
+    }
+}
@@ -75,6 +75,31 @@ public class TestConversions extends TestCase {
         }        
     }
     
+    @Test
+    public  void testBytesToIntegerAndLongBounds() throws IOException
+    {
+        // the plain decimals are parsed from the bytes, the rest as before
+        String[] a = {"2147483647", "-2147483648", "2147483648", "-0", "007",
+                " 5", "+5", "1e3"};
+        Integer[] ia = {Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                0, 7, 5, 5, 1000};
+        for (int i = 0; i < ia.length; i++) {
+            assertEquals(ia[i], ps.getLoadCaster().bytesToInteger(a[i].getBytes()));
+        }
+        assertNull(ps.getLoadCaster().bytesToInteger("2147483649".getBytes()));
+        assertNull(ps.getLoadCaster().bytesToInteger("-".getBytes()));
+
+        a = new String[]{"9223372036854775807", "-9223372036854775808",
+                "999999999999999999", "-999999999999999999L", "-0l"};
+        Long[] la = {Long.MAX_VALUE, Long.MIN_VALUE, 999999999999999999L,
+                -999999999999999999L, 0L};
+        for (int i = 0; i < la.length; i++) {
+            assertEquals(la[i], ps.getLoadCaster().bytesToLong(a[i].getBytes()));
+        }
+        assertNull(ps.getLoadCaster().bytesToLong("L".getBytes()));
+        assertNull(ps.getLoadCaster().bytesToLong("12a".getBytes()));
+    }
+
     @Test
     public  void testBytesToFloat() throws IOException
     {
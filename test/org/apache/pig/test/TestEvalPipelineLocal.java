@@ -23,12 +23,14 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import junit.framework.TestCase;
@@ -1046,4 +1048,151 @@ public class TestEvalPipelineLocal extends TestCase {
         assertEquals((LOOP_COUNT * LOOP_COUNT)/2, numRows);
     }
 
+    @Test
+    public void testMapPlanOnThreads() throws Exception{
+        int LOOP_COUNT = 100;
+        File tmpFile = File.createTempFile("test", "txt");
+        PrintStream ps = new PrintStream(new FileOutputStream(tmpFile));
+        for(int i = 0; i < LOOP_COUNT; i++) {
+            ps.println("k" + (i % 3) + "\t" + i);
+        }
+        ps.close();
+
+        pigServer.getPigContext().getProperties().setProperty(
+                "pig.map.threads", "3");
+        pigServer.getPigContext().getProperties().setProperty(
+                "pig.map.threads.batch", "7");
+        pigServer.registerQuery("A = LOAD '"
+                + Util.generateURI(tmpFile.toString(), pigServer
+                        .getPigContext()) + "' as (k:chararray, v:int);");
+        pigServer.registerQuery("B = filter A by v % 2 == 0;");
+        pigServer.registerQuery("C = foreach B generate v, SIZE(k);");
+
+        // the output of a map only job keeps the input order
+        Iterator<Tuple> iter = pigServer.openIterator("C");
+        for(int i = 0; i < LOOP_COUNT; i += 2) {
+            assertTrue(iter.hasNext());
+            Tuple t = iter.next();
+            assertEquals(i, t.get(0));
+            assertEquals(2L, t.get(1));
+        }
+        assertFalse(iter.hasNext());
+
+        pigServer.registerQuery("D = group B by k;");
+        pigServer.registerQuery("E = foreach D generate group, COUNT(B);");
+        iter = pigServer.openIterator("E");
+        Map<String, Long> counts = new HashMap<String, Long>();
+        while(iter.hasNext()) {
+            Tuple t = iter.next();
+            counts.put((String)t.get(0), (Long)t.get(1));
+        }
+        assertEquals(3, counts.size());
+        assertEquals(Long.valueOf(17), counts.get("k0"));
+        assertEquals(Long.valueOf(16), counts.get("k1"));
+        assertEquals(Long.valueOf(17), counts.get("k2"));
+    }
+
+    /**
+     * Returns the same tuple for every record.
+     */
+    public static class ReusingLoader extends PigStorage {
+        private Tuple reused;
+
+        @Override
+        public Tuple getNext() throws IOException {
+            Tuple t = super.getNext();
+            if (t == null) {
+                return null;
+            }
+            if (reused == null) {
+                reused = TupleFactory.getInstance().newTuple(t.size());
+            }
+            for (int i = 0; i < t.size(); i++) {
+                reused.set(i, t.get(i));
+            }
+            return reused;
+        }
+    }
+
+    /**
+     * Records the threads it is called on.
+     */
+    public static class ThreadRecorder extends EvalFunc<Integer> {
+        static Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+
+        @Override
+        public Integer exec(Tuple input) throws IOException {
+            threads.add(Thread.currentThread().getName());
+            return (Integer)input.get(0);
+        }
+    }
+
+    @Test
+    public void testMapPlanOnThreadsWithReusedTuples() throws Exception{
+        int LOOP_COUNT = 100;
+        File tmpFile = File.createTempFile("test", "txt");
+        PrintStream ps = new PrintStream(new FileOutputStream(tmpFile));
+        for(int i = 0; i < LOOP_COUNT; i++) {
+            ps.println("k" + i + "\t" + i);
+        }
+        ps.close();
+
+        pigServer.getPigContext().getProperties().setProperty(
+                "pig.map.threads", "3");
+        pigServer.getPigContext().getProperties().setProperty(
+                "pig.map.threads.batch", "7");
+        pigServer.registerQuery("A = LOAD '"
+                + Util.generateURI(tmpFile.toString(), pigServer
+                        .getPigContext()) + "' using "
+                + ReusingLoader.class.getName() + "() as (k:chararray, v:int);");
+        pigServer.registerQuery("B = foreach A generate k, v;");
+        Iterator<Tuple> iter = pigServer.openIterator("B");
+        for(int i = 0; i < LOOP_COUNT; i++) {
+            assertTrue(iter.hasNext());
+            Tuple t = iter.next();
+            assertEquals("k" + i, t.get(0));
+            assertEquals(i, t.get(1));
+        }
+        assertFalse(iter.hasNext());
+
+        // UDFs from outside of the builtins are run on the task thread
+        ThreadRecorder.threads.clear();
+        pigServer.registerQuery("C = foreach A generate "
+                + ThreadRecorder.class.getName() + "(v);");
+        iter = pigServer.openIterator("C");
+        for(int i = 0; i < LOOP_COUNT; i++) {
+            assertEquals(i, iter.next().get(0));
+        }
+        assertFalse(iter.hasNext());
+        assertEquals(1, ThreadRecorder.threads.size());
+    }
+
+    @Test
+    public void testMapPlanOnBatchesWithReusedTuples() throws Exception{
+        int LOOP_COUNT = 100;
+        File tmpFile = File.createTempFile("test", "txt");
+        PrintStream ps = new PrintStream(new FileOutputStream(tmpFile));
+        for(int i = 0; i < LOOP_COUNT; i++) {
+            ps.println("k" + i + "\t" + i);
+        }
+        ps.close();
+
+        pigServer.getPigContext().getProperties().setProperty(
+                "pig.exec.batch.size", "7");
+        pigServer.registerQuery("A = LOAD '"
+                + Util.generateURI(tmpFile.toString(), pigServer
+                        .getPigContext()) + "' using "
+                + ReusingLoader.class.getName() + "() as (k:chararray, v:int);");
+        pigServer.registerQuery("B = filter A by v >= 10;");
+        pigServer.registerQuery("C = foreach B generate k, v;");
+        Iterator<Tuple> iter = pigServer.openIterator("C");
+        for(int i = 10; i < LOOP_COUNT; i++) {
+            assertTrue(iter.hasNext());
+            Tuple t = iter.next();
+            assertEquals("k" + i, t.get(0));
+            assertEquals(i, t.get(1));
+        }
+        assertFalse(iter.hasNext());
+    }
+
 }
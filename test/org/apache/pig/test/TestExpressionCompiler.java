@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Add;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryComparisonOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Divide;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.EqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionCompiler;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GreaterThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.LTOrEqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.LessThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Mod;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Multiply;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POAnd;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POBinCond;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POCompiledExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PONegative;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PONot;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POOr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Subtract;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.junit.Test;
+
+/**
+ * Checks that expressions compiled by the {@link ExpressionCompiler} give the
+ * same results as the interpreted operators, including nulls and division
+ * by zero.
+ */
+public class TestExpressionCompiler extends TestCase {
+
+    // columns of the input tuples
+    private static final int X = 0, Y = 1, LX = 2, LY = 3, DX = 4, DY = 5,
+            S = 6, FX = 7, FY = 8;
+
+    private Random r = new Random(42);
+
+    private List<ExpressionOperator> roots = new ArrayList<ExpressionOperator>();
+
+    private List<Tuple> genInput(int n) {
+        List<Tuple> input = new ArrayList<Tuple>();
+        TupleFactory tf = TupleFactory.getInstance();
+        for (int i = 0; i < n; i++) {
+            Tuple t = tf.newTuple(9);
+            try {
+                t.set(X, maybeNull(r.nextInt(5) - 2));
+                t.set(Y, maybeNull(r.nextInt(5) - 2));
+                t.set(LX, maybeNull((long)r.nextInt(7) - 3));
+                t.set(LY, maybeNull((long)r.nextInt(7) - 3));
+                t.set(DX, maybeNull((double)r.nextInt(5) / 2));
+                t.set(DY, maybeNull((double)r.nextInt(5) / 2));
+                t.set(S, maybeNull(r.nextBoolean() ? "a" : "b"));
+                t.set(FX, maybeNull((float)r.nextInt(5) - 2));
+                t.set(FY, maybeNull((float)r.nextInt(3)));
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+            input.add(t);
+        }
+        return input;
+    }
+
+    private Object maybeNull(Object o) {
+        return r.nextInt(5) == 0 ? null : o;
+    }
+
+    private OperatorKey key() {
+        return new OperatorKey("", r.nextLong());
+    }
+
+    private POProject project(int column, byte type) {
+        POProject prj = new POProject(key(), -1, column);
+        prj.setResultType(type);
+        roots.add(prj);
+        return prj;
+    }
+
+    private ConstantExpression constant(Object value, byte type) {
+        ConstantExpression c = new ConstantExpression(key());
+        c.setValue(value);
+        c.setResultType(type);
+        roots.add(c);
+        return c;
+    }
+
+    private <T extends BinaryExpressionOperator> T binary(T op,
+            ExpressionOperator lhs, ExpressionOperator rhs, byte type) {
+        op.setLhs(lhs);
+        op.setRhs(rhs);
+        op.setResultType(type);
+        return op;
+    }
+
+    private <T extends BinaryComparisonOperator> T compare(T op,
+            ExpressionOperator lhs, ExpressionOperator rhs, byte operandType) {
+        binary(op, lhs, rhs, DataType.BOOLEAN);
+        op.setOperandType(operandType);
+        return op;
+    }
+
+    private Object eval(ExpressionOperator op, byte type) throws ExecException {
+        Result res;
+        switch (type) {
+        case DataType.INTEGER: res = op.getNext((Integer)null); break;
+        case DataType.LONG: res = op.getNext((Long)null); break;
+        case DataType.FLOAT: res = op.getNext((Float)null); break;
+        case DataType.DOUBLE: res = op.getNext((Double)null); break;
+        case DataType.BOOLEAN: res = op.getNext((Boolean)null); break;
+        case DataType.CHARARRAY: res = op.getNext((String)null); break;
+        default: throw new AssertionError("unexpected type " + type);
+        }
+        assertTrue(res.returnStatus == POStatus.STATUS_OK
+                || res.returnStatus == POStatus.STATUS_NULL);
+        return res.result;
+    }
+
+    private void checkSameResults(ExpressionOperator op) throws ExecException {
+        POCompiledExpression compiled = ExpressionCompiler.compile(op, key());
+        assertNotNull(compiled);
+        byte type = op.getResultType();
+        for (Tuple t : genInput(500)) {
+            for (ExpressionOperator root : roots) {
+                root.attachInput(t);
+            }
+            Object expected = eval(op, type);
+            for (ExpressionOperator root : roots) {
+                root.attachInput(t);
+            }
+            assertEquals(t.toString(), expected, eval(compiled, type));
+        }
+    }
+
+    @Test
+    public void testIntegerArithmetic() throws ExecException {
+        // (x + y) * 2 - x / y + x % y
+        ExpressionOperator sum = binary(new Add(key()),
+                project(X, DataType.INTEGER), project(Y, DataType.INTEGER), DataType.INTEGER);
+        ExpressionOperator times = binary(new Multiply(key()),
+                sum, constant(2, DataType.INTEGER), DataType.INTEGER);
+        ExpressionOperator div = binary(new Divide(key()),
+                project(X, DataType.INTEGER), project(Y, DataType.INTEGER), DataType.INTEGER);
+        ExpressionOperator mod = binary(new Mod(key()),
+                project(X, DataType.INTEGER), project(Y, DataType.INTEGER), DataType.INTEGER);
+        ExpressionOperator minus = binary(new Subtract(key()), times, div, DataType.INTEGER);
+        checkSameResults(binary(new Add(key()), minus, mod, DataType.INTEGER));
+    }
+
+    @Test
+    public void testLongArithmetic() throws ExecException {
+        // lx * ly - lx / ly
+        ExpressionOperator times = binary(new Multiply(key()),
+                project(LX, DataType.LONG), project(LY, DataType.LONG), DataType.LONG);
+        ExpressionOperator div = binary(new Divide(key()),
+                project(LX, DataType.LONG), project(LY, DataType.LONG), DataType.LONG);
+        checkSameResults(binary(new Subtract(key()), times, div, DataType.LONG));
+    }
+
+    @Test
+    public void testFloatingPointArithmetic() throws ExecException {
+        // -(dx / dy) + dx
+        ExpressionOperator div = binary(new Divide(key()),
+                project(DX, DataType.DOUBLE), project(DY, DataType.DOUBLE), DataType.DOUBLE);
+        PONegative neg = new PONegative(key(), -1, div);
+        neg.setResultType(DataType.DOUBLE);
+        checkSameResults(binary(new Add(key()), neg, project(DX, DataType.DOUBLE),
+                DataType.DOUBLE));
+
+        // fx / fy - fx
+        roots.clear();
+        ExpressionOperator fdiv = binary(new Divide(key()),
+                project(FX, DataType.FLOAT), project(FY, DataType.FLOAT), DataType.FLOAT);
+        checkSameResults(binary(new Subtract(key()), fdiv, project(FX, DataType.FLOAT),
+                DataType.FLOAT));
+    }
+
+    @Test
+    public void testBooleanLogic() throws ExecException {
+        // (x > y and dx <= dy) or not (s == 'a')
+        ExpressionOperator gt = compare(new GreaterThanExpr(key()),
+                project(X, DataType.INTEGER), project(Y, DataType.INTEGER), DataType.INTEGER);
+        ExpressionOperator lte = compare(new LTOrEqualToExpr(key()),
+                project(DX, DataType.DOUBLE), project(DY, DataType.DOUBLE), DataType.DOUBLE);
+        ExpressionOperator and = binary(new POAnd(key()), gt, lte, DataType.BOOLEAN);
+        ExpressionOperator eq = compare(new EqualToExpr(key()),
+                project(S, DataType.CHARARRAY), constant("a", DataType.CHARARRAY),
+                DataType.CHARARRAY);
+        PONot not = new PONot(key());
+        not.setExpr(eq);
+        not.setResultType(DataType.BOOLEAN);
+        checkSameResults(binary(new POOr(key()), and, not, DataType.BOOLEAN));
+    }
+
+    @Test
+    public void testBinCond() throws ExecException {
+        // lx < ly ? s : 'z'
+        ExpressionOperator lt = compare(new LessThanExpr(key()),
+                project(LX, DataType.LONG), project(LY, DataType.LONG), DataType.LONG);
+        POBinCond bincond = new POBinCond(key(), -1, lt,
+                project(S, DataType.CHARARRAY), constant("z", DataType.CHARARRAY));
+        bincond.setResultType(DataType.CHARARRAY);
+        checkSameResults(bincond);
+    }
+
+    @Test
+    public void testUnsupportedExpression() throws ExecException {
+        // a lone projection has nothing to gain from compilation
+        assertNull(ExpressionCompiler.compile(project(X, DataType.INTEGER), key()));
+    }
+}
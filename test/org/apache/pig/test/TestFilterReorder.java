@@ -0,0 +1,442 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.ExecType;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.FilterReorderOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryComparisonOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Divide;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GreaterThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.NotEqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POAnd;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POOr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.test.utils.LogicalPlanTester;
+import org.junit.Test;
+
+public class TestFilterReorder extends TestCase {
+
+    static PigContext pc;
+    static {
+        pc = new PigContext(ExecType.LOCAL, new Properties());
+        try {
+            pc.connect();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // the row the conditions are evaluated for
+    private static int row;
+
+    private static volatile double sink;
+
+    private static OperatorKey key() {
+        return new OperatorKey("test", NodeIdGenerator.getGenerator().getNextNodeId("test"));
+    }
+
+    /**
+     * A condition on the row number, which counts how often it is evaluated
+     * and can be made expensive.
+     */
+    private static abstract class Condition extends ExpressionOperator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int work;
+
+        int calls = 0;
+
+        Condition(int work) {
+            super(key());
+            this.work = work;
+        }
+
+        abstract Boolean value(int row) throws ExecException;
+
+        @Override
+        public Result getNext(Boolean b) throws ExecException {
+            calls++;
+            double x = row;
+            for (int i = 0; i < work; i++) {
+                x = Math.sqrt(x + i);
+            }
+            sink = x;
+            Boolean v = value(row);
+            res.returnStatus = v == null ? POStatus.STATUS_NULL : POStatus.STATUS_OK;
+            res.result = v;
+            return res;
+        }
+
+        @Override
+        public void visit(PhyPlanVisitor v) throws VisitorException {
+        }
+
+        @Override
+        public String name() {
+            return "Condition - " + mKey.toString();
+        }
+
+        @Override
+        public boolean supportsMultipleInputs() {
+            return false;
+        }
+
+        @Override
+        protected List<ExpressionOperator> getChildExpressions() {
+            return null;
+        }
+    }
+
+    private BinaryComparisonOperator and(ExpressionOperator lhs,
+            ExpressionOperator rhs, boolean reorder) {
+        POAnd and = new POAnd(key());
+        and.setLhs(lhs);
+        and.setRhs(rhs);
+        and.setReorderOperands(reorder);
+        return and;
+    }
+
+    private BinaryComparisonOperator or(ExpressionOperator lhs,
+            ExpressionOperator rhs, boolean reorder) {
+        POOr or = new POOr(key());
+        or.setLhs(lhs);
+        or.setRhs(rhs);
+        or.setReorderOperands(reorder);
+        return or;
+    }
+
+    private static Boolean evaluate(ExpressionOperator op) throws ExecException {
+        Result r = op.getNext((Boolean)null);
+        assertTrue(r.returnStatus == POStatus.STATUS_OK
+                || r.returnStatus == POStatus.STATUS_NULL);
+        return (Boolean)r.result;
+    }
+
+    @Test
+    public void testCheapConditionFirst() throws Exception {
+        Condition slow = new Condition(2000) {
+            Boolean value(int row) { return row % 10 != 0; }
+        };
+        Condition cheap = new Condition(0) {
+            Boolean value(int row) { return row % 10 == 0; }
+        };
+        BinaryComparisonOperator and = and(slow, cheap, true);
+        int rows = 20000;
+        for (row = 0; row < rows; row++) {
+            assertEquals(Boolean.FALSE, evaluate(and));
+        }
+        // in script order the slow condition is evaluated for every row
+        assertTrue(slow.calls < rows / 4);
+    }
+
+    @Test
+    public void testLikelyConditionFirst() throws Exception {
+        Condition slow = new Condition(2000) {
+            Boolean value(int row) { return row % 10 == 0; }
+        };
+        Condition cheap = new Condition(0) {
+            Boolean value(int row) { return row % 10 != 0; }
+        };
+        Condition never = new Condition(0) {
+            Boolean value(int row) { return false; }
+        };
+        BinaryComparisonOperator or = or(or(slow, never, true), cheap, true);
+        int rows = 20000;
+        for (row = 0; row < rows; row++) {
+            assertEquals(Boolean.TRUE, evaluate(or));
+        }
+        assertTrue(slow.calls < rows / 4);
+    }
+
+    @Test
+    public void testSameResultsAsScriptOrder() throws Exception {
+        // each row gives the three conditions one of false, true and null
+        Condition[] conds = new Condition[3];
+        for (int i = 0; i < conds.length; i++) {
+            final int digit = i;
+            conds[i] = new Condition(i == 0 ? 500 : 0) {
+                Boolean value(int row) {
+                    switch (row / (digit == 0 ? 1 : digit == 1 ? 3 : 9) % 3) {
+                    case 0: return false;
+                    case 1: return true;
+                    default: return null;
+                    }
+                }
+            };
+        }
+        ExpressionOperator[] reordered = {
+                and(and(conds[0], conds[1], true), conds[2], true),
+                or(or(conds[0], conds[1], true), conds[2], true),
+                and(or(conds[0], conds[1], true), conds[2], true) };
+        ExpressionOperator[] plain = {
+                and(and(conds[0], conds[1], false), conds[2], false),
+                or(or(conds[0], conds[1], false), conds[2], false),
+                and(or(conds[0], conds[1], false), conds[2], false) };
+        for (row = 0; row < 27 * 200; row++) {
+            for (int i = 0; i < plain.length; i++) {
+                assertEquals("row " + row + " expression " + i,
+                        evaluate(plain[i]), evaluate(reordered[i]));
+            }
+        }
+    }
+
+    /**
+     * Counts its calls, and fails for the row with the value 10.
+     */
+    public static class CountingFunc extends EvalFunc<Boolean> {
+
+        static int calls = 0;
+
+        @Override
+        public Boolean exec(Tuple input) throws IOException {
+            calls++;
+            int value = (Integer)input.get(0);
+            if (value == 10) {
+                throw new IOException("Failed for " + value);
+            }
+            return value % 4 == 0;
+        }
+    }
+
+    // the leaves of the expression, which read the input of each row
+    private List<ExpressionOperator> roots = new ArrayList<ExpressionOperator>();
+
+    private POProject project(int column) {
+        POProject prj = new POProject(key(), -1, column);
+        prj.setResultType(DataType.INTEGER);
+        roots.add(prj);
+        return prj;
+    }
+
+    private ConstantExpression constant(int value) {
+        ConstantExpression c = new ConstantExpression(key());
+        c.setValue(value);
+        c.setResultType(DataType.INTEGER);
+        roots.add(c);
+        return c;
+    }
+
+    private static BinaryComparisonOperator compare(BinaryComparisonOperator op,
+            ExpressionOperator lhs, ExpressionOperator rhs) {
+        op.setLhs(lhs);
+        op.setRhs(rhs);
+        op.setOperandType(DataType.INTEGER);
+        op.setResultType(DataType.BOOLEAN);
+        return op;
+    }
+
+    @Test
+    public void testDivisionStaysGuarded() throws Exception {
+        // d != 0 and a / d > 2 and a % 10 == 0, where the division is never
+        // evaluated for a zero d in script order. The last condition may
+        // move ahead of the division, but the guard may not move behind it.
+        final int[] unguarded = new int[1];
+        final int[] divisions = new int[1];
+        POProject a = project(0);
+        POProject d = project(1);
+        POProject guardD = project(1);
+        Divide div = new Divide(key()) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Result getNext(Integer i) throws ExecException {
+                divisions[0]++;
+                if (row / 2 % 2 == 0) {
+                    unguarded[0]++;
+                }
+                return super.getNext(i);
+            }
+        };
+        div.setLhs(a);
+        div.setRhs(d);
+        div.setResultType(DataType.INTEGER);
+        Condition tenth = new Condition(0) {
+            Boolean value(int row) { return row % 10 == 0; }
+        };
+        BinaryComparisonOperator and = and(and(
+                compare(new NotEqualToExpr(key()), guardD, constant(0)),
+                compare(new GreaterThanExpr(key()), div, constant(2)), true),
+                tenth, true);
+        int rows = 20000;
+        for (row = 0; row < rows; row++) {
+            Tuple t = TupleFactory.getInstance().newTuple(2);
+            t.set(0, row);
+            t.set(1, row / 2 % 2);
+            for (ExpressionOperator root : roots) {
+                root.attachInput(t);
+            }
+            assertEquals(Boolean.valueOf(row / 2 % 2 == 1 && row > 2
+                    && row % 10 == 0), evaluate(and));
+        }
+        assertEquals(0, unguarded[0]);
+        assertTrue(divisions[0] < rows / 4);
+    }
+
+    /**
+     * Counts its calls, and is expensive.
+     */
+    public static class SlowFunc extends EvalFunc<Boolean> {
+
+        static int calls = 0;
+
+        @Override
+        public Boolean exec(Tuple input) throws IOException {
+            calls++;
+            int value = (Integer)input.get(0);
+            double x = value;
+            for (int i = 0; i < 2000; i++) {
+                x = Math.sqrt(x + i);
+            }
+            sink = x;
+            return value % 10 != 0;
+        }
+    }
+
+    @Test
+    public void testCheapConditionAheadOfUDF() throws Exception {
+        // the cheap condition after the UDF decides most rows, and moves
+        // ahead of it
+        POUserFunc func = new POUserFunc(key(), -1, null,
+                new FuncSpec(SlowFunc.class.getName()));
+        func.setResultType(DataType.BOOLEAN);
+        Condition cheap = new Condition(0) {
+            Boolean value(int row) { return row % 10 == 0; }
+        };
+        BinaryComparisonOperator and = and(func, cheap, true);
+        SlowFunc.calls = 0;
+        int rows = 20000;
+        for (row = 0; row < rows; row++) {
+            func.attachInput(TupleFactory.getInstance().newTuple(
+                    (Object)Integer.valueOf(row)));
+            assertEquals(Boolean.FALSE, evaluate(and));
+        }
+        assertTrue(SlowFunc.calls < rows / 4);
+    }
+
+    @Test
+    public void testUDFEvaluatedOncePerRow() throws Exception {
+        // the UDF is only called on the rows the cheap condition lets
+        // through, and not again for the row on which it fails
+        Condition even = new Condition(0) {
+            Boolean value(int row) { return row % 2 == 0; }
+        };
+        POUserFunc func = new POUserFunc(key(), -1, null,
+                new FuncSpec(CountingFunc.class.getName()));
+        func.setResultType(DataType.BOOLEAN);
+        BinaryComparisonOperator and = and(even, func, true);
+        CountingFunc.calls = 0;
+        try {
+            for (row = 0; row < 5000; row++) {
+                func.attachInput(TupleFactory.getInstance().newTuple(
+                        (Object)Integer.valueOf(row)));
+                assertEquals(Boolean.valueOf(row % 4 == 0), evaluate(and));
+            }
+            fail("The UDF did not fail");
+        } catch (ExecException e) {
+            assertEquals(10, row);
+        }
+        assertEquals(6, CountingFunc.calls);
+        assertEquals(11, even.calls);
+    }
+
+    @Test
+    public void testUnsafeFilterNotMerged() throws Exception {
+        // the division would also be evaluated for a null a1 if the
+        // filters were merged
+        LogicalPlanTester planTester = new LogicalPlanTester(pc);
+        planTester.buildPlan("A = load 'input' as (a0:int, a1:int);");
+        planTester.buildPlan("B = filter A by a1 != 0;");
+        planTester.buildPlan("C = filter B by a0 / a1 > 2 and a0 > 5;");
+        LogicalPlan lp = planTester.buildPlan("store C into 'output';");
+        planTester.typeCheckPlan(lp);
+        PhysicalPlan pp = Util.buildPhysicalPlan(lp, pc);
+        MROperPlan mrPlan = Util.buildMRPlan(pp, pc);
+        new FilterReorderOptimizer(mrPlan).visit();
+        MapReduceOper mr = mrPlan.getRoots().get(0);
+
+        int filters = 0;
+        for (PhysicalOperator op : mr.mapPlan) {
+            if (op instanceof POFilter) {
+                filters++;
+            }
+        }
+        assertEquals(2, filters);
+    }
+
+    @Test
+    public void testMergeAdjacentFilters() throws Exception {
+        LogicalPlanTester planTester = new LogicalPlanTester(pc);
+        planTester.buildPlan("A = load 'input' as (a0:int, a1:chararray);");
+        planTester.buildPlan("B = filter A by a0 > 5;");
+        planTester.buildPlan("C = filter B by a1 == 'x' or a0 < 100;");
+        LogicalPlan lp = planTester.buildPlan("store C into 'output';");
+        planTester.typeCheckPlan(lp);
+        PhysicalPlan pp = Util.buildPhysicalPlan(lp, pc);
+        MROperPlan mrPlan = Util.buildMRPlan(pp, pc);
+        new FilterReorderOptimizer(mrPlan).visit();
+        MapReduceOper mr = mrPlan.getRoots().get(0);
+
+        POFilter filter = null;
+        for (PhysicalOperator op : mr.mapPlan) {
+            if (op instanceof POFilter) {
+                assertNull(filter);
+                filter = (POFilter)op;
+            }
+        }
+        assertNotNull(filter);
+        PhysicalPlan condition = filter.getPlan();
+        POAnd and = (POAnd)condition.getLeaves().get(0);
+        assertTrue(and.isReorderOperands());
+        assertTrue(and.getRhs() instanceof POOr);
+        assertTrue(((POOr)and.getRhs()).isReorderOperands());
+        assertEquals(2, condition.getPredecessors(and).size());
+        PhysicalOperator succ = mr.mapPlan.getSuccessors(filter).get(0);
+        assertEquals(1, succ.getInputs().size());
+        assertSame(filter, succ.getInputs().get(0));
+    }
+}
@@ -29,6 +29,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 
 import org.apache.hadoop.conf.Configuration;
@@ -565,8 +566,55 @@ public class TestJobSubmission extends junit.framework.TestCase{
             }
         }
         assertEquals(3, counter);
-        
-        pc.defaultParallel = -1;        
+
+        pc.defaultParallel = -1;
+    }
+
+    @Test
+    public void testLocalMapParallelism() throws Throwable {
+        PigContext localPc = new PigContext(ExecType.LOCAL, new Properties());
+        localPc.connect();
+
+        LogicalPlanTester planTester = new LogicalPlanTester() ;
+        LogicalPlan lp = planTester.buildPlan("a = load 'input';");
+        PhysicalPlan pp = Util.buildPhysicalPlan(lp, localPc);
+        POStore store = GenPhyOp.dummyPigStorageOp();
+        pp.addAsLeaf(store);
+        MROperPlan mrPlan = Util.buildMRPlan(pp, localPc);
+
+        ExecutionEngine exe = localPc.getExecutionEngine();
+        Configuration conf = ConfigurationUtil.toConfiguration(exe.getConfiguration());
+        JobControlCompiler jcc = new JobControlCompiler(localPc, conf);
+
+        // map tasks run one at a time unless asked for
+        JobControl jobControl = jcc.compile(mrPlan, "Test");
+        Job job = jobControl.getWaitingJobs().get(0);
+        assertNull(job.getJobConf().get(JobControlCompiler.LOCAL_MAX_MAPS));
+
+        pp = Util.buildPhysicalPlan(lp, localPc);
+        pp.addAsLeaf(GenPhyOp.dummyPigStorageOp());
+        mrPlan = Util.buildMRPlan(pp, localPc);
+        conf = ConfigurationUtil.toConfiguration(exe.getConfiguration());
+        conf.setBoolean(JobControlCompiler.LOCAL_PARALLEL_MAPS, true);
+        jcc = new JobControlCompiler(localPc, conf);
+        jobControl = jcc.compile(mrPlan, "Test");
+        job = jobControl.getWaitingJobs().get(0);
+        int maxMaps = job.getJobConf().getInt(
+                JobControlCompiler.LOCAL_MAX_MAPS, -1);
+        assertEquals(Runtime.getRuntime().availableProcessors(), maxMaps);
+
+        // a value set by the user is left alone
+        pp = Util.buildPhysicalPlan(lp, localPc);
+        pp.addAsLeaf(GenPhyOp.dummyPigStorageOp());
+        mrPlan = Util.buildMRPlan(pp, localPc);
+        conf = ConfigurationUtil.toConfiguration(exe.getConfiguration());
+        conf.setBoolean(JobControlCompiler.LOCAL_PARALLEL_MAPS, true);
+        conf.set(JobControlCompiler.LOCAL_MAX_MAPS, "3");
+        jcc = new JobControlCompiler(localPc, conf);
+        jobControl = jcc.compile(mrPlan, "Test");
+        job = jobControl.getWaitingJobs().get(0);
+        assertEquals(3, job.getJobConf().getInt(
+                JobControlCompiler.LOCAL_MAX_MAPS, -1));
     }
 
     private void submit() throws Exception{
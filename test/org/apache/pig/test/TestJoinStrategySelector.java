@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.ExecType;
+import org.apache.pig.Expression;
+import org.apache.pig.LoadMetadata;
+import org.apache.pig.ResourceSchema;
+import org.apache.pig.ResourceStatistics;
+import org.apache.pig.builtin.PigStorage;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.logicalLayer.LOJoin;
+import org.apache.pig.impl.logicalLayer.LogicalOperator;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.impl.logicalLayer.optimizer.JoinStrategySelector;
+import org.apache.pig.impl.logicalLayer.optimizer.LogicalOptimizer;
+import org.apache.pig.test.utils.LogicalPlanTester;
+import org.junit.Test;
+
+public class TestJoinStrategySelector extends TestCase {
+
+    private String big;
+
+    private String small;
+
+    /**
+     * A loader with statistics for the first field, whose most common value
+     * is in the given part of the rows, and which may say its input is
+     * sorted on the first field.
+     */
+    public static class StatsLoader extends PigStorage implements LoadMetadata {
+
+        private final float freq;
+
+        private final boolean sorted;
+
+        public StatsLoader(String freq, String sorted) {
+            this.freq = Float.parseFloat(freq);
+            this.sorted = Boolean.parseBoolean(sorted);
+        }
+
+        public ResourceSchema getSchema(String location, Job job) throws IOException {
+            if (!sorted) {
+                return null;
+            }
+            try {
+                ResourceSchema schema = new ResourceSchema(
+                        Util.getSchemaFromString("x:int, s:chararray"));
+                schema.setSortKeys(new int[] { 0 });
+                schema.setSortKeyOrders(new ResourceSchema.Order[] {
+                        ResourceSchema.Order.ASCENDING });
+                return schema;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        public ResourceStatistics getStatistics(String location, Job job) throws IOException {
+            ResourceStatistics.ResourceFieldStatistics field =
+                new ResourceStatistics.ResourceFieldStatistics();
+            field.setMostCommonValues(new Object[] { 1 });
+            field.setMostCommonValuesFreq(new float[] { freq });
+            ResourceStatistics stats = new ResourceStatistics();
+            stats.setFields(new ResourceStatistics.ResourceFieldStatistics[] { field });
+            return stats;
+        }
+
+        public String[] getPartitionKeys(String location, Job job) throws IOException {
+            return null;
+        }
+
+        public void setPartitionFilter(Expression partitionFilter) throws IOException {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        String[] rows = new String[1000];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i % 10 + "\tabcdefghij";
+        }
+        File f = File.createTempFile("big", ".txt");
+        Util.createLocalInputFile(f.getAbsolutePath(), rows);
+        big = f.getAbsolutePath();
+        f = File.createTempFile("small", ".txt");
+        Util.createLocalInputFile(f.getAbsolutePath(), new String[] { "1\ta", "2\tb" });
+        small = f.getAbsolutePath();
+    }
+
+    private LOJoin optimize(Properties props, String... query) throws Exception {
+        PigContext pc = new PigContext(ExecType.LOCAL, props);
+        pc.connect();
+        LogicalPlanTester planTester = new LogicalPlanTester(pc);
+        LogicalPlan lp = null;
+        for (String q : query) {
+            lp = planTester.buildPlan(q);
+        }
+        planTester.typeCheckPlan(lp);
+        new LogicalOptimizer(lp, ExecType.LOCAL).optimize();
+        for (LogicalOperator op : lp) {
+            if (op instanceof LOJoin) {
+                return (LOJoin)op;
+            }
+        }
+        fail("No join in the plan");
+        return null;
+    }
+
+    private Properties props(long maxBytes) {
+        Properties props = new Properties();
+        props.setProperty(JoinStrategySelector.AUTO_SELECT, "true");
+        props.setProperty(JoinStrategySelector.REPLICATED_MAX_BYTES, Long.toString(maxBytes));
+        return props;
+    }
+
+    private String load(String alias, String file, String loader) {
+        return alias + " = load '" + file + "' using " + loader + " as (x:int, s:chararray);";
+    }
+
+    @Test
+    public void testReplicated() throws Exception {
+        LOJoin join = optimize(props(1000),
+                load("A", big, "PigStorage()"),
+                load("B", small, "PigStorage()"),
+                "C = join A by x, B by x;");
+        assertEquals(LOJoin.JOINTYPE.REPLICATED, join.getJoinType());
+        assertTrue(join.name().contains("using replicated"));
+
+        // the small input would have to be the first one
+        join = optimize(props(1000),
+                load("A", big, "PigStorage()"),
+                load("B", small, "PigStorage()"),
+                "C = join B by x, A by x;");
+        assertEquals(LOJoin.JOINTYPE.HASH, join.getJoinType());
+
+        // the filter gives no more than the big input
+        join = optimize(props(100000),
+                load("A", big, "PigStorage()"),
+                "B = filter A by x > 5;",
+                load("C", small, "PigStorage()"),
+                "D = join C by x left outer, B by x;");
+        assertEquals(LOJoin.JOINTYPE.REPLICATED, join.getJoinType());
+    }
+
+    @Test
+    public void testUserChoiceKept() throws Exception {
+        LOJoin join = optimize(props(1000),
+                load("A", big, "PigStorage()"),
+                load("B", small, "PigStorage()"),
+                "C = join A by x, B by x using 'hash';");
+        assertEquals(LOJoin.JOINTYPE.HASH, join.getJoinType());
+        assertNull(join.getJoinTypeReason());
+
+        Properties props = props(1000);
+        props.setProperty(JoinStrategySelector.AUTO_SELECT, "false");
+        join = optimize(props,
+                load("A", big, "PigStorage()"),
+                load("B", small, "PigStorage()"),
+                "C = join A by x, B by x;");
+        assertEquals(LOJoin.JOINTYPE.HASH, join.getJoinType());
+    }
+
+    @Test
+    public void testSkewed() throws Exception {
+        String skewed = StatsLoader.class.getName() + "('0.3', 'false')";
+        String even = StatsLoader.class.getName() + "('0.01', 'false')";
+        LOJoin join = optimize(props(0),
+                load("A", big, skewed),
+                load("B", big, even),
+                "C = join A by x, B by x;");
+        assertEquals(LOJoin.JOINTYPE.SKEWED, join.getJoinType());
+
+        join = optimize(props(0),
+                load("A", big, even),
+                load("B", big, skewed),
+                "C = join A by x, B by x;");
+        assertEquals(LOJoin.JOINTYPE.HASH, join.getJoinType());
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        String sorted = StatsLoader.class.getName() + "('0', 'true')";
+        String unsorted = StatsLoader.class.getName() + "('0', 'false')";
+        LOJoin join = optimize(props(0),
+                "A = load '" + big + "' using " + sorted + ";",
+                "B = load '" + big + "' using " + sorted + ";",
+                "C = join A by x, B by x;");
+        assertEquals(LOJoin.JOINTYPE.MERGE, join.getJoinType());
+
+        join = optimize(props(0),
+                "A = load '" + big + "' using " + sorted + ";",
+                "B = load '" + big + "' using " + unsorted + " as (x:int, s:chararray);",
+                "C = join A by x, B by x;");
+        assertEquals(LOJoin.JOINTYPE.HASH, join.getJoinType());
+    }
+}
@@ -20,15 +20,26 @@ package org.apache.pig.test;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
 
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.pig.ExecType;
 import org.apache.pig.Expression;
 import org.apache.pig.LoadMetadata;
+import org.apache.pig.PigServer;
 import org.apache.pig.ResourceSchema;
 import org.apache.pig.ResourceStatistics;
 import org.apache.pig.builtin.BinStorage;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.LOFilter;
+import org.apache.pig.impl.logicalLayer.LOLoad;
 import org.apache.pig.impl.logicalLayer.LOPrinter;
+import org.apache.pig.impl.logicalLayer.LOSplit;
+import org.apache.pig.impl.logicalLayer.LogicalOperator;
 import org.apache.pig.impl.logicalLayer.LogicalPlan;
 import org.apache.pig.impl.logicalLayer.PlanSetter;
 import org.apache.pig.impl.logicalLayer.optimizer.ImplicitSplitInserter;
@@ -37,8 +48,10 @@ import org.apache.pig.impl.logicalLayer.optimizer.OpLimitOptimizer;
 import org.apache.pig.impl.logicalLayer.optimizer.TypeCastInserter;
 import org.apache.pig.impl.logicalLayer.parser.ParseException;
 import org.apache.pig.impl.plan.optimizer.OptimizerException;
+import org.apache.pig.impl.util.ObjectSerializer;
 import org.apache.pig.impl.util.Utils;
 import org.apache.pig.test.utils.LogicalPlanTester;
+import org.apache.pig.test.utils.TestHelper;
 import org.junit.Test;
 
 /**
@@ -267,6 +280,90 @@ public class TestLogicalOptimizer extends junit.framework.TestCase {
         optimizePlan(plan);
     }
 
+    @Test
+    // Merge the same load and filter computed under different aliases
+    public void testCommonSubPlanMerger() throws Exception {
+        planTester.buildPlan("A = load 'myfile' as (a0:int, a1:int);");
+        planTester.buildPlan("B = filter A by a0 > 5;");
+        planTester.buildPlan("C = load 'myfile' as (a0:int, a1:int);");
+        planTester.buildPlan("D = filter C by a0 > 5;");
+        planTester.buildPlan("E = foreach B generate a0;");
+        planTester.buildPlan("F = foreach D generate a1;");
+        LogicalPlan plan = planTester.buildPlan("G = union E, F;");
+        optimizePlan(plan);
+
+        assertEquals(1, plan.getRoots().size());
+        int loads = 0, filters = 0, splits = 0;
+        for (LogicalOperator op : plan) {
+            if (op instanceof LOLoad) loads++;
+            if (op instanceof LOFilter) filters++;
+            if (op instanceof LOSplit) splits++;
+        }
+        assertEquals(1, loads);
+        assertEquals(1, filters);
+        assertEquals(1, splits);
+    }
+
+    @Test
+    // Loads which feed into the same operator cannot be merged
+    public void testCommonSubPlanMergerSelfJoin() throws Exception {
+        planTester.buildPlan("A = load 'myfile';");
+        planTester.buildPlan("B = load 'myfile';");
+        LogicalPlan plan = planTester.buildPlan("C = join A by $0, B by $1;");
+        optimizePlan(plan);
+
+        assertEquals(2, plan.getRoots().size());
+    }
+
+    @Test
+    // Merged sub-plans give the same output as the duplicated ones
+    public void testCommonSubPlanMergerOutput() throws Exception {
+        File input = Util.createInputFile("tmp", "", new String[] {
+                "1\t10\ta", "3\t30\tb", "4\t40\tc", "4\t41\td", "7\t70\te"});
+        String load = "load 'file:" + Util.encodeEscape(input.toString())
+            + "' as (a0:int, a1:int, a2:chararray);";
+        String chains = "A = " + load
+            + "B = filter A by a0 > 2;"
+            + "C = foreach B generate a0, a1 * 2 as d;"
+            + "D = " + load
+            + "E = filter D by a0 > 2;"
+            + "F = foreach E generate a0, a1 * 2 as d;"
+            + "G = foreach E generate a0, a1 * 2 as d;";
+        String join = chains + "H = join C by a0, F by a0;";
+        String union = chains + "H = union C, G;";
+
+        DataBag joined = runWithCommonSubPlanMerger(join, "H", true);
+        assertEquals(6, joined.size());
+        assertTrue(TestHelper.compareBags(joined,
+                runWithCommonSubPlanMerger(join, "H", false)));
+        DataBag unioned = runWithCommonSubPlanMerger(union, "H", true);
+        assertEquals(8, unioned.size());
+        assertTrue(TestHelper.compareBags(unioned,
+                runWithCommonSubPlanMerger(union, "H", false)));
+    }
+
+    private DataBag runWithCommonSubPlanMerger(String script, String alias,
+            boolean on) throws Exception {
+        Properties props = new Properties();
+        if (!on) {
+            HashSet<String> rulesOff = new HashSet<String>();
+            rulesOff.add("CommonSubPlanMerger");
+            props.setProperty("pig.optimizer.rules",
+                    ObjectSerializer.serialize(rulesOff));
+        }
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        for (String query : script.split(";")) {
+            pigServer.registerQuery(query + ";");
+        }
+        DataBag bag = BagFactory.getInstance().newDefaultBag();
+        Iterator<Tuple> it = pigServer.openIterator(alias);
+        while (it.hasNext()) {
+            bag.add(it.next());
+        }
+        pigServer.shutdown();
+        return bag;
+    }
+
     /**
      * test to check that {@link LoadMetadata#getSchema(String, Job)} is called
      * only once even if the optimizer is fired and schemas and projection maps
@@ -2144,6 +2144,43 @@ public class TestLogicalPlanBuilder extends junit.framework.TestCase {
                 "not occur", true, exceptionThrown);
     }
     
+    @Test
+    public void testMergeCogroup() {
+        buildPlan(" a = load '1.txt' as (a0:int, a1:int);");
+        buildPlan(" b = load '2.txt' as (b0:int, b1:int);");
+        buildPlan(" c = load '3.txt' as (c0:int, c1:int);");
+        LogicalPlan lp = buildPlan("d = cogroup a by a0, b by b0, c by c0 using 'merge';");
+        LOCogroup cogroup = (LOCogroup)lp.getLeaves().get(0);
+        assertEquals(LOCogroup.GROUPTYPE.MERGE, cogroup.getGroupType());
+        assertTrue(cogroup.isPinnedOption(LOCogroup.OPTION_GROUPTYPE));
+    }
+
+    @Test
+    public void testMergeCogroupByExpressionFailure() {
+        boolean exceptionThrown = false;
+        try {
+            buildPlan(" a = load '1.txt' as (a0:int, a1:int);");
+            buildPlan(" b = load '2.txt' as (b0:int, b1:int);");
+            buildPlan("c = cogroup a by a0 + a1, b by b0 using 'merge';");
+        } catch (AssertionFailedError e) {
+            assertTrue(e.getMessage().contains("Merge cogroup is only supported for columns or star projection"));
+            exceptionThrown = true;
+        }
+        assertEquals("An exception was expected but did " +
+                "not occur", true, exceptionThrown);
+    }
+
+    @Test
+    public void testMergeJoin3Way() {
+        buildPlan(" a = load '1.txt' as (a0:int, a1:int);");
+        buildPlan(" b = load '2.txt' as (b0:int, b1:int);");
+        buildPlan(" c = load '3.txt' as (c0:int, c1:int);");
+        LogicalPlan lp = buildPlan("d = join a by a0, b by b0, c by c0 using 'merge';");
+        LOJoin join = (LOJoin)lp.getLeaves().get(0);
+        assertEquals(LOJoin.JOINTYPE.MERGE, join.getJoinType());
+        assertEquals(3, join.getInputs().size());
+    }
+    
     private void printPlan(LogicalPlan lp) {
         LOPrinter graphPrinter = new LOPrinter(System.err, lp);
         System.err.println("Printing the logical plan");
@@ -17,30 +17,40 @@
  */
 package org.apache.pig.test;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
 
 import junit.framework.Assert;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.pig.CollectableLoadFunc;
 import org.apache.pig.ExecType;
 import org.apache.pig.IndexableLoadFunc;
 import org.apache.pig.LoadCaster;
 import org.apache.pig.LoadFunc;
+import org.apache.pig.OrderedLoadFunc;
 import org.apache.pig.PigException;
 import org.apache.pig.PigServer;
 import org.apache.pig.backend.datastorage.DataStorage;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.builtin.PigStorage;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.PigContext;
 import org.apache.pig.impl.io.BufferedPositionedInputStream;
 import org.apache.pig.impl.logicalLayer.FrontendException;
@@ -57,6 +67,9 @@ public class TestMergeJoin {
 
     private static final String INPUT_FILE = "testMergeJoinInput.txt";
     private static final String INPUT_FILE2 = "testMergeJoinInput2.txt";
+    private static final String SIDE_FILE = "testMergeJoinSide.txt";
+    private static final String EMPTY_FILE = "testMergeJoinEmpty.txt";
+    private static final String SPLIT_DIR = "testMergeJoinSplits";
     private PigServer pigServer;
     private MiniCluster cluster = MiniCluster.buildCluster();
 
@@ -81,6 +94,12 @@ public class TestMergeJoin {
         Util.createInputFile(cluster, INPUT_FILE, input);
         
         Util.createInputFile(cluster, INPUT_FILE2, new String[]{"2"});
+        // keys 0 and 4 are not in INPUT_FILE
+        Util.createInputFile(cluster, SIDE_FILE, new String[]{"0\ta", "2\tb", "2\tc", "4\td"});
+        Util.createInputFile(cluster, EMPTY_FILE, new String[]{});
+        // one split per file, the second one starts at key 3
+        Util.createInputFile(cluster, SPLIT_DIR + "/part-00000", new String[]{"1\tx", "2\ty"});
+        Util.createInputFile(cluster, SPLIT_DIR + "/part-00001", new String[]{"3\tz", "4\tw"});
     }
 
     /**
@@ -90,6 +109,9 @@ public class TestMergeJoin {
     public void tearDown() throws Exception {
         Util.deleteFile(cluster, INPUT_FILE);
         Util.deleteFile(cluster, INPUT_FILE2);
+        Util.deleteFile(cluster, SIDE_FILE);
+        Util.deleteFile(cluster, EMPTY_FILE);
+        Util.deleteFile(cluster, SPLIT_DIR);
     }
 
     @Test
@@ -383,16 +405,168 @@ public class TestMergeJoin {
         pigServer.registerQuery("A = LOAD '" + INPUT_FILE + "' as (id, name, n);");
         pigServer.registerQuery("B = LOAD '" + INPUT_FILE + "' as (id, name);");
         pigServer.registerQuery("C = LOAD '" + INPUT_FILE + "' as (id, name);");
-        try {
+        DataBag dbMergeJoin = BagFactory.getInstance().newDefaultBag(), dbshj = BagFactory.getInstance().newDefaultBag();
+        {
             pigServer.registerQuery("D = join A by id, B by id, C by id using \"merge\";");
+            Iterator<Tuple> iter = pigServer.openIterator("D");
+
+            while(iter.hasNext()) {
+                dbMergeJoin.add(iter.next());
+            }
+        }
+        {
+            pigServer.registerQuery("D = join A by id, B by id, C by id;");
+            Iterator<Tuple> iter = pigServer.openIterator("D");
+
+            while(iter.hasNext()) {
+                dbshj.add(iter.next());
+            }
+        }
+        Assert.assertEquals(81, dbMergeJoin.size());
+        Assert.assertEquals(dbMergeJoin.size(), dbshj.size());
+        Assert.assertEquals(true, TestHelper.compareBags(dbMergeJoin, dbshj));
+    }       
+
+    @Test
+    public void testMergeCogroupFailure() throws IOException{
+        pigServer.registerQuery("A = LOAD '" + INPUT_FILE + "' as (id, name, n);");
+        pigServer.registerQuery("B = LOAD '" + INPUT_FILE + "' as (id, name);");
+        pigServer.registerQuery("C = cogroup A by id, B by id using 'merge';");
+        try {
+            pigServer.openIterator("C");
         }catch(Exception e) {
             PigException pe = LogUtils.getPigException(e);
-            Assert.assertEquals(1000,pe.getErrorCode());
+            Assert.assertEquals(1104,pe.getErrorCode());
             return;
         }
-        Assert.fail("Should throw exception, do not support 3 way join");
+        Assert.fail("Should fail to compile, PigStorage is not a CollectableLoadFunc");
     }       
 
+    @Test
+    public void testMergeCogroup() throws IOException{
+        checkMergeCogroup(INPUT_FILE, SIDE_FILE, 5);
+    }
+
+    @Test
+    public void testMergeCogroupEmptySide() throws IOException{
+        checkMergeCogroup(INPUT_FILE, EMPTY_FILE, 3);
+    }
+
+    @Test
+    public void testMergeCogroupEmptyBase() throws IOException{
+        checkMergeCogroup(EMPTY_FILE, SIDE_FILE, 3);
+    }
+
+    @Test
+    public void testMergeCogroupSplits() throws IOException{
+        // the second split must not emit the side key 2 again, which
+        // seekNear() leaves in front of its first key
+        checkMergeCogroup(SPLIT_DIR, SIDE_FILE, 5, DummySeekBeforeLoader.class.getName());
+    }
+
+    @Test
+    public void testMergeCogroup3Way() throws IOException{
+        String loader = DummyMergeCogroupLoader.class.getName();
+        pigServer.registerQuery("A = LOAD '" + INPUT_FILE + "' using " + loader + "() as (id, name);");
+        pigServer.registerQuery("B = LOAD '" + SIDE_FILE + "' using " + loader + "() as (id, name);");
+        pigServer.registerQuery("C = LOAD '" + INPUT_FILE2 + "' using " + loader + "() as (id);");
+        DataBag dbMergeCogroup = BagFactory.getInstance().newDefaultBag(), dbCogroup = BagFactory.getInstance().newDefaultBag();
+        {
+            pigServer.registerQuery("D = cogroup A by id, B by id, C by id using 'merge';");
+            Iterator<Tuple> iter = pigServer.openIterator("D");
+
+            while(iter.hasNext()) {
+                dbMergeCogroup.add(iter.next());
+            }
+        }
+        {
+            pigServer.registerQuery("D = cogroup A by id, B by id, C by id;");
+            Iterator<Tuple> iter = pigServer.openIterator("D");
+
+            while(iter.hasNext()) {
+                dbCogroup.add(iter.next());
+            }
+        }
+        Assert.assertEquals(5, dbMergeCogroup.size());
+        Assert.assertEquals(dbMergeCogroup.size(), dbCogroup.size());
+        Assert.assertEquals(true, TestHelper.compareBags(dbMergeCogroup, dbCogroup));
+    }
+
+    @Test
+    public void testMergeJoin3WayIndexable() throws IOException{
+        checkMergeJoin3Way(SIDE_FILE, 6);
+    }
+
+    @Test
+    public void testMergeJoin3WayEmptySide() throws IOException{
+        checkMergeJoin3Way(EMPTY_FILE, 0);
+    }
+
+    /**
+     * Cogroups the two files with a merge cogroup and with a regular one,
+     * and checks that both give the same output.
+     */
+    private void checkMergeCogroup(String base, String side, int groups) throws IOException{
+        checkMergeCogroup(base, side, groups, DummyMergeCogroupLoader.class.getName());
+    }
+
+    private void checkMergeCogroup(String base, String side, int groups, String loader) throws IOException{
+        pigServer.registerQuery("A = LOAD '" + base + "' using " + loader + "() as (id, name);");
+        pigServer.registerQuery("B = LOAD '" + side + "' using " + loader + "() as (id, name);");
+        DataBag dbMergeCogroup = BagFactory.getInstance().newDefaultBag(), dbCogroup = BagFactory.getInstance().newDefaultBag();
+        {
+            pigServer.registerQuery("C = cogroup A by id, B by id using 'merge';");
+            Iterator<Tuple> iter = pigServer.openIterator("C");
+
+            while(iter.hasNext()) {
+                dbMergeCogroup.add(iter.next());
+            }
+        }
+        {
+            pigServer.registerQuery("C = cogroup A by id, B by id;");
+            Iterator<Tuple> iter = pigServer.openIterator("C");
+
+            while(iter.hasNext()) {
+                dbCogroup.add(iter.next());
+            }
+        }
+        Assert.assertEquals(groups, dbMergeCogroup.size());
+        Assert.assertEquals(dbMergeCogroup.size(), dbCogroup.size());
+        Assert.assertEquals(true, TestHelper.compareBags(dbMergeCogroup, dbCogroup));
+    }
+
+    /**
+     * Joins INPUT_FILE, the given file and INPUT_FILE2 with a merge join,
+     * which is run as a merge cogroup, and with a regular join, and checks
+     * that both give the same output.
+     */
+    private void checkMergeJoin3Way(String side, int rows) throws IOException{
+        String loader = DummyMergeCogroupLoader.class.getName();
+        pigServer.registerQuery("A = LOAD '" + INPUT_FILE + "' using " + loader + "() as (id, name);");
+        pigServer.registerQuery("B = LOAD '" + side + "' using " + loader + "() as (id, name);");
+        pigServer.registerQuery("C = LOAD '" + INPUT_FILE2 + "' using " + loader + "() as (id);");
+        DataBag dbMergeJoin = BagFactory.getInstance().newDefaultBag(), dbshj = BagFactory.getInstance().newDefaultBag();
+        {
+            pigServer.registerQuery("D = join A by id, B by id, C by id using \"merge\";");
+            Iterator<Tuple> iter = pigServer.openIterator("D");
+
+            while(iter.hasNext()) {
+                dbMergeJoin.add(iter.next());
+            }
+        }
+        {
+            pigServer.registerQuery("D = join A by id, B by id, C by id;");
+            Iterator<Tuple> iter = pigServer.openIterator("D");
+
+            while(iter.hasNext()) {
+                dbshj.add(iter.next());
+            }
+        }
+        Assert.assertEquals(rows, dbMergeJoin.size());
+        Assert.assertEquals(dbMergeJoin.size(), dbshj.size());
+        Assert.assertEquals(true, TestHelper.compareBags(dbMergeJoin, dbshj));
+    }
+
     @Test
     public void testMergeJoinFailure1() throws IOException{
         pigServer.registerQuery("A = LOAD '" + INPUT_FILE + "' as (id, name, n);");
@@ -667,4 +841,93 @@ public class TestMergeJoin {
         }
         
     }
+
+    /**
+     * A loader for merge cogroup tests: {@link PigStorage} for the base
+     * input, which is a {@link CollectableLoadFunc} and an
+     * {@link OrderedLoadFunc}, and an {@link IndexableLoadFunc} which reads
+     * the whole file for the side inputs. Keys are compared as bytearrays.
+     */
+    public static class DummyMergeCogroupLoader extends PigStorage
+            implements CollectableLoadFunc, IndexableLoadFunc {
+
+        private String location;
+
+        // the remaining tuples when read as a side input
+        protected LinkedList<Tuple> sideTuples;
+
+        @Override
+        public void setLocation(String location, Job job) throws IOException {
+            this.location = location;
+            super.setLocation(location, job);
+        }
+
+        @Override
+        public void ensureAllKeyInstancesInSameSplit() throws IOException {
+        }
+
+        @Override
+        public void initialize(Configuration conf) throws IOException {
+            sideTuples = new LinkedList<Tuple>();
+            Path path = new Path(location);
+            FileSystem fs = path.getFileSystem(conf);
+            BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(path)));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.length() == 0) {
+                        continue;
+                    }
+                    String[] fields = line.split("\t");
+                    Tuple t = TupleFactory.getInstance().newTuple(fields.length);
+                    for (int i = 0; i < fields.length; i++) {
+                        t.set(i, new DataByteArray(fields[i]));
+                    }
+                    sideTuples.add(t);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public void seekNear(Tuple keys) throws IOException {
+            while (!sideTuples.isEmpty() && DataType.compare(
+                    sideTuples.getFirst().get(0), keys.get(0)) < 0) {
+                sideTuples.removeFirst();
+            }
+        }
+
+        @Override
+        public Tuple getNext() throws IOException {
+            if (sideTuples != null) {
+                return sideTuples.poll();
+            }
+            return super.getNext();
+        }
+
+        @Override
+        public void close() throws IOException {
+            sideTuples.clear();
+        }
+    }
+
+    /**
+     * Positions a side input one tuple before the key it is asked to seek,
+     * as seekNear() is allowed to.
+     */
+    public static class DummySeekBeforeLoader extends DummyMergeCogroupLoader {
+
+        @Override
+        public void seekNear(Tuple keys) throws IOException {
+            Tuple before = null;
+            while (!sideTuples.isEmpty() && DataType.compare(
+                    sideTuples.getFirst().get(0), keys.get(0)) < 0) {
+                before = sideTuples.removeFirst();
+            }
+            if (before != null) {
+                sideTuples.addFirst(before);
+            }
+        }
+    }
 }
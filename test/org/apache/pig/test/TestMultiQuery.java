@@ -57,7 +57,9 @@ import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceLau
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POSharedExpression;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.data.DataBag;
@@ -2567,6 +2569,122 @@ public class TestMultiQuery {
 
     }
 
+    @Test
+    public void testSharedExpressions() {
+        System.out.println("===== multi-query shared expressions =====");
+
+        try {
+            myPig.setBatchOn();
+            myPig.registerQuery("a = load 'passwd' " +
+                                "using PigStorage(':') as (uname:chararray, passwd:chararray, uid:int,gid:int);");
+            myPig.registerQuery("b = foreach a generate SIZE(uname), uid;");
+            myPig.registerQuery("c = foreach a generate SIZE(uname), gid;");
+            myPig.registerQuery("store b into '/tmp/output1';");
+            myPig.registerQuery("store c into '/tmp/output2';");
+
+            LogicalPlan lp = checkLogicalPlan(1, 2, 9);
+            PhysicalPlan pp = checkPhysicalPlan(lp, 1, 2, 9);
+            MROperPlan mp = checkMRPlan(pp, 1, 1, 1);
+
+            MapReduceOper mo = mp.getRoots().get(0);
+            PhysicalOperator leaf = mo.mapPlan.getLeaves().get(0);
+
+            Assert.assertTrue(leaf instanceof POSplit);
+
+            POSplit split = (POSplit)leaf;
+
+            int i = 0;
+            for (PhysicalPlan p: split.getPlans()) {
+                POForEach foreach = (POForEach)p.getRoots().get(0);
+                List<PhysicalPlan> inner = foreach.getInputPlans();
+                Assert.assertTrue(inner.get(0).getLeaves().get(0)
+                        instanceof POSharedExpression);
+                Assert.assertFalse(inner.get(1).getLeaves().get(0)
+                        instanceof POSharedExpression);
+                ++i;
+            }
+
+            Assert.assertEquals(i,2);
+
+            myPig.executeBatch();
+            myPig.discardBatch();
+
+            checkOutput("/tmp/output1", new String[] {
+                    "(4,0)", "(3,1)", "(6,2)", "(3,3)", "(2,4)", "(4,5)",
+                    "(8,6)", "(4,7)", "(4,8)", "(4,9)", "(4,10)", "(8,11)",
+                    "(5,12)", "(6,13)" });
+            checkOutput("/tmp/output2", new String[] {
+                    "(4,0)", "(3,1)", "(6,2)", "(3,4)", "(2,7)", "(4,0)",
+                    "(8,0)", "(4,0)", "(4,12)", "(4,13)", "(4,14)", "(8,0)",
+                    "(5,100)", "(6,30)" });
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail();
+        }
+    }
+
+    @Test
+    public void testSharedExpressionsAfterAccumulator() {
+        System.out.println("===== multi-query shared expressions after accumulator =====");
+
+        try {
+            // several batches for the larger groups
+            myPig.getPigContext().getProperties().setProperty(
+                    "pig.accumulative.batchsize", "2");
+            myPig.setBatchOn();
+            myPig.registerQuery("a = load 'passwd' " +
+                                "using PigStorage(':') as (uname:chararray, passwd:chararray, uid:int,gid:int);");
+            myPig.registerQuery("b = group a by gid;");
+            myPig.registerQuery("c = foreach b generate group, " +
+                                "org.apache.pig.test.utils.AccumulativeSumBag(a.uname) as unames;");
+            myPig.registerQuery("d = foreach c generate group, SIZE(unames);");
+            myPig.registerQuery("e = foreach c generate SIZE(unames), group;");
+            myPig.registerQuery("store d into '/tmp/output1';");
+            myPig.registerQuery("store e into '/tmp/output2';");
+
+            LogicalPlan lp = checkLogicalPlan(1, 2, 11);
+            PhysicalPlan pp = checkPhysicalPlan(lp, 1, 2, 13);
+            MROperPlan mp = checkMRPlan(pp, 1, 1, 1);
+
+            MapReduceOper mo = mp.getRoots().get(0);
+            PhysicalOperator pack = mo.reducePlan.getRoots().get(0);
+            POForEach accum = (POForEach)mo.reducePlan.getSuccessors(pack).get(0);
+            Assert.assertTrue(accum.isAccumulative());
+
+            PhysicalOperator leaf = mo.reducePlan.getLeaves().get(0);
+            Assert.assertTrue(leaf instanceof POSplit);
+
+            for (PhysicalPlan p: ((POSplit)leaf).getPlans()) {
+                POForEach foreach = (POForEach)p.getRoots().get(0);
+                Assert.assertFalse(foreach.isAccumulative());
+                List<PhysicalPlan> inner = foreach.getInputPlans();
+                int pos = (inner.get(0).getLeaves().get(0)
+                        instanceof POSharedExpression) ? 0 : 1;
+                Assert.assertTrue(inner.get(pos).getLeaves().get(0)
+                        instanceof POSharedExpression);
+                Assert.assertFalse(inner.get(1 - pos).getLeaves().get(0)
+                        instanceof POSharedExpression);
+            }
+
+            myPig.executeBatch();
+            myPig.discardBatch();
+
+            // the size of the names of each group, a stale shared result
+            // would repeat the size of the previous group
+            checkOutput("/tmp/output1", new String[] {
+                    "(0,38)", "(1,5)", "(2,8)", "(4,5)", "(7,4)",
+                    "(12,6)", "(13,6)", "(14,6)", "(30,8)", "(100,7)" });
+            checkOutput("/tmp/output2", new String[] {
+                    "(38,0)", "(5,1)", "(8,2)", "(5,4)", "(4,7)",
+                    "(6,12)", "(6,13)", "(6,14)", "(8,30)", "(7,100)" });
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail();
+        }
+    }
+
     @Test
     public void testUnnecessaryStoreRemoval() {
         System.out.println("===== multi-query unnecessary stores =====");
@@ -2978,6 +3096,25 @@ public class TestMultiQuery {
         return pp;
     }
 
+    private void checkOutput(String file, String[] expected) throws IOException {
+        PigServer pig = new PigServer(ExecType.MAPREDUCE, cluster.getProperties());
+        pig.registerQuery("x = load '" + file + "';");
+
+        List<String> actual = new ArrayList<String>();
+        Iterator<Tuple> iter = pig.openIterator("x");
+        while (iter.hasNext()) {
+            actual.add(iter.next().toString());
+        }
+
+        List<String> wanted = new ArrayList<String>();
+        Collections.addAll(wanted, expected);
+        Collections.sort(wanted);
+        Collections.sort(actual);
+        Assert.assertEquals(wanted, actual);
+
+        Util.deleteFile(cluster, file);
+    }
+
     private MROperPlan checkMRPlan(PhysicalPlan pp, int expectedRoots,
             int expectedLeaves, int expectedSize) throws IOException {
 
@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.test.utils.AllocationCounter;
+import org.apache.pig.test.utils.LogicalPlanTester;
+import org.junit.Test;
+
+/**
+ * Checks that common map side pipelines hand out the same Result holders
+ * and, where asked to, the same output tuples for every row, to catch
+ * operators which go back to allocating them per row.  The bytes the
+ * pipelines allocate per row are also counted, and compared with those of
+ * a baseline operator which makes a new output tuple for each row, so
+ * that the bounds do not depend on the JVM.  The bounds hold whether or
+ * not the JIT removes the objects which do not escape, and fail without
+ * the reuse of Results and tuples.
+ */
+public class TestOperatorAllocation extends TestCase {
+
+    private static final int ROWS = 100;
+
+    // The rows the allocations are counted over
+    private static final int MEASURED_ROWS = 20000;
+
+    static PigContext pc;
+    static {
+        pc = new PigContext(ExecType.LOCAL, new Properties());
+        try {
+            pc.connect();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private PhysicalPlan buildPlan(String... query) throws Exception {
+        LogicalPlanTester planTester = new LogicalPlanTester(pc);
+        LogicalPlan lp = null;
+        for (String line : query) {
+            lp = planTester.buildPlan(line);
+        }
+        planTester.typeCheckPlan(lp);
+        return Util.buildPhysicalPlan(lp, pc);
+    }
+
+    private <T extends PhysicalOperator> T find(PhysicalPlan plan, Class<T> c) {
+        for (PhysicalOperator op : plan) {
+            if (c == op.getClass()) {
+                return c.cast(op);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Typed rows, as they come out of the casts after the load.
+     */
+    private List<Tuple> rows() throws Exception {
+        return rows(ROWS);
+    }
+
+    private List<Tuple> rows(int n) throws Exception {
+        List<Tuple> rows = new ArrayList<Tuple>(n);
+        for (int i = 0; i < n; i++) {
+            Tuple t = TupleFactory.getInstance().newTuple(3);
+            t.set(0, i);
+            t.set(1, i % 100);
+            t.set(2, "value" + (i % 1000));
+            rows.add(t);
+        }
+        return rows;
+    }
+
+    /**
+     * Pulls the rows through the pipeline one at a time.
+     * @return the Results returned for the rows, the tuples in them and
+     * copies of the tuples
+     */
+    private List<Object[]> run(PhysicalOperator first, PhysicalOperator last)
+            throws Exception {
+        first.setInputs(null);
+        List<Object[]> out = new ArrayList<Object[]>();
+        for (Tuple row : rows()) {
+            first.attachInput(row);
+            while (true) {
+                Result res = last.getNext((Tuple)null);
+                if (res.returnStatus == POStatus.STATUS_EOP) {
+                    break;
+                }
+                assertEquals(POStatus.STATUS_OK, res.returnStatus);
+                Tuple t = (Tuple)res.result;
+                out.add(new Object[] { res, t,
+                        TupleFactory.getInstance().newTuple(t.getAll()) });
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The bytes allocated per row by the pipeline, as a fraction of those
+     * allocated by {@link NewTuple}.
+     */
+    private double allocation(PhysicalOperator first, PhysicalOperator last)
+            throws Exception {
+        first.setInputs(null);
+        List<Tuple> rows = rows(MEASURED_ROWS);
+        NewTuple baseline = new NewTuple();
+        double bytes = AllocationCounter.bytesPerRow(first, last, rows);
+        double base = AllocationCounter.bytesPerRow(baseline, baseline, rows);
+        assertTrue(base > 0);
+        return bytes / base;
+    }
+
+    @Test
+    public void testFilterForEach() throws Exception {
+        PhysicalPlan pp = buildPlan("A = load 'input' as (a:int, b:int, c:chararray);",
+                "B = filter A by b < 10;",
+                "C = foreach B generate a, c;",
+                "store C into 'output';");
+        POFilter filter = find(pp, POFilter.class);
+        PhysicalOperator foreach = pp.getPredecessors(find(pp, POStore.class)).get(0);
+        assertTrue(foreach instanceof POForEach);
+        List<Object[]> out = run(filter, foreach);
+        assertEquals(ROWS / 10, out.size());
+        for (int i = 1; i < out.size(); i++) {
+            assertSame(out.get(0)[0], out.get(i)[0]);
+            // the store function may keep the tuple
+            assertNotSame(out.get(i - 1)[1], out.get(i)[1]);
+            assertEquals(i / 10 * 100 + i % 10, ((Tuple)out.get(i)[2]).get(0));
+        }
+        if (AllocationCounter.isSupported()) {
+            // a tenth of the rows get a new tuple, the rest are iterators
+            // and such which the JIT may or may not remove
+            double allocation = allocation(filter, foreach);
+            assertTrue("" + allocation, allocation < 0.75);
+        }
+    }
+
+    @Test
+    public void testForEachLocalRearrange() throws Exception {
+        PhysicalPlan pp = buildPlan("A = load 'input' as (a, b, c);",
+                "B = foreach A generate b, c;",
+                "C = group B by b;",
+                "store C into 'output';");
+        POLocalRearrange lr = find(pp, POLocalRearrange.class);
+        PhysicalOperator foreach = pp.getPredecessors(lr).get(0);
+        assertTrue(foreach instanceof POForEach);
+        List<Object[]> out = run(foreach, foreach);
+        for (int i = 1; i < out.size(); i++) {
+            assertSame(out.get(0)[0], out.get(i)[0]);
+            assertNotSame(out.get(i - 1)[1], out.get(i)[1]);
+        }
+
+        // as set up by the map for the operator in front of the rearrange
+        foreach.setReuseOutput(true);
+        out = run(foreach, foreach);
+        assertEquals(ROWS, out.size());
+        for (int i = 1; i < out.size(); i++) {
+            assertSame(out.get(0)[0], out.get(i)[0]);
+            assertSame(out.get(0)[1], out.get(i)[1]);
+        }
+
+        out = run(foreach, lr);
+        assertEquals(ROWS, out.size());
+        for (int i = 1; i < out.size(); i++) {
+            assertSame(out.get(0)[0], out.get(i)[0]);
+            assertSame(out.get(0)[1], out.get(i)[1]);
+            assertEquals(i % 100, ((Tuple)out.get(i)[2]).get(1));
+        }
+        if (AllocationCounter.isSupported()) {
+            // the value without the key is the only new tuple, as above
+            double allocation = allocation(foreach, lr);
+            assertTrue("" + allocation, allocation < 4);
+        }
+    }
+
+    @Test
+    public void testFilterBatch() throws Exception {
+        PhysicalPlan pp = buildPlan("A = load 'input' as (a:int, b:int, c:chararray);",
+                "B = filter A by b < 50;",
+                "store B into 'output';");
+        POFilter filter = find(pp, POFilter.class);
+        filter.setInputs(null);
+        assertTrue(filter.supportsBatch());
+        filter.setBatchMode(true);
+        filter.attachInputBatch(rows());
+        List<Result> out = new ArrayList<Result>();
+        while (true) {
+            Result res = filter.getNext((Tuple)null);
+            if (res.returnStatus == POStatus.STATUS_EOP) {
+                break;
+            }
+            assertEquals(out.size(), ((Tuple)res.result).get(0));
+            out.add(res);
+        }
+        assertEquals(ROWS / 2, out.size());
+        for (Result res : out) {
+            assertSame(out.get(0), res);
+        }
+    }
+
+    /**
+     * Makes a new tuple of the first and the last field of each row, the
+     * way a foreach does when it does not reuse its output.
+     */
+    private static class NewTuple extends PhysicalOperator {
+
+        private static final long serialVersionUID = 1L;
+
+        NewTuple() {
+            super(new OperatorKey("test", 0));
+        }
+
+        @Override
+        public Result getNext(Tuple t) throws ExecException {
+            Result res = processInput();
+            if (res.returnStatus == POStatus.STATUS_OK) {
+                Tuple in = (Tuple)res.result;
+                Tuple out = TupleFactory.getInstance().newTuple();
+                out.append(in.get(0));
+                out.append(in.get(2));
+                res.result = out;
+            }
+            return res;
+        }
+
+        @Override
+        public void visit(PhyPlanVisitor v) throws VisitorException {
+        }
+
+        @Override
+        public String name() {
+            return "NewTuple";
+        }
+
+        @Override
+        public boolean supportsMultipleInputs() {
+            return false;
+        }
+
+        @Override
+        public boolean supportsMultipleOutputs() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.builtin.DoubleMax;
+import org.apache.pig.builtin.LongSum;
+import org.apache.pig.builtin.StringMin;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.logicalLayer.LOCogroup;
+import org.apache.pig.impl.logicalLayer.LOForEach;
+import org.apache.pig.impl.logicalLayer.LOJoin;
+import org.apache.pig.impl.logicalLayer.LOLoad;
+import org.apache.pig.impl.logicalLayer.LOUserFunc;
+import org.apache.pig.impl.logicalLayer.LogicalOperator;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.impl.logicalLayer.optimizer.LogicalOptimizer;
+import org.apache.pig.impl.logicalLayer.optimizer.PartialAggregationPushdown;
+import org.apache.pig.test.utils.LogicalPlanTester;
+import org.junit.Test;
+
+public class TestPartialAggregationPushdown extends TestCase {
+
+    private static final String FACT = "F = load 'fact' as (fk:int, v:int, d:double, s:chararray);";
+
+    private static final String DIM = "D = load 'dim' as (k:int, attr:chararray);";
+
+    private LogicalPlan optimize(boolean on, String... query) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(PartialAggregationPushdown.PARTIAL_AGGREGATION, Boolean.toString(on));
+        PigContext pc = new PigContext(ExecType.LOCAL, props);
+        pc.connect();
+        LogicalPlanTester planTester = new LogicalPlanTester(pc);
+        LogicalPlan lp = null;
+        for (String q : query) {
+            lp = planTester.buildPlan(q);
+        }
+        planTester.setPlan(lp);
+        planTester.typeCheckPlan(lp);
+        new LogicalOptimizer(lp, ExecType.LOCAL).optimize();
+        // the plan is checked again after it is optimized
+        planTester.typeCheckPlan(lp);
+        return lp;
+    }
+
+    private static <T> T find(LogicalPlan lp, Class<T> c) {
+        for (LogicalOperator op : lp) {
+            if (c.isInstance(op)) {
+                return c.cast(op);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the functions the foreach after the group of the join calls
+     */
+    private static List<String> aggregates(LogicalPlan lp) {
+        LOJoin join = find(lp, LOJoin.class);
+        LogicalOperator group = lp.getSuccessors(join).get(0);
+        LOForEach foreach = (LOForEach)lp.getSuccessors(group).get(0);
+        List<String> funcs = new ArrayList<String>();
+        for (LogicalPlan plan : foreach.getForEachPlans()) {
+            LogicalOperator leaf = plan.getLeaves().get(0);
+            if (leaf instanceof LOUserFunc) {
+                funcs.add(((LOUserFunc)leaf).getFuncSpec().getClassName());
+            }
+        }
+        return funcs;
+    }
+
+    /**
+     * @return whether the input of the join is the given load, grouped
+     * and aggregated
+     */
+    private static boolean isAggregated(LogicalPlan lp, int input, String alias) {
+        LOJoin join = find(lp, LOJoin.class);
+        LogicalOperator op = join.getInputs().get(input);
+        if (!(op instanceof LOForEach)) {
+            return false;
+        }
+        op = lp.getPredecessors(op).get(0);
+        if (!(op instanceof LOCogroup)) {
+            return false;
+        }
+        op = lp.getPredecessors(op).get(0);
+        while (op instanceof LOForEach) {
+            // the casts of the load
+            op = lp.getPredecessors(op).get(0);
+        }
+        return op instanceof LOLoad && alias.equals(op.getAlias());
+    }
+
+    @Test
+    public void testFactFirst() throws Exception {
+        LogicalPlan lp = optimize(true, FACT, DIM,
+                "J = join F by fk, D by k;",
+                "G = group J by attr;",
+                "R = foreach G generate group, SUM(J.v), COUNT(J), MIN(J.F::s);");
+        assertTrue(isAggregated(lp, 0, "F"));
+        List<String> funcs = aggregates(lp);
+        assertEquals(LongSum.class.getName(), funcs.get(0));
+        assertEquals(LongSum.class.getName(), funcs.get(1));
+        assertEquals(StringMin.class.getName(), funcs.get(2));
+        // the key, the three aggregates and the columns of the dimension
+        assertEquals(6, find(lp, LOJoin.class).getSchema().size());
+    }
+
+    @Test
+    public void testFactSecond() throws Exception {
+        LogicalPlan lp = optimize(true, DIM, FACT,
+                "J = join D by (k, attr), F by (fk, s);",
+                "G = group J by (attr, k);",
+                "R = foreach G generate flatten(group), MAX(J.d), COUNT_STAR(J);");
+        assertTrue(isAggregated(lp, 1, "F"));
+        List<String> funcs = aggregates(lp);
+        assertEquals(DoubleMax.class.getName(), funcs.get(0));
+        assertEquals(LongSum.class.getName(), funcs.get(1));
+        // the dimension and the two keys and two aggregates
+        assertEquals(6, find(lp, LOJoin.class).getSchema().size());
+    }
+
+    @Test
+    public void testNotPushed() throws Exception {
+        // the rule is off
+        LogicalPlan lp = optimize(false, FACT, DIM,
+                "J = join F by fk, D by k;",
+                "G = group J by attr;",
+                "R = foreach G generate group, SUM(J.v);");
+        assertFalse(isAggregated(lp, 0, "F"));
+
+        String[] queries = {
+                // the group is on the columns of both inputs
+                "G = group J by (attr, v); R = foreach G generate group, SUM(J.v);",
+                // an aggregate is of the dimension
+                "G = group J by attr; R = foreach G generate group, SUM(J.v), MAX(J.k);",
+                // an aggregate which cannot be aggregated again
+                "G = group J by attr; R = foreach G generate group, AVG(J.v);",
+                // the rows themselves are used
+                "G = group J by attr; R = foreach G generate group, J;" };
+        for (String q : queries) {
+            String[] statements = q.split("; ");
+            lp = optimize(true, FACT, DIM, "J = join F by fk, D by k;",
+                    statements[0] + ";", statements[1]);
+            assertFalse(q, isAggregated(lp, 0, "F"));
+        }
+
+        // nor for outer joins, or counts of rows whose first field is
+        // of the dimension
+        lp = optimize(true, FACT, DIM,
+                "J = join F by fk left outer, D by k;",
+                "G = group J by attr;",
+                "R = foreach G generate group, SUM(J.v);");
+        assertFalse(isAggregated(lp, 0, "F"));
+        lp = optimize(true, DIM, FACT,
+                "J = join D by k, F by fk;",
+                "G = group J by attr;",
+                "R = foreach G generate group, COUNT(J);");
+        assertFalse(isAggregated(lp, 1, "F"));
+    }
+}
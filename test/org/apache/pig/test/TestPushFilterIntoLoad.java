@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.ExecType;
+import org.apache.pig.Expression;
+import org.apache.pig.LoadFilterPushDown;
+import org.apache.pig.LoadMetadata;
+import org.apache.pig.LoadPushDown;
+import org.apache.pig.ResourceSchema;
+import org.apache.pig.ResourceStatistics;
+import org.apache.pig.builtin.PigStorage;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.logicalLayer.LOFilter;
+import org.apache.pig.impl.logicalLayer.LogicalOperator;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.impl.logicalLayer.optimizer.LogicalOptimizer;
+import org.apache.pig.test.utils.LogicalPlanTester;
+import org.junit.Test;
+
+public class TestPushFilterIntoLoad extends TestCase {
+
+    /**
+     * A loader with a schema which records the filter pushed into it, and
+     * which may not advertise that it accepts filters.
+     */
+    public static class FilterLoader extends PigStorage
+            implements LoadMetadata, LoadFilterPushDown {
+
+        static Expression pushed;
+
+        private final boolean filter;
+
+        public FilterLoader(String filter) {
+            this.filter = Boolean.parseBoolean(filter);
+        }
+
+        @Override
+        public List<OperatorSet> getFeatures() {
+            if (!filter) {
+                return super.getFeatures();
+            }
+            return Arrays.asList(LoadPushDown.OperatorSet.PROJECTION,
+                    LoadPushDown.OperatorSet.FILTER);
+        }
+
+        public void pushFilter(Expression filter) throws IOException {
+            pushed = filter;
+        }
+
+        public ResourceSchema getSchema(String location, Job job) throws IOException {
+            try {
+                return new ResourceSchema(Util.getSchemaFromString(
+                        "x:int, y:long, s:chararray, d:double"));
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        public ResourceStatistics getStatistics(String location, Job job) throws IOException {
+            return null;
+        }
+
+        public String[] getPartitionKeys(String location, Job job) throws IOException {
+            return null;
+        }
+
+        public void setPartitionFilter(Expression partitionFilter) throws IOException {
+        }
+    }
+
+    private LogicalPlan optimize(boolean filter, String condition) throws Exception {
+        FilterLoader.pushed = null;
+        PigContext pc = new PigContext(ExecType.LOCAL, new Properties());
+        pc.connect();
+        LogicalPlanTester planTester = new LogicalPlanTester(pc);
+        planTester.buildPlan("A = load 'a' using " + FilterLoader.class.getName()
+                + "('" + filter + "');");
+        LogicalPlan lp = planTester.buildPlan("B = filter A by " + condition + ";");
+        planTester.typeCheckPlan(lp);
+        new LogicalOptimizer(lp, ExecType.LOCAL).optimize();
+        return lp;
+    }
+
+    private static boolean hasFilter(LogicalPlan lp) {
+        for (LogicalOperator op : lp) {
+            if (op instanceof LOFilter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testPushed() throws Exception {
+        LogicalPlan lp = optimize(true, "x > 5 and 'b' <= s and y == 10");
+        assertEquals("(((x > 5) and ('b' <= s)) and (y == 10))",
+                FilterLoader.pushed.toString());
+        // the filter is still applied
+        assertTrue(hasFilter(lp));
+
+        // the constant is cast to the type of the column
+        optimize(true, "y < 3");
+        assertEquals("(y < 3)", FilterLoader.pushed.toString());
+        assertEquals(Long.class, ((Expression.Const)((Expression.BinaryExpression)
+                FilterLoader.pushed).getRhs()).getValue().getClass());
+
+        optimize(true, "x == 1 or d > 2.5");
+        assertEquals("((x == 1) or (d > 2.5))", FilterLoader.pushed.toString());
+    }
+
+    @Test
+    public void testPartlyPushed() throws Exception {
+        // the parts of an and which are not comparisons with constants
+        optimize(true, "x > 5 and SIZE(s) > 1 and s matches 'a.*' and x < y");
+        assertEquals("(x > 5)", FilterLoader.pushed.toString());
+
+        // but not of an or
+        optimize(true, "x > 5 or SIZE(s) > 1");
+        assertNull(FilterLoader.pushed);
+        optimize(true, "(x > 5 or SIZE(s) > 1) and s != 'a'");
+        assertEquals("(s != 'a')", FilterLoader.pushed.toString());
+
+        // the column is cast
+        optimize(true, "x > 2.5");
+        assertNull(FilterLoader.pushed);
+    }
+
+    @Test
+    public void testNotPushed() throws Exception {
+        LogicalPlan lp = optimize(false, "x > 5");
+        assertNull(FilterLoader.pushed);
+        assertTrue(hasFilter(lp));
+    }
+}
@@ -84,5 +84,23 @@ public class TestRegexp extends TestCase{
         assertEquals(POStatus.STATUS_OK, res.returnStatus);
         assertFalse((Boolean)res.result);
     }
-}
 
+    @Test
+    public void testChangingPattern() throws ExecException{
+        // the compiled pattern must follow the regular expression
+        lt.setValue(new String("abc"));
+        rt.setValue("a.c");
+        Result res = op.getNext(new Boolean(true));
+        assertTrue((Boolean)res.result);
+
+        lt.setValue(new String("abc"));
+        rt.setValue("x.c");
+        res = op.getNext(new Boolean(true));
+        assertFalse((Boolean)res.result);
+
+        lt.setValue(new String("xbc"));
+        rt.setValue("x.c");
+        res = op.getNext(new Boolean(true));
+        assertTrue((Boolean)res.result);
+    }
+}
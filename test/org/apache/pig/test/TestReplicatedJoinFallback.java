@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.ExecType;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.ReplicatedJoinFallback;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POBinCond;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POUnion;
+import org.apache.pig.builtin.BinStorage;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.BinStorageRecordWriter;
+import org.apache.pig.impl.io.FileSpec;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.test.utils.LogicalPlanTester;
+import org.junit.Test;
+
+public class TestReplicatedJoinFallback extends TestCase {
+
+    private PigContext pc;
+
+    private String replicated;
+
+    @Override
+    protected void setUp() throws Exception {
+        pc = new PigContext(ExecType.LOCAL, new Properties());
+        pc.connect();
+        File f = File.createTempFile("replicated", null);
+        f.deleteOnExit();
+        BinStorageRecordWriter writer = new BinStorageRecordWriter(
+                new DataOutputStream(new FileOutputStream(f)));
+        for (int i = 0; i < 100; i++) {
+            Tuple t = TupleFactory.getInstance().newTuple(2);
+            t.set(0, new DataByteArray(Integer.toString(i % 10)));
+            t.set(1, new DataByteArray("abcdefghij"));
+            writer.write(null, t);
+        }
+        writer.close(null);
+        replicated = f.getAbsolutePath();
+    }
+
+    private PhysicalPlan buildPhysicalPlan(String join) throws Exception {
+        LogicalPlanTester planTester = new LogicalPlanTester(pc);
+        planTester.buildPlan("A = load 'a' as (x, s);");
+        planTester.buildPlan("B = load 'b' as (x, s);");
+        planTester.buildPlan("D = load 'd' as (x, s);");
+        planTester.buildPlan("C = " + join + ";");
+        LogicalPlan lp = planTester.buildPlan("store C into 'output';");
+        planTester.typeCheckPlan(lp);
+        return Util.buildPhysicalPlan(lp, pc);
+    }
+
+    private static POFRJoin findJoin(PhysicalPlan pp) {
+        for (PhysicalOperator op : pp) {
+            if (op instanceof POFRJoin) {
+                return (POFRJoin)op;
+            }
+        }
+        return null;
+    }
+
+    private static <T> T find(PhysicalPlan pp, Class<T> c) {
+        for (PhysicalOperator op : pp) {
+            if (c.isInstance(op)) {
+                return c.cast(op);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the job of the replicated join of the plan, whose replicated
+     * input is read from the local file
+     */
+    private MapReduceOper findJoinJob(MROperPlan mrPlan) {
+        for (MapReduceOper mro : mrPlan) {
+            POFRJoin join = findJoin(mro.mapPlan);
+            if (join != null) {
+                join.setReplFiles(new FileSpec[] { null,
+                        new FileSpec(replicated, new FuncSpec(BinStorage.class.getName())) });
+                return mro;
+            }
+        }
+        return null;
+    }
+
+    private Configuration conf(String heap) {
+        Configuration conf = new Configuration();
+        conf.set("mapred.child.java.opts", "-Xmx" + heap);
+        return conf;
+    }
+
+    @Test
+    public void testCheck() throws Exception {
+        String join = "join A by x left outer, B by x using 'replicated'";
+        MROperPlan mrPlan = Util.buildMRPlan(buildPhysicalPlan(join), pc);
+        MapReduceOper mro = findJoinJob(mrPlan);
+        assertNotNull(mro);
+
+        // the replicated file is more than the 512 bytes the tasks may use
+        ReplicatedJoinFallback fallback = new ReplicatedJoinFallback(mrPlan, pc, conf("1k"));
+        MapReduceOper joinJob = fallback.check(mro);
+        assertNotNull(joinJob);
+        assertFalse(fallback.canFallBack(mro));
+        assertTrue(mrPlan.getSuccessors(joinJob).contains(mro));
+        assertNull(findJoin(mro.mapPlan));
+        assertNull(findJoin(joinJob.mapPlan));
+
+        // the fragment and the replicated file are rearranged by the key
+        assertEquals(2, joinJob.mapPlan.getRoots().size());
+        PhysicalOperator union = joinJob.mapPlan.getLeaves().get(0);
+        assertTrue(union instanceof POUnion);
+        assertEquals(1, joinJob.mapPlan.getLeaves().size());
+        for (PhysicalOperator op : joinJob.mapPlan.getPredecessors(union)) {
+            assertTrue(op instanceof POLocalRearrange);
+        }
+        POPackage pkg = (POPackage)joinJob.reducePlan.getRoots().get(0);
+        assertEquals(2, pkg.getNumInps());
+        assertTrue(pkg.getInner()[0]);
+        assertFalse(pkg.getInner()[1]);
+        POForEach fe = find(joinJob.reducePlan, POForEach.class);
+        assertNull(find(fe.getInputPlans().get(0), POBinCond.class));
+        assertNotNull(find(fe.getInputPlans().get(1), POBinCond.class));
+
+        // and the job reads the output of the join
+        POStore st = (POStore)joinJob.reducePlan.getLeaves().get(0);
+        POLoad ld = (POLoad)mro.mapPlan.getRoots().get(0);
+        assertEquals(st.getSFile().getFileName(), ld.getLFile().getFileName());
+        assertEquals(1, mro.mapPlan.getRoots().size());
+    }
+
+    @Test
+    public void testFallBack() throws Exception {
+        String join = "join A by x, B by x using 'replicated'";
+        MROperPlan mrPlan = Util.buildMRPlan(buildPhysicalPlan(join), pc);
+        MapReduceOper mro = findJoinJob(mrPlan);
+
+        // the file fits, and the job is kept as it is
+        ReplicatedJoinFallback fallback = new ReplicatedJoinFallback(mrPlan, pc, conf("1g"));
+        int size = mrPlan.size();
+        assertNull(fallback.check(mro));
+        assertTrue(fallback.canFallBack(mro));
+        assertEquals(size, mrPlan.size());
+
+        // as if it was compiled into a job and failed
+        mro.mapPlan = new PhysicalPlan();
+        MapReduceOper joinJob = fallback.fallBack(mro);
+        assertEquals(size + 1, mrPlan.size());
+        assertTrue(mrPlan.getSuccessors(joinJob).contains(mro));
+        assertNull(findJoin(mro.mapPlan));
+        assertTrue(mro.mapPlan.getRoots().get(0) instanceof POLoad);
+        POPackage pkg = (POPackage)joinJob.reducePlan.getRoots().get(0);
+        assertTrue(pkg.getInner()[0]);
+        assertTrue(pkg.getInner()[1]);
+        assertFalse(fallback.canFallBack(mro));
+    }
+
+    @Test
+    public void testMemoryGuard() throws Exception {
+        POFRJoin join = findJoin(buildPhysicalPlan("join A by x, B by x using 'replicated'"));
+        join.setReplFiles(new FileSpec[] { null,
+                new FileSpec(replicated, new FuncSpec(BinStorage.class.getName())) });
+        Tuple t = TupleFactory.getInstance().newTuple(2);
+        t.set(0, new DataByteArray("1"));
+        t.set(1, new DataByteArray("x"));
+
+        Configuration conf = new Configuration();
+        conf.set(POFRJoin.FALLBACK, "true");
+        conf.set(POFRJoin.MEMORY_USAGE, "0.0000001");
+        PigMapReduce.sJobConf = conf;
+        try {
+            join.attachInput(t);
+            join.getNext(t);
+            fail("The hash table should not fit");
+        } catch (ExecException e) {
+            assertEquals(POFRJoin.OVERFLOW_ERROR_CODE, e.getErrorCode());
+        } finally {
+            PigMapReduce.sJobConf = null;
+        }
+
+        // the same join fits without the guard
+        join = findJoin(buildPhysicalPlan("join A by x, B by x using 'replicated'"));
+        join.setReplFiles(new FileSpec[] { null,
+                new FileSpec(replicated, new FuncSpec(BinStorage.class.getName())) });
+        join.attachInput(t);
+        Result res = join.getNext(t);
+        assertEquals(POStatus.STATUS_OK, res.returnStatus);
+        assertEquals(4, ((Tuple)res.result).size());
+    }
+
+    @Test
+    public void testMemoryGuardOfAllInputs() throws Exception {
+        // double the budget until one replicated input fits, so it is less
+        // than twice the size of its hash table
+        long bytes = 1;
+        while (!fits("join A by x, B by x using 'replicated'", 1, bytes)) {
+            bytes *= 2;
+        }
+        // the hash tables of both inputs are in memory together
+        assertFalse(fits("join A by x, B by x, D by x using 'replicated'", 2, bytes));
+        assertTrue(fits("join A by x, B by x, D by x using 'replicated'", 2, bytes * 2));
+    }
+
+    /**
+     * @return true if the hash tables of the given number of replicated
+     * inputs, all of them the replicated file, fit in the given budget
+     */
+    private boolean fits(String join, int inputs, long bytes) throws Exception {
+        POFRJoin frj = findJoin(buildPhysicalPlan(join));
+        FileSpec[] replFiles = new FileSpec[inputs + 1];
+        for (int i = 1; i <= inputs; i++) {
+            replFiles[i] = new FileSpec(replicated, new FuncSpec(BinStorage.class.getName()));
+        }
+        frj.setReplFiles(replFiles);
+        Tuple t = TupleFactory.getInstance().newTuple(2);
+        t.set(0, new DataByteArray("1"));
+        t.set(1, new DataByteArray("x"));
+
+        Configuration conf = new Configuration();
+        conf.set(POFRJoin.FALLBACK, "true");
+        conf.set(POFRJoin.MEMORY_USAGE,
+                Double.toString((double)bytes / Runtime.getRuntime().maxMemory()));
+        PigMapReduce.sJobConf = conf;
+        try {
+            frj.attachInput(t);
+            frj.getNext(t);
+            return true;
+        } catch (ExecException e) {
+            assertEquals(POFRJoin.OVERFLOW_ERROR_CODE, e.getErrorCode());
+            return false;
+        } finally {
+            PigMapReduce.sJobConf = null;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Add;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryComparisonOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Divide;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.EqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GreaterThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.LessThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Multiply;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POAnd;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POBinCond;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POIsNull;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PONegative;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PONot;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POOr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorizedExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.junit.Test;
+
+/**
+ * Checks that expression plans evaluated on batches of tuples give the same
+ * results as the interpreted operators, and that filters and foreachs give
+ * the same output in batch mode.
+ */
+public class TestVectorizedExpression extends TestCase {
+
+    // columns of the input tuples
+    private static final int X = 0, Y = 1, DX = 2, DY = 3, S = 4;
+
+    private Random r = new Random(17);
+
+    private PhysicalPlan plan;
+
+    private List<Tuple> genInput(int n) throws ExecException {
+        List<Tuple> input = new ArrayList<Tuple>();
+        TupleFactory tf = TupleFactory.getInstance();
+        for (int i = 0; i < n; i++) {
+            Tuple t = tf.newTuple(5);
+            t.set(X, maybeNull(r.nextInt(5) - 2));
+            t.set(Y, maybeNull(r.nextInt(5) - 2));
+            t.set(DX, maybeNull((double)r.nextInt(5) / 2));
+            t.set(DY, maybeNull((double)r.nextInt(5) / 2));
+            t.set(S, maybeNull(r.nextBoolean() ? "a" : "b"));
+            input.add(t);
+        }
+        return input;
+    }
+
+    private Object maybeNull(Object o) {
+        return r.nextInt(5) == 0 ? null : o;
+    }
+
+    private OperatorKey key() {
+        return new OperatorKey("", r.nextLong());
+    }
+
+    private POProject project(int column, byte type) throws PlanException {
+        POProject prj = new POProject(key(), -1, column);
+        prj.setResultType(type);
+        plan.add(prj);
+        return prj;
+    }
+
+    private ConstantExpression constant(Object value, byte type) throws PlanException {
+        ConstantExpression c = new ConstantExpression(key());
+        c.setValue(value);
+        c.setResultType(type);
+        plan.add(c);
+        return c;
+    }
+
+    private <T extends BinaryExpressionOperator> T binary(T op,
+            ExpressionOperator lhs, ExpressionOperator rhs, byte type)
+            throws PlanException {
+        op.setLhs(lhs);
+        op.setRhs(rhs);
+        op.setResultType(type);
+        plan.add(op);
+        plan.connect(lhs, op);
+        plan.connect(rhs, op);
+        return op;
+    }
+
+    private <T extends BinaryComparisonOperator> T compare(T op,
+            ExpressionOperator lhs, ExpressionOperator rhs, byte operandType)
+            throws PlanException {
+        binary(op, lhs, rhs, DataType.BOOLEAN);
+        op.setOperandType(operandType);
+        return op;
+    }
+
+    private Object eval(ExpressionOperator op, byte type) throws ExecException {
+        Result res;
+        switch (type) {
+        case DataType.INTEGER: res = op.getNext((Integer)null); break;
+        case DataType.DOUBLE: res = op.getNext((Double)null); break;
+        case DataType.BOOLEAN: res = op.getNext((Boolean)null); break;
+        case DataType.CHARARRAY: res = op.getNext((String)null); break;
+        default: throw new AssertionError("unexpected type " + type);
+        }
+        assertTrue(res.returnStatus == POStatus.STATUS_OK
+                || res.returnStatus == POStatus.STATUS_NULL);
+        return res.result;
+    }
+
+    private void checkSameResults(ExpressionOperator op) throws ExecException {
+        VectorizedExpression vectorized = VectorizedExpression.compile(plan);
+        assertNotNull(vectorized);
+        List<Tuple> batch = genInput(300);
+        vectorized.evaluate(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            plan.attachInput(batch.get(i));
+            assertEquals(batch.get(i).toString(),
+                    eval(op, op.getResultType()), vectorized.get(i));
+        }
+    }
+
+    /**
+     * (x > y or s is null) and not (dx == dy)
+     */
+    private ExpressionOperator predicate() throws PlanException {
+        ExpressionOperator gt = compare(new GreaterThanExpr(key()),
+                project(X, DataType.INTEGER), project(Y, DataType.INTEGER), DataType.INTEGER);
+        POIsNull isNull = new POIsNull(key(), -1, project(S, DataType.CHARARRAY));
+        isNull.setOperandType(DataType.CHARARRAY);
+        isNull.setResultType(DataType.BOOLEAN);
+        plan.add(isNull);
+        plan.connect(isNull.getExpr(), isNull);
+        ExpressionOperator or = binary(new POOr(key()), gt, isNull, DataType.BOOLEAN);
+        ExpressionOperator eq = compare(new EqualToExpr(key()),
+                project(DX, DataType.DOUBLE), project(DY, DataType.DOUBLE), DataType.DOUBLE);
+        PONot not = new PONot(key());
+        not.setExpr(eq);
+        not.setResultType(DataType.BOOLEAN);
+        plan.add(not);
+        plan.connect(eq, not);
+        return binary(new POAnd(key()), or, not, DataType.BOOLEAN);
+    }
+
+    /**
+     * dx < dy ? dx / dy : -dx
+     */
+    private ExpressionOperator binCond() throws PlanException {
+        ExpressionOperator lt = compare(new LessThanExpr(key()),
+                project(DX, DataType.DOUBLE), project(DY, DataType.DOUBLE), DataType.DOUBLE);
+        ExpressionOperator div = binary(new Divide(key()),
+                project(DX, DataType.DOUBLE), project(DY, DataType.DOUBLE), DataType.DOUBLE);
+        PONegative neg = new PONegative(key(), -1, project(DX, DataType.DOUBLE));
+        neg.setResultType(DataType.DOUBLE);
+        plan.add(neg);
+        plan.connect(neg.getExpr(), neg);
+        POBinCond bincond = new POBinCond(key(), -1, lt, div, neg);
+        bincond.setResultType(DataType.DOUBLE);
+        plan.add(bincond);
+        plan.connect(lt, bincond);
+        plan.connect(div, bincond);
+        plan.connect(neg, bincond);
+        return bincond;
+    }
+
+    @Test
+    public void testArithmetic() throws Exception {
+        // (x + y) * x / y
+        plan = new PhysicalPlan();
+        ExpressionOperator sum = binary(new Add(key()),
+                project(X, DataType.INTEGER), project(Y, DataType.INTEGER), DataType.INTEGER);
+        ExpressionOperator times = binary(new Multiply(key()),
+                sum, project(X, DataType.INTEGER), DataType.INTEGER);
+        checkSameResults(binary(new Divide(key()),
+                times, project(Y, DataType.INTEGER), DataType.INTEGER));
+    }
+
+    @Test
+    public void testBooleanLogic() throws Exception {
+        plan = new PhysicalPlan();
+        checkSameResults(predicate());
+    }
+
+    @Test
+    public void testBinCond() throws Exception {
+        plan = new PhysicalPlan();
+        checkSameResults(binCond());
+    }
+
+    @Test
+    public void testConstant() throws Exception {
+        plan = new PhysicalPlan();
+        checkSameResults(constant("c", DataType.CHARARRAY));
+    }
+
+    @Test
+    public void testFilterAndForEachBatchMode() throws Exception {
+        plan = new PhysicalPlan();
+        predicate();
+        POFilter filter = new POFilter(key());
+        filter.setPlan(plan);
+
+        List<PhysicalPlan> plans = new ArrayList<PhysicalPlan>();
+        List<Boolean> flattens = new ArrayList<Boolean>();
+        plan = new PhysicalPlan();
+        binary(new Add(key()),
+                project(X, DataType.INTEGER), project(Y, DataType.INTEGER), DataType.INTEGER);
+        plans.add(plan);
+        plan = new PhysicalPlan();
+        project(S, DataType.CHARARRAY);
+        plans.add(plan);
+        plan = new PhysicalPlan();
+        binCond();
+        plans.add(plan);
+        for (int i = 0; i < plans.size(); i++) {
+            flattens.add(false);
+        }
+        POForEach foreach = new POForEach(key(), -1, plans, flattens);
+        List<PhysicalOperator> inputs = new ArrayList<PhysicalOperator>();
+        inputs.add(filter);
+        foreach.setInputs(inputs);
+
+        assertTrue(filter.supportsBatch());
+        assertTrue(foreach.supportsBatch());
+
+        List<Tuple> input = genInput(1000);
+        List<Tuple> expected = new ArrayList<Tuple>();
+        for (Tuple t : input) {
+            filter.attachInput(t);
+            for (Result res = foreach.getNext((Tuple)null);
+                    res.returnStatus != POStatus.STATUS_EOP;
+                    res = foreach.getNext((Tuple)null)) {
+                assertEquals(POStatus.STATUS_OK, res.returnStatus);
+                expected.add((Tuple)res.result);
+            }
+        }
+        assertFalse(expected.isEmpty());
+
+        filter.setBatchMode(true);
+        foreach.setBatchMode(true);
+        List<Tuple> actual = new ArrayList<Tuple>();
+        for (int start = 0; start < input.size(); start += 64) {
+            filter.attachInputBatch(input.subList(start,
+                    Math.min(start + 64, input.size())));
+            for (Result res = foreach.getNext((Tuple)null);
+                    res.returnStatus != POStatus.STATUS_EOP;
+                    res = foreach.getNext((Tuple)null)) {
+                assertEquals(POStatus.STATUS_OK, res.returnStatus);
+                actual.add((Tuple)res.result);
+            }
+        }
+        assertEquals(expected, actual);
+    }
+}
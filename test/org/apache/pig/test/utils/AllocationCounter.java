@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Measures the bytes allocated per input row by a pipeline of physical
+ * operators, using the per thread allocation counter of the HotSpot
+ * ThreadMXBean. The input rows are made before measuring, so only the
+ * allocations of the operators are counted.
+ */
+public class AllocationCounter {
+
+    private static final Object threadBean = ManagementFactory.getThreadMXBean();
+    private static Method allocatedBytes;
+    static {
+        try {
+            allocatedBytes = threadBean.getClass().getMethod(
+                    "getThreadAllocatedBytes", long.class);
+            allocatedBytes.setAccessible(true);
+            allocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            allocatedBytes = null;
+        }
+    }
+
+    /**
+     * @return whether the JVM counts the allocations of threads
+     */
+    public static boolean isSupported() {
+        return allocatedBytes != null;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far
+     */
+    public static long allocatedBytes() {
+        try {
+            return (Long)allocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            throw new IllegalStateException("Allocation counting is not supported", e);
+        }
+    }
+
+    /**
+     * Pushes the rows through the pipeline a few times to let the JIT
+     * compile it, and then counts the allocations of further runs until the
+     * least count has not gone down for a second, as the JIT compiles in the
+     * background and may take a while to remove the allocations which do
+     * not escape.
+     * @param first the operator the rows are attached to
+     * @param last the operator whose output is pulled
+     * @param rows the input rows
+     * @return the least bytes allocated per row
+     */
+    public static double bytesPerRow(PhysicalOperator first,
+            PhysicalOperator last, List<Tuple> rows) throws ExecException {
+        for (int i = 0; i < 5; i++) {
+            run(first, last, rows);
+        }
+        long least = Long.MAX_VALUE;
+        long end = System.currentTimeMillis() + 30000;
+        long lastDrop = System.currentTimeMillis();
+        while (System.currentTimeMillis() - lastDrop < 1000
+                && System.currentTimeMillis() < end) {
+            long start = allocatedBytes();
+            run(first, last, rows);
+            long bytes = allocatedBytes() - start;
+            if (bytes < least) {
+                least = bytes;
+                lastDrop = System.currentTimeMillis();
+            }
+        }
+        return (double)least / rows.size();
+    }
+
+    private static void run(PhysicalOperator first, PhysicalOperator last,
+            List<Tuple> rows) throws ExecException {
+        for (int i = 0; i < rows.size(); i++) {
+            first.attachInput(rows.get(i));
+            while (true) {
+                Result res = last.getNext((Tuple)null);
+                if (res.returnStatus == POStatus.STATUS_EOP) {
+                    break;
+                }
+                if (res.returnStatus == POStatus.STATUS_ERR) {
+                    throw new ExecException("Error in the pipeline");
+                }
+            }
+        }
+    }
+}